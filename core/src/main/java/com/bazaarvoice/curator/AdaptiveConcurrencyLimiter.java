@@ -0,0 +1,322 @@
+package com.bazaarvoice.curator;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limits the number of requests in flight with an AIMD (additive increase, multiplicative decrease) limit.
+ * <p>
+ * The limit grows by about one for every {@code limit} requests that complete in time while the limiter is at least
+ * half used, and shrinks by {@code backoffRatio} when a request is dropped or takes longer than
+ * {@code latencyThreshold}, at most once per round trip.
+ * </p>
+ * <p>
+ * Requests are admitted through two lanes.  Critical requests go beyond the limit: they are admitted right away, even
+ * when normal requests are queued, and only wait once {@code maxLimit} requests are in flight.  Then they wait in a
+ * lane of their own, which is always drained before the queue of normal requests.  Normal requests beyond the limit
+ * wait in their queue.  Each lane is first in, first out, but a critical request overtakes normal requests that are
+ * waiting.  Critical requests count towards the limit, so they push normal requests back.
+ * </p>
+ * <p>
+ * Blocking callers wait at most {@code maxWait} and then go ahead regardless, ahead of the requests still queued in their
+ * lane, so that a caller that happens to hold up the completion of other requests can't deadlock.
+ * </p>
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    private final int _minLimit;
+    private final int _maxLimit;
+    private final double _backoffRatio;
+    private final long _latencyThresholdNanos;
+    private final long _maxWaitNanos;
+    private final Ticker _ticker;
+
+    // All guarded by this
+    private double _limit;
+    private int _inFlight;
+    private long _decreases;
+    private final Deque<Pending> _critical = new ArrayDeque<>();
+    private final Deque<Pending> _normal = new ArrayDeque<>();
+
+    private AdaptiveConcurrencyLimiter(Builder builder) {
+        _minLimit = builder._minLimit;
+        checkArgument(_minLimit > 0, "minLimit must be positive");
+        _maxLimit = builder._maxLimit;
+        checkArgument(_maxLimit >= _minLimit, "maxLimit must not be less than minLimit");
+        checkArgument(builder._initialLimit >= _minLimit && builder._initialLimit <= _maxLimit,
+                "initialLimit must be between minLimit and maxLimit");
+        _backoffRatio = builder._backoffRatio;
+        checkArgument(_backoffRatio > 0 && _backoffRatio < 1, "backoffRatio must be between 0 and 1");
+        _latencyThresholdNanos = builder._latencyThresholdUnit.toNanos(builder._latencyThreshold);
+        checkArgument(_latencyThresholdNanos > 0, "latencyThreshold must be positive");
+        _maxWaitNanos = builder._maxWaitUnit.toNanos(builder._maxWait);
+        checkArgument(_maxWaitNanos >= 0, "maxWait must not be negative");
+        _ticker = Objects.requireNonNull(builder._ticker, "ticker");
+
+        _limit = builder._initialLimit;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Runs an asynchronous request now if it's admitted, or later when another request completes.  The request must
+     * eventually release the permit, typically from its completion callback.
+     *
+     * @param critical Whether the request may go beyond the limit and ahead of queued normal requests.
+     * @param request Sends the request.
+     */
+    public void execute(boolean critical, final Consumer<Permit> request) {
+        Permit permit;
+        synchronized (this) {
+            if (!admit(critical)) {
+                lane(critical).add(new Pending() {
+                    @Override
+                    void dispatch() {
+                        run(request, _permit);
+                    }
+                });
+                return;
+            }
+            permit = new Permit();
+        }
+        try {
+            request.accept(permit);
+        } catch (RuntimeException e) {
+            permit.release(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until a blocking request is admitted, but no longer than {@code maxWait}.
+     *
+     * @param critical Whether the request may go beyond the limit and ahead of queued normal requests.
+     * @return The permit, which must be released when the request completes.
+     */
+    public Permit acquire(boolean critical) throws InterruptedException {
+        Waiter waiter;
+        Deque<Pending> lane;
+        synchronized (this) {
+            if (admit(critical)) {
+                return new Permit();
+            }
+            waiter = new Waiter();
+            lane = lane(critical);
+            lane.add(waiter);
+        }
+
+        try {
+            if (!waiter._dispatched.await(_maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                synchronized (this) {
+                    if (lane.remove(waiter)) {
+                        // Waited long enough, go ahead beyond the limit.
+                        _inFlight++;
+                        return new Permit();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                if (lane.remove(waiter)) {
+                    throw e;
+                }
+            }
+            waiter._permit.release(false);
+            throw e;
+        }
+        // Either dispatched in time, or just as the wait ran out.  Either way the permit was assigned while dequeuing.
+        return waiter._permit;
+    }
+
+    public synchronized int getLimit() {
+        return (int) _limit;
+    }
+
+    public synchronized int getInFlight() {
+        return _inFlight;
+    }
+
+    public synchronized int getPending() {
+        return _critical.size() + _normal.size();
+    }
+
+    /** Takes a permit if the request may go now, without overtaking requests queued in its own lane. */
+    private boolean admit(boolean critical) {
+        if (critical) {
+            if (!_critical.isEmpty() || _inFlight >= _maxLimit) {
+                return false;
+            }
+        } else if (!_critical.isEmpty() || !_normal.isEmpty() || _inFlight >= (int) _limit) {
+            return false;
+        }
+        _inFlight++;
+        return true;
+    }
+
+    private Deque<Pending> lane(boolean critical) {
+        return critical ? _critical : _normal;
+    }
+
+    private void release(Permit permit, boolean dropped) {
+        List<Pending> dispatch = new ArrayList<>();
+        synchronized (this) {
+            long now = _ticker.read();
+            if (dropped || now - permit._startNanos > _latencyThresholdNanos) {
+                // Only back off once for all the requests that were sent before the last time the limit was lowered.
+                if (permit._decreases == _decreases) {
+                    _limit = Math.max(_minLimit, _limit * _backoffRatio);
+                    _decreases++;
+                }
+            } else if (_inFlight * 2 >= _limit) {
+                _limit = Math.min(_maxLimit, _limit + 1 / _limit);
+            }
+            _inFlight--;
+
+            // The critical lane goes first, normal requests only get the room that is left under the limit.
+            while (!_critical.isEmpty() && _inFlight < _maxLimit) {
+                dispatch.add(dequeue(_critical));
+            }
+            while (_critical.isEmpty() && !_normal.isEmpty() && _inFlight < (int) _limit) {
+                dispatch.add(dequeue(_normal));
+            }
+        }
+        for (Pending pending : dispatch) {
+            pending.dispatch();
+        }
+    }
+
+    private Pending dequeue(Deque<Pending> lane) {
+        _inFlight++;
+        Pending pending = lane.remove();
+        pending._permit = new Permit();
+        return pending;
+    }
+
+    private static void run(Consumer<Permit> request, Permit permit) {
+        try {
+            request.accept(permit);
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to send queued request", e);
+            permit.release(false);
+        }
+    }
+
+    /** The right to have one request in flight.  Only created while holding the limiter's lock. */
+    public final class Permit {
+        private final long _startNanos = _ticker.read();
+        private final long _decreases = AdaptiveConcurrencyLimiter.this._decreases;
+        private final AtomicBoolean _released = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        /**
+         * Gives up the permit and adapts the limit to how the request went.  Only the first call has any effect.
+         *
+         * @param dropped Whether the request failed in a way that suggests overload, like a timeout.
+         */
+        public void release(boolean dropped) {
+            if (_released.compareAndSet(false, true)) {
+                AdaptiveConcurrencyLimiter.this.release(this, dropped);
+            }
+        }
+    }
+
+    /** A request waiting for a permit, which is assigned while holding the limiter's lock. */
+    private abstract static class Pending {
+        Permit _permit;
+
+        abstract void dispatch();
+    }
+
+    private static final class Waiter extends Pending {
+        private final CountDownLatch _dispatched = new CountDownLatch(1);
+
+        @Override
+        void dispatch() {
+            _dispatched.countDown();
+        }
+    }
+
+    /**
+     * Builds {@link AdaptiveConcurrencyLimiter} instances.  By default the limit starts at 20 and stays between 4 and
+     * 200, backs off by 10% when a request takes longer than 250 milliseconds and blocking callers wait up to 5
+     * seconds.
+     */
+    public static class Builder {
+        private int _initialLimit = 20;
+        private int _minLimit = 4;
+        private int _maxLimit = 200;
+        private double _backoffRatio = 0.9;
+        private long _latencyThreshold = 250;
+        private TimeUnit _latencyThresholdUnit = TimeUnit.MILLISECONDS;
+        private long _maxWait = 5;
+        private TimeUnit _maxWaitUnit = TimeUnit.SECONDS;
+        private Ticker _ticker = Ticker.systemTicker();
+
+        private Builder() {
+        }
+
+        public Builder initialLimit(int initialLimit) {
+            _initialLimit = initialLimit;
+            return this;
+        }
+
+        public Builder minLimit(int minLimit) {
+            _minLimit = minLimit;
+            return this;
+        }
+
+        public Builder maxLimit(int maxLimit) {
+            _maxLimit = maxLimit;
+            return this;
+        }
+
+        /** @param backoffRatio The factor the limit is multiplied by when requests are slow or dropped. */
+        public Builder backoffRatio(double backoffRatio) {
+            _backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /** @param latencyThreshold Requests that take longer than this are taken as a sign of overload. */
+        public Builder latencyThreshold(long latencyThreshold, TimeUnit unit) {
+            _latencyThreshold = latencyThreshold;
+            _latencyThresholdUnit = unit;
+            return this;
+        }
+
+        /** @param maxWait How long blocking callers wait for a permit before they go ahead regardless. */
+        public Builder maxWait(long maxWait, TimeUnit unit) {
+            _maxWait = maxWait;
+            _maxWaitUnit = unit;
+            return this;
+        }
+
+        @VisibleForTesting
+        Builder ticker(Ticker ticker) {
+            _ticker = ticker;
+            return this;
+        }
+
+        public AdaptiveConcurrencyLimiter build() {
+            return new AdaptiveConcurrencyLimiter(this);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.bazaarvoice.curator;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import org.apache.curator.RetryPolicy;
+import org.apache.curator.RetrySleeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A retry policy that backs off exponentially with jitter, and limits the rate of retries across all operations that
+ * use it, so that clients shed retries instead of amplifying load while the ensemble is struggling.
+ * <p>
+ * Every retry takes a token from a bucket that holds at most {@code retryBudget} tokens and is refilled at
+ * {@code retryBudgetPerSecond}.  When the bucket is empty operations fail instead of retrying.  If at least
+ * {@code tripRatio} of the retries over the last {@code tripAfter} were refused, and more than a burst of them,
+ * failures are evidently arriving faster than the budget allows for a sustained period, and the policy trips open: for
+ * {@code openDuration} no retries are allowed at all, without taking tokens.  After that it closes again with the
+ * bucket refilled by the time that has passed.
+ * </p>
+ * <p>
+ * Curator only consults the retry policy after a failure, so first attempts are never delayed or refused.  Share a
+ * single instance between all operations of a client, the budget and the breaker are per instance.
+ * </p>
+ */
+public class AdaptiveRetryPolicy implements RetryPolicy {
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveRetryPolicy.class);
+
+    /** The largest shift that keeps the exponential sleep from overflowing, like Curator's exponential policies. */
+    private static final int MAX_SHIFT = 29;
+
+    /** The number of slots the trip window slides by, so attempts expire a tenth of the window at a time. */
+    private static final int WINDOW_SLOTS = 10;
+
+    private final long _baseSleepTimeMs;
+    private final long _maxSleepTimeMs;
+    private final int _maxRetries;
+    private final double _retryBudget;
+    private final double _retryBudgetPerSecond;
+    private final long _tripAfterNanos;
+    private final double _tripRatio;
+    private final long _slotNanos;
+    private final long _openNanos;
+    private final Ticker _ticker;
+
+    // All guarded by this
+    private double _tokens;
+    private long _refilledAtNanos;
+    private final long[] _allowed = new long[WINDOW_SLOTS];
+    private final long[] _refused = new long[WINDOW_SLOTS];
+    private long _slot;
+    private long _openUntilNanos;
+    private boolean _open;
+
+    protected AdaptiveRetryPolicy(Builder builder) {
+        _baseSleepTimeMs = builder._baseSleepTimeUnit.toMillis(builder._baseSleepTime);
+        checkArgument(_baseSleepTimeMs > 0, "baseSleepTime must be at least a millisecond");
+        _maxSleepTimeMs = builder._maxSleepTimeUnit.toMillis(builder._maxSleepTime);
+        checkArgument(_maxSleepTimeMs >= _baseSleepTimeMs, "maxSleepTime must not be less than baseSleepTime");
+        _maxRetries = builder._maxRetries;
+        checkArgument(_maxRetries >= 0, "maxRetries must not be negative");
+        _retryBudget = builder._retryBudget;
+        checkArgument(_retryBudget >= 1, "retryBudget must be at least 1");
+        _retryBudgetPerSecond = builder._retryBudgetPerSecond;
+        checkArgument(_retryBudgetPerSecond > 0, "retryBudgetPerSecond must be positive");
+        _tripAfterNanos = builder._tripAfterUnit.toNanos(builder._tripAfter);
+        checkArgument(_tripAfterNanos > 0, "tripAfter must be positive");
+        _tripRatio = builder._tripRatio;
+        checkArgument(_tripRatio > 0 && _tripRatio <= 1, "tripRatio must be greater than 0 and at most 1");
+        _slotNanos = Math.max(1, _tripAfterNanos / WINDOW_SLOTS);
+        _openNanos = builder._openDurationUnit.toNanos(builder._openDuration);
+        checkArgument(_openNanos > 0, "openDuration must be positive");
+        _ticker = Objects.requireNonNull(builder._ticker, "ticker");
+
+        _tokens = _retryBudget;
+        _refilledAtNanos = _ticker.read();
+        _slot = _refilledAtNanos / _slotNanos;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return A policy with the same settings as this one, but with its own full budget and a closed breaker.
+     */
+    public AdaptiveRetryPolicy newInstance() {
+        return new AdaptiveRetryPolicy(toBuilder());
+    }
+
+    private Builder toBuilder() {
+        return builder()
+                .baseSleepTime(_baseSleepTimeMs, TimeUnit.MILLISECONDS)
+                .maxSleepTime(_maxSleepTimeMs, TimeUnit.MILLISECONDS)
+                .maxRetries(_maxRetries)
+                .retryBudget(_retryBudget)
+                .retryBudgetPerSecond(_retryBudgetPerSecond)
+                .tripAfter(_tripAfterNanos, TimeUnit.NANOSECONDS)
+                .tripRatio(_tripRatio)
+                .openDuration(_openNanos, TimeUnit.NANOSECONDS)
+                .ticker(_ticker);
+    }
+
+    @Override
+    public boolean allowRetry(int retryCount, long elapsedTimeMs, RetrySleeper sleeper) {
+        if (retryCount >= _maxRetries || !tryAcquire()) {
+            return false;
+        }
+
+        try {
+            sleeper.sleepFor(getSleepTimeMs(retryCount), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /** @return True if retries are currently refused because the rate of failures tripped the breaker. */
+    public synchronized boolean isOpen() {
+        return _open && _ticker.read() - _openUntilNanos < 0;
+    }
+
+    /**
+     * Takes a token for a retry, unless the breaker is open or the budget is exhausted.
+     *
+     * @return True if the retry may go ahead.
+     */
+    @VisibleForTesting
+    synchronized boolean tryAcquire() {
+        long now = _ticker.read();
+        if (_open) {
+            if (now - _openUntilNanos < 0) {
+                return false;
+            }
+            LOG.info("Allowing ZooKeeper retries again");
+            _open = false;
+        }
+
+        _tokens = Math.min(_retryBudget, _tokens + (now - _refilledAtNanos) * _retryBudgetPerSecond / 1e9);
+        _refilledAtNanos = now;
+        int slot = slide(now);
+        if (_tokens >= 1) {
+            _tokens -= 1;
+            _allowed[slot]++;
+            return true;
+        }
+
+        _refused[slot]++;
+        long allowed = 0;
+        long refused = 0;
+        for (int i = 0; i < WINDOW_SLOTS; i++) {
+            allowed += _allowed[i];
+            refused += _refused[i];
+        }
+        if (refused > _retryBudget && refused >= _tripRatio * (allowed + refused)) {
+            LOG.warn("ZooKeeper retries exceeded their budget, {} of {} refused in the last {} ms, " +
+                            "refusing all retries for {} ms", refused, allowed + refused,
+                    TimeUnit.NANOSECONDS.toMillis(_tripAfterNanos), TimeUnit.NANOSECONDS.toMillis(_openNanos));
+            _open = true;
+            _openUntilNanos = now + _openNanos;
+            Arrays.fill(_allowed, 0);
+            Arrays.fill(_refused, 0);
+        }
+        return false;
+    }
+
+    /**
+     * Moves the trip window up to the slot of the given time, forgetting the attempts in slots that fell out of it.
+     *
+     * @return The index of the current slot.
+     */
+    private int slide(long now) {
+        long slot = now / _slotNanos;
+        for (long expired = Math.max(_slot + 1, slot - WINDOW_SLOTS + 1); expired <= slot; expired++) {
+            int index = (int) Math.floorMod(expired, (long) WINDOW_SLOTS);
+            _allowed[index] = 0;
+            _refused[index] = 0;
+        }
+        _slot = Math.max(_slot, slot);
+        return (int) Math.floorMod(_slot, (long) WINDOW_SLOTS);
+    }
+
+    /**
+     * Picks a sleep time uniformly between half the base sleep time and the exponentially growing ceiling, which starts
+     * at the base sleep time, so that clients that failed at the same time don't all retry at the same time, not even
+     * the first time.
+     */
+    @VisibleForTesting
+    long getSleepTimeMs(int retryCount) {
+        long ceiling = Math.min(_maxSleepTimeMs, _baseSleepTimeMs << Math.min(retryCount, MAX_SHIFT));
+        return ThreadLocalRandom.current().nextLong(_baseSleepTimeMs / 2, ceiling + 1);
+    }
+
+    /**
+     * Builds {@link AdaptiveRetryPolicy} instances.  By default operations are retried up to 5 times, sleeping between
+     * 50 milliseconds and 5 seconds.  The budget allows bursts of 20 retries and 10 retries per second after that, the
+     * breaker trips when half of the retries over 10 seconds were refused and stays open for 30 seconds.
+     */
+    public static class Builder {
+        private long _baseSleepTime = 100;
+        private TimeUnit _baseSleepTimeUnit = TimeUnit.MILLISECONDS;
+        private long _maxSleepTime = 5;
+        private TimeUnit _maxSleepTimeUnit = TimeUnit.SECONDS;
+        private int _maxRetries = 5;
+        private double _retryBudget = 20;
+        private double _retryBudgetPerSecond = 10;
+        private long _tripAfter = 10;
+        private TimeUnit _tripAfterUnit = TimeUnit.SECONDS;
+        private double _tripRatio = 0.5;
+        private long _openDuration = 30;
+        private TimeUnit _openDurationUnit = TimeUnit.SECONDS;
+        private Ticker _ticker = Ticker.systemTicker();
+
+        private Builder() {
+        }
+
+        public Builder baseSleepTime(long baseSleepTime, TimeUnit unit) {
+            _baseSleepTime = baseSleepTime;
+            _baseSleepTimeUnit = unit;
+            return this;
+        }
+
+        public Builder maxSleepTime(long maxSleepTime, TimeUnit unit) {
+            _maxSleepTime = maxSleepTime;
+            _maxSleepTimeUnit = unit;
+            return this;
+        }
+
+        /** @param maxRetries The maximum number of retries of a single operation. */
+        public Builder maxRetries(int maxRetries) {
+            _maxRetries = maxRetries;
+            return this;
+        }
+
+        /** @param retryBudget The number of retries that may happen in a burst. */
+        public Builder retryBudget(double retryBudget) {
+            _retryBudget = retryBudget;
+            return this;
+        }
+
+        /** @param retryBudgetPerSecond The sustained number of retries per second. */
+        public Builder retryBudgetPerSecond(double retryBudgetPerSecond) {
+            _retryBudgetPerSecond = retryBudgetPerSecond;
+            return this;
+        }
+
+        /** @param tripAfter The sliding window over which the refused retries are counted. */
+        public Builder tripAfter(long tripAfter, TimeUnit unit) {
+            _tripAfter = tripAfter;
+            _tripAfterUnit = unit;
+            return this;
+        }
+
+        /** @param tripRatio The fraction of the retries in the window that must have been refused to trip open. */
+        public Builder tripRatio(double tripRatio) {
+            _tripRatio = tripRatio;
+            return this;
+        }
+
+        /** @param openDuration How long the breaker refuses all retries once it has tripped. */
+        public Builder openDuration(long openDuration, TimeUnit unit) {
+            _openDuration = openDuration;
+            _openDurationUnit = unit;
+            return this;
+        }
+
+        @VisibleForTesting
+        Builder ticker(Ticker ticker) {
+            _ticker = ticker;
+            return this;
+        }
+
+        public AdaptiveRetryPolicy build() {
+            return new AdaptiveRetryPolicy(this);
+        }
+    }
+}
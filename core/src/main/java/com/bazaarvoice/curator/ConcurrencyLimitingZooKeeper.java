@@ -0,0 +1,574 @@
+package com.bazaarvoice.curator;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.curator.utils.ZookeeperFactory;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A ZooKeeper client that passes its requests through an {@link AdaptiveConcurrencyLimiter}, so that a burst of
+ * requests from one component can't fill up the client's outgoing queue and delay everybody else.
+ * <p>
+ * Requests that keep recipes working are critical: requests that set a watch, which is how caches like
+ * {@code NodeDiscovery} resync, creating ephemeral, TTL and container nodes and rewriting TTL nodes created by this
+ * client, which is how {@code PersistentEphemeralNode} recreates its node, its container parents and keeps its TTL
+ * node alive, {@code sync} and any request for a path under one of the priority paths.  Critical requests have a lane
+ * of their own: they go beyond the limit and ahead of queued requests, so a burst of plain application reads can't
+ * hold them back.  They only wait once the limiter's {@code maxLimit} is reached.  Everything else waits for room.
+ * Requests are sent in the order they were made within each lane, but a critical request may be sent before a plain
+ * request that was made earlier.  Callers that need a plain request to be executed before a critical one must wait
+ * for it to complete.  Asynchronous requests are queued without blocking the caller, synchronous requests block the
+ * calling thread.
+ * </p>
+ * <p>
+ * Synchronous requests made from ZooKeeper's event thread, for example by a watcher, are sent without a permit.
+ * Blocking the event thread would hold up the callbacks that release permits, so it would wait for {@code maxWait}
+ * every time the limiter is full.
+ * </p>
+ * Use it with Curator through {@link #factory(AdaptiveConcurrencyLimiter, Collection)}:
+ * <pre>
+ * CuratorFrameworkFactory.builder()
+ *         .zookeeperFactory(ConcurrencyLimitingZooKeeper.factory(limiter, priorityPaths))
+ *         ...
+ * </pre>
+ */
+@SuppressWarnings("try")  // close() keeps the InterruptedException of ZooKeeper.close(), which it overrides
+public class ConcurrencyLimitingZooKeeper extends ZooKeeper {
+    /** Set while sending a request, so that overloads that call each other only take a single permit. */
+    private static final ThreadLocal<Boolean> SENDING = ThreadLocal.withInitial(() -> false);
+
+    private final AdaptiveConcurrencyLimiter _limiter;
+    private final List<String> _priorityPaths;
+    private final Set<AdaptiveConcurrencyLimiter.Permit> _outstanding = ConcurrentHashMap.newKeySet();
+    private final Set<String> _ttlNodes = ConcurrentHashMap.newKeySet();
+    private final EventThreadWatcher _defaultWatcher;
+
+    /** The thread that delivers watch events and callbacks, once it has delivered one. */
+    private volatile Thread _eventThread;
+
+    /**
+     * @param priorityPaths Requests for these paths or their descendants are critical, so they are admitted beyond the
+     *                      limit and ahead of queued requests.  Paths are as Curator sends them to ZooKeeper, so
+     *                      including the namespace, if any.
+     */
+    public ConcurrencyLimitingZooKeeper(String connectString, int sessionTimeout, Watcher watcher,
+                                        boolean canBeReadOnly, AdaptiveConcurrencyLimiter limiter,
+                                        Collection<String> priorityPaths) throws IOException {
+        this(connectString, sessionTimeout, new EventThreadWatcher(watcher), canBeReadOnly, limiter, priorityPaths);
+    }
+
+    private ConcurrencyLimitingZooKeeper(String connectString, int sessionTimeout, EventThreadWatcher watcher,
+                                         boolean canBeReadOnly, AdaptiveConcurrencyLimiter limiter,
+                                         Collection<String> priorityPaths) throws IOException {
+        super(connectString, sessionTimeout, watcher, canBeReadOnly);
+        _limiter = Objects.requireNonNull(limiter, "limiter");
+        _priorityPaths = checkPriorityPaths(priorityPaths);
+        _defaultWatcher = watcher;
+    }
+
+    /**
+     * Returns a factory for Curator that creates limited ZooKeeper clients.  All clients the factory creates, one for
+     * every session, share the limiter.
+     */
+    public static ZookeeperFactory factory(final AdaptiveConcurrencyLimiter limiter,
+                                           final Collection<String> priorityPaths) {
+        Objects.requireNonNull(limiter, "limiter");
+        final List<String> paths = checkPriorityPaths(priorityPaths);
+        return new ZookeeperFactory() {
+            @Override
+            public ZooKeeper newZooKeeper(String connectString, int sessionTimeout, Watcher watcher,
+                                          boolean canBeReadOnly) throws Exception {
+                return new ConcurrencyLimitingZooKeeper(connectString, sessionTimeout, watcher, canBeReadOnly,
+                        limiter, paths);
+            }
+        };
+    }
+
+    private static List<String> checkPriorityPaths(Collection<String> priorityPaths) {
+        List<String> paths = ImmutableList.copyOf(priorityPaths);
+        for (String path : paths) {
+            checkArgument(path.startsWith("/"), "Priority paths must be absolute: %s", path);
+        }
+        return paths;
+    }
+
+    public AdaptiveConcurrencyLimiter getLimiter() {
+        return _limiter;
+    }
+
+    /** Closes the client and releases the permits of requests that were never answered. */
+    @Override
+    public void close() throws InterruptedException {
+        try {
+            super.close();
+        } finally {
+            // The limiter is shared with the clients of later sessions.
+            for (AdaptiveConcurrencyLimiter.Permit permit : _outstanding) {
+                permit.release(false);
+            }
+            _outstanding.clear();
+        }
+    }
+
+    @Override
+    public String create(String path, byte[] data, List<ACL> acl, CreateMode createMode)
+            throws KeeperException, InterruptedException {
+        return call(isCritical(path, createMode), () -> super.create(path, data, acl, createMode));
+    }
+
+    @Override
+    public String create(String path, byte[] data, List<ACL> acl, CreateMode createMode, Stat stat)
+            throws KeeperException, InterruptedException {
+        return call(isCritical(path, createMode), () -> super.create(path, data, acl, createMode, stat));
+    }
+
+    @Override
+    public String create(String path, byte[] data, List<ACL> acl, CreateMode createMode, Stat stat, long ttl)
+            throws KeeperException, InterruptedException {
+        String name = call(isCritical(path, createMode), () -> super.create(path, data, acl, createMode, stat, ttl));
+        if (createMode.isTTL()) {
+            _ttlNodes.add(name);
+        }
+        return name;
+    }
+
+    @Override
+    public void create(String path, byte[] data, List<ACL> acl, CreateMode createMode, AsyncCallback.StringCallback cb,
+                       Object ctx) {
+        send(isCritical(path, createMode), permit -> super.create(path, data, acl, createMode,
+                limitedString(permit, cb), ctx));
+    }
+
+    @Override
+    public void create(String path, byte[] data, List<ACL> acl, CreateMode createMode,
+                       AsyncCallback.Create2Callback cb, Object ctx) {
+        send(isCritical(path, createMode), permit -> super.create(path, data, acl, createMode,
+                limitedCreate2(permit, cb), ctx));
+    }
+
+    @Override
+    public void create(String path, byte[] data, List<ACL> acl, CreateMode createMode,
+                       AsyncCallback.Create2Callback cb, Object ctx, long ttl) {
+        AsyncCallback.Create2Callback remembering = (rc, createdPath, createdCtx, name, stat) -> {
+            if (rc == KeeperException.Code.OK.intValue() && createMode.isTTL()) {
+                _ttlNodes.add(name);
+            }
+            if (cb != null) {
+                cb.processResult(rc, createdPath, createdCtx, name, stat);
+            }
+        };
+        send(isCritical(path, createMode), permit -> super.create(path, data, acl, createMode,
+                limitedCreate2(permit, remembering), ctx, ttl));
+    }
+
+    @Override
+    public void delete(String path, int version) throws InterruptedException, KeeperException {
+        _ttlNodes.remove(path);
+        call(isPriorityPath(path), () -> {
+            super.delete(path, version);
+            return null;
+        });
+    }
+
+    @Override
+    public void delete(String path, int version, AsyncCallback.VoidCallback cb, Object ctx) {
+        _ttlNodes.remove(path);
+        send(isPriorityPath(path), permit -> super.delete(path, version, limitedVoid(permit, cb), ctx));
+    }
+
+    @Override
+    public List<OpResult> multi(Iterable<Op> ops) throws InterruptedException, KeeperException {
+        return call(isCritical(ops), () -> super.multi(ops));
+    }
+
+    @Override
+    public void multi(Iterable<Op> ops, AsyncCallback.MultiCallback cb, Object ctx) {
+        send(isCritical(ops), permit -> super.multi(ops, limitedMulti(permit, cb), ctx));
+    }
+
+    @Override
+    public Stat exists(String path, Watcher watcher) throws KeeperException, InterruptedException {
+        return call(isCritical(path, watcher != null), () -> super.exists(path, watcher));
+    }
+
+    @Override
+    public Stat exists(String path, boolean watch) throws KeeperException, InterruptedException {
+        return call(isCritical(path, watch), () -> super.exists(path, watch));
+    }
+
+    @Override
+    public void exists(String path, Watcher watcher, AsyncCallback.StatCallback cb, Object ctx) {
+        send(isCritical(path, watcher != null), permit -> super.exists(path, watcher, limitedStat(permit, cb), ctx));
+    }
+
+    @Override
+    public void exists(String path, boolean watch, AsyncCallback.StatCallback cb, Object ctx) {
+        send(isCritical(path, watch), permit -> super.exists(path, watch, limitedStat(permit, cb), ctx));
+    }
+
+    @Override
+    public byte[] getData(String path, Watcher watcher, Stat stat) throws KeeperException, InterruptedException {
+        return call(isCritical(path, watcher != null), () -> super.getData(path, watcher, stat));
+    }
+
+    @Override
+    public byte[] getData(String path, boolean watch, Stat stat) throws KeeperException, InterruptedException {
+        return call(isCritical(path, watch), () -> super.getData(path, watch, stat));
+    }
+
+    @Override
+    public void getData(String path, Watcher watcher, AsyncCallback.DataCallback cb, Object ctx) {
+        send(isCritical(path, watcher != null), permit -> super.getData(path, watcher, limitedData(permit, cb), ctx));
+    }
+
+    @Override
+    public void getData(String path, boolean watch, AsyncCallback.DataCallback cb, Object ctx) {
+        send(isCritical(path, watch), permit -> super.getData(path, watch, limitedData(permit, cb), ctx));
+    }
+
+    @Override
+    public Stat setData(String path, byte[] data, int version) throws KeeperException, InterruptedException {
+        try {
+            return call(isCritical(path), () -> super.setData(path, data, version));
+        } catch (KeeperException.NoNodeException e) {
+            _ttlNodes.remove(path);
+            throw e;
+        }
+    }
+
+    @Override
+    public void setData(String path, byte[] data, int version, AsyncCallback.StatCallback cb, Object ctx) {
+        AsyncCallback.StatCallback forgetting = (rc, setPath, setCtx, stat) -> {
+            if (rc == KeeperException.Code.NONODE.intValue()) {
+                _ttlNodes.remove(path);
+            }
+            if (cb != null) {
+                cb.processResult(rc, setPath, setCtx, stat);
+            }
+        };
+        send(isCritical(path), permit -> super.setData(path, data, version, limitedStat(permit, forgetting), ctx));
+    }
+
+    @Override
+    public List<ACL> getACL(String path, Stat stat) throws KeeperException, InterruptedException {
+        return call(isPriorityPath(path), () -> super.getACL(path, stat));
+    }
+
+    @Override
+    public void getACL(String path, Stat stat, AsyncCallback.ACLCallback cb, Object ctx) {
+        send(isPriorityPath(path), permit -> super.getACL(path, stat, limitedAcl(permit, cb), ctx));
+    }
+
+    @Override
+    public Stat setACL(String path, List<ACL> acl, int aclVersion) throws KeeperException, InterruptedException {
+        return call(isPriorityPath(path), () -> super.setACL(path, acl, aclVersion));
+    }
+
+    @Override
+    public void setACL(String path, List<ACL> acl, int version, AsyncCallback.StatCallback cb, Object ctx) {
+        send(isPriorityPath(path), permit -> super.setACL(path, acl, version, limitedStat(permit, cb), ctx));
+    }
+
+    @Override
+    public List<String> getChildren(String path, Watcher watcher) throws KeeperException, InterruptedException {
+        return call(isCritical(path, watcher != null), () -> super.getChildren(path, watcher));
+    }
+
+    @Override
+    public List<String> getChildren(String path, boolean watch) throws KeeperException, InterruptedException {
+        return call(isCritical(path, watch), () -> super.getChildren(path, watch));
+    }
+
+    @Override
+    public List<String> getChildren(String path, Watcher watcher, Stat stat)
+            throws KeeperException, InterruptedException {
+        return call(isCritical(path, watcher != null), () -> super.getChildren(path, watcher, stat));
+    }
+
+    @Override
+    public List<String> getChildren(String path, boolean watch, Stat stat)
+            throws KeeperException, InterruptedException {
+        return call(isCritical(path, watch), () -> super.getChildren(path, watch, stat));
+    }
+
+    @Override
+    public void getChildren(String path, Watcher watcher, AsyncCallback.ChildrenCallback cb, Object ctx) {
+        send(isCritical(path, watcher != null), permit -> super.getChildren(path, watcher,
+                limitedChildren(permit, cb), ctx));
+    }
+
+    @Override
+    public void getChildren(String path, boolean watch, AsyncCallback.ChildrenCallback cb, Object ctx) {
+        send(isCritical(path, watch), permit -> super.getChildren(path, watch, limitedChildren(permit, cb), ctx));
+    }
+
+    @Override
+    public void getChildren(String path, Watcher watcher, AsyncCallback.Children2Callback cb, Object ctx) {
+        send(isCritical(path, watcher != null), permit -> super.getChildren(path, watcher,
+                limitedChildren2(permit, cb), ctx));
+    }
+
+    @Override
+    public void getChildren(String path, boolean watch, AsyncCallback.Children2Callback cb, Object ctx) {
+        send(isCritical(path, watch), permit -> super.getChildren(path, watch, limitedChildren2(permit, cb), ctx));
+    }
+
+    @Override
+    public void sync(String path, AsyncCallback.VoidCallback cb, Object ctx) {
+        send(true, permit -> super.sync(path, limitedVoid(permit, cb), ctx));
+    }
+
+    /** Creating the nodes that {@code PersistentEphemeralNode} maintains, including container parents of TTL nodes. */
+    private boolean isCritical(String path, CreateMode createMode) {
+        return createMode.isEphemeral() || createMode.isTTL() || createMode.isContainer() || isPriorityPath(path);
+    }
+
+    /** Rewriting a TTL node keeps it from expiring. */
+    private boolean isCritical(String path) {
+        return _ttlNodes.contains(path) || isPriorityPath(path);
+    }
+
+    private boolean isCritical(String path, boolean watch) {
+        return watch || isPriorityPath(path);
+    }
+
+    private boolean isCritical(Iterable<Op> ops) {
+        for (Op op : ops) {
+            if (isPriorityPath(op.getPath())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isPriorityPath(String path) {
+        if (path == null) {
+            return false;  // Let ZooKeeper reject it
+        }
+        for (String priorityPath : _priorityPaths) {
+            if (path.startsWith(priorityPath) && (path.length() == priorityPath.length()
+                    || priorityPath.endsWith("/") || path.charAt(priorityPath.length()) == '/')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private <T> T call(boolean critical, Call<T> call) throws KeeperException, InterruptedException {
+        if (SENDING.get() || isEventThread()) {
+            return call.call();
+        }
+
+        AdaptiveConcurrencyLimiter.Permit permit = _limiter.acquire(critical);
+        boolean dropped = false;
+        SENDING.set(true);
+        try {
+            return call.call();
+        } catch (KeeperException e) {
+            dropped = isDropped(e.code().intValue());
+            throw e;
+        } finally {
+            SENDING.set(false);
+            permit.release(dropped);
+        }
+    }
+
+    private void send(boolean critical, Consumer<AdaptiveConcurrencyLimiter.Permit> request) {
+        if (SENDING.get()) {
+            // Called by another overload that already holds a permit, and wraps the callback.
+            request.accept(null);
+            return;
+        }
+
+        _limiter.execute(critical, permit -> {
+            // Queued requests may be sent from within the callback of another request, even one that is being sent.
+            boolean sending = SENDING.get();
+            _outstanding.add(permit);
+            SENDING.set(true);
+            try {
+                request.accept(permit);
+            } catch (RuntimeException e) {
+                _outstanding.remove(permit);
+                throw e;
+            } finally {
+                SENDING.set(sending);
+            }
+        });
+    }
+
+    /** Both the default watcher and the callbacks of requests run on the event thread, each records it. */
+    private boolean isEventThread() {
+        Thread current = Thread.currentThread();
+        return current == _eventThread || current == _defaultWatcher._thread;
+    }
+
+    /** Connection loss and timeouts are what an overloaded server or client queue looks like to the client. */
+    private static boolean isDropped(int rc) {
+        return rc == KeeperException.Code.CONNECTIONLOSS.intValue()
+                || rc == KeeperException.Code.OPERATIONTIMEOUT.intValue();
+    }
+
+    private void release(AdaptiveConcurrencyLimiter.Permit permit, int rc) {
+        // Callbacks are only ever called on the event thread.
+        _eventThread = Thread.currentThread();
+        _outstanding.remove(permit);
+        permit.release(isDropped(rc));
+    }
+
+    private AsyncCallback.StringCallback limitedString(AdaptiveConcurrencyLimiter.Permit permit,
+                                                       AsyncCallback.StringCallback cb) {
+        if (permit == null) {
+            return cb;
+        }
+        return (rc, path, ctx, name) -> {
+            release(permit, rc);
+            if (cb != null) {
+                cb.processResult(rc, path, ctx, name);
+            }
+        };
+    }
+
+    private AsyncCallback.Create2Callback limitedCreate2(AdaptiveConcurrencyLimiter.Permit permit,
+                                                         AsyncCallback.Create2Callback cb) {
+        if (permit == null) {
+            return cb;
+        }
+        return (rc, path, ctx, name, stat) -> {
+            release(permit, rc);
+            if (cb != null) {
+                cb.processResult(rc, path, ctx, name, stat);
+            }
+        };
+    }
+
+    private AsyncCallback.VoidCallback limitedVoid(AdaptiveConcurrencyLimiter.Permit permit,
+                                                   AsyncCallback.VoidCallback cb) {
+        if (permit == null) {
+            return cb;
+        }
+        return (rc, path, ctx) -> {
+            release(permit, rc);
+            if (cb != null) {
+                cb.processResult(rc, path, ctx);
+            }
+        };
+    }
+
+    private AsyncCallback.MultiCallback limitedMulti(AdaptiveConcurrencyLimiter.Permit permit,
+                                                     AsyncCallback.MultiCallback cb) {
+        if (permit == null) {
+            return cb;
+        }
+        return (rc, path, ctx, opResults) -> {
+            release(permit, rc);
+            if (cb != null) {
+                cb.processResult(rc, path, ctx, opResults);
+            }
+        };
+    }
+
+    private AsyncCallback.StatCallback limitedStat(AdaptiveConcurrencyLimiter.Permit permit,
+                                                   AsyncCallback.StatCallback cb) {
+        if (permit == null) {
+            return cb;
+        }
+        return (rc, path, ctx, stat) -> {
+            release(permit, rc);
+            if (cb != null) {
+                cb.processResult(rc, path, ctx, stat);
+            }
+        };
+    }
+
+    private AsyncCallback.DataCallback limitedData(AdaptiveConcurrencyLimiter.Permit permit,
+                                                   AsyncCallback.DataCallback cb) {
+        if (permit == null) {
+            return cb;
+        }
+        return (rc, path, ctx, data, stat) -> {
+            release(permit, rc);
+            if (cb != null) {
+                cb.processResult(rc, path, ctx, data, stat);
+            }
+        };
+    }
+
+    private AsyncCallback.ACLCallback limitedAcl(AdaptiveConcurrencyLimiter.Permit permit,
+                                                 AsyncCallback.ACLCallback cb) {
+        if (permit == null) {
+            return cb;
+        }
+        return (rc, path, ctx, acl, stat) -> {
+            release(permit, rc);
+            if (cb != null) {
+                cb.processResult(rc, path, ctx, acl, stat);
+            }
+        };
+    }
+
+    private AsyncCallback.ChildrenCallback limitedChildren(AdaptiveConcurrencyLimiter.Permit permit,
+                                                           AsyncCallback.ChildrenCallback cb) {
+        if (permit == null) {
+            return cb;
+        }
+        return (rc, path, ctx, children) -> {
+            release(permit, rc);
+            if (cb != null) {
+                cb.processResult(rc, path, ctx, children);
+            }
+        };
+    }
+
+    private AsyncCallback.Children2Callback limitedChildren2(AdaptiveConcurrencyLimiter.Permit permit,
+                                                             AsyncCallback.Children2Callback cb) {
+        if (permit == null) {
+            return cb;
+        }
+        return (rc, path, ctx, children, stat) -> {
+            release(permit, rc);
+            if (cb != null) {
+                cb.processResult(rc, path, ctx, children, stat);
+            }
+        };
+    }
+
+    private interface Call<T> {
+        T call() throws KeeperException, InterruptedException;
+    }
+
+    /** Records the thread ZooKeeper delivers events on, so that blocking it can be avoided. */
+    private static final class EventThreadWatcher implements Watcher {
+        private final Watcher _delegate;
+        private volatile Thread _thread;
+
+        private EventThreadWatcher(Watcher delegate) {
+            _delegate = delegate;
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            _thread = Thread.currentThread();
+            if (_delegate != null) {
+                _delegate.process(event);
+            }
+        }
+    }
+}
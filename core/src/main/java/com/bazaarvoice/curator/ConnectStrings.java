@@ -0,0 +1,89 @@
+package com.bazaarvoice.curator;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.net.HostAndPort;
+import org.apache.zookeeper.client.ConnectStringParser;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/** Builds ZooKeeper connection strings the same way for all the ensemble providers. */
+class ConnectStrings {
+    private ConnectStrings() {
+    }
+
+    /** @return The servers of the connection string sorted and without duplicates, followed by its chroot path. */
+    static String canonicalize(String connectString) {
+        ConnectStringParser parser = new ConnectStringParser(connectString);
+        List<String> servers = new ArrayList<>();
+        for (InetSocketAddress server : parser.getServerAddresses()) {
+            servers.add(toString(server));
+        }
+        return join(servers, parser.getChrootPath());
+    }
+
+    /**
+     * Like {@link #canonicalize(String)}, but rejects connection strings with a server that isn't a valid
+     * {@code host:port}, for example because the connection string was cut off.
+     *
+     * @throws IllegalArgumentException If the connection string is empty or has an invalid server.
+     */
+    static String canonicalizeStrict(String connectString) {
+        int slash = connectString.indexOf('/');
+        String servers = slash >= 0 ? connectString.substring(0, slash) : connectString;
+        checkArgument(!servers.isEmpty(), "No servers in connection string: %s", connectString);
+        for (String server : Splitter.on(',').split(servers)) {
+            HostAndPort hostAndPort;
+            try {
+                hostAndPort = HostAndPort.fromString(server);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid server " + server + " in connection string: "
+                        + connectString, e);
+            }
+            checkArgument(!hostAndPort.getHost().isEmpty() && hostAndPort.hasPort(),
+                    "Server %s in connection string %s must be host:port", server, connectString);
+        }
+        return canonicalize(connectString);
+    }
+
+    /**
+     * Curator's {@code EnsembleTracker} passes the client addresses from {@code /zookeeper/config}, which don't include
+     * a chroot path.
+     *
+     * @return The connection string with the given chroot path appended, unless it has its own or there is none.
+     */
+    static String withChrootPath(String connectString, String chrootPath) {
+        if (chrootPath == null || new ConnectStringParser(connectString).getChrootPath() != null) {
+            return connectString;
+        }
+        return connectString + chrootPath;
+    }
+
+    /** @return The chroot path of the connection string, or null if it has none or there is no connection string. */
+    static String getChrootPath(String connectString) {
+        return connectString != null ? new ConnectStringParser(connectString).getChrootPath() : null;
+    }
+
+    /** @return The servers sorted and without duplicates, followed by the chroot path if there is one. */
+    static String join(Collection<String> servers, String chrootPath) {
+        SortedSet<String> sorted = new TreeSet<>(servers);
+        StringBuilder connectStringBuilder = new StringBuilder();
+        Joiner.on(',').appendTo(connectStringBuilder, sorted);
+        if (chrootPath != null) {
+            connectStringBuilder.append(chrootPath);
+        }
+        return connectStringBuilder.toString();
+    }
+
+    /** @return The server as {@code host:port}, with the host as it was given rather than resolved. */
+    static String toString(InetSocketAddress server) {
+        return HostAndPort.fromParts(server.getHostString(), server.getPort()).toString();
+    }
+}
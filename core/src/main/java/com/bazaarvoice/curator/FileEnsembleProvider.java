@@ -0,0 +1,176 @@
+package com.bazaarvoice.curator;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.curator.ensemble.EnsembleProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An ensemble provider that reads the connection string from a file and reloads it when the file changes.
+ * <p>
+ * The file holds a regular connection string, but servers may also be separated by whitespace or newlines, so one
+ * server per line works too.  The connection string is parsed once per change and kept in canonical form, with the
+ * servers sorted, so {@link #getConnectionString()} does no I/O and Curator only sees a change when the servers do.
+ * </p>
+ * <p>
+ * Changes are picked up through a {@link WatchService} on the directory of the file.  Any change in the directory
+ * makes the provider read the file again and compare the servers, because files are often updated through another
+ * entry: an atomic rename of a temporary file, or a swapped symbolic link to a directory such as the {@code ..data}
+ * link of a Kubernetes ConfigMap volume.  The file is also read every 30 seconds, in case a change happens somewhere
+ * the watch can't see.  The file is only read once the directory hasn't changed for 200 milliseconds.  A file that is
+ * missing, empty or has a server that isn't a valid {@code host:port}, for example because it was cut off while being
+ * rewritten, is ignored and the last connection string is kept.  Server list updates are enabled, so Curator moves
+ * the client to the new servers without closing its session.
+ * </p>
+ */
+public class FileEnsembleProvider implements EnsembleProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(FileEnsembleProvider.class);
+
+    private static final long QUIET_PERIOD_MILLIS = 200;
+    private static final long POLL_INTERVAL_SECONDS = 30;
+
+    private final Path _file;
+    private volatile String _connectionString;
+    private String _fileConnectionString;  // guarded by this, the last connection string read from the file
+    private WatchService _watchService;  // guarded by this
+
+    /** @param file The file that holds the connection string. */
+    public FileEnsembleProvider(Path file) {
+        _file = file.toAbsolutePath();
+        checkArgument(_file.getParent() != null, "file must have a parent directory");
+    }
+
+    /**
+     * Reads the connection string and starts watching the file for changes.
+     *
+     * @throws IOException If the file can't be read.
+     * @throws IllegalArgumentException If the file doesn't hold any servers or a server isn't a valid
+     *                                  {@code host:port}.
+     */
+    @Override
+    public synchronized void start() throws IOException {
+        if (_watchService != null) {
+            return;
+        }
+
+        // Watch before the first read, so a change in between isn't missed.
+        final WatchService watchService = _file.getFileSystem().newWatchService();
+        try {
+            _file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            _fileConnectionString = read();
+            _connectionString = _fileConnectionString;
+        } catch (IOException | RuntimeException e) {
+            watchService.close();
+            throw e;
+        }
+        _watchService = watchService;
+
+        new ThreadFactoryBuilder()
+                .setNameFormat("FileEnsembleProvider[" + _file.getFileName() + "]-%d")
+                .setDaemon(true)
+                .build()
+                .newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        watch(watchService);
+                    }
+                })
+                .start();
+    }
+
+    private void watch(WatchService watchService) {
+        try {
+            for (;;) {
+                WatchKey key = watchService.poll(POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+                // Wait for the writes to settle, so a file that is being written isn't read half way.
+                while (key != null) {
+                    // Which entry changed doesn't matter, reloading compares the servers.
+                    key.pollEvents();
+                    if (!key.reset()) {
+                        LOG.warn("Stopped watching {}, its directory is no longer accessible", _file);
+                        return;
+                    }
+                    key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                reload();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Reads the file again and publishes its connection string if it changed since the file was last read.  Keeps the
+     * current connection string if the file can't be read, is empty or has an invalid server, and also if the file is
+     * unchanged, so a connection string set by {@link #setConnectionString(String)} isn't reverted.
+     */
+    @VisibleForTesting
+    synchronized void reload() {
+        String connectionString;
+        try {
+            connectionString = read();
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Unable to read ZooKeeper connection string from {}, keeping {}", _file, _connectionString, e);
+            return;
+        }
+        if (!connectionString.equals(_fileConnectionString)) {
+            LOG.info("ZooKeeper connection string changed from {} to {}", _connectionString, connectionString);
+            _fileConnectionString = connectionString;
+            _connectionString = connectionString;
+        }
+    }
+
+    private String read() throws IOException {
+        String contents = new String(Files.readAllBytes(_file), StandardCharsets.UTF_8);
+        String connectString = Joiner.on(',').join(
+                Splitter.onPattern("[,\\s]+").omitEmptyStrings().split(contents));
+        checkArgument(!connectString.isEmpty(), "%s is empty", _file);
+        return ConnectStrings.canonicalizeStrict(connectString);
+    }
+
+    /** @return The connection string as of the last change to the file. */
+    @Override
+    public String getConnectionString() {
+        return _connectionString;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (_watchService != null) {
+            _watchService.close();
+            _watchService = null;
+        }
+    }
+
+    /**
+     * Uses the connection string until the file changes again.  Curator's {@code EnsembleTracker} calls this when the
+     * ensemble is reconfigured, the chroot path of the current connection string is kept unless the new one has its
+     * own.
+     */
+    @Override
+    public synchronized void setConnectionString(String connectString) {
+        String chrootPath = ConnectStrings.getChrootPath(_connectionString);
+        _connectionString = ConnectStrings.canonicalize(ConnectStrings.withChrootPath(connectString, chrootPath));
+    }
+
+    @Override
+    public boolean updateServerListEnabled() {
+        return true;
+    }
+}
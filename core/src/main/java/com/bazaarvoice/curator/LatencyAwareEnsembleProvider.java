@@ -0,0 +1,348 @@
+package com.bazaarvoice.curator;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.curator.ensemble.EnsembleProvider;
+import org.apache.zookeeper.client.ConnectStringParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An ensemble provider that limits the connection string of another provider to the servers that are nearest and
+ * least loaded.
+ * <p>
+ * The ZooKeeper client picks servers from the connection string in random order, so ordering the servers has no
+ * effect.  Instead this provider periodically probes every server of the underlying connection string, by timing a TCP
+ * connect and asking for the {@code srvr} four letter word, and only hands out the best few.  Servers are ranked by
+ * reachability, then by whether they are in the preferred zone, then by connect time and finally by their number of
+ * connections.  Connect times are rounded so that servers that are about equally near are ranked by load and the
+ * selection doesn't change with every bit of jitter.
+ * </p>
+ * <p>
+ * If fewer servers than the maximum are reachable, unreachable ones fill the remaining places, so the client still has
+ * somewhere to go when the reachable ones fail.  Servers that weren't selected aren't used until a later probe
+ * selects them.  The ZooKeeper server only answers {@code srvr} if it's in {@code 4lw.commands.whitelist}, which it
+ * is by default; without it servers are ranked by connect time only.
+ * </p>
+ */
+public class LatencyAwareEnsembleProvider implements EnsembleProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(LatencyAwareEnsembleProvider.class);
+
+    private final EnsembleProvider _delegate;
+    private final Prober _prober;
+    private final int _maxServers;
+    private final long _probeIntervalNanos;
+    private final int _probeTimeoutMillis;
+    private final long _latencyGranularityNanos;
+    private final Function<String, String> _zoneOf;
+    private final String _preferredZone;
+    private volatile String _connectionString;
+    private volatile ScheduledExecutorService _executor;  // changed while holding this
+    private final Runnable _probeTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                probe();
+            } catch (RuntimeException e) {
+                LOG.warn("Unable to probe ZooKeeper servers", e);
+            }
+        }
+    };
+
+    private LatencyAwareEnsembleProvider(Builder builder) {
+        _delegate = Objects.requireNonNull(builder._delegate, "delegate");
+        _prober = Objects.requireNonNull(builder._prober, "prober");
+        _maxServers = builder._maxServers;
+        checkArgument(_maxServers > 0, "maxServers must be positive");
+        _probeIntervalNanos = builder._probeIntervalUnit.toNanos(builder._probeInterval);
+        checkArgument(_probeIntervalNanos > 0, "probeInterval must be positive");
+        _probeTimeoutMillis = (int) builder._probeTimeoutUnit.toMillis(builder._probeTimeout);
+        checkArgument(_probeTimeoutMillis > 0, "probeTimeout must be at least a millisecond");
+        _latencyGranularityNanos = builder._latencyGranularityUnit.toNanos(builder._latencyGranularity);
+        checkArgument(_latencyGranularityNanos > 0, "latencyGranularity must be positive");
+        _zoneOf = builder._zoneOf;
+        _preferredZone = builder._preferredZone;
+        checkArgument(_preferredZone == null || _zoneOf != null, "A preferred zone requires a zone function");
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Starts the underlying provider and probes the servers in the background. */
+    @Override
+    public synchronized void start() throws Exception {
+        _delegate.start();
+        if (_executor == null) {
+            _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("LatencyAwareEnsembleProvider-%d")
+                    .setDaemon(true)
+                    .build());
+            _executor.scheduleWithFixedDelay(_probeTask, 0, _probeIntervalNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /** @return The best servers as of the last probe, or the underlying connection string until the first probe. */
+    @Override
+    public String getConnectionString() {
+        String connectionString = _connectionString;
+        return connectionString != null ? connectionString : _delegate.getConnectionString();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (_executor != null) {
+            _executor.shutdownNow();
+            _executor = null;
+        }
+        _delegate.close();
+    }
+
+    /**
+     * Passes the new connection string to the underlying provider and probes the new servers in the background.
+     * Curator calls this from its own threads, so it doesn't wait for the probe.  Until the probe is done the
+     * connection string is the full underlying one, which doesn't hold on to servers that left the ensemble.
+     */
+    @Override
+    public void setConnectionString(String connectionString) {
+        _delegate.setConnectionString(connectionString);
+        _connectionString = null;
+        // Not synchronized, that would wait for a probe that's running.
+        ScheduledExecutorService executor = _executor;
+        if (executor != null) {
+            try {
+                executor.execute(_probeTask);
+            } catch (RejectedExecutionException e) {
+                // Closed concurrently
+            }
+        }
+    }
+
+    /** Changes the server list in place only if the underlying provider allows it. */
+    @Override
+    public boolean updateServerListEnabled() {
+        return _delegate.updateServerListEnabled();
+    }
+
+    /**
+     * Probes all servers of the underlying connection string and publishes the best ones.
+     *
+     * @return The new connection string.
+     */
+    @VisibleForTesting
+    synchronized String probe() {
+        ConnectStringParser parser = new ConnectStringParser(_delegate.getConnectionString());
+
+        List<Probe> probes = new ArrayList<>();
+        for (InetSocketAddress server : parser.getServerAddresses()) {
+            String host = server.getHostString();
+            String zone = _zoneOf != null ? _zoneOf.apply(host) : null;
+            boolean preferred = _preferredZone != null && _preferredZone.equals(zone);
+            String address = ConnectStrings.toString(server);
+            try {
+                ServerStatus status = _prober.probe(server, _probeTimeoutMillis);
+                long latencyBucket = status.getConnectNanos() / _latencyGranularityNanos;
+                probes.add(new Probe(address, true, preferred, latencyBucket, status.getConnections()));
+            } catch (IOException e) {
+                LOG.debug("Unable to probe ZooKeeper server {}", address, e);
+                probes.add(new Probe(address, false, preferred, Long.MAX_VALUE, Integer.MAX_VALUE));
+            }
+        }
+
+        probes.sort(Comparator.comparing((Probe probe) -> !probe._reachable)
+                .thenComparing(probe -> !probe._preferred)
+                .thenComparingLong(probe -> probe._latencyBucket)
+                .thenComparingInt(probe -> probe._connections)
+                .thenComparing(probe -> probe._address));
+
+        // Use a canonical order, so the connection string only changes when the selection does.
+        List<String> selected = new ArrayList<>();
+        for (Probe probe : probes.subList(0, Math.min(_maxServers, probes.size()))) {
+            selected.add(probe._address);
+        }
+
+        String connectionString = ConnectStrings.join(selected, parser.getChrootPath());
+        if (!connectionString.equals(_connectionString)) {
+            LOG.info("Using ZooKeeper servers {}", connectionString);
+            _connectionString = connectionString;
+        }
+        return connectionString;
+    }
+
+    private static final class Probe {
+        private final String _address;
+        private final boolean _reachable;
+        private final boolean _preferred;
+        private final long _latencyBucket;
+        private final int _connections;
+
+        private Probe(String address, boolean reachable, boolean preferred, long latencyBucket, int connections) {
+            _address = address;
+            _reachable = reachable;
+            _preferred = preferred;
+            _latencyBucket = latencyBucket;
+            _connections = connections;
+        }
+    }
+
+    /** The result of probing a single ZooKeeper server. */
+    public static final class ServerStatus {
+        private final long _connectNanos;
+        private final int _connections;
+
+        /**
+         * @param connectNanos How long it took to connect to the server.
+         * @param connections The number of clients connected to the server, or 0 if unknown.
+         */
+        public ServerStatus(long connectNanos, int connections) {
+            _connectNanos = connectNanos;
+            _connections = connections;
+        }
+
+        public long getConnectNanos() {
+            return _connectNanos;
+        }
+
+        public int getConnections() {
+            return _connections;
+        }
+    }
+
+    /** Measures a single ZooKeeper server. */
+    public interface Prober {
+        /**
+         * Times a TCP connect to the server and reads its number of connections from the {@code srvr} four letter
+         * word, if the server answers it.
+         */
+        Prober DEFAULT = new Prober() {
+            @Override
+            public ServerStatus probe(InetSocketAddress server, int timeoutMillis) throws IOException {
+                InetSocketAddress address = new InetSocketAddress(server.getHostString(), server.getPort());
+                try (Socket socket = new Socket()) {
+                    long start = System.nanoTime();
+                    socket.connect(address, timeoutMillis);
+                    long connectNanos = System.nanoTime() - start;
+
+                    socket.setSoTimeout(timeoutMillis);
+                    OutputStream out = socket.getOutputStream();
+                    out.write("srvr".getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+
+                    int connections = 0;
+                    BufferedReader in = new BufferedReader(
+                            new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (line.startsWith("Connections:")) {
+                            connections = Integer.parseInt(line.substring("Connections:".length()).trim());
+                        }
+                    }
+                    return new ServerStatus(connectNanos, connections);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Unexpected srvr response from " + address, e);
+                }
+            }
+        };
+
+        /**
+         * @param server The server to probe.
+         * @param timeoutMillis The maximum time to wait for the server.
+         * @return The status of the server.
+         * @throws IOException If the server couldn't be reached.
+         */
+        ServerStatus probe(InetSocketAddress server, int timeoutMillis) throws IOException;
+    }
+
+    /**
+     * Builds {@link LatencyAwareEnsembleProvider} instances.  The underlying provider is required.  By default the best
+     * 3 servers are selected, servers are probed every 30 seconds with a timeout of one second and connect times are
+     * rounded to 5 milliseconds.
+     */
+    public static class Builder {
+        private EnsembleProvider _delegate;
+        private Prober _prober = Prober.DEFAULT;
+        private int _maxServers = 3;
+        private long _probeInterval = 30;
+        private TimeUnit _probeIntervalUnit = TimeUnit.SECONDS;
+        private long _probeTimeout = 1;
+        private TimeUnit _probeTimeoutUnit = TimeUnit.SECONDS;
+        private long _latencyGranularity = 5;
+        private TimeUnit _latencyGranularityUnit = TimeUnit.MILLISECONDS;
+        private Function<String, String> _zoneOf;
+        private String _preferredZone;
+
+        private Builder() {
+        }
+
+        /** @param delegate Provides the full list of servers, for example a {@link ResolvingEnsembleProvider}. */
+        public Builder delegate(EnsembleProvider delegate) {
+            _delegate = delegate;
+            return this;
+        }
+
+        /** @param prober Measures servers, defaults to {@link Prober#DEFAULT}. */
+        public Builder prober(Prober prober) {
+            _prober = prober;
+            return this;
+        }
+
+        /** @param maxServers The maximum number of servers to include in the connection string. */
+        public Builder maxServers(int maxServers) {
+            _maxServers = maxServers;
+            return this;
+        }
+
+        public Builder probeInterval(long probeInterval, TimeUnit unit) {
+            _probeInterval = probeInterval;
+            _probeIntervalUnit = unit;
+            return this;
+        }
+
+        public Builder probeTimeout(long probeTimeout, TimeUnit unit) {
+            _probeTimeout = probeTimeout;
+            _probeTimeoutUnit = unit;
+            return this;
+        }
+
+        /** @param latencyGranularity Connect times within the same multiple of this are considered equal. */
+        public Builder latencyGranularity(long latencyGranularity, TimeUnit unit) {
+            _latencyGranularity = latencyGranularity;
+            _latencyGranularityUnit = unit;
+            return this;
+        }
+
+        /**
+         * @param preferredZone Servers in this zone are preferred over nearer servers in other zones.
+         * @param zoneOf Returns the zone of a server, given its host name or address as it appears in the connection
+         *               string.  May return null for servers in an unknown zone.
+         */
+        public Builder preferredZone(String preferredZone, Function<String, String> zoneOf) {
+            _preferredZone = preferredZone;
+            _zoneOf = zoneOf;
+            return this;
+        }
+
+        public LatencyAwareEnsembleProvider build() {
+            return new LatencyAwareEnsembleProvider(this);
+        }
+    }
+}
@@ -1,19 +1,43 @@
 package com.bazaarvoice.curator;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Joiner;
 import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.curator.ensemble.EnsembleProvider;
 import org.apache.curator.ensemble.fixed.FixedEnsembleProvider;
 import org.apache.zookeeper.client.ConnectStringParser;
 import org.apache.zookeeper.version.Info;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkArgument;
 
 /**
  * DEPRECATED: Newer versions of ZooKeeper do the right thing, so this is no longer necessary. This is now
@@ -40,11 +64,25 @@ import java.util.TreeSet;
  * servers will only provide a subset of the records for a given hostname - for example, tinydns returns a maximum of 8
  * records in response to a query.
  * </p>
+ * <p>
+ * Curator asks for the connection string on every reconnect, so names are not resolved on demand.  They are resolved
+ * when the provider starts and then again in the background every refresh interval, 30 seconds by default.  A change
+ * in the resolved addresses is picked up by Curator the next time it compares the connection string.
+ * </p>
+ * <p>
+ * With ZooKeeper 3.5 dynamic reconfiguration, the ensemble tracker of the {@code CuratorFramework} (enabled by
+ * default) watches {@code /zookeeper/config} and passes the new server list to {@link #setConnectionString(String)}.
+ * The new servers are resolved like the original ones and the client moves over without restarting.
+ * </p>
  */
 public class ResolvingEnsembleProvider implements EnsembleProvider {
+    private static final long DEFAULT_REFRESH_INTERVAL_SECONDS = 30;
+    private static final long DEFAULT_LOOKUP_TIMEOUT_SECONDS = 5;
+
     private EnsembleProvider _delegate;
 
-    private static EnsembleProvider defaultDelegate(String connectString) {
+    private static EnsembleProvider defaultDelegate(String connectString, long refreshInterval, long lookupTimeout,
+                                                    TimeUnit unit) {
         // ZooKeeper 3.4.13 and 3.5.5 are have the fixed HostProvider
         if (Info.MAJOR < 3
                 || (Info.MAJOR == 3
@@ -56,12 +94,35 @@ public class ResolvingEnsembleProvider implements EnsembleProvider {
         ) {
             return new FixedEnsembleProvider(connectString);
         } else {
-            return new ResolvingEnsembleProviderDelegate(connectString);
+            return new ResolvingEnsembleProviderDelegate(connectString, refreshInterval, lookupTimeout, unit);
         }
     }
 
     public ResolvingEnsembleProvider(String connectString) {
-        this(defaultDelegate(connectString));
+        this(connectString, DEFAULT_REFRESH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param connectString The original connection string.
+     * @param refreshInterval How often to resolve the names in the connection string again, in the background.  Zero
+     *                        to only resolve them when the provider starts or the connection string is changed.
+     * @param unit The unit of {@code refreshInterval}.
+     */
+    public ResolvingEnsembleProvider(String connectString, long refreshInterval, TimeUnit unit) {
+        this(connectString, unit.toNanos(refreshInterval), TimeUnit.SECONDS.toNanos(DEFAULT_LOOKUP_TIMEOUT_SECONDS),
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param connectString The original connection string.
+     * @param refreshInterval How often to resolve the names in the connection string again, in the background.  Zero
+     *                        to only resolve them when the provider starts or the connection string is changed.
+     * @param lookupTimeout How long to wait for the names to resolve.  Names are resolved in parallel, a name that
+     *                      takes longer keeps the addresses it last resolved to.
+     * @param unit The unit of {@code refreshInterval} and {@code lookupTimeout}.
+     */
+    public ResolvingEnsembleProvider(String connectString, long refreshInterval, long lookupTimeout, TimeUnit unit) {
+        this(defaultDelegate(connectString, refreshInterval, lookupTimeout, unit));
     }
 
     @VisibleForTesting
@@ -96,82 +157,277 @@ public class ResolvingEnsembleProvider implements EnsembleProvider {
 
     @VisibleForTesting
     static class ResolvingEnsembleProviderDelegate implements EnsembleProvider {
-        private ConnectStringParser _connectStringParser;
+        private static final Logger LOG = LoggerFactory.getLogger(ResolvingEnsembleProviderDelegate.class);
+
+        private static final int MAX_LOOKUP_THREADS = 16;
+
+        /**
+         * Runs lookups in parallel.  Lookups can't be interrupted, so a hung lookup holds on to its thread until it
+         * finishes.  Each provider has at most one lookup per host running and the pool is bounded, so hung lookups
+         * queue up the others instead of piling up threads.
+         */
+        private static final ExecutorService LOOKUP_EXECUTOR = newLookupExecutor();
+
+        private volatile ConnectStringParser _connectStringParser;
         private final Resolver _resolver;
+        private final long _refreshIntervalNanos;
+        private final long _lookupTimeoutNanos;
+        private final Map<String, List<String>> _lastKnownAddresses = new HashMap<>();  // guarded by this
+        private final Map<String, Future<InetAddress[]>> _lookups = new HashMap<>();  // guarded by this
+        private volatile String _connectionString;
+        private ScheduledExecutorService _executor;  // guarded by this
 
         /**
          * @param connectString The original connections string.
+         * @param refreshInterval How often to resolve names again, zero to never refresh in the background.
+         * @param lookupTimeout How long to wait for names to resolve.
+         * @param unit The unit of {@code refreshInterval} and {@code lookupTimeout}.
          */
-        private ResolvingEnsembleProviderDelegate(String connectString) {
-            this(connectString, new Resolver());
+        private ResolvingEnsembleProviderDelegate(String connectString, long refreshInterval, long lookupTimeout,
+                                                  TimeUnit unit) {
+            this(connectString, new Resolver(), refreshInterval, lookupTimeout, unit);
         }
 
         @VisibleForTesting
         ResolvingEnsembleProviderDelegate(String connectString, Resolver resolver) {
+            this(connectString, resolver, 0, DEFAULT_LOOKUP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        @VisibleForTesting
+        ResolvingEnsembleProviderDelegate(String connectString, Resolver resolver, long refreshInterval,
+                                          long lookupTimeout, TimeUnit unit) {
+            checkArgument(refreshInterval >= 0, "refreshInterval must be non-negative");
+            checkArgument(lookupTimeout > 0, "lookupTimeout must be positive");
             _resolver = resolver;
             _connectStringParser = new ConnectStringParser(connectString);
+            _refreshIntervalNanos = unit.toNanos(refreshInterval);
+            _lookupTimeoutNanos = unit.toNanos(lookupTimeout);
         }
 
         /**
-         * Does nothing, as no initialization is required for this provider.
+         * Resolves the connection string and starts refreshing it in the background.
          *
          * @throws Exception Never.
          */
         @Override
-        public void start() throws Exception {
-            // Do nothing.
+        public synchronized void start() throws Exception {
+            refresh();
+            if (_refreshIntervalNanos > 0 && _executor == null) {
+                _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("ResolvingEnsembleProvider-%d")
+                        .setDaemon(true)
+                        .build());
+                _executor.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            refresh();
+                        } catch (RuntimeException e) {
+                            LOG.warn("Unable to refresh the ZooKeeper connection string", e);
+                        }
+                    }
+                }, _refreshIntervalNanos, _refreshIntervalNanos, TimeUnit.NANOSECONDS);
+            }
         }
 
+        /** @return The most recently resolved connection string, without resolving any names. */
         @Override
         public String getConnectionString() {
-            StringBuilder connectStringBuilder = new StringBuilder();
-            SortedSet<String> addresses = new TreeSet<>();
+            String connectionString = _connectionString;
+            return connectionString != null ? connectionString : refresh();
+        }
 
-            for (InetSocketAddress hostAndPort : _connectStringParser.getServerAddresses()) {
-                try {
-                    for (InetAddress address : _resolver.lookupAllHostAddr(hostAndPort.getHostName())) {
-                        addresses.add(HostAndPort.fromParts(address.getHostAddress(), hostAndPort.getPort()).toString());
+        /**
+         * Resolves the names in the connection string and publishes the result if it changed.
+         *
+         * @return The resolved connection string.
+         */
+        @VisibleForTesting
+        synchronized String refresh() {
+            String connectionString = resolve();
+            if (!connectionString.equals(_connectionString)) {
+                if (_connectionString != null) {
+                    LOG.info("ZooKeeper connection string changed from {} to {}", _connectionString, connectionString);
+                }
+                _connectionString = connectionString;
+            }
+            return connectionString;
+        }
+
+        private String resolve() {
+            ConnectStringParser connectStringParser = _connectStringParser;
+            List<String> addresses = new ArrayList<>();
+
+            Map<String, List<String>> resolved = lookupAll(connectStringParser.getServerAddresses());
+            for (InetSocketAddress hostAndPort : connectStringParser.getServerAddresses()) {
+                List<String> hostAddresses = resolved.get(hostAndPort.getHostName());
+                if (hostAddresses == null) {
+                    // Leave unresolvable host in connect string as-is.  InetSocketAddress.toString() adds
+                    // "/<unresolved>" to it on newer JDKs.
+                    addresses.add(ConnectStrings.toString(hostAndPort));
+                } else {
+                    for (String address : hostAddresses) {
+                        addresses.add(HostAndPort.fromParts(address, hostAndPort.getPort()).toString());
                     }
-                } catch (UnknownHostException e) {
-                    // Leave unresolvable host in connect string as-is.
-                    addresses.add(hostAndPort.toString());
                 }
             }
 
-            Joiner.on(',').appendTo(connectStringBuilder, addresses);
+            return ConnectStrings.join(addresses, connectStringParser.getChrootPath());
+        }
 
-            if (_connectStringParser.getChrootPath() != null) {
-                connectStringBuilder.append(_connectStringParser.getChrootPath());
+        private static ExecutorService newLookupExecutor() {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_LOOKUP_THREADS, MAX_LOOKUP_THREADS,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+                            .setNameFormat("ResolvingEnsembleProvider-lookup-%d")
+                            .setDaemon(true)
+                            .build());
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+
+        /**
+         * Looks up all hosts in parallel, waiting at most the lookup timeout for all of them.  A host whose lookup
+         * from an earlier refresh is still running waits for that lookup rather than starting another one.
+         *
+         * @return The addresses of each host that resolved, or that timed out but resolved before.
+         */
+        private Map<String, List<String>> lookupAll(List<InetSocketAddress> servers) {
+            Map<String, Future<InetAddress[]>> lookups = new LinkedHashMap<>();
+            for (InetSocketAddress server : servers) {
+                final String host = server.getHostName();
+                if (!lookups.containsKey(host)) {
+                    Future<InetAddress[]> lookup = _lookups.get(host);
+                    if (lookup == null || lookup.isDone()) {
+                        lookup = LOOKUP_EXECUTOR.submit(new Callable<InetAddress[]>() {
+                            @Override
+                            public InetAddress[] call() throws UnknownHostException {
+                                return _resolver.lookupAllHostAddr(host);
+                            }
+                        });
+                        _lookups.put(host, lookup);
+                    }
+                    lookups.put(host, lookup);
+                }
             }
 
-            return connectStringBuilder.toString();
+            // Forget hosts that left the connection string.
+            _lookups.keySet().retainAll(lookups.keySet());
+            _lastKnownAddresses.keySet().retainAll(lookups.keySet());
+
+            long deadline = System.nanoTime() + _lookupTimeoutNanos;
+            Map<String, List<String>> resolved = new HashMap<>();
+            for (Map.Entry<String, Future<InetAddress[]>> lookup : lookups.entrySet()) {
+                String host = lookup.getKey();
+                try {
+                    InetAddress[] hostAddresses = lookup.getValue().get(
+                            Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    List<String> addresses = new ArrayList<>(hostAddresses.length);
+                    for (InetAddress address : hostAddresses) {
+                        addresses.add(address.getHostAddress());
+                    }
+                    resolved.put(host, addresses);
+                    _lastKnownAddresses.put(host, addresses);
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof UnknownHostException)) {
+                        LOG.warn("Unable to resolve {}", host, e.getCause());
+                    }
+                } catch (TimeoutException e) {
+                    // Not cancelled: it keeps its thread anyway, and the next refresh waits for it rather than
+                    // starting another lookup.
+                    LOG.warn("Timed out resolving {}, using its last known addresses", host);
+                    List<String> lastKnown = _lastKnownAddresses.get(host);
+                    if (lastKnown != null) {
+                        resolved.put(host, lastKnown);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    List<String> lastKnown = _lastKnownAddresses.get(host);
+                    if (lastKnown != null) {
+                        resolved.put(host, lastKnown);
+                    }
+                }
+            }
+            return resolved;
         }
 
         /**
-         * Does nothing, as no cleanup is required for this provider.
+         * Stops refreshing the connection string in the background.
          *
          * @throws IOException Never.
          */
         @Override
-        public void close() throws IOException {
-            // Do nothing.
+        public synchronized void close() throws IOException {
+            if (_executor != null) {
+                _executor.shutdownNow();
+                _executor = null;
+            }
         }
 
+        /**
+         * Replaces the servers to resolve.  Curator's {@code EnsembleTracker} calls this with the client addresses from
+         * {@code /zookeeper/config} whenever the ensemble is reconfigured.  Those addresses don't include a chroot path,
+         * so the chroot path of the current connection string is kept unless the new one has its own.
+         */
         @Override
-        public void setConnectionString(String connectString) {
-           _connectStringParser = new ConnectStringParser(connectString);
+        public synchronized void setConnectionString(String connectString) {
+            _connectStringParser = new ConnectStringParser(
+                    ConnectStrings.withChrootPath(connectString, _connectStringParser.getChrootPath()));
+            refresh();
         }
 
+        /**
+         * Lets Curator move the client to a new server list with {@code ZooKeeper.updateServerList()}, which only
+         * reconnects the share of clients needed to rebalance, rather than closing the session.  This is what lets
+         * clients follow dynamic reconfiguration of a ZooKeeper 3.5 ensemble.
+         */
         @Override
         public boolean updateServerListEnabled() {
-            return false;
+            return true;
         }
 
+        /** The DNS lookups of this provider and {@link SrvEnsembleProvider}, which tests replace. */
         @VisibleForTesting
         static class Resolver {
             InetAddress[] lookupAllHostAddr(String name) throws UnknownHostException {
                 return InetAddress.getAllByName(name);
             }
+
+            /**
+             * Looks up the SRV records of a name through the JDK's JNDI DNS provider.  JNDI doesn't expose the TTL of
+             * the records, so they are returned with {@link SrvEnsembleProvider.SrvRecord#UNKNOWN_TTL}.
+             *
+             * @throws UnknownHostException If the name has no SRV records or the lookup failed.
+             */
+            List<SrvEnsembleProvider.SrvRecord> lookupSrv(String name) throws UnknownHostException {
+                Hashtable<String, String> env = new Hashtable<>();
+                env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.dns.DnsContextFactory");
+                try {
+                    DirContext context = new InitialDirContext(env);
+                    try {
+                        Attribute srv = context.getAttributes(name, new String[] {"SRV"}).get("SRV");
+                        if (srv == null) {
+                            throw new UnknownHostException(name);
+                        }
+                        List<SrvEnsembleProvider.SrvRecord> records = new ArrayList<>();
+                        for (NamingEnumeration<?> values = srv.getAll(); values.hasMore(); ) {
+                            // Each value is "priority weight port target"
+                            String[] fields = values.next().toString().trim().split("\\s+");
+                            String target = fields[3].endsWith(".")
+                                    ? fields[3].substring(0, fields[3].length() - 1)
+                                    : fields[3];
+                            records.add(new SrvEnsembleProvider.SrvRecord(target, Integer.parseInt(fields[2]),
+                                    SrvEnsembleProvider.SrvRecord.UNKNOWN_TTL));
+                        }
+                        return records;
+                    } finally {
+                        context.close();
+                    }
+                } catch (NamingException | RuntimeException e) {
+                    UnknownHostException unknownHost = new UnknownHostException(name);
+                    unknownHost.initCause(e);
+                    throw unknownHost;
+                }
+            }
         }
     }
 }
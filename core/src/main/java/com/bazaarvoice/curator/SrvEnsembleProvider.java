@@ -0,0 +1,235 @@
+package com.bazaarvoice.curator;
+
+import com.bazaarvoice.curator.ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate.Resolver;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.curator.ensemble.EnsembleProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An ensemble provider that discovers the servers of an ensemble from the DNS SRV records of a single name, such as
+ * {@code _zookeeper._tcp.example.com}, so that both the membership and the client ports of the ensemble come from
+ * DNS.  A chroot path can be appended to the name, as in {@code _zookeeper._tcp.example.com/chroot}.
+ * <p>
+ * The servers are sorted to produce a canonical connection string, like {@link ResolvingEnsembleProvider} does.
+ * Priorities and weights are ignored: the ZooKeeper client spreads its connections over all servers on its own.
+ * </p>
+ * <p>
+ * Records are cached for their TTL and looked up again in the background when it runs out, bounded by a minimum and
+ * maximum refresh interval (5 seconds and 1 minute by default).  The JDK's DNS provider doesn't expose TTLs, so
+ * records it returns are refreshed at the maximum interval.  If a lookup fails or returns no records the last known
+ * servers are kept and the lookup is retried after the minimum interval.
+ * </p>
+ */
+public class SrvEnsembleProvider implements EnsembleProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(SrvEnsembleProvider.class);
+
+    private static final long DEFAULT_MIN_REFRESH_INTERVAL_SECONDS = 5;
+    private static final long DEFAULT_MAX_REFRESH_INTERVAL_SECONDS = 60;
+
+    private final String _srvName;
+    private final String _chrootPath;
+    private final Resolver _resolver;
+    private final long _minRefreshIntervalNanos;
+    private final long _maxRefreshIntervalNanos;
+    private volatile String _connectionString;
+    private ScheduledExecutorService _executor;  // guarded by this
+
+    /** @param srvName The name to look up SRV records for, optionally followed by a chroot path. */
+    public SrvEnsembleProvider(String srvName) {
+        this(srvName, DEFAULT_MIN_REFRESH_INTERVAL_SECONDS, DEFAULT_MAX_REFRESH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param srvName The name to look up SRV records for, optionally followed by a chroot path.
+     * @param minRefreshInterval The minimum time between lookups, regardless of the TTL of the records.  Also how soon
+     *                           a failed lookup is retried.
+     * @param maxRefreshInterval The maximum time between lookups, regardless of the TTL of the records.
+     * @param unit The unit of {@code minRefreshInterval} and {@code maxRefreshInterval}.
+     */
+    public SrvEnsembleProvider(String srvName, long minRefreshInterval, long maxRefreshInterval, TimeUnit unit) {
+        this(srvName, new Resolver(), minRefreshInterval, maxRefreshInterval, unit);
+    }
+
+    @VisibleForTesting
+    SrvEnsembleProvider(String srvName, Resolver resolver, long minRefreshInterval, long maxRefreshInterval,
+                        TimeUnit unit) {
+        int slash = srvName.indexOf('/');
+        _srvName = slash >= 0 ? srvName.substring(0, slash) : srvName;
+        _chrootPath = slash >= 0 ? srvName.substring(slash) : null;
+        checkArgument(!_srvName.isEmpty(), "srvName must not be empty");
+        _resolver = Objects.requireNonNull(resolver, "resolver");
+        _minRefreshIntervalNanos = unit.toNanos(minRefreshInterval);
+        _maxRefreshIntervalNanos = unit.toNanos(maxRefreshInterval);
+        checkArgument(_minRefreshIntervalNanos > 0, "minRefreshInterval must be positive");
+        checkArgument(_maxRefreshIntervalNanos >= _minRefreshIntervalNanos,
+                "maxRefreshInterval must be at least minRefreshInterval");
+    }
+
+    /**
+     * Looks up the servers and starts refreshing them in the background.
+     *
+     * @throws UnknownHostException If the name has no SRV records.
+     */
+    @Override
+    public void start() throws UnknownHostException {
+        long delayNanos = lookup();
+        synchronized (this) {
+            if (_executor != null) {
+                return;
+            }
+            _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("SrvEnsembleProvider[" + _srvName + "]-%d")
+                    .setDaemon(true)
+                    .build());
+            schedule(delayNanos);
+        }
+    }
+
+    private synchronized void schedule(long delayNanos) {
+        if (_executor == null) {
+            return;  // Closed
+        }
+        _executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                long nextDelayNanos;
+                try {
+                    nextDelayNanos = refresh();
+                } catch (RuntimeException e) {
+                    LOG.warn("Unable to refresh the ZooKeeper servers of {}", _srvName, e);
+                    nextDelayNanos = _minRefreshIntervalNanos;
+                }
+                schedule(nextDelayNanos);
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Looks up the servers again, keeping the last known ones if the lookup fails.
+     *
+     * @return The number of nanoseconds until the next refresh.
+     */
+    @VisibleForTesting
+    long refresh() {
+        try {
+            return lookup();
+        } catch (UnknownHostException e) {
+            LOG.warn("Unable to look up the ZooKeeper servers of {}, keeping {}", _srvName, _connectionString, e);
+            return _minRefreshIntervalNanos;
+        }
+    }
+
+    /**
+     * Looks up the servers without holding the lock, so that a slow DNS server doesn't block
+     * {@link #setConnectionString(String)} on Curator's event thread.
+     *
+     * @return The number of nanoseconds the records may be cached for, bounded by the refresh intervals.
+     */
+    private long lookup() throws UnknownHostException {
+        List<SrvRecord> records = _resolver.lookupSrv(_srvName);
+        if (records.isEmpty()) {
+            throw new UnknownHostException(_srvName);
+        }
+
+        List<String> servers = new ArrayList<>();
+        long ttlNanos = _maxRefreshIntervalNanos;
+        for (SrvRecord record : records) {
+            servers.add(HostAndPort.fromParts(record.getTarget(), record.getPort()).toString());
+            if (record.getTtlSeconds() != SrvRecord.UNKNOWN_TTL) {
+                ttlNanos = Math.min(ttlNanos, TimeUnit.SECONDS.toNanos(record.getTtlSeconds()));
+            }
+        }
+
+        publish(ConnectStrings.join(servers, _chrootPath));
+        return Math.max(ttlNanos, _minRefreshIntervalNanos);
+    }
+
+    private synchronized void publish(String connectionString) {
+        if (!connectionString.equals(_connectionString)) {
+            if (_connectionString != null) {
+                LOG.info("ZooKeeper connection string changed from {} to {}", _connectionString, connectionString);
+            }
+            _connectionString = connectionString;
+        }
+    }
+
+    /**
+     * Curator asks for the connection string whenever it connects, so this never looks up the servers itself.
+     *
+     * @return The servers as of the last lookup, or an empty string if they were never looked up successfully, which
+     *         happens only when the provider wasn't started.
+     */
+    @Override
+    public String getConnectionString() {
+        String connectionString = _connectionString;
+        return connectionString != null ? connectionString : "";
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (_executor != null) {
+            _executor.shutdownNow();
+            _executor = null;
+        }
+    }
+
+    /**
+     * Uses the connection string until the next lookup.  Curator's {@code EnsembleTracker} calls this when the
+     * ensemble is reconfigured, the configured chroot path is kept unless the new connection string has its own.
+     */
+    @Override
+    public synchronized void setConnectionString(String connectString) {
+        _connectionString = ConnectStrings.canonicalize(ConnectStrings.withChrootPath(connectString, _chrootPath));
+    }
+
+    @Override
+    public boolean updateServerListEnabled() {
+        return true;
+    }
+
+    /** A server from a DNS SRV record. */
+    static final class SrvRecord {
+        static final long UNKNOWN_TTL = -1;
+
+        private final String _target;
+        private final int _port;
+        private final long _ttlSeconds;
+
+        /**
+         * @param target The host name of the server.
+         * @param port The client port of the server.
+         * @param ttlSeconds How long the record may be cached, or {@link #UNKNOWN_TTL}.
+         */
+        SrvRecord(String target, int port, long ttlSeconds) {
+            _target = target;
+            _port = port;
+            _ttlSeconds = ttlSeconds;
+        }
+
+        String getTarget() {
+            return _target;
+        }
+
+        int getPort() {
+            return _port;
+        }
+
+        long getTtlSeconds() {
+            return _ttlSeconds;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.bazaarvoice.curator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimiterTest {
+    private final FakeTicker _ticker = new FakeTicker();
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInitialLimitAboveMax() {
+        AdaptiveConcurrencyLimiter.builder().initialLimit(10).maxLimit(5).build();
+    }
+
+    @Test
+    public void testAdmitsUpToLimit() {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(2);
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+
+        limiter.execute(false, permits::add);
+        limiter.execute(false, permits::add);
+        limiter.execute(false, permits::add);
+
+        assertEquals(2, permits.size());
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(1, limiter.getPending());
+    }
+
+    @Test
+    public void testReleaseDispatchesInOrder() {
+        AdaptiveConcurrencyLimiter limiter = newFixedLimiter(1);
+        List<String> sent = new ArrayList<>();
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+
+        limiter.execute(false, permit -> {
+            sent.add("first");
+            permits.add(permit);
+        });
+        limiter.execute(false, permit -> {
+            sent.add("second");
+            permits.add(permit);
+        });
+        limiter.execute(false, permit -> {
+            sent.add("third");
+            permits.add(permit);
+        });
+        assertEquals(1, sent.size());
+
+        permits.get(0).release(false);
+        assertEquals(2, sent.size());
+        assertEquals("second", sent.get(1));
+
+        permits.get(1).release(false);
+        assertEquals(3, sent.size());
+        assertEquals("third", sent.get(2));
+        assertEquals(0, limiter.getPending());
+    }
+
+    @Test
+    public void testCriticalBypassesLimit() {
+        AdaptiveConcurrencyLimiter limiter = newLaneLimiter(2);
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+
+        limiter.execute(false, permits::add);
+        limiter.execute(true, permits::add);
+
+        assertEquals(2, permits.size());
+        assertEquals(2, limiter.getInFlight());
+
+        // At the max limit even critical requests wait, in their own lane that goes before the normal one.
+        limiter.execute(false, permits::add);
+        limiter.execute(true, permits::add);
+        assertEquals(2, limiter.getPending());
+
+        permits.get(0).release(true);
+        assertEquals(3, permits.size());
+        assertEquals(1, limiter.getPending());
+
+        // The critical requests count towards the limit, so the normal one has to wait for both.
+        permits.get(1).release(true);
+        assertEquals(3, permits.size());
+        permits.get(2).release(true);
+        assertEquals(4, permits.size());
+        assertEquals(0, limiter.getPending());
+    }
+
+    @Test
+    public void testCriticalOvertakesQueued() {
+        AdaptiveConcurrencyLimiter limiter = newLaneLimiter(10);
+        List<String> sent = new ArrayList<>();
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+
+        limiter.execute(false, permit -> {
+            sent.add("first");
+            permits.add(permit);
+        });
+        limiter.execute(false, permit -> {
+            sent.add("queued");
+            permits.add(permit);
+        });
+        limiter.execute(true, permit -> {
+            sent.add("critical");
+            permits.add(permit);
+        });
+        assertEquals(Arrays.asList("first", "critical"), sent);
+        assertEquals(1, limiter.getPending());
+
+        // The queued request waits until the critical one has made room under the limit too.
+        permits.get(0).release(true);
+        assertEquals(Arrays.asList("first", "critical"), sent);
+        permits.get(1).release(true);
+        assertEquals(Arrays.asList("first", "critical", "queued"), sent);
+        assertEquals(0, limiter.getPending());
+    }
+
+    @Test
+    public void testAcquireCriticalOvertakesQueued() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = newLaneLimiter(10);
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        limiter.execute(false, permits::add);
+        limiter.execute(false, permits::add);
+
+        assertNotNull(limiter.acquire(true));
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(1, limiter.getPending());
+    }
+
+    @Test
+    public void testDoubleReleaseIgnored() {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(2);
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        limiter.execute(false, permits::add);
+        limiter.execute(false, permits::add);
+
+        permits.get(0).release(false);
+        permits.get(0).release(false);
+
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void testFailedSendReleasesPermit() {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(1);
+
+        try {
+            limiter.execute(false, permit -> {
+                throw new IllegalArgumentException();
+            });
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testLimitIncreasesUnderLoad() {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(4);
+
+        for (int i = 0; i < 20; i++) {
+            List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+            for (int j = 0; j < limiter.getLimit(); j++) {
+                limiter.execute(false, permits::add);
+            }
+            for (AdaptiveConcurrencyLimiter.Permit permit : permits) {
+                permit.release(false);
+            }
+        }
+
+        assertTrue(limiter.getLimit() > 4);
+    }
+
+    @Test
+    public void testLimitDoesNotIncreaseWhenIdle() {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(10);
+
+        for (int i = 0; i < 100; i++) {
+            take(limiter).release(false);
+        }
+
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitDecreasesOncePerRoundTrip() {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(10);
+        List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            limiter.execute(false, permits::add);
+        }
+
+        // All of them time out, but that's one sign of overload, not five.
+        for (AdaptiveConcurrencyLimiter.Permit permit : permits) {
+            permit.release(true);
+        }
+        assertEquals(5, limiter.getLimit());
+
+        // A request sent after the back off can lower the limit again.
+        take(limiter).release(true);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testSlowRequestDecreasesLimit() {
+        AdaptiveConcurrencyLimiter limiter = newLimiter(10);
+        AdaptiveConcurrencyLimiter.Permit permit = take(limiter);
+
+        _ticker.advance(TimeUnit.SECONDS.toMillis(1));
+        permit.release(false);
+
+        assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitStaysAboveMin() {
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.builder()
+                .initialLimit(2)
+                .minLimit(2)
+                .ticker(_ticker)
+                .build();
+
+        for (int i = 0; i < 10; i++) {
+            take(limiter).release(true);
+        }
+
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void testAcquireWaitsForRelease() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.builder()
+                .initialLimit(1)
+                .minLimit(1)
+                .maxWait(1, TimeUnit.MINUTES)
+                .build();
+        final AdaptiveConcurrencyLimiter.Permit held = limiter.acquire(false);
+
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            held.release(false);
+        });
+        releaser.start();
+
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire(false);
+        assertNotNull(permit);
+        assertEquals(1, limiter.getInFlight());
+        releaser.join();
+    }
+
+    @Test
+    public void testAcquireGoesAheadAfterMaxWait() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.builder()
+                .initialLimit(1)
+                .minLimit(1)
+                .maxWait(10, TimeUnit.MILLISECONDS)
+                .build();
+        limiter.acquire(false);
+
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire(false);
+
+        assertNotNull(permit);
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(0, limiter.getPending());
+    }
+
+    private AdaptiveConcurrencyLimiter newFixedLimiter(int limit) {
+        return AdaptiveConcurrencyLimiter.builder()
+                .initialLimit(limit)
+                .minLimit(limit)
+                .maxLimit(limit)
+                .ticker(_ticker)
+                .build();
+    }
+
+    /** A limit of one that stays put as long as requests are released as dropped. */
+    private AdaptiveConcurrencyLimiter newLaneLimiter(int maxLimit) {
+        return AdaptiveConcurrencyLimiter.builder()
+                .initialLimit(1)
+                .minLimit(1)
+                .maxLimit(maxLimit)
+                .ticker(_ticker)
+                .build();
+    }
+
+    private AdaptiveConcurrencyLimiter newLimiter(int limit) {
+        return AdaptiveConcurrencyLimiter.builder()
+                .initialLimit(limit)
+                .minLimit(1)
+                .maxLimit(100)
+                .backoffRatio(0.5)
+                .latencyThreshold(100, TimeUnit.MILLISECONDS)
+                .maxWait(0, TimeUnit.MILLISECONDS)
+                .ticker(_ticker)
+                .build();
+    }
+
+    private static AdaptiveConcurrencyLimiter.Permit take(AdaptiveConcurrencyLimiter limiter) {
+        AtomicReference<AdaptiveConcurrencyLimiter.Permit> permit = new AtomicReference<>();
+        limiter.execute(false, permit::set);
+        return permit.get();
+    }
+}
@@ -0,0 +1,265 @@
+package com.bazaarvoice.curator;
+
+import org.apache.curator.RetrySleeper;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class AdaptiveRetryPolicyTest {
+    private final FakeTicker _ticker = new FakeTicker();
+    private final RetrySleeper _sleeper = mock(RetrySleeper.class);
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxSleepLessThanBase() {
+        AdaptiveRetryPolicy.builder()
+                .baseSleepTime(1, TimeUnit.SECONDS)
+                .maxSleepTime(100, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroBudget() {
+        AdaptiveRetryPolicy.builder().retryBudget(0).build();
+    }
+
+    @Test
+    public void testSleepsWithinBounds() throws Exception {
+        AdaptiveRetryPolicy policy = AdaptiveRetryPolicy.builder()
+                .baseSleepTime(100, TimeUnit.MILLISECONDS)
+                .maxSleepTime(1, TimeUnit.SECONDS)
+                .build();
+
+        for (int i = 0; i < 1000; i++) {
+            long first = policy.getSleepTimeMs(0);
+            assertTrue(first >= 50 && first <= 100);
+
+            long second = policy.getSleepTimeMs(1);
+            assertTrue(second >= 50 && second <= 200);
+
+            long capped = policy.getSleepTimeMs(100);
+            assertTrue(capped >= 50 && capped <= 1000);
+        }
+    }
+
+    @Test
+    public void testFirstSleepJittered() {
+        AdaptiveRetryPolicy policy = AdaptiveRetryPolicy.builder()
+                .baseSleepTime(100, TimeUnit.MILLISECONDS)
+                .build();
+
+        long first = policy.getSleepTimeMs(0);
+        for (int i = 0; i < 100; i++) {
+            if (policy.getSleepTimeMs(0) != first) {
+                return;
+            }
+        }
+        throw new AssertionError("First sleep time never varied");
+    }
+
+    @Test
+    public void testSleepsAreJittered() {
+        AdaptiveRetryPolicy policy = AdaptiveRetryPolicy.builder()
+                .baseSleepTime(1, TimeUnit.MILLISECONDS)
+                .maxSleepTime(1, TimeUnit.MINUTES)
+                .build();
+
+        long first = policy.getSleepTimeMs(20);
+        for (int i = 0; i < 100; i++) {
+            if (policy.getSleepTimeMs(20) != first) {
+                return;
+            }
+        }
+        throw new AssertionError("Sleep time never varied");
+    }
+
+    @Test
+    public void testMaxRetries() throws Exception {
+        AdaptiveRetryPolicy policy = newPolicy();
+
+        assertTrue(policy.allowRetry(0, 0, _sleeper));
+        assertTrue(policy.allowRetry(1, 0, _sleeper));
+        assertTrue(policy.allowRetry(2, 0, _sleeper));
+        assertFalse(policy.allowRetry(3, 0, _sleeper));
+        verify(_sleeper, times(3)).sleepFor(anyLong(), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testBudgetExhausted() {
+        AdaptiveRetryPolicy policy = newPolicy();
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(policy.allowRetry(0, 0, _sleeper));
+        }
+        assertFalse(policy.allowRetry(0, 0, _sleeper));
+    }
+
+    @Test
+    public void testBudgetRefills() {
+        AdaptiveRetryPolicy policy = newPolicy();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(policy.tryAcquire());
+        }
+        assertFalse(policy.tryAcquire());
+
+        // One token per second.
+        _ticker.advance(500);
+        assertFalse(policy.tryAcquire());
+        _ticker.advance(500);
+        assertTrue(policy.tryAcquire());
+        assertFalse(policy.tryAcquire());
+
+        // Never more than the burst size.
+        _ticker.advance(60_000);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(policy.tryAcquire());
+        }
+        assertFalse(policy.tryAcquire());
+    }
+
+    @Test
+    public void testOccasionalRefusalsDoNotTrip() {
+        AdaptiveRetryPolicy policy = AdaptiveRetryPolicy.builder()
+                .retryBudget(2)
+                .retryBudgetPerSecond(2)
+                .tripAfter(10, TimeUnit.SECONDS)
+                .ticker(_ticker)
+                .build();
+
+        // A third of the retries are refused, for much longer than the window.
+        for (int i = 0; i < 60; i++) {
+            _ticker.advance(1000);
+            assertTrue(policy.tryAcquire());
+            assertTrue(policy.tryAcquire());
+            assertFalse(policy.tryAcquire());
+            assertFalse(policy.isOpen());
+        }
+    }
+
+    @Test
+    public void testRefusedBurstDoesNotTrip() {
+        AdaptiveRetryPolicy policy = newPolicy();
+        exhaust(policy);
+
+        // Half the retries were refused, but no more than a burst.
+        refuse(policy, 4);
+        assertFalse(policy.isOpen());
+    }
+
+    @Test
+    public void testTripsOpenAndCloses() {
+        AdaptiveRetryPolicy policy = newPolicy();
+        exhaust(policy);
+        refuse(policy, 4);
+        assertFalse(policy.isOpen());
+
+        // More than a burst refused, and more than half of all retries.
+        assertFalse(policy.tryAcquire());
+        assertTrue(policy.isOpen());
+
+        // While open, nothing is retried even though the budget has refilled.
+        _ticker.advance(29_000);
+        assertTrue(policy.isOpen());
+        assertFalse(policy.allowRetry(0, 0, _sleeper));
+
+        _ticker.advance(1_000);
+        assertFalse(policy.isOpen());
+        assertTrue(policy.tryAcquire());
+    }
+
+    @Test
+    public void testRefusalsExpireFromWindow() {
+        AdaptiveRetryPolicy policy = newPolicy();
+        exhaust(policy);
+        refuse(policy, 4);
+
+        // Counted together with the earlier refusals these would trip the breaker, but the window has moved on.
+        _ticker.advance(11_000);
+        exhaust(policy);
+        refuse(policy, 4);
+        assertFalse(policy.isOpen());
+    }
+
+    @Test
+    public void testSustainedOverloadTripsWithDefaults() {
+        AdaptiveRetryPolicy policy = AdaptiveRetryPolicy.builder().ticker(_ticker).build();
+
+        // 25 retries per second against a budget of 10 per second.
+        long elapsed = 0;
+        while (!policy.isOpen()) {
+            assertTrue("Breaker never tripped", elapsed < 10_000);
+            policy.tryAcquire();
+            _ticker.advance(40);
+            elapsed += 40;
+        }
+        assertFalse(policy.tryAcquire());
+    }
+
+    @Test
+    public void testLoadWithinBudgetDoesNotTripWithDefaults() {
+        AdaptiveRetryPolicy policy = AdaptiveRetryPolicy.builder().ticker(_ticker).build();
+
+        // 8 retries per second against a budget of 10 per second.
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(policy.tryAcquire());
+            _ticker.advance(125);
+        }
+        assertFalse(policy.isOpen());
+    }
+
+    @Test
+    public void testNewInstanceHasOwnBudget() {
+        AdaptiveRetryPolicy policy = newPolicy();
+        exhaust(policy);
+
+        AdaptiveRetryPolicy copy = policy.newInstance();
+        assertTrue(copy.tryAcquire());
+        assertFalse(policy.tryAcquire());
+    }
+
+    @Test
+    public void testInterruptedSleep() throws Exception {
+        doThrow(new InterruptedException()).when(_sleeper).sleepFor(anyLong(), eq(TimeUnit.MILLISECONDS));
+
+        try {
+            assertFalse(newPolicy().allowRetry(0, 0, _sleeper));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    /** A policy with a budget of 5 retries, refilled at 1 per second, that counts refusals over 10 seconds. */
+    private AdaptiveRetryPolicy newPolicy() {
+        return AdaptiveRetryPolicy.builder()
+                .baseSleepTime(1, TimeUnit.MILLISECONDS)
+                .maxSleepTime(10, TimeUnit.MILLISECONDS)
+                .maxRetries(3)
+                .retryBudget(5)
+                .retryBudgetPerSecond(1)
+                .tripAfter(10, TimeUnit.SECONDS)
+                .ticker(_ticker)
+                .build();
+    }
+
+    /** Takes every token, which ends with one refused retry. */
+    private static void exhaust(AdaptiveRetryPolicy policy) {
+        while (policy.tryAcquire()) {
+            // Use up the budget
+        }
+    }
+
+    private static void refuse(AdaptiveRetryPolicy policy, int times) {
+        for (int i = 0; i < times; i++) {
+            assertFalse(policy.tryAcquire());
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.bazaarvoice.curator;
+
+import com.bazaarvoice.curator.test.ZooKeeperTest;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.retry.RetryNTimes;
+import org.apache.zookeeper.CreateMode;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrencyLimitingZooKeeperTest extends ZooKeeperTest {
+    private AdaptiveConcurrencyLimiter _limiter;
+    private CuratorFramework _curator;
+
+    @Before
+    public void setupCurator() throws Exception {
+        _limiter = AdaptiveConcurrencyLimiter.builder()
+                .initialLimit(1)
+                .minLimit(1)
+                .maxLimit(10)
+                .maxWait(1, TimeUnit.MINUTES)
+                .build();
+        _curator = newCurator(CuratorFrameworkFactory.builder()
+                .retryPolicy(new RetryNTimes(0, 0))
+                .zookeeperFactory(ConcurrencyLimitingZooKeeper.factory(_limiter, Collections.singleton("/priority"))));
+        assertTrue(_curator.blockUntilConnected(1, TimeUnit.MINUTES));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRelativePriorityPath() {
+        ConcurrencyLimitingZooKeeper.factory(_limiter, Collections.singleton("relative"));
+    }
+
+    @Test
+    public void testOperationsReleasePermits() throws Exception {
+        _curator.create().forPath("/node", "data".getBytes());
+        assertArrayEquals("data".getBytes(), _curator.getData().forPath("/node"));
+        _curator.setData().forPath("/node", "other".getBytes());
+        assertEquals(1, _curator.getChildren().forPath("/").stream().filter("node"::equals).count());
+        _curator.transaction().forOperations(_curator.transactionOp().delete().forPath("/node"));
+        assertNull(_curator.checkExists().forPath("/node"));
+
+        assertEquals(0, _limiter.getInFlight());
+    }
+
+    @Test
+    public void testBackgroundOperationsReleasePermits() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        _curator.create().inBackground(new BackgroundCallback() {
+            @Override
+            public void processResult(CuratorFramework client, CuratorEvent event) {
+                done.countDown();
+            }
+        }).forPath("/node");
+
+        assertTrue(done.await(1, TimeUnit.MINUTES));
+        assertEquals(0, _limiter.getInFlight());
+    }
+
+    @Test
+    public void testNormalRequestsWaitForRoom() throws Exception {
+        AdaptiveConcurrencyLimiter.Permit held = _limiter.acquire(false);
+
+        CountDownLatch done = new CountDownLatch(1);
+        _curator.checkExists().inBackground(new BackgroundCallback() {
+            @Override
+            public void processResult(CuratorFramework client, CuratorEvent event) {
+                done.countDown();
+            }
+        }).forPath("/node");
+
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, _limiter.getPending());
+
+        held.release(false);
+        assertTrue(done.await(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void testRecipeMaintenanceBypassesLimit() throws Exception {
+        _limiter.acquire(false);
+
+        // Ephemeral and container nodes, watches and priority paths are all admitted while the limiter is full.
+        CountDownLatch done = new CountDownLatch(7);
+        BackgroundCallback callback = new BackgroundCallback() {
+            @Override
+            public void processResult(CuratorFramework client, CuratorEvent event) {
+                done.countDown();
+            }
+        };
+        _curator.create().withMode(CreateMode.EPHEMERAL).inBackground(callback).forPath("/ephemeral");
+        _curator.create().withMode(CreateMode.CONTAINER).inBackground(callback).forPath("/container");
+        _curator.checkExists().watched().inBackground(callback).forPath("/ephemeral");
+        _curator.getChildren().watched().inBackground(callback).forPath("/");
+        _curator.create().inBackground(callback).forPath("/priority");
+        _curator.create().inBackground(callback).forPath("/priority/child");
+        _curator.getData().inBackground(callback).forPath("/priority/child");
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, _limiter.getPending());
+    }
+
+    @Test
+    public void testCriticalRequestsOvertakeQueued() throws Exception {
+        AdaptiveConcurrencyLimiter.Permit held = _limiter.acquire(false);
+
+        List<String> completed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch created = new CountDownLatch(1);
+        CountDownLatch checked = new CountDownLatch(1);
+        _curator.create().inBackground(new BackgroundCallback() {
+            @Override
+            public void processResult(CuratorFramework client, CuratorEvent event) {
+                completed.add("create");
+                created.countDown();
+            }
+        }).forPath("/node");
+        _curator.checkExists().watched().inBackground(new BackgroundCallback() {
+            @Override
+            public void processResult(CuratorFramework client, CuratorEvent event) {
+                completed.add(event.getStat() != null ? "exists" : "missing");
+                checked.countDown();
+            }
+        }).forPath("/node");
+
+        // The watch is critical, so it goes ahead of the create that is waiting for room.
+        assertTrue(checked.await(10, TimeUnit.SECONDS));
+        held.release(false);
+        assertTrue(created.await(1, TimeUnit.MINUTES));
+        assertEquals(Arrays.asList("missing", "create"), completed);
+    }
+
+    @Test
+    public void testSynchronousCriticalRequestOvertakesQueued() throws Exception {
+        AdaptiveConcurrencyLimiter.Permit held = _limiter.acquire(false);
+        _curator.getZookeeperClient().getZooKeeper().exists("/node", false, null, null);
+        assertEquals(1, _limiter.getPending());
+
+        // Recreating an ephemeral node mustn't wait for the queued read, which would take the whole maxWait.
+        long start = System.nanoTime();
+        _curator.create().withMode(CreateMode.EPHEMERAL).forPath("/ephemeral");
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+
+        held.release(false);
+    }
+
+    @Test
+    public void testSynchronousRequestOnEventThread() throws Exception {
+        _limiter.acquire(false);
+
+        // A blocking read from a callback would otherwise wait a minute for the permit that is held.
+        CountDownLatch done = new CountDownLatch(1);
+        _curator.checkExists().watched().inBackground(new BackgroundCallback() {
+            @Override
+            public void processResult(CuratorFramework client, CuratorEvent event) throws Exception {
+                client.getChildren().forPath("/");
+                done.countDown();
+            }
+        }).forPath("/node");
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPriorityPathMatchesWholeSegments() throws Exception {
+        AdaptiveConcurrencyLimiter.Permit held = _limiter.acquire(false);
+
+        CountDownLatch done = new CountDownLatch(1);
+        _curator.checkExists().inBackground(new BackgroundCallback() {
+            @Override
+            public void processResult(CuratorFramework client, CuratorEvent event) {
+                done.countDown();
+            }
+        }).forPath("/priorityless");
+
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        held.release(false);
+        assertTrue(done.await(1, TimeUnit.MINUTES));
+    }
+}
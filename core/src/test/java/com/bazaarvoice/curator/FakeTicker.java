@@ -0,0 +1,19 @@
+package com.bazaarvoice.curator;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/** A ticker that only moves when a test advances it. */
+class FakeTicker extends Ticker {
+    private volatile long _nanos;
+
+    void advance(long millis) {
+        _nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    public long read() {
+        return _nanos;
+    }
+}
@@ -0,0 +1,173 @@
+package com.bazaarvoice.curator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileEnsembleProviderTest {
+    @Rule
+    public final TemporaryFolder _folder = new TemporaryFolder();
+
+    private Path _file;
+    private FileEnsembleProvider _provider;
+
+    @Before
+    public void setup() {
+        _file = _folder.getRoot().toPath().resolve("ensemble");
+        _provider = new FileEnsembleProvider(_file);
+    }
+
+    @After
+    public void teardown() throws IOException {
+        _provider.close();
+    }
+
+    private void write(Path file, String contents) throws IOException {
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void awaitConnectionString(String expected) throws InterruptedException {
+        // Some platforms poll for file changes instead of being notified, give them plenty of time.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!expected.equals(_provider.getConnectionString()) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, _provider.getConnectionString());
+    }
+
+    @Test
+    public void testCanonical() throws Exception {
+        write(_file, "c:2181,a:2181,b:2181/chroot\n");
+        _provider.start();
+
+        assertEquals("a:2181,b:2181,c:2181/chroot", _provider.getConnectionString());
+    }
+
+    @Test
+    public void testOneServerPerLine() throws Exception {
+        write(_file, "b:2181\n  a:2182\n\n");
+        _provider.start();
+
+        assertEquals("a:2182,b:2181", _provider.getConnectionString());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingFile() throws Exception {
+        _provider.start();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyFile() throws Exception {
+        write(_file, " \n");
+        _provider.start();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testServerWithoutPort() throws Exception {
+        write(_file, "a:2181,b");
+        _provider.start();
+    }
+
+    @Test
+    public void testKeepsConnectionStringWhenCutOff() throws Exception {
+        write(_file, "a:2181,b:2181");
+        _provider.start();
+
+        write(_file, "a:2181,b:");
+        _provider.reload();
+        assertEquals("a:2181,b:2181", _provider.getConnectionString());
+    }
+
+    @Test
+    public void testReloadOnChange() throws Exception {
+        write(_file, "a:2181");
+        _provider.start();
+
+        write(_file, "a:2181,b:2181");
+        awaitConnectionString("a:2181,b:2181");
+    }
+
+    @Test
+    public void testReloadOnAtomicReplace() throws Exception {
+        write(_file, "a:2181");
+        _provider.start();
+
+        Path temp = _folder.newFile().toPath();
+        write(temp, "c:2181");
+        Files.move(temp, _file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        awaitConnectionString("c:2181");
+    }
+
+    @Test
+    public void testReloadOnSymlinkSwap() throws Exception {
+        // Laid out like a Kubernetes ConfigMap volume: the file links into a directory that is swapped atomically.
+        Path root = _folder.getRoot().toPath();
+        Path first = Files.createDirectory(root.resolve("..first"));
+        write(first.resolve("ensemble"), "a:2181");
+        Files.createSymbolicLink(root.resolve("..data"), first.getFileName());
+        Files.createSymbolicLink(_file, root.getFileSystem().getPath("..data", "ensemble"));
+        _provider.start();
+        assertEquals("a:2181", _provider.getConnectionString());
+
+        Path second = Files.createDirectory(root.resolve("..second"));
+        write(second.resolve("ensemble"), "b:2181");
+        Path link = Files.createSymbolicLink(root.resolve("..data_tmp"), second.getFileName());
+        Files.move(link, root.resolve("..data"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        awaitConnectionString("b:2181");
+    }
+
+    @Test
+    public void testKeepsConnectionStringWhenEmptied() throws Exception {
+        write(_file, "a:2181");
+        _provider.start();
+
+        write(_file, "");
+        _provider.reload();
+        assertEquals("a:2181", _provider.getConnectionString());
+
+        Files.delete(_file);
+        _provider.reload();
+        assertEquals("a:2181", _provider.getConnectionString());
+    }
+
+    @Test
+    public void testSetConnectionStringKeepsChrootPath() throws Exception {
+        write(_file, "a:2181/chroot");
+        _provider.start();
+
+        _provider.setConnectionString("b:2181,a:2181");
+        assertEquals("a:2181,b:2181/chroot", _provider.getConnectionString());
+    }
+
+    @Test
+    public void testReloadKeepsSetConnectionStringUntilFileChanges() throws Exception {
+        write(_file, "a:2181");
+        _provider.start();
+
+        // The poll, or a change to another file in the directory, mustn't revert a reconfigured ensemble.
+        _provider.setConnectionString("a:2181,b:2181");
+        _provider.reload();
+        assertEquals("a:2181,b:2181", _provider.getConnectionString());
+
+        write(_file, "c:2181");
+        _provider.reload();
+        assertEquals("c:2181", _provider.getConnectionString());
+    }
+
+    @Test
+    public void testUpdateServerListEnabled() {
+        assertTrue(_provider.updateServerListEnabled());
+    }
+}
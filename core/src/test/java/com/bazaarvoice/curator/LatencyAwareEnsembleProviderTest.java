@@ -0,0 +1,173 @@
+package com.bazaarvoice.curator;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.curator.ensemble.fixed.FixedEnsembleProvider;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyAwareEnsembleProviderTest {
+    private static final String SERVERS = "a:2181,b:2181,c:2181,d:2181";
+
+    private final Map<String, LatencyAwareEnsembleProvider.ServerStatus> _statuses = new ConcurrentHashMap<>();
+    private final LatencyAwareEnsembleProvider.Prober _prober = new LatencyAwareEnsembleProvider.Prober() {
+        @Override
+        public LatencyAwareEnsembleProvider.ServerStatus probe(InetSocketAddress server, int timeoutMillis)
+                throws IOException {
+            LatencyAwareEnsembleProvider.ServerStatus status = _statuses.get(server.getHostString());
+            if (status == null) {
+                throw new IOException("Connection refused");
+            }
+            return status;
+        }
+    };
+
+    private void whenProbed(String host, long connectMillis, int connections) {
+        _statuses.put(host, new LatencyAwareEnsembleProvider.ServerStatus(
+                TimeUnit.MILLISECONDS.toNanos(connectMillis), connections));
+    }
+
+    private LatencyAwareEnsembleProvider.Builder newBuilder(String connectString) {
+        return LatencyAwareEnsembleProvider.builder()
+                .delegate(new FixedEnsembleProvider(connectString))
+                .prober(_prober)
+                .maxServers(2);
+    }
+
+    @Test
+    public void testDelegateConnectionStringBeforeProbe() {
+        LatencyAwareEnsembleProvider provider = newBuilder(SERVERS).build();
+
+        assertEquals(SERVERS, provider.getConnectionString());
+    }
+
+    @Test
+    public void testNearestServers() {
+        whenProbed("a", 40, 0);
+        whenProbed("b", 1, 0);
+        whenProbed("c", 20, 0);
+        whenProbed("d", 2, 0);
+        LatencyAwareEnsembleProvider provider = newBuilder(SERVERS)
+                .latencyGranularity(1, TimeUnit.MILLISECONDS)
+                .build();
+
+        assertEquals("b:2181,d:2181", provider.probe());
+        assertEquals("b:2181,d:2181", provider.getConnectionString());
+    }
+
+    @Test
+    public void testLeastLoadedWithinGranularity() {
+        whenProbed("a", 1, 100);
+        whenProbed("b", 2, 5);
+        whenProbed("c", 3, 10);
+        whenProbed("d", 50, 0);
+        LatencyAwareEnsembleProvider provider = newBuilder(SERVERS).build();
+
+        assertEquals("b:2181,c:2181", provider.probe());
+    }
+
+    @Test
+    public void testPreferredZone() {
+        whenProbed("a", 1, 0);
+        whenProbed("b", 1, 0);
+        whenProbed("c", 30, 0);
+        whenProbed("d", 40, 0);
+        Map<String, String> zones = ImmutableMap.of("a", "east", "b", "east", "c", "west", "d", "west");
+        LatencyAwareEnsembleProvider provider = newBuilder(SERVERS).preferredZone("west", zones::get).build();
+
+        assertEquals("c:2181,d:2181", provider.probe());
+    }
+
+    @Test
+    public void testUnreachableServersLast() {
+        whenProbed("c", 30, 0);
+        LatencyAwareEnsembleProvider provider = newBuilder(SERVERS).build();
+
+        // Only c is reachable, the next best is picked among the unreachable ones so the client has a fallback.
+        assertEquals("a:2181,c:2181", provider.probe());
+    }
+
+    @Test
+    public void testKeepsChrootPath() {
+        whenProbed("a", 10, 0);
+        whenProbed("b", 1, 0);
+        whenProbed("c", 1, 0);
+        LatencyAwareEnsembleProvider provider = newBuilder("a:2181,b:2181,c:2181/chroot").build();
+
+        assertEquals("b:2181,c:2181/chroot", provider.probe());
+    }
+
+    @Test
+    public void testSetConnectionString() {
+        whenProbed("a", 1, 0);
+        whenProbed("e", 1, 0);
+        LatencyAwareEnsembleProvider provider = newBuilder("a:2181").build();
+        assertEquals("a:2181", provider.probe());
+
+        // Not started, so the new servers aren't probed and the full list is used.
+        provider.setConnectionString("a:2181,e:2181,f:2181");
+        assertEquals("a:2181,e:2181,f:2181", provider.getConnectionString());
+    }
+
+    @Test
+    public void testSetConnectionStringProbesInBackground() throws Exception {
+        whenProbed("a", 1, 0);
+        whenProbed("e", 1, 0);
+        CountDownLatch probing = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        LatencyAwareEnsembleProvider provider = newBuilder("a:2181,b:2181,c:2181")
+                .prober((server, timeoutMillis) -> {
+                    if (server.getHostString().equals("f")) {
+                        probing.countDown();
+                        Uninterruptibles.awaitUninterruptibly(resume);
+                    }
+                    return _prober.probe(server, timeoutMillis);
+                })
+                .build();
+        provider.start();
+        try {
+            waitForConnectionString(provider, "a:2181,b:2181");
+
+            provider.setConnectionString("a:2181,e:2181,f:2181");
+            assertTrue(probing.await(1, TimeUnit.MINUTES));
+            assertEquals("a:2181,e:2181,f:2181", provider.getConnectionString());
+
+            resume.countDown();
+            waitForConnectionString(provider, "a:2181,e:2181");
+        } finally {
+            resume.countDown();
+            provider.close();
+        }
+    }
+
+    @Test
+    public void testUpdateServerListEnabled() {
+        assertTrue(newBuilder(SERVERS).build().updateServerListEnabled());
+        assertFalse(newBuilder(SERVERS).delegate(new FixedEnsembleProvider(SERVERS, false)).build()
+                .updateServerListEnabled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPreferredZoneRequiresZoneFunction() {
+        newBuilder(SERVERS).preferredZone("west", null).build();
+    }
+
+    private static void waitForConnectionString(LatencyAwareEnsembleProvider provider, String expected)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (!expected.equals(provider.getConnectionString()) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, provider.getConnectionString());
+    }
+}
@@ -2,13 +2,22 @@ package com.bazaarvoice.curator;
 
 import org.junit.Test;
 import org.mockito.stubbing.OngoingStubbing;
-import sun.net.util.IPAddressUtil;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ResolvingEnsembleProviderTest {
@@ -93,6 +102,176 @@ public class ResolvingEnsembleProviderTest {
 
     }
 
+    @Test
+    public void testResolvedOnce() throws Exception {
+        whenQueried("test").thenResolveTo("1.1.1.1");
+
+        ResolvingEnsembleProvider provider = newProvider();
+
+        assertEquals("1.1.1.1:2181", provider.getConnectionString());
+        assertEquals("1.1.1.1:2181", provider.getConnectionString());
+        verify(_resolver, times(1)).lookupAllHostAddr("test");
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        whenQueried("test").thenResolveTo("1.1.1.1").thenResolveTo("2.2.2.2");
+
+        ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate delegate = newDelegate("test:2181", 0);
+
+        assertEquals("1.1.1.1:2181", delegate.getConnectionString());
+        delegate.refresh();
+        assertEquals("2.2.2.2:2181", delegate.getConnectionString());
+    }
+
+    @Test
+    public void testBackgroundRefresh() throws Exception {
+        whenQueried("test").thenResolveTo("1.1.1.1").thenResolveTo("2.2.2.2");
+
+        ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate delegate = newDelegate("test:2181", 10);
+        try {
+            delegate.start();
+            assertEquals("1.1.1.1:2181", delegate.getConnectionString());
+
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+            while (!"2.2.2.2:2181".equals(delegate.getConnectionString()) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("2.2.2.2:2181", delegate.getConnectionString());
+        } finally {
+            delegate.close();
+        }
+    }
+
+    @Test
+    public void testSetConnectionString() throws Exception {
+        whenQueried("test1").thenResolveTo("1.1.1.1");
+        whenQueried("test2").thenResolveTo("2.2.2.2");
+
+        ResolvingEnsembleProvider provider = newProvider("test1:2181");
+        assertEquals("1.1.1.1:2181", provider.getConnectionString());
+
+        provider.setConnectionString("test2:2181");
+        assertEquals("2.2.2.2:2181", provider.getConnectionString());
+    }
+
+    @Test
+    public void testUpdateServerListEnabled() {
+        assertTrue(newProvider().updateServerListEnabled());
+    }
+
+    @Test
+    public void testReconfigKeepsChrootPath() throws Exception {
+        whenQueried("test1").thenResolveTo("1.1.1.1");
+        whenQueried("test2").thenResolveTo("2.2.2.2");
+        whenQueried("test3").thenResolveTo("3.3.3.3");
+
+        ResolvingEnsembleProvider provider = newProvider("test1:2181/chroot");
+        assertEquals("1.1.1.1:2181/chroot", provider.getConnectionString());
+
+        // The ensemble tracker passes the client addresses from /zookeeper/config, without a chroot path.
+        provider.setConnectionString("test1:2181,test2:2181");
+        assertEquals("1.1.1.1:2181,2.2.2.2:2181/chroot", provider.getConnectionString());
+
+        provider.setConnectionString("test3:2182/other");
+        assertEquals("3.3.3.3:2182/other", provider.getConnectionString());
+    }
+
+    @Test
+    public void testParallelLookups() throws Exception {
+        SlowResolver resolver = new SlowResolver(500);
+        resolver.put("test1", "1.1.1.1");
+        resolver.put("test2", "2.2.2.2");
+        resolver.put("test3", "3.3.3.3");
+        resolver.setSlow("test1", "test2", "test3");
+
+        ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate delegate =
+                new ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate(
+                        "test1:2181,test2:2181,test3:2181", resolver, 0, 10, TimeUnit.SECONDS);
+
+        long start = System.nanoTime();
+        assertEquals("1.1.1.1:2181,2.2.2.2:2181,3.3.3.3:2181", delegate.getConnectionString());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+    }
+
+    @Test
+    public void testTimeoutUsesLastKnownAddresses() throws Exception {
+        SlowResolver resolver = new SlowResolver(TimeUnit.MINUTES.toMillis(1));
+        resolver.put("test1", "1.1.1.1");
+        resolver.put("test2", "2.2.2.2");
+
+        ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate delegate =
+                new ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate(
+                        "test1:2181,test2:2181", resolver, 0, 100, TimeUnit.MILLISECONDS);
+        assertEquals("1.1.1.1:2181,2.2.2.2:2181", delegate.getConnectionString());
+
+        // The first host now hangs and the second one moves.
+        resolver.setSlow("test1");
+        resolver.put("test2", "4.4.4.4");
+        long start = System.nanoTime();
+        assertEquals("1.1.1.1:2181,4.4.4.4:2181", delegate.refresh());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    }
+
+    @Test
+    public void testTimeoutWithoutLastKnownAddresses() throws Exception {
+        SlowResolver resolver = new SlowResolver(TimeUnit.MINUTES.toMillis(1));
+        resolver.put("test1", "1.1.1.1");
+        resolver.put("test2", "2.2.2.2");
+        resolver.setSlow("test1");
+
+        ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate delegate =
+                new ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate(
+                        "test1:2181,test2:2181", resolver, 0, 100, TimeUnit.MILLISECONDS);
+
+        // Nothing better than the unresolved name is known.
+        assertEquals("2.2.2.2:2181,test1:2181", delegate.getConnectionString());
+    }
+
+    @Test
+    public void testHungLookupNotRepeated() throws Exception {
+        SlowResolver resolver = new SlowResolver(TimeUnit.MINUTES.toMillis(1));
+        resolver.put("test1", "1.1.1.1");
+        resolver.put("test2", "2.2.2.2");
+        resolver.setSlow("test1");
+
+        ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate delegate =
+                new ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate(
+                        "test1:2181,test2:2181", resolver, 0, 100, TimeUnit.MILLISECONDS);
+        delegate.getConnectionString();
+        delegate.refresh();
+        delegate.refresh();
+
+        assertEquals(1, resolver.getLookups("test1"));
+        assertEquals(3, resolver.getLookups("test2"));
+    }
+
+    @Test
+    public void testLastKnownAddressesForgottenWhenHostLeaves() throws Exception {
+        SlowResolver resolver = new SlowResolver(TimeUnit.MINUTES.toMillis(1));
+        resolver.put("test1", "1.1.1.1");
+        resolver.put("test2", "2.2.2.2");
+
+        ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate delegate =
+                new ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate(
+                        "test1:2181,test2:2181", resolver, 0, 100, TimeUnit.MILLISECONDS);
+        assertEquals("1.1.1.1:2181,2.2.2.2:2181", delegate.getConnectionString());
+
+        delegate.setConnectionString("test2:2181");
+        assertEquals("2.2.2.2:2181", delegate.getConnectionString());
+
+        // The host comes back but hangs, and its old addresses are long gone.
+        resolver.setSlow("test1");
+        delegate.setConnectionString("test1:2181,test2:2181");
+        assertEquals("2.2.2.2:2181,test1:2181", delegate.getConnectionString());
+    }
+
+    private ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate newDelegate(String connectString,
+                                                                                    long refreshIntervalMillis) {
+        return new ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate(
+                connectString, _resolver, refreshIntervalMillis, TimeUnit.MINUTES.toMillis(1), TimeUnit.MILLISECONDS);
+    }
+
     private ResolvingEnsembleProvider newProvider() {
         return newProvider("test:2181");
     }
@@ -107,10 +286,64 @@ public class ResolvingEnsembleProviderTest {
         return new ResolverOngoingStubbing(domain);
     }
 
+    /** Builds the address without a DNS query, or reaching into JDK internals. */
+    private static InetAddress toInetAddress(String host, String address) throws UnknownHostException {
+        String[] octets = address.split("\\.");
+        byte[] bytes = new byte[octets.length];
+        for (int i = 0; i < octets.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(octets[i]);
+        }
+        return InetAddress.getByAddress(host, bytes);
+    }
+
+    /** A resolver that answers from a map, after a delay for hosts marked as slow. */
+    private static class SlowResolver extends ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate.Resolver {
+        private final long _delayMillis;
+        private final Map<String, InetAddress[]> _addresses = new ConcurrentHashMap<>();
+        private final Set<String> _slowHosts = ConcurrentHashMap.newKeySet();
+        private final ConcurrentMap<String, AtomicInteger> _lookups = new ConcurrentHashMap<>();
+
+        private SlowResolver(long delayMillis) {
+            _delayMillis = delayMillis;
+        }
+
+        private void put(String host, String address) throws UnknownHostException {
+            _addresses.put(host, new InetAddress[] {toInetAddress(host, address)});
+        }
+
+        private void setSlow(String... hosts) {
+            _slowHosts.addAll(Arrays.asList(hosts));
+        }
+
+        private int getLookups(String host) {
+            AtomicInteger lookups = _lookups.get(host);
+            return lookups != null ? lookups.get() : 0;
+        }
+
+        @Override
+        InetAddress[] lookupAllHostAddr(String name) throws UnknownHostException {
+            _lookups.computeIfAbsent(name, host -> new AtomicInteger()).incrementAndGet();
+            if (_slowHosts.contains(name)) {
+                try {
+                    Thread.sleep(_delayMillis);
+                } catch (InterruptedException e) {
+                    throw new UnknownHostException(name);
+                }
+            }
+            InetAddress[] addresses = _addresses.get(name);
+            if (addresses == null) {
+                throw new UnknownHostException(name);
+            }
+            return addresses;
+        }
+    }
+
     private class ResolverOngoingStubbing {
+        private final String _domain;
         private OngoingStubbing<InetAddress[]> _stub;
 
         private ResolverOngoingStubbing(String domain) throws Exception {
+            _domain = domain;
             _stub = when(_resolver.lookupAllHostAddr(domain));
         }
 
@@ -118,7 +351,7 @@ public class ResolvingEnsembleProviderTest {
             InetAddress[] result = new InetAddress[addresses.length];
 
             for (int i = 0; i < addresses.length; ++i) {
-                result[i] = InetAddress.getByAddress(IPAddressUtil.textToNumericFormatV4(addresses[i]));
+                result[i] = toInetAddress(_domain, addresses[i]);
             }
 
             _stub =_stub.thenReturn(result);
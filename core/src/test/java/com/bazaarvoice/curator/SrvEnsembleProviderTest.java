@@ -0,0 +1,195 @@
+package com.bazaarvoice.curator;
+
+import com.bazaarvoice.curator.ResolvingEnsembleProvider.ResolvingEnsembleProviderDelegate.Resolver;
+import com.bazaarvoice.curator.SrvEnsembleProvider.SrvRecord;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SrvEnsembleProviderTest {
+    private static final String NAME = "_zookeeper._tcp.example.com";
+
+    private final FakeResolver _resolver = new FakeResolver();
+    private SrvEnsembleProvider _provider;
+
+    @After
+    public void teardown() throws IOException {
+        if (_provider != null) {
+            _provider.close();
+        }
+    }
+
+    private SrvEnsembleProvider newProvider(String srvName, long minRefreshMillis, long maxRefreshMillis) {
+        _provider = new SrvEnsembleProvider(srvName, _resolver, minRefreshMillis, maxRefreshMillis,
+                TimeUnit.MILLISECONDS);
+        return _provider;
+    }
+
+    private SrvEnsembleProvider newProvider(String srvName) {
+        return newProvider(srvName, TimeUnit.SECONDS.toMillis(5), TimeUnit.MINUTES.toMillis(1));
+    }
+
+    @Test
+    public void testCanonical() throws Exception {
+        _resolver.answer(new SrvRecord("zk3.example.com", 2181, 60), new SrvRecord("zk1.example.com", 2181, 60),
+                new SrvRecord("zk2.example.com", 2182, 60));
+        SrvEnsembleProvider provider = newProvider(NAME);
+        provider.start();
+
+        assertEquals("zk1.example.com:2181,zk2.example.com:2182,zk3.example.com:2181", provider.getConnectionString());
+    }
+
+    @Test
+    public void testChrootPath() throws Exception {
+        _resolver.answer(new SrvRecord("zk1.example.com", 2181, 60));
+        SrvEnsembleProvider provider = newProvider(NAME + "/chroot");
+        provider.start();
+
+        assertEquals("zk1.example.com:2181/chroot", provider.getConnectionString());
+        assertEquals(NAME, _resolver._lastName);
+    }
+
+    @Test(expected = UnknownHostException.class)
+    public void testNoRecords() throws Exception {
+        newProvider(NAME).start();
+    }
+
+    @Test
+    public void testNotStarted() {
+        _resolver.answer(new SrvRecord("zk1.example.com", 2181, 30));
+
+        assertEquals("", newProvider(NAME).getConnectionString());
+        assertEquals(0, _resolver._lookups.get());
+    }
+
+    @Test
+    public void testCachedForTtl() throws Exception {
+        _resolver.answer(new SrvRecord("zk1.example.com", 2181, 30));
+        SrvEnsembleProvider provider = newProvider(NAME);
+        provider.start();
+
+        assertEquals("zk1.example.com:2181", provider.getConnectionString());
+        assertEquals("zk1.example.com:2181", provider.getConnectionString());
+        assertEquals(1, _resolver._lookups.get());
+    }
+
+    @Test
+    public void testRefreshDelayFollowsTtl() throws Exception {
+        SrvEnsembleProvider provider = newProvider(NAME);
+
+        _resolver.answer(new SrvRecord("zk1.example.com", 2181, 30), new SrvRecord("zk2.example.com", 2181, 20));
+        assertEquals(TimeUnit.SECONDS.toNanos(20), provider.refresh());
+
+        // Bounded by the minimum and maximum refresh intervals.
+        _resolver.answer(new SrvRecord("zk1.example.com", 2181, 1));
+        assertEquals(TimeUnit.SECONDS.toNanos(5), provider.refresh());
+        _resolver.answer(new SrvRecord("zk1.example.com", 2181, 3600));
+        assertEquals(TimeUnit.MINUTES.toNanos(1), provider.refresh());
+        _resolver.answer(new SrvRecord("zk1.example.com", 2181, SrvRecord.UNKNOWN_TTL));
+        assertEquals(TimeUnit.MINUTES.toNanos(1), provider.refresh());
+    }
+
+    @Test
+    public void testFailedLookupKeepsServers() throws Exception {
+        _resolver.answer(new SrvRecord("zk1.example.com", 2181, 30));
+        SrvEnsembleProvider provider = newProvider(NAME);
+        provider.start();
+
+        _resolver.answer();
+        assertEquals(TimeUnit.SECONDS.toNanos(5), provider.refresh());
+        assertEquals("zk1.example.com:2181", provider.getConnectionString());
+    }
+
+    @Test
+    public void testBackgroundRefresh() throws Exception {
+        _resolver.answer(new SrvRecord("zk1.example.com", 2181, 0));
+        SrvEnsembleProvider provider = newProvider(NAME, 10, 10);
+        provider.start();
+        assertEquals("zk1.example.com:2181", provider.getConnectionString());
+
+        _resolver.answer(new SrvRecord("zk1.example.com", 2181, 0), new SrvRecord("zk2.example.com", 2181, 0));
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (!"zk1.example.com:2181,zk2.example.com:2181".equals(provider.getConnectionString())
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("zk1.example.com:2181,zk2.example.com:2181", provider.getConnectionString());
+    }
+
+    @Test
+    public void testSetConnectionStringKeepsChrootPath() throws Exception {
+        _resolver.answer(new SrvRecord("zk1.example.com", 2181, 30));
+        SrvEnsembleProvider provider = newProvider(NAME + "/chroot");
+        provider.start();
+
+        provider.setConnectionString("zk2.example.com:2181,zk1.example.com:2181");
+        assertEquals("zk1.example.com:2181,zk2.example.com:2181/chroot", provider.getConnectionString());
+    }
+
+    @Test
+    public void testSetConnectionStringDuringLookup() throws Exception {
+        CountDownLatch looking = new CountDownLatch(1);
+        CountDownLatch answer = new CountDownLatch(1);
+        Resolver resolver = new Resolver() {
+            @Override
+            List<SrvRecord> lookupSrv(String name) throws UnknownHostException {
+                looking.countDown();
+                Uninterruptibles.awaitUninterruptibly(answer);
+                return Collections.singletonList(new SrvRecord("zk1.example.com", 2181, 30));
+            }
+        };
+        SrvEnsembleProvider provider = new SrvEnsembleProvider(NAME, resolver, 5, 60, TimeUnit.SECONDS);
+        Thread refresh = new Thread(provider::refresh);
+        refresh.start();
+        try {
+            assertTrue(looking.await(10, TimeUnit.SECONDS));
+
+            // Curator's event thread isn't held up by the lookup.
+            provider.setConnectionString("zk2.example.com:2181");
+            assertEquals("zk2.example.com:2181", provider.getConnectionString());
+        } finally {
+            answer.countDown();
+            refresh.join();
+        }
+        assertEquals("zk1.example.com:2181", provider.getConnectionString());
+    }
+
+    @Test
+    public void testUpdateServerListEnabled() {
+        assertTrue(newProvider(NAME).updateServerListEnabled());
+    }
+
+    /** A resolver that answers every SRV lookup with the same records. */
+    private static class FakeResolver extends Resolver {
+        private final AtomicInteger _lookups = new AtomicInteger();
+        private volatile List<SrvRecord> _records = new ArrayList<>();
+        private volatile String _lastName;
+
+        private void answer(SrvRecord... records) {
+            _records = Arrays.asList(records);
+        }
+
+        @Override
+        List<SrvRecord> lookupSrv(String name) throws UnknownHostException {
+            _lookups.incrementAndGet();
+            _lastName = name;
+            if (_records.isEmpty()) {
+                throw new UnknownHostException(name);
+            }
+            return _records;
+        }
+    }
+}
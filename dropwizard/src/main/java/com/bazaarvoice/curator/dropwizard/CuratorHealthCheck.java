@@ -1,16 +1,114 @@
 package com.bazaarvoice.curator.dropwizard;
 
 import com.codahale.metrics.health.HealthCheck;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Reports whether a {@code CuratorFramework} is connected to ZooKeeper.
+ * <p>
+ * Optionally the health check also probes the round-trip latency to the ensemble: every probe interval it issues a
+ * {@code sync} followed by a {@code checkExists} on the probe path, in the background, and it reports unhealthy when
+ * the last probe took longer than the latency threshold, failed, or has been outstanding for longer than the
+ * threshold.  It also reports unhealthy when the last probe completed more than 3 probe intervals ago, which means
+ * probing has stopped, for example because the health check was stopped.  {@link #check()} only reads the cached
+ * result of the last probe, so it never waits on ZooKeeper and frequent polling costs nothing.  Probing runs between
+ * {@link #start()} and {@link #stop()}, so manage the health check with the Dropwizard lifecycle as well as
+ * registering it.
+ * </p>
+ */
+public class CuratorHealthCheck extends HealthCheck implements Managed {
+    private static final Logger LOG = LoggerFactory.getLogger(CuratorHealthCheck.class);
+
+    /** The number of probe intervals after which the last probe is too old to go by. */
+    private static final int STALE_PROBE_INTERVALS = 3;
 
-public class CuratorHealthCheck extends HealthCheck {
     private final CuratorFramework _curator;
+    private final String _probePath;
+    private final long _probeIntervalNanos;
+    private final long _latencyThresholdNanos;
+    private final Ticker _ticker;
+    private volatile Probe _lastProbe;
+    private volatile long _outstandingSince = -1;
+    private ScheduledExecutorService _executor;  // guarded by this
 
     public CuratorHealthCheck(CuratorFramework curator) {
         _curator = Objects.requireNonNull(curator);
+        _probePath = null;
+        _probeIntervalNanos = 0;
+        _latencyThresholdNanos = 0;
+        _ticker = Ticker.systemTicker();
+    }
+
+    /**
+     * @param curator The client to check.
+     * @param probePath The path to {@code sync} and {@code checkExists}, relative to the namespace of the client.  It
+     *                  doesn't need to exist.
+     * @param probeInterval How often to probe the latency.
+     * @param latencyThreshold The highest round-trip latency that is still healthy.
+     * @param unit The unit of {@code probeInterval} and {@code latencyThreshold}.
+     */
+    public CuratorHealthCheck(CuratorFramework curator, String probePath, long probeInterval, long latencyThreshold,
+                              TimeUnit unit) {
+        this(curator, probePath, probeInterval, latencyThreshold, unit, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    CuratorHealthCheck(CuratorFramework curator, String probePath, long probeInterval, long latencyThreshold,
+                       TimeUnit unit, Ticker ticker) {
+        _curator = Objects.requireNonNull(curator);
+        _probePath = Objects.requireNonNull(probePath);
+        _probeIntervalNanos = unit.toNanos(probeInterval);
+        _latencyThresholdNanos = unit.toNanos(latencyThreshold);
+        _ticker = Objects.requireNonNull(ticker);
+        checkArgument(_probeIntervalNanos > 0, "probeInterval must be positive");
+        checkArgument(_latencyThresholdNanos > 0, "latencyThreshold must be positive");
+    }
+
+    /** Starts probing the latency in the background, if a probe path was provided. */
+    @Override
+    public synchronized void start() {
+        if (_probePath == null || _executor != null) {
+            return;
+        }
+        _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("CuratorHealthCheck-%d")
+                .setDaemon(true)
+                .build());
+        _executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    probe();
+                } catch (RuntimeException e) {
+                    // Keep probing, an exception would cancel all future runs.
+                    LOG.warn("Unable to probe ZooKeeper latency", e);
+                }
+            }
+        }, 0, _probeIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (_executor != null) {
+            _executor.shutdownNow();
+            _executor = null;
+        }
     }
 
     @Override
@@ -21,8 +119,109 @@ public class CuratorHealthCheck extends HealthCheck {
                 _curator.getZookeeperClient().getCurrentConnectionString(),
                 connected);
 
-        return connected
-                ? Result.healthy(description)
-                : Result.unhealthy(description);
+        if (!connected || _probePath == null) {
+            return connected
+                    ? Result.healthy(description)
+                    : Result.unhealthy(description);
+        }
+
+        long now = _ticker.read();
+        long outstandingSince = _outstandingSince;
+        if (outstandingSince != -1) {
+            long outstandingNanos = now - outstandingSince;
+            if (outstandingNanos > _latencyThresholdNanos) {
+                return Result.unhealthy("%s, Probe outstanding for %d ms", description,
+                        TimeUnit.NANOSECONDS.toMillis(outstandingNanos));
+            }
+        }
+
+        Probe probe = _lastProbe;
+        if (probe == null) {
+            return Result.unhealthy("%s, No probe completed yet", description);
+        }
+        long ageNanos = now - probe._completedNanos;
+        if (ageNanos > STALE_PROBE_INTERVALS * _probeIntervalNanos) {
+            return Result.unhealthy("%s, Last probe completed %d ms ago", description,
+                    TimeUnit.NANOSECONDS.toMillis(ageNanos));
+        }
+        if (probe._resultCode != KeeperException.Code.OK) {
+            return Result.unhealthy("%s, Probe failed: %s", description, probe._resultCode);
+        }
+
+        String latency = String.format("%s, Latency: %d ms", description,
+                TimeUnit.NANOSECONDS.toMillis(probe._latencyNanos));
+        return probe._latencyNanos <= _latencyThresholdNanos
+                ? Result.healthy(latency)
+                : Result.unhealthy(latency);
+    }
+
+    /**
+     * Starts a probe, unless the previous one is still outstanding.  A probe whose callback never arrives is abandoned
+     * after the latency threshold plus the probe interval, so probing can't stop for good.
+     */
+    @VisibleForTesting
+    synchronized void probe() {
+        long outstandingSince = _outstandingSince;
+        if (outstandingSince != -1
+                && _ticker.read() - outstandingSince <= _latencyThresholdNanos + _probeIntervalNanos) {
+            return;
+        }
+        if (!_curator.getZookeeperClient().isConnected()) {
+            return;
+        }
+
+        final long start = _ticker.read();
+        _outstandingSince = start;
+        try {
+            _curator.sync().inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(CuratorFramework client, CuratorEvent event) {
+                    if (event.getResultCode() != KeeperException.Code.OK.intValue()) {
+                        completed(start, event.getResultCode());
+                        return;
+                    }
+                    try {
+                        client.checkExists().inBackground(new BackgroundCallback() {
+                            @Override
+                            public void processResult(CuratorFramework client, CuratorEvent event) {
+                                completed(start, event.getResultCode());
+                            }
+                        }).forPath(_probePath);
+                    } catch (Exception e) {
+                        // Otherwise the probe would stay outstanding until it's abandoned.
+                        LOG.warn("Unable to probe ZooKeeper latency", e);
+                        completed(start, KeeperException.Code.SYSTEMERROR.intValue());
+                    }
+                }
+            }).forPath(_probePath);
+        } catch (Exception e) {
+            LOG.warn("Unable to probe ZooKeeper latency", e);
+            completed(start, KeeperException.Code.SYSTEMERROR.intValue());
+        }
+    }
+
+    private synchronized void completed(long start, int resultCode) {
+        if (_outstandingSince != start) {
+            return;  // Abandoned
+        }
+        KeeperException.Code code = KeeperException.Code.get(resultCode);
+        if (code == KeeperException.Code.NONODE) {
+            code = KeeperException.Code.OK;  // The probe path doesn't need to exist
+        }
+        long now = _ticker.read();
+        _lastProbe = new Probe(now - start, now, code != null ? code : KeeperException.Code.SYSTEMERROR);
+        _outstandingSince = -1;
+    }
+
+    private static final class Probe {
+        private final long _latencyNanos;
+        private final long _completedNanos;
+        private final KeeperException.Code _resultCode;
+
+        private Probe(long latencyNanos, long completedNanos, KeeperException.Code resultCode) {
+            _latencyNanos = latencyNanos;
+            _completedNanos = completedNanos;
+            _resultCode = resultCode;
+        }
     }
 }
@@ -0,0 +1,73 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.bazaarvoice.curator.recipes.leader.LeaderServiceMetrics;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.apache.curator.framework.state.ConnectionState;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the elections of one or more {@code LeaderService} instances in a Dropwizard {@link MetricRegistry}.  The
+ * following metrics are registered under the provided name:
+ * <ul>
+ *     <li>{@code election-time} - timer of how long it took to acquire leadership</li>
+ *     <li>{@code delegate-start-time} - timer of how long it took the delegate service to start</li>
+ *     <li>{@code tenure} - timer of how long leadership was held</li>
+ *     <li>{@code suspended-losses}, {@code lost-losses} - meters of leadership lost because the connection to
+ *     ZooKeeper was suspended or the session was lost</li>
+ *     <li>{@code delegate-failures} - meter of delegate services that failed</li>
+ * </ul>
+ * A single instance may be shared by many services, in which case the metrics are aggregated across them.
+ */
+public class DropwizardLeaderServiceMetrics implements LeaderServiceMetrics {
+    private final Timer _electionTime;
+    private final Timer _delegateStartTime;
+    private final Timer _tenure;
+    private final Meter _suspendedLosses;
+    private final Meter _lostLosses;
+    private final Meter _delegateFailures;
+
+    public DropwizardLeaderServiceMetrics(MetricRegistry metrics, String name) {
+        Objects.requireNonNull(metrics);
+        Objects.requireNonNull(name);
+
+        _electionTime = metrics.timer(MetricRegistry.name(name, "election-time"));
+        _delegateStartTime = metrics.timer(MetricRegistry.name(name, "delegate-start-time"));
+        _tenure = metrics.timer(MetricRegistry.name(name, "tenure"));
+        _suspendedLosses = metrics.meter(MetricRegistry.name(name, "suspended-losses"));
+        _lostLosses = metrics.meter(MetricRegistry.name(name, "lost-losses"));
+        _delegateFailures = metrics.meter(MetricRegistry.name(name, "delegate-failures"));
+    }
+
+    @Override
+    public void leadershipAcquired(long electionNanos) {
+        _electionTime.update(electionNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void delegateStarted(long startNanos) {
+        _delegateStartTime.update(startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void delegateFailed() {
+        _delegateFailures.mark();
+    }
+
+    @Override
+    public void leadershipReleased(long tenureNanos) {
+        _tenure.update(tenureNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void leadershipLost(ConnectionState state) {
+        if (state == ConnectionState.SUSPENDED) {
+            _suspendedLosses.mark();
+        } else if (state == ConnectionState.LOST) {
+            _lostLosses.mark();
+        }
+    }
+}
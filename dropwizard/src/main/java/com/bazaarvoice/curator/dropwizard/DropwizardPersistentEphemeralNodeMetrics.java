@@ -0,0 +1,71 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.bazaarvoice.curator.recipes.PersistentEphemeralNodeMetrics;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the operations of one or more {@code PersistentEphemeralNode} instances in a Dropwizard
+ * {@link MetricRegistry}.  The following metrics are registered under the provided name:
+ * <ul>
+ *     <li>{@code creates}, {@code recreates}, {@code deletes} - meters of node operations</li>
+ *     <li>{@code adoptions} - meter of creates that found an existing node and adopted it</li>
+ *     <li>{@code retries} - meter of failed operations that were retried</li>
+ *     <li>{@code time-to-first-create}, {@code time-to-recreate} - timers of how long it took to get the node in
+ *     place</li>
+ * </ul>
+ * A single instance may be shared by many nodes, in which case the metrics are aggregated across them.
+ */
+public class DropwizardPersistentEphemeralNodeMetrics implements PersistentEphemeralNodeMetrics {
+    private final Meter _creates;
+    private final Meter _recreates;
+    private final Meter _deletes;
+    private final Meter _adoptions;
+    private final Meter _retries;
+    private final Timer _timeToFirstCreate;
+    private final Timer _timeToRecreate;
+
+    public DropwizardPersistentEphemeralNodeMetrics(MetricRegistry metrics, String name) {
+        Objects.requireNonNull(metrics);
+        Objects.requireNonNull(name);
+
+        _creates = metrics.meter(MetricRegistry.name(name, "creates"));
+        _recreates = metrics.meter(MetricRegistry.name(name, "recreates"));
+        _deletes = metrics.meter(MetricRegistry.name(name, "deletes"));
+        _adoptions = metrics.meter(MetricRegistry.name(name, "adoptions"));
+        _retries = metrics.meter(MetricRegistry.name(name, "retries"));
+        _timeToFirstCreate = metrics.timer(MetricRegistry.name(name, "time-to-first-create"));
+        _timeToRecreate = metrics.timer(MetricRegistry.name(name, "time-to-recreate"));
+    }
+
+    @Override
+    public void nodeCreated(long timeToCreateNanos) {
+        _creates.mark();
+        _timeToFirstCreate.update(timeToCreateNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void nodeRecreated(long timeToRecreateNanos) {
+        _recreates.mark();
+        _timeToRecreate.update(timeToRecreateNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void nodeDeleted() {
+        _deletes.mark();
+    }
+
+    @Override
+    public void existingNodeAdopted() {
+        _adoptions.mark();
+    }
+
+    @Override
+    public void operationRetried() {
+        _retries.mark();
+    }
+}
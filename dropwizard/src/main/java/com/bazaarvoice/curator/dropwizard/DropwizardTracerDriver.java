@@ -0,0 +1,181 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableMap;
+import org.apache.curator.drivers.AdvancedTracerDriver;
+import org.apache.curator.drivers.EventTrace;
+import org.apache.curator.drivers.OperationTrace;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Records the latency of the ZooKeeper operations of a {@code CuratorFramework} in a Dropwizard
+ * {@link MetricRegistry}.  Install it with {@code curator.getZookeeperClient().setTracerDriver(driver)}, or enable
+ * {@code tracing} in {@link ZooKeeperConfiguration}.  The following metrics are registered under the provided name,
+ * where {@code <op>} is one of {@code getData}, {@code create}, {@code setData}, {@code delete}, {@code exists},
+ * {@code children} and {@code sync}:
+ * <ul>
+ *     <li>{@code <op>} - timer of all operations of that type</li>
+ *     <li>{@code <op>.errors} - meter of operations of that type that failed</li>
+ *     <li>{@code <op>.<prefix>} - timer of the operations of that type on paths that start with {@code <prefix>},
+ *     the first path segments up to the configured depth, with {@code /} and {@code .} replaced by {@code _} so the
+ *     path doesn't add levels to the metric name; for example {@code getData._services_a} for {@code /services/a}</li>
+ *     <li>{@code events.<event>} - meter of client events, such as connection state changes</li>
+ * </ul>
+ * Timers keep the most recent latencies in striped ring buffers, which record a value without taking a lock and hold a
+ * fixed number of values however busy the client is.  They are created once and then looked up from a concurrent map,
+ * so tracing adds little to every operation.  To bound the number of
+ * metrics, at most {@code maxPrefixes} distinct path prefixes are tracked; operations on further prefixes are only
+ * counted in the per-type timer.
+ */
+public class DropwizardTracerDriver extends AdvancedTracerDriver {
+    private static final Logger LOG = LoggerFactory.getLogger(DropwizardTracerDriver.class);
+
+    /** Operation types by the prefix of the trace names Curator uses for them. */
+    private static final Map<String, String> OPERATIONS = ImmutableMap.<String, String>builder()
+            .put("GetDataBuilderImpl", "getData")
+            .put("CreateBuilderImpl", "create")
+            .put("SetDataBuilderImpl", "setData")
+            .put("DeleteBuilderImpl", "delete")
+            .put("ExistsBuilderImpl", "exists")
+            .put("GetChildrenBuilderImpl", "children")
+            .put("SyncBuilderImpl", "sync")
+            .build();
+
+    /** Characters of a path that would otherwise split it into several levels of the metric name. */
+    private static final CharMatcher METRIC_NAME_SEPARATORS = CharMatcher.anyOf("/.");
+
+    private static final MetricRegistry.MetricSupplier<Timer> TIMER_SUPPLIER =
+            new MetricRegistry.MetricSupplier<Timer>() {
+                @Override
+                public Timer newMetric() {
+                    return new Timer(new StripedReservoir());
+                }
+            };
+
+    private final MetricRegistry _metrics;
+    private final String _name;
+    private final int _pathDepth;
+    private final int _maxPrefixes;
+    private final ConcurrentMap<String, Timer> _timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Meter> _meters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> _prefixes = new ConcurrentHashMap<>();
+
+    /**
+     * @param metrics The registry to record the metrics in.
+     * @param name The prefix of the metric names.
+     * @param pathDepth The number of path segments to group operations by, 0 to not group them by path.
+     * @param maxPrefixes The maximum number of distinct path prefixes to track.
+     */
+    public DropwizardTracerDriver(MetricRegistry metrics, String name, int pathDepth, int maxPrefixes) {
+        _metrics = Objects.requireNonNull(metrics);
+        _name = Objects.requireNonNull(name);
+        checkArgument(pathDepth >= 0, "pathDepth must be non-negative");
+        checkArgument(maxPrefixes >= 0, "maxPrefixes must be non-negative");
+        _pathDepth = pathDepth;
+        _maxPrefixes = maxPrefixes;
+    }
+
+    @Override
+    public void addTrace(OperationTrace trace) {
+        String operation = operation(trace.getName());
+        if (operation == null) {
+            return;
+        }
+
+        long latencyMs = trace.getLatencyMs();
+        timer(MetricRegistry.name(_name, operation)).update(latencyMs, TimeUnit.MILLISECONDS);
+        if (trace.getReturnCode() != KeeperException.Code.OK.intValue()) {
+            meter(MetricRegistry.name(_name, operation, "errors")).mark();
+        }
+
+        String prefix = prefix(trace.getPath());
+        String prefixName = prefix != null ? prefixName(prefix) : null;
+        if (prefixName != null) {
+            timer(MetricRegistry.name(_name, operation, prefixName)).update(latencyMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void addEvent(EventTrace trace) {
+        meter(MetricRegistry.name(_name, "events", trace.getName())).mark();
+    }
+
+    private static String operation(String traceName) {
+        int dash = traceName.indexOf('-');
+        return OPERATIONS.get(dash >= 0 ? traceName.substring(0, dash) : traceName);
+    }
+
+    /** @return The first {@code pathDepth} segments of the path, or null if operations aren't grouped by path. */
+    private String prefix(String path) {
+        if (_pathDepth == 0 || path == null || !path.startsWith("/")) {
+            return null;
+        }
+        int end = 0;
+        for (int segment = 0; segment < _pathDepth; segment++) {
+            int next = path.indexOf('/', end + 1);
+            if (next < 0) {
+                return path;
+            }
+            end = next;
+        }
+        return path.substring(0, end);
+    }
+
+    /** @return The prefix as it appears in metric names, or null if there are too many prefixes to track it. */
+    private String prefixName(String prefix) {
+        String name = _prefixes.get(prefix);
+        if (name != null) {
+            return name;
+        }
+        synchronized (_prefixes) {
+            if (_prefixes.size() >= _maxPrefixes) {
+                return _prefixes.get(prefix);
+            }
+            return _prefixes.computeIfAbsent(prefix, key -> METRIC_NAME_SEPARATORS.replaceFrom(key, '_'));
+        }
+    }
+
+    private Timer timer(String name) {
+        Timer timer = _timers.get(name);
+        if (timer == null) {
+            timer = _timers.computeIfAbsent(name, key -> {
+                try {
+                    return _metrics.timer(key, TIMER_SUPPLIER);
+                } catch (IllegalArgumentException e) {
+                    // Tracing mustn't fail the operation, record into a timer nobody sees instead.
+                    LOG.warn("Not tracing {}, another kind of metric has that name", key);
+                    return TIMER_SUPPLIER.newMetric();
+                }
+            });
+        }
+        return timer;
+    }
+
+    private Meter meter(String name) {
+        Meter meter = _meters.get(name);
+        if (meter == null) {
+            meter = _meters.computeIfAbsent(name, key -> {
+                try {
+                    return _metrics.meter(key);
+                } catch (IllegalArgumentException e) {
+                    LOG.warn("Not tracing {}, another kind of metric has that name", key);
+                    return new Meter();
+                }
+            });
+        }
+        return meter;
+    }
+}
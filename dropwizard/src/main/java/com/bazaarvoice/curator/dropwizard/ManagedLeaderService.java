@@ -0,0 +1,35 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.google.common.util.concurrent.Service;
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.Objects;
+
+/**
+ * Managed interface for {@code LeaderService} and {@code PartitionedLeaderService}.  Joins the election with the
+ * application and leaves it, stopping the delegate service if this instance leads, on shutdown.
+ */
+public class ManagedLeaderService implements Managed {
+    private final Service _service;
+
+    /** @param service A {@code LeaderService} or {@code PartitionedLeaderService}. */
+    public ManagedLeaderService(Service service) {
+        _service = Objects.requireNonNull(service);
+    }
+
+    public Service getService() {
+        return _service;
+    }
+
+    @Override
+    public void start() throws Exception {
+        if (_service.state() == Service.State.NEW) {
+            _service.startAsync().awaitRunning();
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        _service.stopAsync().awaitTerminated();
+    }
+}
@@ -0,0 +1,31 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.bazaarvoice.curator.recipes.NodeDiscovery;
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.Objects;
+
+/**
+ * Managed interface for {@code NodeDiscovery}.  Starts the discovery with the application and closes it on shutdown.
+ */
+public class ManagedNodeDiscovery implements Managed {
+    private final NodeDiscovery<?> _discovery;
+
+    public ManagedNodeDiscovery(NodeDiscovery<?> discovery) {
+        _discovery = Objects.requireNonNull(discovery);
+    }
+
+    public NodeDiscovery<?> getDiscovery() {
+        return _discovery;
+    }
+
+    @Override
+    public void start() throws Exception {
+        _discovery.start();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        _discovery.close();
+    }
+}
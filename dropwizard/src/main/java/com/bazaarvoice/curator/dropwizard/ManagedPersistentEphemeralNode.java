@@ -0,0 +1,44 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.bazaarvoice.curator.recipes.PersistentEphemeralNode;
+import io.dropwizard.lifecycle.Managed;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Managed interface for {@code PersistentEphemeralNode}.  A node is created as soon as it's constructed, so this takes
+ * a factory that is called when the application starts.  The node is deleted on shutdown.
+ */
+public class ManagedPersistentEphemeralNode implements Managed {
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final Supplier<PersistentEphemeralNode> _factory;
+    private volatile PersistentEphemeralNode _node;
+
+    /** @param factory Creates the node, for example {@code () -> new PersistentEphemeralNode(curator, ...)}. */
+    public ManagedPersistentEphemeralNode(Supplier<PersistentEphemeralNode> factory) {
+        _factory = Objects.requireNonNull(factory);
+    }
+
+    /** @return The node, or null if it hasn't been created yet. */
+    public PersistentEphemeralNode getNode() {
+        return _node;
+    }
+
+    @Override
+    public synchronized void start() throws Exception {
+        if (_node == null) {
+            _node = Objects.requireNonNull(_factory.get());
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        PersistentEphemeralNode node = _node;
+        if (node != null) {
+            node.close(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.bazaarvoice.curator.recipes.PersistentEphemeralNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import org.apache.curator.framework.CuratorFramework;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Starts and stops the recipes of an application in parallel, instead of one after another.
+ * <p>
+ * On start it waits for the {@code CuratorFramework} to connect and then starts all recipes at once, all within the
+ * start timeout.  If a recipe fails to start, or is still starting when the timeout runs out, the ones that did start
+ * are stopped again and the failure is rethrown.  A recipe that finishes starting after the timeout is stopped right
+ * away.  On stop it first deletes all
+ * persistent ephemeral nodes, in as few ZooKeeper operations as possible, so that other processes stop routing to this
+ * one before anything else goes away.  Then it stops the remaining recipes at once.  Both phases share the shutdown
+ * budget; recipes that are still stopping when it runs out are logged and left behind.
+ * </p>
+ * <p>
+ * Manage the client first and this coordinator after it, so that the client starts before the recipes and closes after
+ * them:
+ * </p>
+ * <pre>
+ * env.lifecycle().manage(new ManagedCuratorFramework(curator));
+ * RecipeLifecycle recipes = new RecipeLifecycle(curator, 30, 10, TimeUnit.SECONDS);
+ * recipes.manage(new ManagedNodeDiscovery(discovery));
+ * recipes.manage(new ManagedPersistentEphemeralNode(() -&gt; new PersistentEphemeralNode(curator, ...)));
+ * env.lifecycle().manage(recipes);
+ * </pre>
+ */
+public class RecipeLifecycle implements Managed {
+    private static final Logger LOG = LoggerFactory.getLogger(RecipeLifecycle.class);
+
+    private final CuratorFramework _curator;
+    private final long _startTimeoutNanos;
+    private final long _shutdownBudgetNanos;
+    private final List<Managed> _recipes = new ArrayList<>();  // guarded by this
+    private final List<Managed> _started = new ArrayList<>();  // guarded by this
+
+    /**
+     * @param curator The client the recipes use.
+     * @param startTimeout How long waiting for the client to connect and starting all recipes may take.
+     * @param shutdownBudget How long stopping all recipes may take.
+     * @param unit The unit of {@code startTimeout} and {@code shutdownBudget}.
+     */
+    public RecipeLifecycle(CuratorFramework curator, long startTimeout, long shutdownBudget, TimeUnit unit) {
+        _curator = Objects.requireNonNull(curator);
+        _startTimeoutNanos = unit.toNanos(startTimeout);
+        _shutdownBudgetNanos = unit.toNanos(shutdownBudget);
+        checkArgument(_startTimeoutNanos >= 0, "startTimeout must be non-negative");
+        checkArgument(_shutdownBudgetNanos >= 0, "shutdownBudget must be non-negative");
+    }
+
+    /**
+     * Adds a recipe to start and stop with the others.  {@link ManagedPersistentEphemeralNode} instances are deleted
+     * before any other recipe stops.
+     */
+    public synchronized <T extends Managed> T manage(T recipe) {
+        _recipes.add(Objects.requireNonNull(recipe));
+        return recipe;
+    }
+
+    @Override
+    public synchronized void start() throws Exception {
+        long deadline = System.nanoTime() + _startTimeoutNanos;
+        if (!_curator.blockUntilConnected((int) TimeUnit.NANOSECONDS.toMillis(_startTimeoutNanos),
+                TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("Timed out waiting for ZooKeeper to connect");
+        }
+
+        List<Managed> recipes = new ArrayList<>(_recipes);
+        List<CompletableFuture<Void>> starts = new ArrayList<>();
+        ExecutorService executor = newExecutor("start");
+        try {
+            for (final Managed recipe : recipes) {
+                starts.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        recipe.start();
+                    } catch (Exception e) {
+                        throw new RecipeException(e);
+                    }
+                }, executor));
+            }
+
+            Throwable failure = null;
+            for (int i = 0; i < recipes.size(); i++) {
+                final Managed recipe = recipes.get(i);
+                try {
+                    starts.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    _started.add(recipe);
+                } catch (ExecutionException e) {
+                    failure = addFailure(failure, unwrap(e.getCause()));
+                } catch (TimeoutException e) {
+                    failure = addFailure(failure,
+                            new TimeoutException("Timed out waiting for " + recipe + " to start"));
+                    // Nothing else will stop it if it does start eventually.
+                    starts.get(i).thenRun(() -> stopQuietly(recipe));
+                }
+            }
+
+            if (failure != null) {
+                stop();
+                throwUnchecked(failure);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public synchronized void stop() throws Exception {
+        long deadline = System.nanoTime() + _shutdownBudgetNanos;
+        List<PersistentEphemeralNode> nodes = new ArrayList<>();
+        List<Managed> others = new ArrayList<>();
+        for (Managed recipe : _started) {
+            if (recipe instanceof ManagedPersistentEphemeralNode) {
+                PersistentEphemeralNode node = ((ManagedPersistentEphemeralNode) recipe).getNode();
+                if (node != null) {
+                    nodes.add(node);
+                }
+            } else {
+                others.add(recipe);
+            }
+        }
+        _started.clear();
+
+        // Deregister first, so that nothing is routed to a process that is tearing down.  Nodes that aren't deleted
+        // within the budget go away with the session once the client closes.
+        if (!nodes.isEmpty()) {
+            await(PersistentEphemeralNode.closeAllAsync(nodes), deadline, nodes.size() + " persistent ephemeral nodes");
+        }
+
+        ExecutorService executor = newExecutor("stop");
+        try {
+            List<CompletableFuture<Void>> stops = new ArrayList<>();
+            for (final Managed recipe : others) {
+                stops.add(CompletableFuture.runAsync(() -> stopQuietly(recipe), executor));
+            }
+            await(CompletableFuture.allOf(stops.toArray(new CompletableFuture<?>[0])), deadline,
+                    others.size() + " recipes");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void stopQuietly(Managed recipe) {
+        try {
+            recipe.stop();
+        } catch (Exception e) {
+            LOG.warn("Unable to stop {}", recipe, e);
+        }
+    }
+
+    private static void await(CompletableFuture<Void> future, long deadline, String what) {
+        try {
+            future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            LOG.warn("Shutdown budget ran out while stopping {}", what);
+        } catch (ExecutionException e) {
+            LOG.warn("Unable to stop {}", what, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ExecutorService newExecutor(String phase) {
+        return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("RecipeLifecycle-" + phase + "-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    private static Throwable addFailure(Throwable failure, Throwable cause) {
+        if (failure == null) {
+            return cause;
+        }
+        failure.addSuppressed(cause);
+        return failure;
+    }
+
+    private static Throwable unwrap(Throwable t) {
+        return (t instanceof RecipeException) ? t.getCause() : t;
+    }
+
+    private static void throwUnchecked(Throwable t) throws Exception {
+        if (t instanceof Exception) {
+            throw (Exception) t;
+        }
+        throw (Error) t;
+    }
+
+    /** Carries a checked exception out of a recipe's start or stop. */
+    private static final class RecipeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private RecipeException(Exception cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.bazaarvoice.curator.recipes.NodeDiscovery;
+import com.bazaarvoice.curator.recipes.PersistentEphemeralNode;
+import com.bazaarvoice.curator.recipes.leader.LeaderService;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.collect.ImmutableMultimap;
+import io.dropwizard.servlets.tasks.Task;
+import org.apache.curator.framework.recipes.leader.Participant;
+import org.apache.zookeeper.data.Stat;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Admin task that dumps the live state of registered recipes as JSON: the nodes each {@link NodeDiscovery} holds, who
+ * each {@link LeaderService} thinks the leader is and which nodes each {@link PersistentEphemeralNode} owns.
+ * <p>
+ * The dump is written incrementally as the recipes are visited, so dumping a discovery with many nodes doesn't build
+ * the whole document in memory.  Everything comes from the recipes' caches, so the dump never waits on ZooKeeper.  The
+ * leader is only known while the leader service is running and its participant cache has caught up, otherwise
+ * {@code leaderKnown} is false.  Pass {@code nodes=false} to leave out the individual discovery nodes and only report
+ * their counts.
+ * </p>
+ * <pre>
+ * RecipeStateTask task = new RecipeStateTask();
+ * task.register("services", discovery);
+ * environment.admin().addTask(task);
+ * </pre>
+ * Then {@code curl -X POST http://localhost:8081/tasks/curator-recipes}.
+ */
+public class RecipeStateTask extends Task {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final ConcurrentMap<String, NodeDiscovery<?>> _discoveries = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, LeaderService> _leaders = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, PersistentEphemeralNode> _ephemeralNodes = new ConcurrentSkipListMap<>();
+
+    public RecipeStateTask() {
+        this("curator-recipes");
+    }
+
+    public RecipeStateTask(String name) {
+        super(name);
+    }
+
+    public void register(String name, NodeDiscovery<?> discovery) {
+        register(_discoveries, name, discovery);
+    }
+
+    public void register(String name, LeaderService leader) {
+        register(_leaders, name, leader);
+    }
+
+    public void register(String name, PersistentEphemeralNode node) {
+        register(_ephemeralNodes, name, node);
+    }
+
+    /**
+     * Removes the recipe registered under the given name, for example after it has been closed.
+     *
+     * @return True if a recipe was registered under the name.
+     */
+    public boolean unregister(String name) {
+        boolean removed = _discoveries.remove(name) != null;
+        removed |= _leaders.remove(name) != null;
+        removed |= _ephemeralNodes.remove(name) != null;
+        return removed;
+    }
+
+    private static <T> void register(ConcurrentMap<String, T> recipes, String name, T recipe) {
+        Objects.requireNonNull(name, "name");
+        Objects.requireNonNull(recipe, "recipe");
+        checkArgument(recipes.putIfAbsent(name, recipe) == null, "A recipe is already registered as %s", name);
+    }
+
+    @Override
+    public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) throws Exception {
+        boolean includeNodes = !parameters.get("nodes").contains("false");
+
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(output)) {
+            json.useDefaultPrettyPrinter();
+            json.writeStartObject();
+
+            json.writeObjectFieldStart("discovery");
+            for (Map.Entry<String, NodeDiscovery<?>> entry : _discoveries.entrySet()) {
+                json.writeFieldName(entry.getKey());
+                writeDiscovery(json, entry.getValue(), includeNodes);
+            }
+            json.writeEndObject();
+
+            json.writeObjectFieldStart("leaders");
+            for (Map.Entry<String, LeaderService> entry : _leaders.entrySet()) {
+                json.writeFieldName(entry.getKey());
+                writeLeader(json, entry.getValue());
+            }
+            json.writeEndObject();
+
+            json.writeObjectFieldStart("ephemeralNodes");
+            for (Map.Entry<String, PersistentEphemeralNode> entry : _ephemeralNodes.entrySet()) {
+                json.writeFieldName(entry.getKey());
+                writeEphemeralNode(json, entry.getValue());
+            }
+            json.writeEndObject();
+
+            json.writeEndObject();
+        }
+    }
+
+    private void writeDiscovery(JsonGenerator json, NodeDiscovery<?> discovery, boolean includeNodes)
+            throws IOException {
+        Map<String, ?> nodes = discovery.getNodes();
+
+        json.writeStartObject();
+        json.writeStringField("path", discovery.getNodePath());
+        json.writeNumberField("nodeCount", nodes.size());
+        json.writeNumberField("listeners", discovery.getListenerCount());
+        json.writeNumberField("pendingEvents", discovery.getPendingEventCount());
+        if (includeNodes) {
+            // Iterate the live key set rather than a copy, nodes that come or go meanwhile may or may not be listed.
+            json.writeObjectFieldStart("nodes");
+            for (String path : nodes.keySet()) {
+                Stat stat = discovery.getNodeStat(path);
+                json.writeObjectFieldStart(path);
+                if (stat != null) {
+                    json.writeNumberField("version", stat.getVersion());
+                    json.writeNumberField("mzxid", stat.getMzxid());
+                    json.writeNumberField("ephemeralOwner", stat.getEphemeralOwner());
+                }
+                json.writeEndObject();
+            }
+            json.writeEndObject();
+        }
+        json.writeEndObject();
+    }
+
+    private void writeLeader(JsonGenerator json, LeaderService leader) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("id", leader.getId());
+        json.writeStringField("state", leader.state().toString());
+        json.writeBooleanField("hasLeadership", leader.hasLeadership());
+        json.writeBooleanField("leaseValid", leader.isLeaseValid());
+        OptionalLong fencingToken = leader.getFencingToken();
+        if (fencingToken.isPresent()) {
+            json.writeNumberField("fencingToken", fencingToken.getAsLong());
+        }
+        // Only the cache, reading ZooKeeper could hang the dump when ZooKeeper is unreachable, which is exactly when
+        // the rest of it is most useful.
+        Optional<Participant> participant = leader.getCachedLeader();
+        json.writeBooleanField("leaderKnown", participant.isPresent());
+        json.writeStringField("leader", participant.filter(Participant::isLeader).map(Participant::getId).orElse(null));
+        json.writeEndObject();
+    }
+
+    private void writeEphemeralNode(JsonGenerator json, PersistentEphemeralNode node) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("basePath", node.getBasePath());
+        json.writeStringField("path", node.getPath());
+        json.writeEndObject();
+    }
+}
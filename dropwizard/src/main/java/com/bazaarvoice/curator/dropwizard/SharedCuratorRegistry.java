@@ -0,0 +1,218 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+import org.apache.curator.framework.CuratorFramework;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Shares Curator clients between the parts of an application, so that the process opens a single ZooKeeper session
+ * per ensemble instead of one per component.  Each session costs threads, heartbeats and state on the ZooKeeper
+ * servers.
+ * <p>
+ * Configurations with the same ensemble, session timeout and connection timeout share a client.  Every caller gets a
+ * facade of the shared client for the namespace of its own configuration; a facade can't start or close the shared
+ * client.  The configurations must agree on the other options that change how the client behaves: the retry policy,
+ * compression, concurrency limiting and its priority paths, and tracing.  Priority paths are compared with the
+ * namespace prepended, so the same relative priority paths in different namespaces don't match.  Traced operations
+ * are recorded under the namespace of the configuration that first opened the client.  Clients are reference counted
+ * and closed through {@link ManagedCuratorFramework} when the last lease is released.
+ * </p>
+ * <p>
+ * Usually a single registry is created per application and passed to every bundle that needs ZooKeeper:
+ * </p>
+ * <pre>
+ * CuratorFramework curator = registry.newManagedCurator(configuration.getZooKeeper(), environment.lifecycle());
+ * </pre>
+ */
+public class SharedCuratorRegistry {
+    private final MetricRegistry _metrics;
+    private final Map<List<Object>, SharedCurator> _curators = new HashMap<>();  // guarded by this
+
+    public SharedCuratorRegistry() {
+        this(null);
+    }
+
+    /** @param metrics The registry to record traced operations in, for configurations that enable tracing. */
+    public SharedCuratorRegistry(MetricRegistry metrics) {
+        _metrics = metrics;
+    }
+
+    /**
+     * Returns a lease on a client for the configuration, opening a new client only if no client for the same session
+     * is open yet.  The client isn't started, start it with {@link Lease#start()} and close the lease when done.
+     *
+     * @throws IllegalStateException If the client for the same session was opened with different options.
+     */
+    public synchronized Lease acquire(ZooKeeperConfiguration configuration) {
+        List<Object> key = configuration.getSessionKey();
+        List<Object> options = configuration.getClientOptions();
+        SharedCurator shared = _curators.get(key);
+        if (shared == null) {
+            CuratorFramework curator = (_metrics != null)
+                    ? configuration.newCurator(_metrics)
+                    : configuration.newCurator();
+            shared = new SharedCurator(key, options, curator);
+            _curators.put(key, shared);
+        } else {
+            checkState(shared._options.equals(options),
+                    "The shared client for %s was opened with different options: %s, not %s",
+                    key, shared._options, options);
+        }
+        shared._references++;
+        return new Lease(shared, newFacade(shared._curator, configuration.getNamespace().orElse(null)));
+    }
+
+    /**
+     * Returns a shared client for the configuration that is started and released with the provided
+     * {@link LifecycleEnvironment}.
+     */
+    public CuratorFramework newManagedCurator(ZooKeeperConfiguration configuration, LifecycleEnvironment env) {
+        final Lease lease = acquire(configuration);
+        env.manage(new Managed() {
+            @Override
+            public void start() throws Exception {
+                lease.start();
+            }
+
+            @Override
+            public void stop() throws Exception {
+                lease.close();
+            }
+        });
+        return lease.getCurator();
+    }
+
+    /**
+     * Curator only creates namespace facades of started clients, but leases hand out their client before it's started.
+     * The returned proxy answers the calls that are valid before start from the shared client and creates the real
+     * facade on first use of anything else.
+     */
+    private static CuratorFramework newFacade(CuratorFramework curator, String namespace) {
+        InvocationHandler handler = new InvocationHandler() {
+            private volatile CuratorFramework _facade;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object target;
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "SharedCurator[" + Strings.nullToEmpty(namespace) + "]";
+                    case "getNamespace":
+                        return Strings.nullToEmpty(namespace);
+                    case "start":
+                    case "close":
+                        throw new UnsupportedOperationException("The shared client is started and closed by its lease");
+                    case "getState":
+                    case "isStarted":
+                    case "getZookeeperClient":
+                    case "getConnectionStateListenable":
+                    case "getUnhandledErrorListenable":
+                    case "blockUntilConnected":
+                        target = curator;
+                        break;
+                    default:
+                        if (_facade == null) {
+                            _facade = curator.usingNamespace(namespace);
+                        }
+                        target = _facade;
+                }
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        };
+        return (CuratorFramework) Proxy.newProxyInstance(CuratorFramework.class.getClassLoader(),
+                new Class<?>[] {CuratorFramework.class}, handler);
+    }
+
+    /** @return The number of open clients, which is the number of ZooKeeper sessions the process holds. */
+    public synchronized int size() {
+        return _curators.size();
+    }
+
+    private synchronized void release(SharedCurator shared) throws IOException {
+        checkState(shared._references > 0, "Lease already released");
+        if (--shared._references == 0) {
+            _curators.remove(shared._key);
+            try {
+                shared._managed.stop();
+            } catch (Exception e) {
+                Throwables.propagateIfPossible(e, IOException.class);
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static final class SharedCurator {
+        private final List<Object> _key;
+        private final List<Object> _options;
+        private final CuratorFramework _curator;
+        private final ManagedCuratorFramework _managed;
+        private int _references;  // guarded by the registry
+
+        private SharedCurator(List<Object> key, List<Object> options, CuratorFramework curator) {
+            _key = key;
+            _options = options;
+            _curator = curator;
+            _managed = new ManagedCuratorFramework(curator);
+        }
+    }
+
+    /** A reference to a shared client.  Closing the last lease on a client closes the client. */
+    public final class Lease implements Closeable {
+        private final SharedCurator _shared;
+        private final CuratorFramework _curator;
+        private boolean _closed;  // guarded by the registry
+
+        private Lease(SharedCurator shared, CuratorFramework curator) {
+            _shared = Objects.requireNonNull(shared);
+            _curator = Objects.requireNonNull(curator);
+        }
+
+        /** @return A facade of the shared client for the namespace of the configuration. */
+        public CuratorFramework getCurator() {
+            return _curator;
+        }
+
+        /** Starts the shared client, unless it's already started. */
+        public void start() throws Exception {
+            synchronized (SharedCuratorRegistry.this) {
+                checkState(!_closed, "Lease is closed");
+                _shared._managed.start();
+            }
+        }
+
+        /** Releases the lease, closing the shared client if this was the last lease on it. */
+        @Override
+        public void close() throws IOException {
+            synchronized (SharedCuratorRegistry.this) {
+                if (!_closed) {
+                    _closed = true;
+                    release(_shared);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformSnapshot;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A reservoir that keeps the most recent values in a fixed number of ring buffers, so its memory is bounded no matter
+ * how many values are recorded, and recording a value doesn't take a lock.  Each thread records into the buffer picked
+ * by its id, so threads rarely contend on the same counter.  A snapshot is taken over all buffers, a value that is
+ * being recorded at the same time may or may not be part of it.
+ * <p>
+ * Values must not be negative, which holds for the durations a {@link com.codahale.metrics.Timer} records.
+ * </p>
+ */
+class StripedReservoir implements Reservoir {
+    @VisibleForTesting
+    static final int STRIPES = 16;
+
+    @VisibleForTesting
+    static final int STRIPE_SIZE = 128;
+
+    /** Marks a slot that hasn't been written yet. */
+    private static final long EMPTY = -1;
+
+    private final Stripe[] _stripes = new Stripe[STRIPES];
+
+    StripedReservoir() {
+        for (int i = 0; i < STRIPES; i++) {
+            _stripes[i] = new Stripe();
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : _stripes) {
+            size += (int) Math.min(stripe._count.get(), STRIPE_SIZE);
+        }
+        return size;
+    }
+
+    @Override
+    public void update(long value) {
+        Stripe stripe = _stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+        long index = stripe._count.getAndIncrement();
+        stripe._values.set((int) (index & (STRIPE_SIZE - 1)), value);
+    }
+
+    @Override
+    public Snapshot getSnapshot() {
+        long[] values = new long[STRIPES * STRIPE_SIZE];
+        int size = 0;
+        for (Stripe stripe : _stripes) {
+            int length = (int) Math.min(stripe._count.get(), STRIPE_SIZE);
+            for (int i = 0; i < length; i++) {
+                long value = stripe._values.get(i);
+                // The slot was claimed, but the value isn't written yet.
+                if (value != EMPTY) {
+                    values[size++] = value;
+                }
+            }
+        }
+        return new UniformSnapshot(Arrays.copyOf(values, size));
+    }
+
+    private static final class Stripe {
+        private final AtomicLong _count = new AtomicLong();
+        private final AtomicLongArray _values = new AtomicLongArray(STRIPE_SIZE);
+
+        private Stripe() {
+            for (int i = 0; i < STRIPE_SIZE; i++) {
+                _values.set(i, EMPTY);
+            }
+        }
+    }
+}
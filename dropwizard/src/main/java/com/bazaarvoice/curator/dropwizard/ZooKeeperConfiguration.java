@@ -1,6 +1,12 @@
 package com.bazaarvoice.curator.dropwizard;
 
+import com.bazaarvoice.curator.AdaptiveConcurrencyLimiter;
+import com.bazaarvoice.curator.AdaptiveRetryPolicy;
+import com.bazaarvoice.curator.ConcurrencyLimitingZooKeeper;
+import com.bazaarvoice.curator.FileEnsembleProvider;
 import com.bazaarvoice.curator.ResolvingEnsembleProvider;
+import com.bazaarvoice.curator.recipes.PayloadCompressionProvider;
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -11,13 +17,24 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
 import io.dropwizard.setup.Environment;
 import io.dropwizard.util.Duration;
+import org.apache.curator.ensemble.EnsembleProvider;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.curator.utils.ZookeeperFactory;
 import org.hibernate.validator.valuehandling.UnwrapValidatedValue;
 
 import javax.validation.constraints.NotNull;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkState;
 
 /** Jackson friendly object for holding configuration information about a ZooKeeper ensemble. */
 public class ZooKeeperConfiguration {
@@ -29,6 +46,12 @@ public class ZooKeeperConfiguration {
     @UnwrapValidatedValue(false)
     private Optional<String> _connectString = Optional.empty();
 
+    /** A file that holds the connection string, reloaded whenever it changes.  Replaces {@code connectString}. */
+    @NotNull
+    @JsonProperty("connectStringFile")
+    @UnwrapValidatedValue(false)
+    private Optional<String> _connectStringFile = Optional.empty();
+
     @JsonProperty("namespace")
     private Optional<String> _namespace = Optional.empty();
 
@@ -41,6 +64,51 @@ public class ZooKeeperConfiguration {
     @JsonProperty("connectionTimeout")
     private Duration _connectionTimeout = Duration.seconds(15);
 
+    /** Whether to record the latency of ZooKeeper operations, see {@link DropwizardTracerDriver}. */
+    @JsonProperty("tracing")
+    private boolean _tracing = false;
+
+    /** The number of path segments to group traced operations by. */
+    @JsonProperty("tracingPathDepth")
+    private int _tracingPathDepth = 1;
+
+    /** The maximum number of distinct path prefixes to trace. */
+    @JsonProperty("tracingMaxPrefixes")
+    private int _tracingMaxPrefixes = 100;
+
+    /**
+     * The codec used by {@code compressed()} operations, instead of Curator's default of plain gzip.  Data is written
+     * with a header that tells the codec, see {@link PayloadCompressionProvider}.
+     */
+    @NotNull
+    @JsonProperty("compression")
+    @UnwrapValidatedValue(false)
+    private Optional<Compression> _compression = Optional.empty();
+
+    /**
+     * Whether to limit the number of requests in flight, see {@link ConcurrencyLimitingZooKeeper}.  Requests that
+     * maintain recipes, and requests for the priority paths, go beyond the adaptive limit and ahead of queued requests,
+     * and only wait once {@code maxConcurrency} requests are in flight.
+     */
+    @JsonProperty("concurrencyLimiting")
+    private boolean _concurrencyLimiting = false;
+
+    /**
+     * The most requests that may be in flight, the actual limit for requests that don't maintain recipes adapts to the
+     * latency of requests.
+     */
+    @JsonProperty("maxConcurrency")
+    private int _maxConcurrency = 200;
+
+    /** Requests slower than this lower the concurrency limit. */
+    @JsonProperty("concurrencyLatencyThreshold")
+    private Duration _concurrencyLatencyThreshold = Duration.milliseconds(250);
+
+    /** Paths, relative to the namespace, whose requests are admitted like those that maintain recipes. */
+    @NotNull
+    @JsonProperty("priorityPaths")
+    private List<String> _priorityPaths = Collections.emptyList();
+
     /**
      * Used to hold a retry policy provided by a setter.  This needs to be separate from {@code _retryPolicy} because
      * we want callers to be able to specify any Curator {@link org.apache.curator.RetryPolicy} implementation instead
@@ -50,40 +118,100 @@ public class ZooKeeperConfiguration {
 
     /**
      * Return a new Curator connection to the ensemble.  It is the caller's responsibility to start and close the
-     * connection.
+     * connection.  Can't be used when {@code tracing} is enabled, use {@link #newCurator(MetricRegistry)} instead.
      */
     public CuratorFramework newCurator() {
+        checkState(!_tracing, "Tracing needs a MetricRegistry, use newCurator(MetricRegistry)");
+        return buildCurator();
+    }
+
+    /**
+     * Return a new Curator connection to the ensemble that records the latency of its operations in the provided
+     * registry, under {@code curator} or {@code curator.<namespace>}, if {@code tracing} is enabled.  It is the
+     * caller's responsibility to start and close the connection.
+     */
+    public CuratorFramework newCurator(MetricRegistry metrics) {
+        CuratorFramework curator = buildCurator();
+        if (_tracing) {
+            String name = MetricRegistry.name("curator", _namespace.orElse(null));
+            curator.getZookeeperClient().setTracerDriver(
+                    new DropwizardTracerDriver(metrics, name, _tracingPathDepth, _tracingMaxPrefixes));
+        }
+        return curator;
+    }
+
+    private CuratorFramework buildCurator() {
+        checkState(!(_connectString.isPresent() && _connectStringFile.isPresent()),
+                "Only one of connectString and connectStringFile may be set");
+
         // Make all of the curator threads daemon threads so they don't block the JVM from terminating.  Also label them
         // with the ensemble they're connecting to, in case someone is trying to sort through a thread dump.
+        String ensemble = _connectStringFile.orElse(_connectString.orElse(DEFAULT_CONNECT_STRING));
         ThreadFactory threadFactory = new ThreadFactoryBuilder()
-                .setNameFormat("CuratorFramework[" + _connectString.orElse(DEFAULT_CONNECT_STRING) + "]-%d")
+                .setNameFormat("CuratorFramework[" + ensemble + "]-%d")
                 .setDaemon(true)
                 .build();
 
-        org.apache.curator.RetryPolicy retry = _setterRetryPolicy.orElse(
-                (_configRetryPolicy != null)
-                        ? _configRetryPolicy
-                        : DEFAULT_RETRY_POLICY
-        );
-        return CuratorFrameworkFactory.builder()
-                .ensembleProvider(new ResolvingEnsembleProvider(_connectString.orElse(DEFAULT_CONNECT_STRING)))
+        org.apache.curator.RetryPolicy retry = getRetryPolicy().orElse(DEFAULT_RETRY_POLICY);
+        if (retry instanceof AdaptiveRetry) {
+            // The retry budget is meant to be shared by the operations of one client, not by every client built from
+            // the same configuration.
+            retry = ((AdaptiveRetry) retry).newInstance();
+        }
+        CuratorFrameworkFactory.Builder builder = CuratorFrameworkFactory.builder()
+                .ensembleProvider(newEnsembleProvider())
                 .retryPolicy(retry)
                 .sessionTimeoutMs(Ints.checkedCast(_sessionTimeout.toMilliseconds()))
                 .connectionTimeoutMs(Ints.checkedCast(_connectionTimeout.toMilliseconds()))
                 .namespace(_namespace.orElse(null))
-                .threadFactory(threadFactory)
+                .threadFactory(threadFactory);
+        if (_compression.isPresent()) {
+            builder.compressionProvider(new PayloadCompressionProvider(_compression.get()._codec));
+        }
+        if (_concurrencyLimiting) {
+            builder.zookeeperFactory(newConcurrencyLimitingZookeeperFactory());
+        }
+        return builder.build();
+    }
+
+    /** Every client gets its own limiter, shared by the ZooKeeper clients of all its sessions. */
+    private ZookeeperFactory newConcurrencyLimitingZookeeperFactory() {
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.builder()
+                .initialLimit(Math.min(20, _maxConcurrency))
+                .minLimit(Math.min(4, _maxConcurrency))
+                .maxLimit(_maxConcurrency)
+                .latencyThreshold(_concurrencyLatencyThreshold.getQuantity(), _concurrencyLatencyThreshold.getUnit())
                 .build();
+
+        return ConcurrencyLimitingZooKeeper.factory(limiter, getAbsolutePriorityPaths());
+    }
+
+    /** Curator prefixes paths with the namespace before passing them to ZooKeeper. */
+    private List<String> getAbsolutePriorityPaths() {
+        List<String> priorityPaths = new ArrayList<>();
+        for (String path : _priorityPaths) {
+            priorityPaths.add(_namespace.isPresent() ? ZKPaths.makePath(_namespace.get(), path) : path);
+        }
+        return priorityPaths;
+    }
+
+    private EnsembleProvider newEnsembleProvider() {
+        if (_connectStringFile.isPresent()) {
+            return new FileEnsembleProvider(Paths.get(_connectStringFile.get()));
+        }
+        return new ResolvingEnsembleProvider(_connectString.orElse(DEFAULT_CONNECT_STRING));
     }
 
     /**
      * Return a managed Curator connection.  This created connection will be wrapped in a
      * {@link ManagedCuratorFramework} and offered to the provided {@link Environment} parameter.
      *
-     * @deprecated Use {@link #newManagedCurator(LifecycleEnvironment)} instead.
+     * @deprecated Use {@link #newManagedCurator(LifecycleEnvironment, MetricRegistry)} instead, which also records
+     *             metrics when {@code tracing} is enabled.
      */
     @Deprecated
     public CuratorFramework newManagedCurator(Environment env) {
-        return newManagedCurator(env.lifecycle());
+        return newManagedCurator(env.lifecycle(), env.metrics());
     }
 
     /**
@@ -96,11 +224,58 @@ public class ZooKeeperConfiguration {
         return curator;
     }
 
+    /**
+     * Return a managed Curator connection that records the latency of its operations in the provided registry if
+     * {@code tracing} is enabled.  This created connection will be wrapped in a {@link ManagedCuratorFramework} and
+     * offered to the provided {@link LifecycleEnvironment} parameter.
+     */
+    public CuratorFramework newManagedCurator(LifecycleEnvironment env, MetricRegistry metrics) {
+        CuratorFramework curator = newCurator(metrics);
+        env.manage(new ManagedCuratorFramework(curator));
+        return curator;
+    }
+
     @JsonIgnore
     public Optional<String> getConnectString() {
         return _connectString;
     }
 
+    @JsonIgnore
+    public Optional<String> getConnectStringFile() {
+        return _connectStringFile;
+    }
+
+    /**
+     * Identifies the ZooKeeper session that clients built from this configuration open, which depends on the ensemble
+     * and the timeouts but not on the namespace.
+     */
+    @JsonIgnore
+    List<Object> getSessionKey() {
+        String ensemble = _connectStringFile.isPresent()
+                ? "file:" + Paths.get(_connectStringFile.get()).toAbsolutePath().normalize()
+                : _connectString.orElse(DEFAULT_CONNECT_STRING);
+        return Arrays.<Object>asList(ensemble, _sessionTimeout.toMilliseconds(), _connectionTimeout.toMilliseconds());
+    }
+
+    /**
+     * The options that change how a client built from this configuration behaves, apart from its session and its
+     * namespace, so clients that share a session must agree on them.  Priority paths are compared with the namespace
+     * prepended, which is how the shared client sees them: the same relative paths in different namespaces differ.
+     * Retry policies from the configuration file are compared by their settings, others by identity.
+     */
+    @JsonIgnore
+    List<Object> getClientOptions() {
+        org.apache.curator.RetryPolicy retry = getRetryPolicy().orElse(DEFAULT_RETRY_POLICY);
+        return Arrays.<Object>asList(
+                retry instanceof RetryPolicy ? ((RetryPolicy) retry).getSettings() : retry,
+                getCompression().orElse(null),
+                _concurrencyLimiting
+                        ? Arrays.<Object>asList(_maxConcurrency, _concurrencyLatencyThreshold.toNanoseconds(),
+                                getAbsolutePriorityPaths())
+                        : null,
+                _tracing ? Arrays.<Object>asList(_tracingPathDepth, _tracingMaxPrefixes) : null);
+    }
+
     @JsonIgnore
     public Optional<String> getNamespace() {
         return _namespace;
@@ -115,68 +290,213 @@ public class ZooKeeperConfiguration {
         return Optional.<org.apache.curator.RetryPolicy>ofNullable(_configRetryPolicy);
     }
 
+    @JsonIgnore
+    public Optional<PayloadCompressionProvider.Codec> getCompression() {
+        return _compression.map(compression -> compression._codec);
+    }
+
+    @JsonIgnore
+    public boolean isConcurrencyLimiting() {
+        return _concurrencyLimiting;
+    }
+
+    @JsonIgnore
+    public boolean isTracing() {
+        return _tracing;
+    }
+
     @JsonIgnore
     public void setConnectString(String connectString) {
         _connectString = Optional.of(connectString);
     }
 
+    @JsonIgnore
+    public void setConnectStringFile(String connectStringFile) {
+        _connectStringFile = Optional.of(connectStringFile);
+    }
+
     @JsonIgnore
     public void setNamespace(String namespace) {
         _namespace = Optional.of(namespace);
     }
 
+    @JsonIgnore
+    public void setCompression(PayloadCompressionProvider.Codec codec) {
+        _compression = Optional.of(Compression.valueOf(codec.name()));
+    }
+
+    @JsonIgnore
+    public void setConcurrencyLimiting(boolean concurrencyLimiting) {
+        _concurrencyLimiting = concurrencyLimiting;
+    }
+
+    @JsonIgnore
+    public void setTracing(boolean tracing) {
+        _tracing = tracing;
+    }
+
     @JsonIgnore
     public void setRetryPolicy(org.apache.curator.RetryPolicy retryPolicy) {
         _setterRetryPolicy = Optional.of(retryPolicy);
     }
 
+    /** Holds the JSON names of the compression codecs. */
+    enum Compression {
+        @JsonProperty("gzip")
+        GZIP(PayloadCompressionProvider.Codec.GZIP),
+
+        @JsonProperty("fast")
+        FAST(PayloadCompressionProvider.Codec.FAST);
+
+        private final PayloadCompressionProvider.Codec _codec;
+
+        Compression(PayloadCompressionProvider.Codec codec) {
+            _codec = codec;
+        }
+    }
+
     @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.PROPERTY, property = "type")
     @JsonSubTypes({
             @JsonSubTypes.Type(value = BoundedExponentialBackoffRetry.class, name = "boundedExponentialBackoff"),
             @JsonSubTypes.Type(value = ExponentialBackoffRetry.class, name = "exponentialBackoff"),
             @JsonSubTypes.Type(value = RetryNTimes.class, name = "nTimes"),
-            @JsonSubTypes.Type(value = RetryUntilElapsed.class, name = "untilElapsed")
+            @JsonSubTypes.Type(value = RetryUntilElapsed.class, name = "untilElapsed"),
+            @JsonSubTypes.Type(value = AdaptiveRetry.class, name = "adaptive")
     })
     static interface RetryPolicy extends org.apache.curator.RetryPolicy {
+        /** @return The type and properties of the policy, equal for policies that are configured the same way. */
+        @JsonIgnore
+        List<Object> getSettings();
     }
 
     private static final class BoundedExponentialBackoffRetry
             extends org.apache.curator.retry.BoundedExponentialBackoffRetry
             implements RetryPolicy {
+        private final List<Object> _settings;
+
         @JsonCreator
         public BoundedExponentialBackoffRetry(@JsonProperty("baseSleepTimeMs") int baseSleepTimeMs,
                                               @JsonProperty("maxSleepTimeMs") int maxSleepTimeMs,
                                               @JsonProperty("maxRetries") int maxRetries) {
             super(baseSleepTimeMs, maxSleepTimeMs, maxRetries);
+            _settings = Arrays.<Object>asList(getClass(), baseSleepTimeMs, maxSleepTimeMs, maxRetries);
+        }
+
+        @Override
+        public List<Object> getSettings() {
+            return _settings;
         }
     }
 
     private static final class ExponentialBackoffRetry
             extends org.apache.curator.retry.ExponentialBackoffRetry
             implements RetryPolicy {
+        private final List<Object> _settings;
+
         @JsonCreator
         public ExponentialBackoffRetry(@JsonProperty("baseSleepTimeMs") int baseSleepTimeMs,
                                        @JsonProperty("maxRetries") int maxRetries) {
             super(baseSleepTimeMs, maxRetries);
+            _settings = Arrays.<Object>asList(getClass(), baseSleepTimeMs, maxRetries);
+        }
+
+        @Override
+        public List<Object> getSettings() {
+            return _settings;
         }
     }
 
     private static final class RetryNTimes
             extends org.apache.curator.retry.RetryNTimes
             implements RetryPolicy {
+        private final List<Object> _settings;
+
         @JsonCreator
         public RetryNTimes(@JsonProperty("n") int n,
                            @JsonProperty("sleepMsBetweenRetries") int sleepMsBetweenRetries) {
             super(n, sleepMsBetweenRetries);
+            _settings = Arrays.<Object>asList(getClass(), n, sleepMsBetweenRetries);
+        }
+
+        @Override
+        public List<Object> getSettings() {
+            return _settings;
         }
     }
 
     private static final class RetryUntilElapsed
             extends org.apache.curator.retry.RetryUntilElapsed
             implements RetryPolicy {
+        private final List<Object> _settings;
+
         public RetryUntilElapsed(@JsonProperty("maxElapsedTimeMs") int maxElapsedTimeMs,
                                  @JsonProperty("sleepMsBetweenRetries") int sleepMsBetweenRetries) {
             super(maxElapsedTimeMs, sleepMsBetweenRetries);
+            _settings = Arrays.<Object>asList(getClass(), maxElapsedTimeMs, sleepMsBetweenRetries);
+        }
+
+        @Override
+        public List<Object> getSettings() {
+            return _settings;
+        }
+    }
+
+    /** Absent properties keep the defaults of {@link AdaptiveRetryPolicy.Builder}. */
+    private static final class AdaptiveRetry
+            extends AdaptiveRetryPolicy
+            implements RetryPolicy {
+        private final List<Object> _settings;
+
+        @JsonCreator
+        public AdaptiveRetry(@JsonProperty("baseSleepTimeMs") Integer baseSleepTimeMs,
+                             @JsonProperty("maxSleepTimeMs") Integer maxSleepTimeMs,
+                             @JsonProperty("maxRetries") Integer maxRetries,
+                             @JsonProperty("retryBudget") Double retryBudget,
+                             @JsonProperty("retryBudgetPerSecond") Double retryBudgetPerSecond,
+                             @JsonProperty("tripAfterMs") Integer tripAfterMs,
+                             @JsonProperty("tripRatio") Double tripRatio,
+                             @JsonProperty("openMs") Integer openMs) {
+            super(newBuilder(baseSleepTimeMs, maxSleepTimeMs, maxRetries, retryBudget, retryBudgetPerSecond,
+                    tripAfterMs, tripRatio, openMs));
+            _settings = Arrays.<Object>asList(getClass(), baseSleepTimeMs, maxSleepTimeMs, maxRetries, retryBudget,
+                    retryBudgetPerSecond, tripAfterMs, tripRatio, openMs);
+        }
+
+        @Override
+        public List<Object> getSettings() {
+            return _settings;
+        }
+
+        private static AdaptiveRetryPolicy.Builder newBuilder(Integer baseSleepTimeMs, Integer maxSleepTimeMs,
+                                                             Integer maxRetries, Double retryBudget,
+                                                             Double retryBudgetPerSecond, Integer tripAfterMs,
+                                                             Double tripRatio, Integer openMs) {
+            AdaptiveRetryPolicy.Builder builder = AdaptiveRetryPolicy.builder();
+            if (baseSleepTimeMs != null) {
+                builder.baseSleepTime(baseSleepTimeMs, TimeUnit.MILLISECONDS);
+            }
+            if (maxSleepTimeMs != null) {
+                builder.maxSleepTime(maxSleepTimeMs, TimeUnit.MILLISECONDS);
+            }
+            if (maxRetries != null) {
+                builder.maxRetries(maxRetries);
+            }
+            if (retryBudget != null) {
+                builder.retryBudget(retryBudget);
+            }
+            if (retryBudgetPerSecond != null) {
+                builder.retryBudgetPerSecond(retryBudgetPerSecond);
+            }
+            if (tripAfterMs != null) {
+                builder.tripAfter(tripAfterMs, TimeUnit.MILLISECONDS);
+            }
+            if (tripRatio != null) {
+                builder.tripRatio(tripRatio);
+            }
+            if (openMs != null) {
+                builder.openDuration(openMs, TimeUnit.MILLISECONDS);
+            }
+            return builder;
         }
     }
 }
@@ -1,15 +1,29 @@
 package com.bazaarvoice.curator.dropwizard;
 
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.zookeeper.KeeperException;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class CuratorHealthCheckTest {
+    private static final String PROBE_PATH = "/health";
+
+    private final FakeTicker _ticker = new FakeTicker();
+
     @Test(expected = NullPointerException.class)
     public void testNullCurator() {
         new CuratorHealthCheck(null);
@@ -32,4 +46,155 @@ public class CuratorHealthCheckTest {
         CuratorHealthCheck healthCheck = new CuratorHealthCheck(curator);
         assertFalse(healthCheck.check().isHealthy());
     }
+
+    @Test
+    public void testNoProbeCompleted() throws Exception {
+        CuratorFramework curator = newConnectedCurator();
+
+        CuratorHealthCheck healthCheck = newProbingHealthCheck(curator);
+        assertFalse(healthCheck.check().isHealthy());
+    }
+
+    @Test
+    public void testFastProbe() throws Exception {
+        CuratorFramework curator = newConnectedCurator();
+        CuratorHealthCheck healthCheck = newProbingHealthCheck(curator);
+
+        healthCheck.probe();
+        _ticker.advance(10);
+        completeSync(curator, KeeperException.Code.OK);
+        completeCheckExists(curator, KeeperException.Code.NONODE);
+
+        assertTrue(healthCheck.check().isHealthy());
+    }
+
+    @Test
+    public void testSlowProbe() throws Exception {
+        CuratorFramework curator = newConnectedCurator();
+        CuratorHealthCheck healthCheck = newProbingHealthCheck(curator);
+
+        healthCheck.probe();
+        _ticker.advance(50);
+        completeSync(curator, KeeperException.Code.OK);
+        _ticker.advance(60);
+        completeCheckExists(curator, KeeperException.Code.OK);
+
+        assertFalse(healthCheck.check().isHealthy());
+    }
+
+    @Test
+    public void testFailedProbe() throws Exception {
+        CuratorFramework curator = newConnectedCurator();
+        CuratorHealthCheck healthCheck = newProbingHealthCheck(curator);
+
+        healthCheck.probe();
+        completeSync(curator, KeeperException.Code.CONNECTIONLOSS);
+
+        assertFalse(healthCheck.check().isHealthy());
+    }
+
+    @Test
+    public void testCheckExistsThrows() throws Exception {
+        CuratorFramework curator = newConnectedCurator();
+        when(curator.checkExists().inBackground(any(BackgroundCallback.class)).forPath(PROBE_PATH))
+                .thenThrow(new IllegalStateException());
+        CuratorHealthCheck healthCheck = newProbingHealthCheck(curator);
+
+        healthCheck.probe();
+        completeSync(curator, KeeperException.Code.OK);
+        assertFalse(healthCheck.check().isHealthy());
+
+        // The failed probe completed, so the next one goes ahead right away.
+        healthCheck.probe();
+        verify(curator.sync(), times(2)).inBackground(any(BackgroundCallback.class));
+    }
+
+    @Test
+    public void testOutstandingProbe() throws Exception {
+        CuratorFramework curator = newConnectedCurator();
+        CuratorHealthCheck healthCheck = newProbingHealthCheck(curator);
+
+        healthCheck.probe();
+        completeSync(curator, KeeperException.Code.OK);
+        completeCheckExists(curator, KeeperException.Code.OK);
+        assertTrue(healthCheck.check().isHealthy());
+
+        // The next probe hangs, which is noticed without waiting for it.
+        healthCheck.probe();
+        _ticker.advance(101);
+        assertFalse(healthCheck.check().isHealthy());
+
+        // Only one probe is outstanding at a time.
+        healthCheck.probe();
+        verify(curator.sync(), times(2)).inBackground(any(BackgroundCallback.class));
+    }
+
+    @Test
+    public void testStaleProbe() throws Exception {
+        CuratorFramework curator = newConnectedCurator();
+        CuratorHealthCheck healthCheck = newProbingHealthCheck(curator);
+
+        healthCheck.probe();
+        completeSync(curator, KeeperException.Code.OK);
+        completeCheckExists(curator, KeeperException.Code.OK);
+        _ticker.advance(3000);
+        assertTrue(healthCheck.check().isHealthy());
+
+        // No probe completed for more than three intervals, so probing has stopped.
+        _ticker.advance(1);
+        assertFalse(healthCheck.check().isHealthy());
+    }
+
+    @Test
+    public void testProbingSurvivesExceptions() throws Exception {
+        CuratorFramework curator = mock(CuratorFramework.class, RETURNS_DEEP_STUBS);
+        when(curator.getZookeeperClient().isConnected()).thenThrow(new IllegalStateException()).thenReturn(true);
+
+        CuratorHealthCheck healthCheck = new CuratorHealthCheck(curator, PROBE_PATH, 10, 100, TimeUnit.MILLISECONDS,
+                _ticker);
+        healthCheck.start();
+        try {
+            verify(curator.sync(), timeout(TimeUnit.MINUTES.toMillis(1))).inBackground(any(BackgroundCallback.class));
+        } finally {
+            healthCheck.stop();
+        }
+    }
+
+    @Test
+    public void testCheckDoesNoIo() throws Exception {
+        CuratorFramework curator = newConnectedCurator();
+        CuratorHealthCheck healthCheck = newProbingHealthCheck(curator);
+
+        healthCheck.check();
+        healthCheck.check();
+        verify(curator.sync(), times(0)).inBackground(any(BackgroundCallback.class));
+    }
+
+    private CuratorFramework newConnectedCurator() {
+        CuratorFramework curator = mock(CuratorFramework.class, RETURNS_DEEP_STUBS);
+        when(curator.getZookeeperClient().isConnected()).thenReturn(true);
+        return curator;
+    }
+
+    private CuratorHealthCheck newProbingHealthCheck(CuratorFramework curator) {
+        return new CuratorHealthCheck(curator, PROBE_PATH, 1000, 100, TimeUnit.MILLISECONDS, _ticker);
+    }
+
+    private void completeSync(CuratorFramework curator, KeeperException.Code code) throws Exception {
+        ArgumentCaptor<BackgroundCallback> callback = ArgumentCaptor.forClass(BackgroundCallback.class);
+        verify(curator.sync(), times(1)).inBackground(callback.capture());
+        callback.getValue().processResult(curator, newEvent(code));
+    }
+
+    private void completeCheckExists(CuratorFramework curator, KeeperException.Code code) throws Exception {
+        ArgumentCaptor<BackgroundCallback> callback = ArgumentCaptor.forClass(BackgroundCallback.class);
+        verify(curator.checkExists(), times(1)).inBackground(callback.capture());
+        callback.getValue().processResult(curator, newEvent(code));
+    }
+
+    private CuratorEvent newEvent(KeeperException.Code code) {
+        CuratorEvent event = mock(CuratorEvent.class);
+        when(event.getResultCode()).thenReturn(code.intValue());
+        return event;
+    }
 }
@@ -0,0 +1,55 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.codahale.metrics.MetricRegistry;
+import org.apache.curator.framework.state.ConnectionState;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class DropwizardLeaderServiceMetricsTest {
+    private final MetricRegistry _registry = new MetricRegistry();
+
+    @Test(expected = NullPointerException.class)
+    public void testNullRegistry() {
+        new DropwizardLeaderServiceMetrics(null, "leader");
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullName() {
+        new DropwizardLeaderServiceMetrics(_registry, null);
+    }
+
+    @Test
+    public void testTimers() {
+        DropwizardLeaderServiceMetrics metrics = new DropwizardLeaderServiceMetrics(_registry, "leader");
+        metrics.leadershipAcquired(TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.delegateStarted(TimeUnit.MILLISECONDS.toNanos(7));
+        metrics.leadershipReleased(TimeUnit.MINUTES.toNanos(3));
+
+        assertEquals(1, _registry.timer("leader.election-time").getCount());
+        assertEquals(1, _registry.timer("leader.delegate-start-time").getCount());
+        assertEquals(1, _registry.timer("leader.tenure").getCount());
+    }
+
+    @Test
+    public void testLosses() {
+        DropwizardLeaderServiceMetrics metrics = new DropwizardLeaderServiceMetrics(_registry, "leader");
+        metrics.leadershipLost(ConnectionState.SUSPENDED);
+        metrics.leadershipLost(ConnectionState.SUSPENDED);
+        metrics.leadershipLost(ConnectionState.LOST);
+        metrics.leadershipLost(ConnectionState.READ_ONLY);
+
+        assertEquals(2, _registry.meter("leader.suspended-losses").getCount());
+        assertEquals(1, _registry.meter("leader.lost-losses").getCount());
+    }
+
+    @Test
+    public void testDelegateFailures() {
+        DropwizardLeaderServiceMetrics metrics = new DropwizardLeaderServiceMetrics(_registry, "leader");
+        metrics.delegateFailed();
+
+        assertEquals(1, _registry.meter("leader.delegate-failures").getCount());
+    }
+}
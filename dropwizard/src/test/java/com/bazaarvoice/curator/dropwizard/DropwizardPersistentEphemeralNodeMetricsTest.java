@@ -0,0 +1,63 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class DropwizardPersistentEphemeralNodeMetricsTest {
+    private final MetricRegistry _registry = new MetricRegistry();
+
+    @Test(expected = NullPointerException.class)
+    public void testNullRegistry() {
+        new DropwizardPersistentEphemeralNodeMetrics(null, "pen");
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullName() {
+        new DropwizardPersistentEphemeralNodeMetrics(_registry, null);
+    }
+
+    @Test
+    public void testCreates() {
+        DropwizardPersistentEphemeralNodeMetrics metrics = new DropwizardPersistentEphemeralNodeMetrics(_registry, "pen");
+        metrics.nodeCreated(TimeUnit.MILLISECONDS.toNanos(5));
+
+        assertEquals(1, _registry.meter("pen.creates").getCount());
+        assertEquals(1, _registry.timer("pen.time-to-first-create").getCount());
+        assertEquals(0, _registry.meter("pen.recreates").getCount());
+    }
+
+    @Test
+    public void testRecreates() {
+        DropwizardPersistentEphemeralNodeMetrics metrics = new DropwizardPersistentEphemeralNodeMetrics(_registry, "pen");
+        metrics.nodeRecreated(TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.nodeRecreated(TimeUnit.MILLISECONDS.toNanos(7));
+
+        assertEquals(2, _registry.meter("pen.recreates").getCount());
+        assertEquals(2, _registry.timer("pen.time-to-recreate").getCount());
+    }
+
+    @Test
+    public void testCounters() {
+        DropwizardPersistentEphemeralNodeMetrics metrics = new DropwizardPersistentEphemeralNodeMetrics(_registry, "pen");
+        metrics.nodeDeleted();
+        metrics.existingNodeAdopted();
+        metrics.operationRetried();
+        metrics.operationRetried();
+
+        assertEquals(1, _registry.meter("pen.deletes").getCount());
+        assertEquals(1, _registry.meter("pen.adoptions").getCount());
+        assertEquals(2, _registry.meter("pen.retries").getCount());
+    }
+
+    @Test
+    public void testSharedAcrossInstances() {
+        new DropwizardPersistentEphemeralNodeMetrics(_registry, "pen").nodeDeleted();
+        new DropwizardPersistentEphemeralNodeMetrics(_registry, "pen").nodeDeleted();
+
+        assertEquals(2, _registry.meter("pen.deletes").getCount());
+    }
+}
@@ -0,0 +1,122 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.codahale.metrics.MetricRegistry;
+import org.apache.curator.drivers.EventTrace;
+import org.apache.curator.drivers.OperationTrace;
+import org.apache.zookeeper.KeeperException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class DropwizardTracerDriverTest {
+    private final MetricRegistry _registry = new MetricRegistry();
+
+    private void trace(DropwizardTracerDriver driver, String name, String path, KeeperException.Code code) {
+        new OperationTrace(name, driver).setPath(path).setReturnCode(code.intValue()).commit();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullRegistry() {
+        new DropwizardTracerDriver(null, "curator", 1, 100);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullName() {
+        new DropwizardTracerDriver(_registry, null, 1, 100);
+    }
+
+    @Test
+    public void testOperations() {
+        DropwizardTracerDriver driver = new DropwizardTracerDriver(_registry, "curator", 0, 100);
+        trace(driver, "GetDataBuilderImpl-Foreground", "/a", KeeperException.Code.OK);
+        trace(driver, "GetDataBuilderImpl-Background", "/a", KeeperException.Code.OK);
+        trace(driver, "CreateBuilderImpl-Foreground", "/a", KeeperException.Code.OK);
+        trace(driver, "SetDataBuilderImpl-Foreground", "/a", KeeperException.Code.OK);
+        trace(driver, "ExistsBuilderImpl-Foreground", "/a", KeeperException.Code.OK);
+        trace(driver, "GetChildrenBuilderImpl-Foreground", "/a", KeeperException.Code.OK);
+        trace(driver, "SyncBuilderImpl-Background", "/a", KeeperException.Code.OK);
+
+        assertEquals(2, _registry.timer("curator.getData").getCount());
+        assertEquals(1, _registry.timer("curator.create").getCount());
+        assertEquals(1, _registry.timer("curator.setData").getCount());
+        assertEquals(1, _registry.timer("curator.exists").getCount());
+        assertEquals(1, _registry.timer("curator.children").getCount());
+        assertEquals(1, _registry.timer("curator.sync").getCount());
+    }
+
+    @Test
+    public void testUnknownOperation() {
+        DropwizardTracerDriver driver = new DropwizardTracerDriver(_registry, "curator", 1, 100);
+        trace(driver, "Something-Else", "/a", KeeperException.Code.OK);
+
+        assertEquals(0, _registry.getMetrics().size());
+    }
+
+    @Test
+    public void testErrors() {
+        DropwizardTracerDriver driver = new DropwizardTracerDriver(_registry, "curator", 0, 100);
+        trace(driver, "GetDataBuilderImpl-Foreground", "/a", KeeperException.Code.OK);
+        trace(driver, "GetDataBuilderImpl-Foreground", "/a", KeeperException.Code.NONODE);
+
+        assertEquals(2, _registry.timer("curator.getData").getCount());
+        assertEquals(1, _registry.meter("curator.getData.errors").getCount());
+    }
+
+    @Test
+    public void testPathPrefixes() {
+        DropwizardTracerDriver driver = new DropwizardTracerDriver(_registry, "curator", 2, 100);
+        trace(driver, "GetDataBuilderImpl-Foreground", "/services/a/node-1", KeeperException.Code.OK);
+        trace(driver, "GetDataBuilderImpl-Foreground", "/services/a/node-2", KeeperException.Code.OK);
+        trace(driver, "GetDataBuilderImpl-Foreground", "/services/b", KeeperException.Code.OK);
+        trace(driver, "GetDataBuilderImpl-Foreground", "/leader", KeeperException.Code.OK);
+
+        assertEquals(4, _registry.timer("curator.getData").getCount());
+        assertEquals(2, _registry.timer("curator.getData._services_a").getCount());
+        assertEquals(1, _registry.timer("curator.getData._services_b").getCount());
+        assertEquals(1, _registry.timer("curator.getData._leader").getCount());
+    }
+
+    @Test
+    public void testPathPrefixSeparatorsReplaced() {
+        DropwizardTracerDriver driver = new DropwizardTracerDriver(_registry, "curator", 2, 100);
+        trace(driver, "GetDataBuilderImpl-Foreground", "/config/app.v1/settings", KeeperException.Code.OK);
+
+        assertEquals(1, _registry.timer("curator.getData._config_app_v1").getCount());
+    }
+
+    @Test
+    public void testMaxPrefixes() {
+        DropwizardTracerDriver driver = new DropwizardTracerDriver(_registry, "curator", 1, 1);
+        trace(driver, "GetDataBuilderImpl-Foreground", "/a/1", KeeperException.Code.OK);
+        trace(driver, "CreateBuilderImpl-Foreground", "/a/2", KeeperException.Code.OK);
+        trace(driver, "GetDataBuilderImpl-Foreground", "/b/1", KeeperException.Code.OK);
+
+        assertEquals(2, _registry.timer("curator.getData").getCount());
+        assertEquals(1, _registry.timer("curator.getData._a").getCount());
+        assertEquals(1, _registry.timer("curator.create._a").getCount());
+        assertFalse(_registry.getTimers().containsKey("curator.getData._b"));
+    }
+
+    @Test
+    public void testEvents() {
+        DropwizardTracerDriver driver = new DropwizardTracerDriver(_registry, "curator", 1, 100);
+        new EventTrace("connection-state-change", driver).commit();
+
+        assertEquals(1, _registry.meter("curator.events.connection-state-change").getCount());
+    }
+
+    @Test
+    public void testNameTakenByAnotherKindOfMetric() {
+        _registry.counter("curator.getData");
+        _registry.histogram("curator.getData.errors");
+        DropwizardTracerDriver driver = new DropwizardTracerDriver(_registry, "curator", 1, 100);
+
+        // Tracing skips the names it can't use instead of failing the operation.
+        trace(driver, "GetDataBuilderImpl-Foreground", "/a", KeeperException.Code.NONODE);
+        trace(driver, "GetDataBuilderImpl-Foreground", "/a", KeeperException.Code.OK);
+
+        assertEquals(0, _registry.counter("curator.getData").getCount());
+        assertEquals(2, _registry.timer("curator.getData._a").getCount());
+    }
+}
@@ -0,0 +1,47 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.Service;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ManagedLeaderServiceTest {
+    @Test(expected = NullPointerException.class)
+    public void testNullService() {
+        new ManagedLeaderService(null);
+    }
+
+    @Test
+    public void testStartsAndStopsService() throws Exception {
+        Service service = new NoopService();
+        ManagedLeaderService managed = new ManagedLeaderService(service);
+
+        managed.start();
+        assertEquals(Service.State.RUNNING, service.state());
+
+        managed.stop();
+        assertEquals(Service.State.TERMINATED, service.state());
+    }
+
+    @Test
+    public void testDoesNotRestartStartedService() throws Exception {
+        Service service = new NoopService();
+        service.startAsync().awaitRunning();
+
+        new ManagedLeaderService(service).start();
+        assertEquals(Service.State.RUNNING, service.state());
+    }
+
+    private static class NoopService extends AbstractIdleService {
+        @Override
+        protected void startUp() {
+            // Do nothing
+        }
+
+        @Override
+        protected void shutDown() {
+            // Do nothing
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.bazaarvoice.curator.recipes.NodeDiscovery;
+import org.junit.Test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class ManagedNodeDiscoveryTest {
+    @Test(expected = NullPointerException.class)
+    public void testNullDiscovery() {
+        new ManagedNodeDiscovery(null);
+    }
+
+    @Test
+    public void testStartsDiscoveryOnStart() throws Exception {
+        NodeDiscovery<?> discovery = mock(NodeDiscovery.class);
+
+        new ManagedNodeDiscovery(discovery).start();
+
+        verify(discovery).start();
+    }
+
+    @Test
+    public void testClosesDiscoveryOnStop() throws Exception {
+        NodeDiscovery<?> discovery = mock(NodeDiscovery.class);
+
+        new ManagedNodeDiscovery(discovery).stop();
+
+        verify(discovery).close();
+    }
+}
@@ -0,0 +1,64 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.bazaarvoice.curator.recipes.PersistentEphemeralNode;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class ManagedPersistentEphemeralNodeTest {
+    @Test(expected = NullPointerException.class)
+    public void testNullFactory() {
+        new ManagedPersistentEphemeralNode(null);
+    }
+
+    @Test
+    public void testNotCreatedBeforeStart() throws Exception {
+        ManagedPersistentEphemeralNode managed = new ManagedPersistentEphemeralNode(() -> {
+            throw new AssertionError("Created too early");
+        });
+
+        assertNull(managed.getNode());
+        managed.stop();
+    }
+
+    @Test
+    public void testStartCreatesNodeOnce() throws Exception {
+        PersistentEphemeralNode node = mock(PersistentEphemeralNode.class);
+        AtomicInteger created = new AtomicInteger();
+        ManagedPersistentEphemeralNode managed = new ManagedPersistentEphemeralNode(() -> {
+            created.incrementAndGet();
+            return node;
+        });
+
+        managed.start();
+        managed.start();
+
+        assertSame(node, managed.getNode());
+        assertEquals(1, created.get());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testFactoryReturnsNull() throws Exception {
+        new ManagedPersistentEphemeralNode(() -> null).start();
+    }
+
+    @Test
+    public void testStopClosesNode() throws Exception {
+        PersistentEphemeralNode node = mock(PersistentEphemeralNode.class);
+        ManagedPersistentEphemeralNode managed = new ManagedPersistentEphemeralNode(() -> node);
+
+        managed.start();
+        managed.stop();
+
+        verify(node).close(anyLong(), eq(TimeUnit.SECONDS));
+    }
+}
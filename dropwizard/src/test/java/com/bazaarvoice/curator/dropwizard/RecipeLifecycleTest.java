@@ -0,0 +1,164 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import io.dropwizard.lifecycle.Managed;
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RecipeLifecycleTest {
+    private CuratorFramework newCurator(boolean connects) throws InterruptedException {
+        CuratorFramework curator = mock(CuratorFramework.class);
+        when(curator.blockUntilConnected(anyInt(), eq(TimeUnit.MILLISECONDS))).thenReturn(connects);
+        return curator;
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullCurator() {
+        new RecipeLifecycle(null, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testStartsInParallel() throws Exception {
+        // Each recipe waits for the other one to start, which only works if they start at the same time.
+        CountDownLatch starting = new CountDownLatch(2);
+        RecipeLifecycle lifecycle = new RecipeLifecycle(newCurator(true), 1, 1, TimeUnit.SECONDS);
+        lifecycle.manage(new AwaitingRecipe(starting));
+        lifecycle.manage(new AwaitingRecipe(starting));
+
+        lifecycle.start();
+        assertEquals(0, starting.getCount());
+    }
+
+    @Test
+    public void testNotConnected() throws Exception {
+        Managed recipe = mock(Managed.class);
+        RecipeLifecycle lifecycle = new RecipeLifecycle(newCurator(false), 1, 1, TimeUnit.SECONDS);
+        lifecycle.manage(recipe);
+
+        try {
+            lifecycle.start();
+            fail();
+        } catch (TimeoutException e) {
+            // Expected
+        }
+        verify(recipe, never()).start();
+    }
+
+    @Test
+    public void testFailedStartStopsStartedRecipes() throws Exception {
+        Managed good = mock(Managed.class);
+        Managed bad = mock(Managed.class);
+        Exception failure = new Exception("failed");
+        doThrow(failure).when(bad).start();
+        RecipeLifecycle lifecycle = new RecipeLifecycle(newCurator(true), 1, 1, TimeUnit.SECONDS);
+        lifecycle.manage(good);
+        lifecycle.manage(bad);
+
+        try {
+            lifecycle.start();
+            fail();
+        } catch (Exception e) {
+            assertEquals(failure, e);
+        }
+        verify(good).stop();
+        verify(bad, never()).stop();
+    }
+
+    @Test
+    public void testStartTimeout() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Managed good = mock(Managed.class);
+        Managed slow = mock(Managed.class);
+        doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(slow).start();
+        RecipeLifecycle lifecycle = new RecipeLifecycle(newCurator(true), 100, 1000, TimeUnit.MILLISECONDS);
+        lifecycle.manage(good);
+        lifecycle.manage(slow);
+
+        try {
+            lifecycle.start();
+            fail();
+        } catch (TimeoutException e) {
+            // Expected
+        }
+        verify(good).stop();
+
+        // Stopped as soon as it finishes starting after all.
+        release.countDown();
+        verify(slow, timeout(TimeUnit.SECONDS.toMillis(10))).stop();
+    }
+
+    @Test
+    public void testStopsAll() throws Exception {
+        Managed first = mock(Managed.class);
+        Managed second = mock(Managed.class);
+        doThrow(new Exception("failed")).when(first).stop();
+        RecipeLifecycle lifecycle = new RecipeLifecycle(newCurator(true), 1, 1, TimeUnit.SECONDS);
+        lifecycle.manage(first);
+        lifecycle.manage(second);
+
+        lifecycle.start();
+        lifecycle.stop();
+        verify(first).stop();
+        verify(second).stop();
+    }
+
+    @Test
+    public void testShutdownBudget() throws Exception {
+        CountDownLatch never = new CountDownLatch(1);
+        RecipeLifecycle lifecycle = new RecipeLifecycle(newCurator(true), 10000, 100, TimeUnit.MILLISECONDS);
+        lifecycle.manage(new Managed() {
+            @Override
+            public void start() {
+                // Do nothing
+            }
+
+            @Override
+            public void stop() throws Exception {
+                never.await();
+            }
+        });
+        lifecycle.start();
+
+        long start = System.nanoTime();
+        lifecycle.stop();
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    }
+
+    private static class AwaitingRecipe implements Managed {
+        private final CountDownLatch _starting;
+
+        private AwaitingRecipe(CountDownLatch starting) {
+            _starting = starting;
+        }
+
+        @Override
+        public void start() throws Exception {
+            _starting.countDown();
+            assertTrue(_starting.await(10, TimeUnit.SECONDS));
+        }
+
+        @Override
+        public void stop() {
+            // Do nothing
+        }
+    }
+}
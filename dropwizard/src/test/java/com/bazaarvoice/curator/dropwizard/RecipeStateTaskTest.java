@@ -0,0 +1,113 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.bazaarvoice.curator.recipes.NodeDiscovery;
+import com.bazaarvoice.curator.recipes.PersistentEphemeralNode;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import org.apache.zookeeper.data.Stat;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RecipeStateTaskTest {
+    private final RecipeStateTask _task = new RecipeStateTask();
+
+    @Test
+    public void testEmpty() throws Exception {
+        JsonNode state = execute(ImmutableMultimap.of());
+
+        assertEquals(0, state.get("discovery").size());
+        assertEquals(0, state.get("leaders").size());
+        assertEquals(0, state.get("ephemeralNodes").size());
+    }
+
+    @Test
+    public void testDiscovery() throws Exception {
+        _task.register("services", newDiscovery());
+
+        JsonNode discovery = execute(ImmutableMultimap.of()).get("discovery").get("services");
+
+        assertEquals("/services", discovery.get("path").asText());
+        assertEquals(2, discovery.get("nodeCount").asInt());
+        assertEquals(1, discovery.get("listeners").asInt());
+        assertEquals(3, discovery.get("pendingEvents").asInt());
+        assertEquals(7, discovery.get("nodes").get("/services/a").get("version").asInt());
+        assertEquals(42, discovery.get("nodes").get("/services/a").get("mzxid").asLong());
+        // The node disappeared from the cache between listing and reading its stat.
+        assertEquals(0, discovery.get("nodes").get("/services/b").size());
+    }
+
+    @Test
+    public void testDiscoveryWithoutNodes() throws Exception {
+        _task.register("services", newDiscovery());
+
+        JsonNode discovery = execute(ImmutableMultimap.of("nodes", "false")).get("discovery").get("services");
+
+        assertEquals(2, discovery.get("nodeCount").asInt());
+        assertFalse(discovery.has("nodes"));
+    }
+
+    @Test
+    public void testEphemeralNode() throws Exception {
+        PersistentEphemeralNode node = mock(PersistentEphemeralNode.class);
+        when(node.getBasePath()).thenReturn("/services/a");
+        when(node.getPath()).thenReturn("/services/a0000000001");
+        PersistentEphemeralNode pending = mock(PersistentEphemeralNode.class);
+        when(pending.getBasePath()).thenReturn("/services/b");
+        _task.register("registration", node);
+        _task.register("pending", pending);
+
+        JsonNode nodes = execute(ImmutableMultimap.of()).get("ephemeralNodes");
+
+        assertEquals("/services/a", nodes.get("registration").get("basePath").asText());
+        assertEquals("/services/a0000000001", nodes.get("registration").get("path").asText());
+        assertTrue(nodes.get("pending").get("path").isNull());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateName() {
+        _task.register("services", newDiscovery());
+        _task.register("services", newDiscovery());
+    }
+
+    @Test
+    public void testUnregister() throws Exception {
+        _task.register("services", newDiscovery());
+
+        assertTrue(_task.unregister("services"));
+        assertFalse(_task.unregister("services"));
+        assertEquals(0, execute(ImmutableMultimap.of()).get("discovery").size());
+    }
+
+    private NodeDiscovery<?> newDiscovery() {
+        Stat stat = new Stat();
+        stat.setVersion(7);
+        stat.setMzxid(42);
+
+        @SuppressWarnings("unchecked")
+        NodeDiscovery<String> discovery = mock(NodeDiscovery.class);
+        when(discovery.getNodePath()).thenReturn("/services");
+        when(discovery.getNodes()).thenReturn(ImmutableMap.of("/services/a", "a", "/services/b", "b"));
+        when(discovery.getNodeStat("/services/a")).thenReturn(stat);
+        when(discovery.getListenerCount()).thenReturn(1);
+        when(discovery.getPendingEventCount()).thenReturn(3);
+        return discovery;
+    }
+
+    private JsonNode execute(ImmutableMultimap<String, String> parameters) throws Exception {
+        StringWriter output = new StringWriter();
+        try (PrintWriter writer = new PrintWriter(output)) {
+            _task.execute(parameters, writer);
+        }
+        return new ObjectMapper().readTree(output.toString());
+    }
+}
@@ -0,0 +1,195 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.bazaarvoice.curator.recipes.PayloadCompressionProvider;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.google.common.collect.ImmutableMap;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.imps.CuratorFrameworkState;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class SharedCuratorRegistryTest {
+    private final ObjectMapper _parser = new MappingJsonFactory().getCodec().registerModule(new Jdk8Module());
+    private final SharedCuratorRegistry _registry = new SharedCuratorRegistry();
+    private SharedCuratorRegistry.Lease _lease;
+
+    @After
+    public void teardown() throws IOException {
+        if (_lease != null) {
+            _lease.close();
+        }
+    }
+
+    private ZooKeeperConfiguration newConfiguration(String connectString, String namespace) {
+        ZooKeeperConfiguration configuration = new ZooKeeperConfiguration();
+        configuration.setConnectString(connectString);
+        if (namespace != null) {
+            configuration.setNamespace(namespace);
+        }
+        return configuration;
+    }
+
+    private ZooKeeperConfiguration parse(Map<String, ?> map) throws IOException {
+        return _parser.readValue(_parser.writeValueAsString(map), ZooKeeperConfiguration.class);
+    }
+
+    @Test
+    public void testSharedBetweenNamespaces() throws Exception {
+        SharedCuratorRegistry.Lease first = _registry.acquire(newConfiguration("host:2181", "first"));
+        SharedCuratorRegistry.Lease second = _registry.acquire(newConfiguration("host:2181", "second"));
+        try {
+            assertEquals(1, _registry.size());
+            assertSame(first.getCurator().getZookeeperClient(), second.getCurator().getZookeeperClient());
+            assertEquals("first", first.getCurator().getNamespace());
+            assertEquals("second", second.getCurator().getNamespace());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void testNoNamespace() throws Exception {
+        _lease = _registry.acquire(newConfiguration("host:2181", null));
+
+        assertEquals("", _lease.getCurator().getNamespace());
+    }
+
+    @Test
+    public void testDifferentEnsembles() throws Exception {
+        SharedCuratorRegistry.Lease first = _registry.acquire(newConfiguration("host1:2181", null));
+        SharedCuratorRegistry.Lease second = _registry.acquire(newConfiguration("host2:2181", null));
+        try {
+            assertEquals(2, _registry.size());
+            assertNotSame(first.getCurator().getZookeeperClient(), second.getCurator().getZookeeperClient());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void testDifferentTimeouts() throws Exception {
+        SharedCuratorRegistry.Lease first = _registry.acquire(parse(ImmutableMap.of(
+                "connectString", "host:2181", "sessionTimeout", "10s")));
+        SharedCuratorRegistry.Lease second = _registry.acquire(parse(ImmutableMap.of(
+                "connectString", "host:2181", "sessionTimeout", "20s")));
+        try {
+            assertEquals(2, _registry.size());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void testSameRetryPolicySettingsShared() throws Exception {
+        Map<String, Object> retryPolicy = ImmutableMap.<String, Object>of(
+                "type", "nTimes", "n", 3, "sleepMsBetweenRetries", 100);
+        SharedCuratorRegistry.Lease first = _registry.acquire(parse(ImmutableMap.of(
+                "connectString", "host:2181", "retryPolicy", retryPolicy)));
+        SharedCuratorRegistry.Lease second = _registry.acquire(parse(ImmutableMap.of(
+                "connectString", "host:2181", "retryPolicy", retryPolicy)));
+        try {
+            assertEquals(1, _registry.size());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void testDifferentOptionsRejected() throws Exception {
+        _lease = _registry.acquire(newConfiguration("host:2181", "first"));
+
+        ZooKeeperConfiguration compressed = newConfiguration("host:2181", "second");
+        compressed.setCompression(PayloadCompressionProvider.Codec.GZIP);
+        try {
+            _registry.acquire(compressed);
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals(1, _registry.size());
+    }
+
+    @Test
+    public void testPriorityPathsComparedWithNamespace() throws Exception {
+        SharedCuratorRegistry.Lease first = _registry.acquire(parse(ImmutableMap.of(
+                "connectString", "host:2181", "namespace", "ns",
+                "concurrencyLimiting", true, "priorityPaths", Collections.singletonList("/locks"))));
+        SharedCuratorRegistry.Lease second = _registry.acquire(parse(ImmutableMap.of(
+                "connectString", "host:2181",
+                "concurrencyLimiting", true, "priorityPaths", Collections.singletonList("/ns/locks"))));
+        try {
+            assertEquals(1, _registry.size());
+        } finally {
+            first.close();
+            second.close();
+        }
+
+        // The same relative path in another namespace is another path.
+        _lease = _registry.acquire(parse(ImmutableMap.of(
+                "connectString", "host:2181", "namespace", "ns",
+                "concurrencyLimiting", true, "priorityPaths", Collections.singletonList("/locks"))));
+        try {
+            _registry.acquire(parse(ImmutableMap.of(
+                    "connectString", "host:2181", "namespace", "other",
+                    "concurrencyLimiting", true, "priorityPaths", Collections.singletonList("/locks"))));
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testClosedWithLastLease() throws Exception {
+        SharedCuratorRegistry.Lease first = _registry.acquire(newConfiguration("localhost:2181", "first"));
+        SharedCuratorRegistry.Lease second = _registry.acquire(newConfiguration("localhost:2181", "second"));
+        first.start();
+        second.start();
+        CuratorFramework curator = first.getCurator();
+        assertEquals(CuratorFrameworkState.STARTED, curator.getState());
+
+        first.close();
+        first.close();  // Closing twice only releases once
+        assertEquals(CuratorFrameworkState.STARTED, curator.getState());
+        assertEquals(1, _registry.size());
+
+        second.close();
+        assertEquals(CuratorFrameworkState.STOPPED, curator.getState());
+        assertEquals(0, _registry.size());
+    }
+
+    @Test
+    public void testNewManagedCurator() throws Exception {
+        LifecycleEnvironment env = mock(LifecycleEnvironment.class);
+        CuratorFramework curator = _registry.newManagedCurator(newConfiguration("localhost:2181", "ns"), env);
+        assertEquals(CuratorFrameworkState.LATENT, curator.getState());
+
+        ArgumentCaptor<Managed> managed = ArgumentCaptor.forClass(Managed.class);
+        verify(env).manage(managed.capture());
+
+        managed.getValue().start();
+        assertEquals(CuratorFrameworkState.STARTED, curator.getState());
+        managed.getValue().stop();
+        assertEquals(CuratorFrameworkState.STOPPED, curator.getState());
+        assertEquals(0, _registry.size());
+    }
+}
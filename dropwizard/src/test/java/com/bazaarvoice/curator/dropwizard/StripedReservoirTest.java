@@ -0,0 +1,67 @@
+package com.bazaarvoice.curator.dropwizard;
+
+import com.codahale.metrics.Snapshot;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StripedReservoirTest {
+    private final StripedReservoir _reservoir = new StripedReservoir();
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, _reservoir.size());
+        assertEquals(0, _reservoir.getSnapshot().size());
+    }
+
+    @Test
+    public void testKeepsValues() {
+        for (int i = 1; i <= 10; i++) {
+            _reservoir.update(i);
+        }
+
+        Snapshot snapshot = _reservoir.getSnapshot();
+        assertEquals(10, _reservoir.size());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(10, snapshot.getMax());
+    }
+
+    @Test
+    public void testKeepsMostRecentValues() {
+        int count = StripedReservoir.STRIPE_SIZE * 10;
+        for (int i = 0; i < count; i++) {
+            _reservoir.update(i);
+        }
+
+        // A single thread records into a single stripe, which only holds the latest values.
+        Snapshot snapshot = _reservoir.getSnapshot();
+        assertEquals(StripedReservoir.STRIPE_SIZE, _reservoir.size());
+        assertEquals(count - StripedReservoir.STRIPE_SIZE, snapshot.getMin());
+        assertEquals(count - 1, snapshot.getMax());
+    }
+
+    @Test
+    public void testBoundedAcrossThreads() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < StripedReservoir.STRIPES * 2; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < StripedReservoir.STRIPE_SIZE * 4; i++) {
+                    _reservoir.update(i);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int size = _reservoir.size();
+        assertTrue(size > 0 && size <= StripedReservoir.STRIPES * StripedReservoir.STRIPE_SIZE);
+        assertEquals(size, _reservoir.getSnapshot().size());
+    }
+}
@@ -1,5 +1,8 @@
 package com.bazaarvoice.curator.dropwizard;
 
+import com.bazaarvoice.curator.AdaptiveRetryPolicy;
+import com.bazaarvoice.curator.recipes.PayloadCompressionProvider;
+import com.codahale.metrics.MetricRegistry;
 import com.fasterxml.jackson.databind.MappingJsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
@@ -16,11 +19,13 @@ import org.apache.curator.retry.RetryUntilElapsed;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -36,6 +41,12 @@ public class ZooKeeperConfigurationTest {
         assertFalse(config.getConnectString().isPresent());
     }
 
+    @Test
+    public void testMissingConnectStringFile() {
+        ZooKeeperConfiguration config = new ZooKeeperConfiguration();
+        assertFalse(config.getConnectStringFile().isPresent());
+    }
+
     @Test
     public void testMissingNamespace() {
         ZooKeeperConfiguration config = new ZooKeeperConfiguration();
@@ -56,6 +67,14 @@ public class ZooKeeperConfigurationTest {
         assertEquals("host:port", config.getConnectString().get());
     }
 
+    @Test
+    public void testSetConnectStringFile() {
+        ZooKeeperConfiguration config = new ZooKeeperConfiguration();
+        config.setConnectStringFile("/etc/zookeeper/ensemble");
+
+        assertEquals("/etc/zookeeper/ensemble", config.getConnectStringFile().get());
+    }
+
     @Test
     public void testSetNamespace() {
         ZooKeeperConfiguration config = new ZooKeeperConfiguration();
@@ -80,6 +99,12 @@ public class ZooKeeperConfigurationTest {
         assertEquals("host:port", config.getConnectString().get());
     }
 
+    @Test
+    public void testDeserializeConnectStringFile() {
+        ZooKeeperConfiguration config = parse(ImmutableMap.of("connectStringFile", "/etc/zookeeper/ensemble"));
+        assertEquals("/etc/zookeeper/ensemble", config.getConnectStringFile().get());
+    }
+
     @Test
     public void testDeserializeNamespace() {
         ZooKeeperConfiguration config = parse(ImmutableMap.of("namespace", "/ns"));
@@ -131,6 +156,58 @@ public class ZooKeeperConfigurationTest {
         assertTrue(config.getRetryPolicy().get() instanceof RetryUntilElapsed);
     }
 
+    @Test
+    public void testDeserializeAdaptiveRetry() {
+        ZooKeeperConfiguration config = parse(ImmutableMap.of("retryPolicy",
+                ImmutableMap.builder()
+                        .put("type", "adaptive")
+                        .put("baseSleepTimeMs", 50)
+                        .put("maxSleepTimeMs", 500)
+                        .put("maxRetries", 3)
+                        .put("retryBudget", 10)
+                        .put("retryBudgetPerSecond", 2.5)
+                        .put("tripAfterMs", 5000)
+                        .put("tripRatio", 0.75)
+                        .put("openMs", 20000)
+                        .build()));
+        assertTrue(config.getRetryPolicy().get() instanceof AdaptiveRetryPolicy);
+    }
+
+    @Test
+    public void testDeserializeAdaptiveRetryDefaults() {
+        ZooKeeperConfiguration config = parse(ImmutableMap.of("retryPolicy", ImmutableMap.of("type", "adaptive")));
+        assertTrue(config.getRetryPolicy().get() instanceof AdaptiveRetryPolicy);
+    }
+
+    @Test
+    public void testAdaptiveRetryBudgetPerClient() {
+        ZooKeeperConfiguration config = parse(ImmutableMap.of("retryPolicy", ImmutableMap.of("type", "adaptive")));
+
+        RetryPolicy first = config.newCurator().getZookeeperClient().getRetryPolicy();
+        RetryPolicy second = config.newCurator().getZookeeperClient().getRetryPolicy();
+
+        assertTrue(first instanceof AdaptiveRetryPolicy);
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void testDeserializeConcurrencyLimiting() {
+        ZooKeeperConfiguration config = parse(ImmutableMap.of(
+                "concurrencyLimiting", true,
+                "maxConcurrency", 2,
+                "concurrencyLatencyThreshold", "100ms",
+                "priorityPaths", Collections.singletonList("/services")));
+        assertTrue(config.isConcurrencyLimiting());
+
+        CuratorFramework curator = config.newCurator();
+        assertEquals(CuratorFrameworkState.LATENT, curator.getState());
+    }
+
+    @Test
+    public void testConcurrencyLimitingDisabledByDefault() {
+        assertFalse(new ZooKeeperConfiguration().isConcurrencyLimiting());
+    }
+
     @Test
     public void testNewCurator() {
         ZooKeeperConfiguration config = parse(ImmutableMap.of("retryPolicy",
@@ -145,6 +222,82 @@ public class ZooKeeperConfigurationTest {
         assertEquals(CuratorFrameworkState.LATENT, curator.getState());
     }
 
+    @Test
+    public void testNewCuratorWithConnectStringFile() {
+        ZooKeeperConfiguration config = parse(ImmutableMap.of("connectStringFile", "/etc/zookeeper/ensemble"));
+        CuratorFramework curator = config.newCurator();
+
+        assertNotNull(curator);
+        assertEquals(CuratorFrameworkState.LATENT, curator.getState());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNewCuratorWithConnectStringAndFile() {
+        ZooKeeperConfiguration config = parse(ImmutableMap.of(
+                "connectString", "host:port",
+                "connectStringFile", "/etc/zookeeper/ensemble"));
+        config.newCurator();
+    }
+
+    @Test
+    public void testMissingCompression() {
+        ZooKeeperConfiguration config = new ZooKeeperConfiguration();
+        assertFalse(config.getCompression().isPresent());
+    }
+
+    @Test
+    public void testSetCompression() {
+        ZooKeeperConfiguration config = new ZooKeeperConfiguration();
+        config.setCompression(PayloadCompressionProvider.Codec.FAST);
+
+        assertEquals(PayloadCompressionProvider.Codec.FAST, config.getCompression().get());
+    }
+
+    @Test
+    public void testDeserializeCompression() {
+        assertEquals(PayloadCompressionProvider.Codec.GZIP,
+                parse(ImmutableMap.of("compression", "gzip")).getCompression().get());
+        assertEquals(PayloadCompressionProvider.Codec.FAST,
+                parse(ImmutableMap.of("compression", "fast")).getCompression().get());
+    }
+
+    @Test
+    public void testNewCuratorWithCompression() {
+        ZooKeeperConfiguration config = parse(ImmutableMap.of("compression", "fast"));
+        CuratorFramework curator = config.newCurator();
+
+        assertNotNull(curator);
+        assertEquals(CuratorFrameworkState.LATENT, curator.getState());
+    }
+
+    @Test
+    public void testDeserializeTracing() {
+        ZooKeeperConfiguration config = parse(ImmutableMap.of("tracing", true));
+        assertTrue(config.isTracing());
+    }
+
+    @Test
+    public void testNewCuratorWithTracing() {
+        ZooKeeperConfiguration config = parse(ImmutableMap.of("tracing", true));
+        CuratorFramework curator = config.newCurator(new MetricRegistry());
+
+        assertTrue(curator.getZookeeperClient().getTracerDriver() instanceof DropwizardTracerDriver);
+    }
+
+    @Test
+    public void testNewCuratorWithoutTracing() {
+        ZooKeeperConfiguration config = new ZooKeeperConfiguration();
+        CuratorFramework curator = config.newCurator(new MetricRegistry());
+
+        assertFalse(curator.getZookeeperClient().getTracerDriver() instanceof DropwizardTracerDriver);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTracingNeedsMetricRegistry() {
+        ZooKeeperConfiguration config = parse(ImmutableMap.of("tracing", true));
+        config.newCurator();
+    }
+
     @Test
     public void testNewManagedCurator() {
         ZooKeeperConfiguration config = parse(ImmutableMap.of("retryPolicy",
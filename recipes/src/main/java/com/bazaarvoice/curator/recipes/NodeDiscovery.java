@@ -9,6 +9,7 @@ import org.apache.curator.framework.recipes.cache.ChildData;
 import org.apache.curator.framework.recipes.cache.PathChildrenCache;
 import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
 import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,8 +22,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -46,9 +46,10 @@ public class NodeDiscovery<T> implements Closeable {
     private final ConcurrentMap<String, Optional<T>> _nodes;
     private final Set<NodeListener<T>> _listeners;
     private final CuratorFramework _curator;
+    private final String _nodePath;
     private final PathChildrenCache _pathCache;
     private final NodeDataParser<T> _nodeDataParser;
-    private final ScheduledExecutorService _executor;
+    private final ScheduledThreadPoolExecutor _executor;
     private boolean _closed;
 
     /**
@@ -73,7 +74,8 @@ public class NodeDiscovery<T> implements Closeable {
         _nodes = new ConcurrentHashMap<>();
         _listeners = Collections.newSetFromMap(new ConcurrentHashMap<>());
         _curator = curator;
-        _executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        _nodePath = nodePath;
+        _executor = new ScheduledThreadPoolExecutor(1, threadFactory);
         _pathCache = new PathChildrenCache(curator, nodePath, true, false, _executor);
         _nodeDataParser = parser;
         _closed = false;
@@ -106,6 +108,35 @@ public class NodeDiscovery<T> implements Closeable {
         return _nodes.containsValue(Optional.ofNullable(node));
     }
 
+    /** @return The path in ZooKeeper that is watched. */
+    public String getNodePath() {
+        return _nodePath;
+    }
+
+    /**
+     * Returns the stat of a node as of the last time the cache saw it change.  Doesn't read from ZooKeeper.
+     *
+     * @param path The path of the node, as in the keys of {@link #getNodes()}.
+     * @return The stat of the node, or null if the node isn't in the cache.
+     */
+    public Stat getNodeStat(String path) {
+        ChildData childData = _pathCache.getCurrentData(path);
+        return childData != null ? childData.getStat() : null;
+    }
+
+    /** @return The number of registered node listeners. */
+    public int getListenerCount() {
+        return _listeners.size();
+    }
+
+    /**
+     * @return The number of cache events and retries that are waiting to be processed, and so haven't been passed to
+     * the listeners yet.
+     */
+    public int getPendingEventCount() {
+        return _executor.getQueue().size();
+    }
+
     /**
      * Add a node listener.
      *
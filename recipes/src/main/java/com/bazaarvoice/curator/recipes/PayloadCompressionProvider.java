@@ -0,0 +1,253 @@
+package com.bazaarvoice.curator.recipes;
+
+import com.google.common.io.ByteStreams;
+import org.apache.curator.framework.api.CompressionProvider;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Compresses node data behind a small header that identifies the codec, so that compressed and uncompressed data can
+ * be told apart.  This lets a fleet migrate to compression: once every reader decompresses, writers can start
+ * compressing, and readers keep accepting data from writers that don't.
+ * <p>
+ * Compressed data starts with the bytes {@code 0x00 'Z' 'P'}, followed by a codec byte and the uncompressed length.
+ * Data without the header is returned as-is by {@link #decompress(byte[])}, unless it's plain gzip, as written by
+ * Curator's default compression provider, which is decompressed so that data written before the switch to this
+ * provider stays readable.  Data that doesn't get smaller is stored uncompressed, which saves the CPU of decompressing
+ * tiny payloads.  Uncompressed data that happens to start with the header bytes or the gzip magic number is stored
+ * behind a header, so it can't be mistaken for compressed data.  Data that would decompress to more than 64 MiB is
+ * rejected rather than allocated.
+ * </p>
+ * <p>
+ * Two codecs are available: {@link Codec#GZIP} compresses best, {@link Codec#FAST} trades some compression for speed
+ * using the fastest deflate level.  Both are built into the JDK.  Use this class as the {@link CompressionProvider} of
+ * a {@code CuratorFramework}, compress the data of a {@link PersistentEphemeralNode} with {@link #compress(byte[])},
+ * and read it in {@link NodeDiscovery} with {@link #decompressing(NodeDiscovery.NodeDataParser)}.
+ * </p>
+ */
+public class PayloadCompressionProvider implements CompressionProvider {
+    private static final byte[] MAGIC = {0x00, 'Z', 'P'};
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 4;
+
+    private static final byte[] GZIP_MAGIC = {0x1f, (byte) 0x8b};
+
+    private static final byte STORED = 0;
+
+    private static final int MAX_UNCOMPRESSED_LENGTH = 64 << 20;
+
+    /** Deflate can't shrink data by more than about 1032 to 1, a longer length in a header is corrupt. */
+    private static final int MAX_COMPRESSION_RATIO = 1032;
+
+    /** The available compression codecs. */
+    public enum Codec {
+        /** Gzip at the default compression level. */
+        GZIP((byte) 1) {
+            @Override
+            OutputStream compressing(OutputStream out) throws IOException {
+                return new GZIPOutputStream(out);
+            }
+
+            @Override
+            InputStream decompressing(InputStream in) throws IOException {
+                return new GZIPInputStream(in);
+            }
+        },
+
+        /** Deflate at the fastest compression level. */
+        FAST((byte) 2) {
+            @Override
+            OutputStream compressing(OutputStream out) {
+                return new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED)) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            def.end();
+                        }
+                    }
+                };
+            }
+
+            @Override
+            InputStream decompressing(InputStream in) {
+                return new InflaterInputStream(in);
+            }
+        };
+
+        private final byte _id;
+
+        Codec(byte id) {
+            _id = id;
+        }
+
+        abstract OutputStream compressing(OutputStream out) throws IOException;
+
+        abstract InputStream decompressing(InputStream in) throws IOException;
+
+        private static Codec forId(byte id) throws IOException {
+            for (Codec codec : values()) {
+                if (codec._id == id) {
+                    return codec;
+                }
+            }
+            throw new IOException("Unknown compression codec " + id);
+        }
+    }
+
+    private final Codec _codec;
+
+    public PayloadCompressionProvider(Codec codec) {
+        _codec = Objects.requireNonNull(codec);
+    }
+
+    public Codec getCodec() {
+        return _codec;
+    }
+
+    @Override
+    public byte[] compress(String path, byte[] data) {
+        return compress(data);
+    }
+
+    @Override
+    public byte[] decompress(String path, byte[] compressedData) throws IOException {
+        return decompress(compressedData);
+    }
+
+    /** @return The data with a header, compressed unless that doesn't make it smaller. */
+    public byte[] compress(byte[] data) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(32, data.length / 2));
+        try {
+            buffer.write(header(_codec._id, data.length));
+            try (OutputStream out = _codec.compressing(buffer)) {
+                out.write(data);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  // Not thrown by in-memory streams
+        }
+
+        if (buffer.size() < data.length) {
+            return buffer.toByteArray();
+        }
+        if (!isFramed(data) && !isGzip(data)) {
+            return data;
+        }
+        byte[] stored = Arrays.copyOf(header(STORED, data.length), HEADER_LENGTH + data.length);
+        System.arraycopy(data, 0, stored, HEADER_LENGTH, data.length);
+        return stored;
+    }
+
+    /**
+     * Decompresses data written by {@link #compress(byte[])} with any codec, or plain gzip data, or returns the data
+     * as-is if it's neither.
+     *
+     * @throws IOException If the data has a header but is corrupt, or decompresses to more than 64 MiB.
+     */
+    public static byte[] decompress(byte[] data) throws IOException {
+        if (!isFramed(data)) {
+            return isGzip(data) ? gunzip(data) : data;
+        }
+        if (data.length < HEADER_LENGTH) {
+            throw new IOException("Truncated compression header");
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(data, MAGIC.length, HEADER_LENGTH - MAGIC.length);
+        byte codecId = header.get();
+        int length = header.getInt();
+        if (length < 0) {
+            throw new IOException("Invalid uncompressed length " + length);
+        }
+        if (codecId == STORED) {
+            return Arrays.copyOfRange(data, HEADER_LENGTH, data.length);
+        }
+        if (length > MAX_UNCOMPRESSED_LENGTH
+                || length > (long) (data.length - HEADER_LENGTH) * MAX_COMPRESSION_RATIO) {
+            throw new IOException("Uncompressed length " + length + " is too long for " + data.length + " bytes");
+        }
+
+        Codec codec = Codec.forId(codecId);
+        byte[] result = new byte[length];
+        try (InputStream in = codec.decompressing(
+                new ByteArrayInputStream(data, HEADER_LENGTH, data.length - HEADER_LENGTH))) {
+            ByteStreams.readFully(in, result);
+            if (in.read() != -1) {
+                throw new IOException("Data is longer than its header says");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Wraps a parser so that it receives decompressed node data.  Data that can't be decompressed fails with an
+     * {@link IllegalArgumentException}, which {@link NodeDiscovery} logs like any other data it can't parse.
+     */
+    public static <T> NodeDiscovery.NodeDataParser<T> decompressing(final NodeDiscovery.NodeDataParser<T> parser) {
+        Objects.requireNonNull(parser);
+        return new NodeDiscovery.NodeDataParser<T>() {
+            @Override
+            public T parse(String path, byte[] nodeData) {
+                byte[] data;
+                try {
+                    data = (nodeData != null) ? decompress(nodeData) : null;
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("Unable to decompress the data of " + path, e);
+                }
+                return parser.parse(path, data);
+            }
+        };
+    }
+
+    /** @return The gunzipped data, or the data as-is if it only looked like gzip. */
+    private static byte[] gunzip(byte[] data) throws IOException {
+        byte[] result;
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            result = ByteStreams.toByteArray(ByteStreams.limit(in, MAX_UNCOMPRESSED_LENGTH + 1L));
+        } catch (ZipException | EOFException e) {
+            return data;
+        }
+        if (result.length > MAX_UNCOMPRESSED_LENGTH) {
+            throw new IOException("Gzip data decompresses to more than " + MAX_UNCOMPRESSED_LENGTH + " bytes");
+        }
+        return result;
+    }
+
+    private static boolean isFramed(byte[] data) {
+        return startsWith(data, MAGIC);
+    }
+
+    private static boolean isGzip(byte[] data) {
+        return startsWith(data, GZIP_MAGIC);
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] header(byte codecId, int length) {
+        return ByteBuffer.allocate(HEADER_LENGTH).put(MAGIC).put(codecId).putInt(length).array();
+    }
+}
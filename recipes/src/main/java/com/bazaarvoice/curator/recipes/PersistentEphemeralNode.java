@@ -5,6 +5,7 @@ import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.api.PathAndBytesable;
+import org.apache.curator.framework.api.transaction.CuratorOp;
 import org.apache.curator.framework.imps.CuratorFrameworkState;
 import org.apache.curator.utils.EnsurePath;
 import org.apache.curator.utils.ZKPaths;
@@ -13,37 +14,82 @@ import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.data.Stat;
-
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 
 /**
  * A persistent ephemeral node is an ephemeral node that attempts to stay present in ZooKeeper, even through connection
  * and session interruptions.
+ * <p>
+ * In addition to the session-bound {@link CreateMode#EPHEMERAL} and {@link CreateMode#EPHEMERAL_SEQUENTIAL} modes the
+ * node may be created with {@link CreateMode#PERSISTENT_WITH_TTL} or {@link CreateMode#PERSISTENT_SEQUENTIAL_WITH_TTL}.
+ * A TTL node is not tied to the session that created it, instead the server removes it once it has gone unmodified for
+ * longer than its TTL.  This recipe keeps a TTL node alive by periodically rewriting its data, and creates its parents
+ * as container nodes so that the server cleans them up once they become empty.  TTL nodes require ZooKeeper 3.5.3 or
+ * later with {@code zookeeper.extendedTypesEnabled=true} set on the servers.
+ * </p>
  */
 public class PersistentEphemeralNode {
+    private static final Logger LOG = LoggerFactory.getLogger(PersistentEphemeralNode.class);
+
     private static final long WAIT_DURATION_IN_MILLIS = 100;
 
     /** How long to wait for the node to be initially created in seconds. */
     private static final long CREATION_WAIT_IN_SECONDS = 10;
 
+    /** How long an asynchronous close keeps trying to delete the node by default in seconds. */
+    private static final long CLOSE_WAIT_IN_SECONDS = 10;
+
+    /**
+     * The most deletes issued in a single multi-op by {@link #closeAllAsync(Collection)}.  This keeps the request well
+     * below the default {@code jute.maxbuffer} limit of the server.
+     */
+    private static final int MAX_DELETES_PER_TRANSACTION = 1000;
+
+    /** How many times a TTL node is rewritten within one TTL period, so that a few failed refreshes are tolerated. */
+    private static final int REFRESHES_PER_TTL = 3;
+
     private static final ThreadFactory THREAD_FACTORY = new ThreadFactoryBuilder()
             .setNameFormat(PersistentEphemeralNode.class.getSimpleName() + "Thread-%d")
             .setDaemon(true)
             .build();
 
+    /**
+     * Fails close futures that are still pending at their deadline.  The background thread of a node can't be relied
+     * on for this since it may be stuck in a blocking ZooKeeper call, for example on a client that is being closed.
+     */
+    private static final ScheduledThreadPoolExecutor CLOSE_TIMEOUT_EXECUTOR = newCloseTimeoutExecutor();
+
     private final Async _async;
     private final ScheduledExecutorService _executor;
     private final AtomicBoolean _closed = new AtomicBoolean();
+    private final CompletableFuture<Void> _closeFuture = new CompletableFuture<>();
+    private final Set<Listener> _listeners = new CopyOnWriteArraySet<>();
 
     /**
      * Create the ephemeral node in ZooKeeper.  If the node cannot be created in a timely fashion then an exception will
@@ -52,38 +98,293 @@ public class PersistentEphemeralNode {
      * @param curator Client to manage ZooKeeper nodes with.
      * @param basePath Path to parent node this node should be created in.
      * @param data Data to store in the node.
-     * @param mode Node creation mode.
+     * @param mode Node creation mode, either {@link CreateMode#EPHEMERAL} or {@link CreateMode#EPHEMERAL_SEQUENTIAL}.
      */
     public PersistentEphemeralNode(CuratorFramework curator, String basePath, byte[] data, CreateMode mode) {
+        this(curator, basePath, data, mode, -1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create the ephemeral node in ZooKeeper, reporting what happens to it along the way.  If the node cannot be
+     * created in a timely fashion then an exception will be thrown.
+     *
+     * @param curator Client to manage ZooKeeper nodes with.
+     * @param basePath Path to parent node this node should be created in.
+     * @param data Data to store in the node.
+     * @param mode Node creation mode, either {@link CreateMode#EPHEMERAL} or {@link CreateMode#EPHEMERAL_SEQUENTIAL}.
+     * @param metrics Receives counts and timings of the ZooKeeper operations performed for the node.
+     * @param listeners Listeners that should be registered before the node is first created, so that they observe the
+     *                  initial creation.  More listeners may be added later with {@link #addListener(Listener)}.
+     */
+    public PersistentEphemeralNode(CuratorFramework curator, String basePath, byte[] data, CreateMode mode,
+                                   PersistentEphemeralNodeMetrics metrics, Listener... listeners) {
+        this(curator, basePath, data, mode, -1, TimeUnit.MILLISECONDS, metrics, listeners);
+    }
+
+    /**
+     * Create the node in ZooKeeper.  If the node cannot be created in a timely fashion then an exception will be
+     * thrown.
+     *
+     * @param curator Client to manage ZooKeeper nodes with.
+     * @param basePath Path to parent node this node should be created in.
+     * @param data Data to store in the node.
+     * @param mode Node creation mode.  When this is {@link CreateMode#PERSISTENT_WITH_TTL} or
+     *             {@link CreateMode#PERSISTENT_SEQUENTIAL_WITH_TTL} the node outlives the session of {@code curator}
+     *             and is refreshed several times per TTL period for as long as this object stays open.
+     * @param ttl How long the server should keep an unrefreshed node around.  Must be positive for TTL modes, and is
+     *            ignored for ephemeral modes.
+     * @param ttlUnit The unit of the {@code ttl} argument.
+     */
+    public PersistentEphemeralNode(CuratorFramework curator, String basePath, byte[] data, CreateMode mode,
+                                   long ttl, TimeUnit ttlUnit) {
+        this(curator, basePath, data, mode, ttl, ttlUnit, PersistentEphemeralNodeMetrics.NONE);
+    }
+
+    /**
+     * Create the node in ZooKeeper, reporting what happens to it along the way.  If the node cannot be created in a
+     * timely fashion then an exception will be thrown.
+     *
+     * @param curator Client to manage ZooKeeper nodes with.
+     * @param basePath Path to parent node this node should be created in.
+     * @param data Data to store in the node.
+     * @param mode Node creation mode.  See {@link #PersistentEphemeralNode(CuratorFramework, String, byte[], CreateMode,
+     *             long, TimeUnit)} for the supported modes.
+     * @param ttl How long the server should keep an unrefreshed node around, ignored for ephemeral modes.
+     * @param ttlUnit The unit of the {@code ttl} argument.
+     * @param metrics Receives counts and timings of the ZooKeeper operations performed for the node.
+     * @param listeners Listeners that should be registered before the node is first created, so that they observe the
+     *                  initial creation.  More listeners may be added later with {@link #addListener(Listener)}.
+     */
+    public PersistentEphemeralNode(CuratorFramework curator, String basePath, byte[] data, CreateMode mode,
+                                   long ttl, TimeUnit ttlUnit, PersistentEphemeralNodeMetrics metrics,
+                                   Listener... listeners) {
         Objects.requireNonNull(curator);
         checkArgument(curator.getState() == CuratorFrameworkState.STARTED);
         Objects.requireNonNull(basePath);
         Objects.requireNonNull(data);
         Objects.requireNonNull(mode);
-        checkArgument(mode == CreateMode.EPHEMERAL || mode == CreateMode.EPHEMERAL_SEQUENTIAL);
+        Objects.requireNonNull(ttlUnit);
+        Objects.requireNonNull(metrics);
+        if (mode.isTTL()) {
+            checkArgument(ttl > 0, "ttl must be positive for mode %s", mode);
+        } else {
+            checkArgument(mode == CreateMode.EPHEMERAL || mode == CreateMode.EPHEMERAL_SEQUENTIAL);
+        }
+
+        _listeners.addAll(Arrays.asList(listeners));
 
         // TODO: Share this executor across multiple persistent ephemeral nodes in a way that guarantees that it is a
         // TODO: single thread executor.
-        _executor = Executors.newSingleThreadScheduledExecutor(THREAD_FACTORY);
-        _async = new Async(_executor, new Sync(curator, basePath, data, mode));
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, THREAD_FACTORY);
+        // A TTL node keeps its next refresh queued up to a third of its TTL ahead, don't let it hold up the shutdown.
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        _executor = executor;
+        _async = new Async(_executor, new Sync(curator, basePath, data, mode,
+                mode.isTTL() ? ttlUnit.toMillis(ttl) : -1, metrics));
+
+        // Release the background thread as soon as the node is gone, no matter how the close was initiated.
+        _closeFuture.whenComplete((result, t) -> _executor.shutdown());
 
         CountDownLatch latch = new CountDownLatch(1);
         _async.createNode(latch);
         await(latch, CREATION_WAIT_IN_SECONDS, TimeUnit.SECONDS);
     }
 
+    /**
+     * Delete the node, waiting up to the specified amount of time for the deletion to finish and then again for the
+     * background thread to terminate.  Deletion stops being attempted once this method returns.
+     */
     public void close(long duration, TimeUnit unit) {
-        if (!_closed.compareAndSet(false, true)) {
-            // Already closed
-            return;
-        }
-
-        CountDownLatch latch = new CountDownLatch(1);
-        _async.close(latch);
-        await(latch, duration, unit);
+        // If the node is already being closed asynchronously this waits for that close instead.
+        startClose(duration, unit);
+        await(_closeFuture, duration, unit);
 
         _executor.shutdown();
         await(_executor, duration, unit);
+
+        // The background thread is gone, so nothing is left to complete the future if the deletion didn't finish.
+        _closeFuture.completeExceptionally(new TimeoutException("Timed out deleting node"));
+    }
+
+    /**
+     * Delete the node without blocking the caller, giving up after {@value #CLOSE_WAIT_IN_SECONDS} seconds.
+     *
+     * @see #closeAsync(long, TimeUnit)
+     */
+    public CompletableFuture<Void> closeAsync() {
+        return closeAsync(CLOSE_WAIT_IN_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Delete the node without blocking the caller.  Deletion is retried until it succeeds, the time is up or the
+     * client is closed, after which the background thread is released.
+     *
+     * @param duration How long to keep trying to delete the node.
+     * @param unit The unit of the {@code duration} argument.
+     * @return A future that completes once the node has been deleted, or exceptionally if it couldn't be deleted.
+     * Calling this method again, or after {@link #close(long, TimeUnit)}, returns the same future.
+     */
+    public CompletableFuture<Void> closeAsync(long duration, TimeUnit unit) {
+        startClose(duration, unit);
+        return _closeFuture;
+    }
+
+    /**
+     * Close many nodes at once.  The nodes are deleted with as few ZooKeeper multi-ops as possible (one per client,
+     * split into chunks of at most {@value #MAX_DELETES_PER_TRANSACTION} deletes) instead of one delete per node.  If a
+     * multi-op fails, for example because one of its nodes is already gone, each of its nodes falls back to being
+     * deleted on its own.
+     *
+     * @param nodes The nodes to close.  Nodes that are already closed are ignored.
+     * @return A future that completes once all of the nodes have been deleted, or exceptionally if any of them
+     * couldn't be deleted within {@value #CLOSE_WAIT_IN_SECONDS} seconds.
+     */
+    public static CompletableFuture<Void> closeAllAsync(Collection<PersistentEphemeralNode> nodes) {
+        return closeAllAsync(nodes, CLOSE_WAIT_IN_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Close many nodes at once, giving up on nodes that couldn't be deleted within the specified amount of time.
+     *
+     * @see #closeAllAsync(Collection)
+     */
+    public static CompletableFuture<Void> closeAllAsync(Collection<PersistentEphemeralNode> nodes, long duration,
+                                                       TimeUnit unit) {
+        long deadlineNanos = System.nanoTime() + unit.toNanos(duration);
+        List<CompletableFuture<Void>> closeFutures = new ArrayList<>(nodes.size());
+        List<PersistentEphemeralNode> closing = new ArrayList<>(nodes.size());
+        List<CompletableFuture<String>> paths = new ArrayList<>(nodes.size());
+
+        for (PersistentEphemeralNode node : nodes) {
+            closeFutures.add(node._closeFuture);
+            if (node._closed.compareAndSet(false, true)) {
+                failAtDeadline(node._closeFuture, deadlineNanos);
+                closing.add(node);
+                paths.add(node._async.beginClose(deadlineNanos));
+            }
+        }
+
+        // Carry on when some of the nodes couldn't begin closing, so that the rest of them are still deleted.
+        CompletableFuture.allOf(paths.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((result, t) -> deleteInBatches(closing, paths));
+
+        return CompletableFuture.allOf(closeFutures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private static void deleteInBatches(List<PersistentEphemeralNode> nodes, List<CompletableFuture<String>> paths) {
+        // Group the nodes by the client that manages them, since a multi-op can only be issued by a single client.
+        Map<CuratorFramework, List<PersistentEphemeralNode>> nodesByCurator = new IdentityHashMap<>();
+        Map<PersistentEphemeralNode, String> pathsByNode = new IdentityHashMap<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            PersistentEphemeralNode node = nodes.get(i);
+            CompletableFuture<String> pathFuture = paths.get(i);
+            String path = pathFuture.isCompletedExceptionally() ? null : pathFuture.join();
+            if (path == null) {
+                // Still being created, or failed to begin closing.  Let the node delete itself, which fails its close
+                // future if its background thread is gone.
+                node._async.finishClose(false, node._closeFuture);
+                continue;
+            }
+
+            pathsByNode.put(node, path);
+            nodesByCurator.computeIfAbsent(node.getCurator(), curator -> new ArrayList<>()).add(node);
+        }
+
+        for (Map.Entry<CuratorFramework, List<PersistentEphemeralNode>> entry : nodesByCurator.entrySet()) {
+            List<PersistentEphemeralNode> curatorNodes = entry.getValue();
+            for (int start = 0; start < curatorNodes.size(); start += MAX_DELETES_PER_TRANSACTION) {
+                int end = Math.min(start + MAX_DELETES_PER_TRANSACTION, curatorNodes.size());
+                deleteBatch(entry.getKey(), curatorNodes.subList(start, end), pathsByNode);
+            }
+        }
+    }
+
+    private static void deleteBatch(CuratorFramework curator, final List<PersistentEphemeralNode> batch,
+                                    Map<PersistentEphemeralNode, String> pathsByNode) {
+        try {
+            // Curator drops background operations of a closed client without calling back.
+            checkState(curator.getState() == CuratorFrameworkState.STARTED, "Client is not started");
+
+            List<CuratorOp> operations = new ArrayList<>(batch.size());
+            for (PersistentEphemeralNode node : batch) {
+                operations.add(curator.transactionOp().delete().forPath(pathsByNode.get(node)));
+            }
+
+            curator.transaction()
+                    .inBackground((client, event) -> {
+                        boolean deleted = event.getResultCode() == KeeperException.Code.OK.intValue();
+                        for (PersistentEphemeralNode node : batch) {
+                            node._async.finishClose(deleted, node._closeFuture);
+                        }
+                    })
+                    .forOperations(operations);
+        } catch (Exception e) {
+            // Couldn't even submit the multi-op, fall back to deleting the nodes one at a time.
+            for (PersistentEphemeralNode node : batch) {
+                node._async.finishClose(false, node._closeFuture);
+            }
+        }
+    }
+
+    private void startClose(long duration, TimeUnit unit) {
+        if (_closed.compareAndSet(false, true)) {
+            long deadlineNanos = System.nanoTime() + unit.toNanos(duration);
+            failAtDeadline(_closeFuture, deadlineNanos);
+            _async.close(deadlineNanos, _closeFuture);
+        }
+    }
+
+    private static void failAtDeadline(final CompletableFuture<Void> future, long deadlineNanos) {
+        final ScheduledFuture<?> timeout = CLOSE_TIMEOUT_EXECUTOR.schedule(new Runnable() {
+            @Override
+            public void run() {
+                future.completeExceptionally(new TimeoutException("Timed out deleting node"));
+            }
+        }, deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        future.whenComplete((result, t) -> timeout.cancel(false));
+    }
+
+    private static ScheduledThreadPoolExecutor newCloseTimeoutExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat(PersistentEphemeralNode.class.getSimpleName() + "CloseTimeout-%d")
+                .setDaemon(true)
+                .build());
+        // Most closes finish well before their deadline, don't keep their timeouts queued until then.
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * Add a listener that is notified as the node is created, lost, recreated and closed.
+     *
+     * @param listener The listener to add.
+     */
+    public void addListener(Listener listener) {
+        _listeners.add(Objects.requireNonNull(listener));
+    }
+
+    /**
+     * Remove a listener.
+     *
+     * @param listener The listener to remove.
+     */
+    public void removeListener(Listener listener) {
+        _listeners.remove(listener);
+    }
+
+    /** @return The base path of the ZooKeeper node, as passed at construction time. */
+    public String getBasePath() {
+        return _async._sync._basePath;
+    }
+
+    /**
+     * Gets the path of the ZooKeeper node backing this object as of the last time it was created, without waiting for
+     * it to be created.  Unlike {@link #getActualPath()} this never blocks, so it's safe to call from monitoring code.
+     *
+     * @return The actual path of the ZooKeeper node, or null if it hasn't been created yet.
+     */
+    public String getPath() {
+        return _async._sync._nodePath;
     }
 
     @VisibleForTesting
@@ -113,6 +414,16 @@ public class PersistentEphemeralNode {
         }
     }
 
+    private void await(CompletableFuture<Void> future, long duration, TimeUnit unit) {
+        try {
+            future.get(duration, unit);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException | TimeoutException e) {
+            // Same as a latch that didn't count down in time, the caller carries on regardless.
+        }
+    }
+
     private void await(ExecutorService executor, long duration, TimeUnit unit) {
         try {
             executor.awaitTermination(duration, unit);
@@ -121,6 +432,46 @@ public class PersistentEphemeralNode {
         }
     }
 
+    private void fireCreated(String path) {
+        for (Listener listener : _listeners) {
+            try {
+                listener.nodeCreated(path);
+            } catch (Exception e) {
+                LOG.warn("Listener failed handling creation of node: {}", path, e);
+            }
+        }
+    }
+
+    private void fireLost(String path) {
+        for (Listener listener : _listeners) {
+            try {
+                listener.nodeLost(path);
+            } catch (Exception e) {
+                LOG.warn("Listener failed handling loss of node: {}", path, e);
+            }
+        }
+    }
+
+    private void fireRecreated(String path) {
+        for (Listener listener : _listeners) {
+            try {
+                listener.nodeRecreated(path);
+            } catch (Exception e) {
+                LOG.warn("Listener failed handling recreation of node: {}", path, e);
+            }
+        }
+    }
+
+    private void fireClosed(String path) {
+        for (Listener listener : _listeners) {
+            try {
+                listener.nodeClosed(path);
+            } catch (Exception e) {
+                LOG.warn("Listener failed handling close of node: {}", path, e);
+            }
+        }
+    }
+
     /**
      * Watcher events are executed on the ZooKeeper event thread.  Switch over to the thread used by the methods
      * in the Sync class.
@@ -178,13 +529,26 @@ public class PersistentEphemeralNode {
             }, WAIT_DURATION_IN_MILLIS, TimeUnit.MILLISECONDS);
         }
 
-        private void waitThenDeleteNode(final CountDownLatch latch) {
+        private void waitThenRefreshNode(long delayInMillis) {
             _executor.schedule(new Runnable() {
                 @Override
                 public void run() {
-                    _sync.deleteNode(latch);
+                    _sync.refreshNode();
                 }
-            }, WAIT_DURATION_IN_MILLIS, TimeUnit.MILLISECONDS);
+            }, delayInMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void waitThenDeleteNode(final CompletableFuture<Void> future) {
+            try {
+                _executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        _sync.deleteNode(future);
+                    }
+                }, WAIT_DURATION_IN_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
         }
 
         private void onNodeChanged(final AtomicBoolean handled, final WatchedEvent event) {
@@ -196,13 +560,42 @@ public class PersistentEphemeralNode {
             });
         }
 
-        private void close(final CountDownLatch latch) {
-            _executor.submit(new Runnable() {
+        private void close(final long deadlineNanos, final CompletableFuture<Void> future) {
+            submit(new Runnable() {
                 @Override
                 public void run() {
-                    _sync.close(latch);
+                    _sync.close(deadlineNanos, future);
                 }
-            });
+            }, future);
+        }
+
+        private CompletableFuture<String> beginClose(final long deadlineNanos) {
+            final CompletableFuture<String> path = new CompletableFuture<>();
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    path.complete(_sync.beginClose(deadlineNanos));
+                }
+            }, path);
+            return path;
+        }
+
+        private void finishClose(final boolean deleted, final CompletableFuture<Void> future) {
+            submit(new Runnable() {
+                @Override
+                public void run() {
+                    _sync.finishClose(deleted, future);
+                }
+            }, future);
+        }
+
+        /** Fails the future instead of throwing if the background thread has already been shut down. */
+        private void submit(Runnable task, CompletableFuture<?> future) {
+            try {
+                _executor.submit(task);
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(e);
+            }
         }
 
         private String getActualPath() throws ExecutionException, InterruptedException {
@@ -241,14 +634,27 @@ public class PersistentEphemeralNode {
         private final CuratorFramework _curator;
         private final String _basePath;
         private final byte[] _data;
+        private final long _ttlInMillis;
+        private final PersistentEphemeralNodeMetrics _metrics;
+        private final long _startNanos = System.nanoTime();
 
         private volatile String _nodePath;  // volatile since it may be read from other threads
         private boolean _closing;
+        private long _closeDeadlineNanos;
         private boolean _deleted;
+        private boolean _refreshScheduled;
+        private boolean _everCreated;
+        private boolean _lost;
+        private long _lostAtNanos;
+
+        // The cancel flag of the most recently registered watcher, so that code that recreates the node on its own can
+        // stop that watcher from recreating it a second time.
+        private AtomicBoolean _watcherCanceled = new AtomicBoolean();
 
         // Store this at the class level because it encodes state that prevents the need for trying to create the path
         // multiple times.  If we instantiated this on the fly every time we tried to create a node we'd be wasting
-        // effort since we'd know that that node was created already.
+        // effort since we'd know that that node was created already.  TTL nodes have their parents created as
+        // container nodes by the create method instead, so this is null for them.
         private final EnsurePath _ensurePath;
 
         // Store this at the class level as well because it is a creation with protection so it has a UUID embedded in
@@ -256,15 +662,28 @@ public class PersistentEphemeralNode {
         // instance we need to only create this one time.
         private final PathAndBytesable<String> _createMethod;
 
-        private Sync(CuratorFramework curator, String basePath, byte[] data, CreateMode mode) {
+        private Sync(CuratorFramework curator, String basePath, byte[] data, CreateMode mode, long ttlInMillis,
+                     PersistentEphemeralNodeMetrics metrics) {
             _curator = curator;
             _basePath = basePath;
             _data = data;
-
-            String parentDir = ZKPaths.getPathAndNode(_basePath).getPath();
-            _ensurePath = _curator.newNamespaceAwareEnsurePath(parentDir);
-
-            _createMethod = _curator.create().withProtection().withMode(mode);
+            _ttlInMillis = ttlInMillis;
+            _metrics = metrics;
+
+            if (mode.isTTL()) {
+                // Container parents are removed by the server once they're empty, so a TTL node that expires doesn't
+                // leave a trail of empty parents behind when nobody is around to clean them up.
+                _ensurePath = null;
+                _createMethod = _curator.create()
+                        .withTtl(ttlInMillis)
+                        .creatingParentContainersIfNeeded()
+                        .withProtection()
+                        .withMode(mode);
+            } else {
+                String parentDir = ZKPaths.getPathAndNode(_basePath).getPath();
+                _ensurePath = _curator.newNamespaceAwareEnsurePath(parentDir);
+                _createMethod = _curator.create().withProtection().withMode(mode);
+            }
         }
 
         private void createNode(CountDownLatch latch) {
@@ -275,8 +694,11 @@ public class PersistentEphemeralNode {
 
             try {
                 // Ensure the parents are created first...
-                _ensurePath.ensure(_curator.getZookeeperClient());
+                if (_ensurePath != null) {
+                    _ensurePath.ensure(_curator.getZookeeperClient());
+                }
             } catch (Exception e) {
+                _metrics.operationRetried();
                 _async.waitThenCreateNode(latch);
                 return;
             }
@@ -286,20 +708,92 @@ public class PersistentEphemeralNode {
                 _nodePath = _createMethod.forPath(_basePath, _data);
             } catch (KeeperException.NodeExistsException e) {
                 // The node was already present, it may be created by us, maybe by another session.  In either
-                // case we're going to start watching it and if it gets removed we'll recreate it under our session.
+                // case we're going to start watching it and if it gets removed we'll recreate it.  An ephemeral node
+                // is recreated under our session, a TTL node isn't bound to any session and is refreshed by us.
                 _nodePath = e.getPath();
+                _metrics.existingNodeAdopted();
             } catch (Exception e) {
+                _metrics.operationRetried();
                 _async.waitThenCreateNode(latch);
                 return;
             }
 
+            onNodeCreated();
             watchNode();
+            scheduleRefresh();
 
             if (latch != null) {
                 latch.countDown();
             }
         }
 
+        private void onNodeCreated() {
+            long now = System.nanoTime();
+            if (!_everCreated) {
+                _everCreated = true;
+                _metrics.nodeCreated(now - _startNanos);
+                fireCreated(_nodePath);
+            } else if (_lost) {
+                _lost = false;
+                _metrics.nodeRecreated(now - _lostAtNanos);
+                fireRecreated(_nodePath);
+            }
+        }
+
+        /** Records that the node went missing.  The caller is responsible for creating it again. */
+        private void onNodeLost() {
+            if (_lost || !_everCreated) {
+                return;
+            }
+
+            _lost = true;
+            _lostAtNanos = System.nanoTime();
+            fireLost(_nodePath);
+        }
+
+        private boolean isTtlNode() {
+            return _ttlInMillis > 0;
+        }
+
+        private void scheduleRefresh() {
+            if (!isTtlNode() || _refreshScheduled || _closing) {
+                return;
+            }
+
+            _refreshScheduled = true;
+            _async.waitThenRefreshNode(Math.max(_ttlInMillis / REFRESHES_PER_TTL, WAIT_DURATION_IN_MILLIS));
+        }
+
+        /**
+         * Rewrites the data of a TTL node.  The server measures the TTL from the last modification of the node, so
+         * rewriting it resets the TTL.
+         */
+        private void refreshNode() {
+            _refreshScheduled = false;
+            if (_closing || _nodePath == null) {
+                return;
+            }
+
+            try {
+                _curator.setData().forPath(_nodePath, _data);
+            } catch (KeeperException.NoNodeException e) {
+                // The node expired or was deleted out from under us.  Recreating it will schedule the next refresh.
+                // The watcher on the node sees the deletion too, so cancel it or it would create a second node.
+                _watcherCanceled.set(true);
+                onNodeLost();
+                createNode(null);
+                return;
+            } catch (Exception e) {
+                // Something failed.  Try again in a little while.
+                _metrics.operationRetried();
+                _refreshScheduled = true;
+                _async.waitThenRefreshNode(WAIT_DURATION_IN_MILLIS);
+                return;
+            }
+
+            scheduleRefresh();
+        }
+
         private void watchNode() {
             if (_closing) {
                 return;
@@ -308,6 +802,7 @@ public class PersistentEphemeralNode {
             // Use this to cancel the watcher when this method is going to do something that will eventually create
             // a new watcher.
             AtomicBoolean cancelWatcher = new AtomicBoolean();
+            _watcherCanceled = cancelWatcher;
             Stat stat;
             try {
                 stat = _curator
@@ -316,6 +811,7 @@ public class PersistentEphemeralNode {
                         .forPath(_nodePath);
             } catch (Exception e) {
                 cancelWatcher.set(true);
+                _metrics.operationRetried();
                 _async.waitThenWatchNode();
                 return;
             }
@@ -324,6 +820,7 @@ public class PersistentEphemeralNode {
                 // The node didn't exist -- it needs to be created, but we've already registered a watcher.  Set the
                 // watcher as handled so that when it's called later (when the node is created) it'll ignore that event.
                 cancelWatcher.set(true);
+                onNodeLost();
                 createNode(null);
             }
         }
@@ -335,9 +832,11 @@ public class PersistentEphemeralNode {
 
             if (event.getType() == Watcher.Event.EventType.NodeDeleted) {
                 // Doesn't exist.  Must recreate it.
+                onNodeLost();
                 createNode(null);
             } else if (event.getType() == Watcher.Event.EventType.None) {
                 // Something failed.  Try again in a little while.
+                _metrics.operationRetried();
                 _async.waitThenWatchNode();
             } else {
                 // Node changed in a way we don't care about.  Re-establish the watch.
@@ -345,35 +844,91 @@ public class PersistentEphemeralNode {
             }
         }
 
-        private void deleteNode(CountDownLatch latch) {
+        private void deleteNode(CompletableFuture<Void> future) {
             if (_nodePath == null) {
                 // The only time _nodePath is null is if we're creating a node.  Wait for it to finish.
-                _async.waitThenDeleteNode(latch);
+                retryDeleteNode(future, null);
                 return;
             }
 
             try {
                 _curator.delete().forPath(_nodePath);
+                _metrics.nodeDeleted();
             } catch (KeeperException.NoNodeException e) {
                 // The node doesn't exist, we don't care, we're finished.
             } catch (Exception e) {
                 // Something failed.  Try again in a little while.
-                _async.waitThenDeleteNode(latch);
+                retryDeleteNode(future, e);
                 return;
             }
 
             _deleted = true;
+            fireClosed(_nodePath);
+            future.complete(null);
+        }
 
-            if (latch != null) {
-                latch.countDown();
+        private void retryDeleteNode(CompletableFuture<Void> future, Exception cause) {
+            if (System.nanoTime() - _closeDeadlineNanos >= 0 || _curator.getState() == CuratorFrameworkState.STOPPED) {
+                // Out of time, or the client is closed and no attempt can ever succeed.
+                LOG.warn("Giving up deleting node: {}", _nodePath, cause);
+                future.completeExceptionally(cause != null ? cause : new TimeoutException("Node was never created"));
+                return;
+            }
+
+            if (cause != null) {
+                _metrics.operationRetried();
             }
+            _async.waitThenDeleteNode(future);
         }
 
-        private void close(CountDownLatch latch) {
+        private void close(long deadlineNanos, CompletableFuture<Void> future) {
             if (_closing) return;
 
             _closing = true;
-            deleteNode(latch);
+            _closeDeadlineNanos = deadlineNanos;
+            deleteNode(future);
+        }
+
+        /**
+         * Stops maintaining the node so that it can be deleted by a multi-op.
+         *
+         * @return The path of the node, or null if the node is in the middle of being created.
+         */
+        private String beginClose(long deadlineNanos) {
+            _closing = true;
+            _closeDeadlineNanos = deadlineNanos;
+            return _nodePath;
         }
+
+        /** Completes a close started by {@link #beginClose()}, deleting the node here if the multi-op didn't. */
+        private void finishClose(boolean deleted, CompletableFuture<Void> future) {
+            if (!deleted) {
+                deleteNode(future);
+                return;
+            }
+
+            _deleted = true;
+            _metrics.nodeDeleted();
+            fireClosed(_nodePath);
+            future.complete(null);
+        }
+    }
+
+    /**
+     * Listener interface that is notified as the node backing a {@code PersistentEphemeralNode} changes state.  All
+     * methods are invoked from the single background thread that manages the node, so they must not block.
+     */
+    public interface Listener {
+        /** The node was created for the first time. */
+        void nodeCreated(String path);
+
+        /** The node was found to be missing, for example because its session expired.  It will be recreated. */
+        void nodeLost(String path);
+
+        /** The node was created again after it was lost. */
+        void nodeRecreated(String path);
+
+        /** The node was deleted because the {@code PersistentEphemeralNode} was closed. */
+        void nodeClosed(String path);
     }
 }
@@ -0,0 +1,60 @@
+package com.bazaarvoice.curator.recipes;
+
+/**
+ * Receives notifications about the ZooKeeper operations performed by a {@link PersistentEphemeralNode}.  All methods
+ * are invoked from the single background thread that manages the node, so implementations must be fast and must not
+ * block.
+ */
+public interface PersistentEphemeralNodeMetrics {
+    /** A metrics implementation that ignores everything. */
+    PersistentEphemeralNodeMetrics NONE = new PersistentEphemeralNodeMetrics() {
+        @Override
+        public void nodeCreated(long timeToCreateNanos) {
+            // Do nothing
+        }
+
+        @Override
+        public void nodeRecreated(long timeToRecreateNanos) {
+            // Do nothing
+        }
+
+        @Override
+        public void nodeDeleted() {
+            // Do nothing
+        }
+
+        @Override
+        public void existingNodeAdopted() {
+            // Do nothing
+        }
+
+        @Override
+        public void operationRetried() {
+            // Do nothing
+        }
+    };
+
+    /**
+     * The node was created for the first time.
+     *
+     * @param timeToCreateNanos Time between construction of the {@code PersistentEphemeralNode} and the creation.
+     */
+    void nodeCreated(long timeToCreateNanos);
+
+    /**
+     * The node was created again after it was found to be missing.
+     *
+     * @param timeToRecreateNanos Time between noticing the node was missing (for example because of a
+     *                            {@code NodeDeleted} event) and creating it again.
+     */
+    void nodeRecreated(long timeToRecreateNanos);
+
+    /** The node was deleted because the {@code PersistentEphemeralNode} was closed. */
+    void nodeDeleted();
+
+    /** A create failed with {@code NodeExistsException} and the existing node was watched instead. */
+    void existingNodeAdopted();
+
+    /** A ZooKeeper operation failed and will be attempted again after a short wait. */
+    void operationRetried();
+}
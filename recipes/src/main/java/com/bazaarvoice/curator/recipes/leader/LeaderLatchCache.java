@@ -0,0 +1,313 @@
+package com.bazaarvoice.curator.recipes.leader;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.recipes.leader.LeaderLatch;
+import org.apache.curator.framework.recipes.leader.Participant;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A watch-maintained, in-memory view of the participants in a {@link LeaderLatch} election.
+ * <p>
+ * {@link LeaderLatch#getLeader()} and {@link LeaderLatch#getParticipants()} read every participant node from ZooKeeper
+ * each time they are called.  This cache instead keeps a watch on the latch path and only reads from ZooKeeper when the
+ * election changes: one {@code getChildren} per change, plus one {@code getData} per new participant.  Reading the
+ * current leader or participants is then a single volatile read.  All ZooKeeper operations are issued in the
+ * background, so the cache doesn't need a thread of its own.
+ * </p>
+ * <p>
+ * Like any watch-based view the cache trails ZooKeeper by the time it takes a change notification to arrive, so it
+ * must not be used as proof of leadership.
+ * </p>
+ */
+public class LeaderLatchCache implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(LeaderLatchCache.class);
+
+    /** What {@code LeaderLatch} reports as the leader when there isn't one. */
+    private static final Participant NO_LEADER = new Participant("", false);
+
+    /** ZooKeeper sequence numbers are a fixed width suffix of the node name. */
+    private static final int SEQUENCE_LENGTH = 10;
+
+    /** Orders sequential node names by their sequence number, regardless of any protection prefix. */
+    static final Comparator<String> BY_SEQUENCE = Comparator.comparing(
+            node -> node.substring(Math.max(0, node.length() - SEQUENCE_LENGTH)));
+
+    private final CuratorFramework _curator;
+    private final String _latchPath;
+    private final Set<Listener> _listeners = new CopyOnWriteArraySet<>();
+    private final AtomicBoolean _started = new AtomicBoolean();
+    private final AtomicBoolean _closed = new AtomicBoolean();
+    private final Map<String, String> _idsByNode = new HashMap<>();  // guarded by this
+    private List<String> _nodes = ImmutableList.of();  // guarded by this
+    private volatile Snapshot _snapshot;
+
+    private final Watcher _watcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() != Event.EventType.None) {
+                refresh();
+            }
+        }
+    };
+
+    private final BackgroundCallback _childrenCallback = new BackgroundCallback() {
+        @Override
+        public void processResult(CuratorFramework client, CuratorEvent event) {
+            onChildren(event);
+        }
+    };
+
+    private final BackgroundCallback _dataCallback = new BackgroundCallback() {
+        @Override
+        public void processResult(CuratorFramework client, CuratorEvent event) {
+            onData(event);
+        }
+    };
+
+    private final ConnectionStateListener _connectionListener = new ConnectionStateListener() {
+        @Override
+        public void stateChanged(CuratorFramework client, ConnectionState newState) {
+            // Watches don't survive session expiration and background reads may have failed while disconnected.
+            if (newState == ConnectionState.RECONNECTED) {
+                refresh();
+            }
+        }
+    };
+
+    /**
+     * @param curator A started connection to ZooKeeper.
+     * @param latchPath The path that the {@code LeaderLatch} instances of the election are created with.
+     */
+    public LeaderLatchCache(CuratorFramework curator, String latchPath) {
+        _curator = Objects.requireNonNull(curator, "curator");
+        _latchPath = Objects.requireNonNull(latchPath, "latchPath");
+    }
+
+    /** Start watching the election.  The cache is usable once {@link #isInitialized()} returns true. */
+    public void start() {
+        if (_started.compareAndSet(false, true)) {
+            _curator.getConnectionStateListenable().addListener(_connectionListener);
+            refresh();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (_closed.compareAndSet(false, true)) {
+            _curator.getConnectionStateListenable().removeListener(_connectionListener);
+            _listeners.clear();
+            _snapshot = null;
+        }
+    }
+
+    /** @return True once the cache has loaded the election, and until it is closed. */
+    public boolean isInitialized() {
+        return _snapshot != null;
+    }
+
+    /**
+     * @return The current leader, or a dummy participant with an empty id if there is no leader, same as
+     * {@link LeaderLatch#getLeader()}.  Empty if the cache isn't initialized.
+     */
+    public Optional<Participant> getLeader() {
+        Snapshot snapshot = _snapshot;
+        return snapshot != null ? Optional.of(snapshot._leader) : Optional.empty();
+    }
+
+    /**
+     * @return The current participants, in election order with the leader first.  Empty if the cache isn't
+     * initialized.
+     */
+    public Optional<List<Participant>> getParticipants() {
+        Snapshot snapshot = _snapshot;
+        return snapshot != null ? Optional.of(snapshot._participants) : Optional.empty();
+    }
+
+    /**
+     * Add a listener that is notified whenever the leader or the set of participants changes.
+     *
+     * @param listener The listener to add.
+     */
+    public void addListener(Listener listener) {
+        _listeners.add(Objects.requireNonNull(listener));
+    }
+
+    /**
+     * Remove a listener.
+     *
+     * @param listener The listener to remove.
+     */
+    public void removeListener(Listener listener) {
+        _listeners.remove(listener);
+    }
+
+    private void refresh() {
+        if (_closed.get()) {
+            return;
+        }
+
+        try {
+            _curator.getChildren().usingWatcher(_watcher).inBackground(_childrenCallback).forPath(_latchPath);
+        } catch (Exception e) {
+            LOG.debug("Unable to read participants of {}", _latchPath, e);
+        }
+    }
+
+    private void onChildren(CuratorEvent event) {
+        if (_closed.get()) {
+            return;
+        }
+
+        List<String> nodes;
+        if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+            nodes = new ArrayList<>(event.getChildren());
+            nodes.sort(BY_SEQUENCE);
+        } else if (event.getResultCode() == KeeperException.Code.NONODE.intValue()) {
+            // Nobody has joined the election yet.  Watch for the path to be created.
+            nodes = ImmutableList.of();
+            try {
+                _curator.checkExists().usingWatcher(_watcher).inBackground().forPath(_latchPath);
+            } catch (Exception e) {
+                LOG.debug("Unable to watch for creation of {}", _latchPath, e);
+            }
+        } else {
+            // Most likely a connection problem, the connection listener will refresh once we're reconnected.
+            return;
+        }
+
+        List<String> missing = new ArrayList<>();
+        synchronized (this) {
+            _nodes = nodes;
+            _idsByNode.keySet().retainAll(nodes);
+            for (String node : nodes) {
+                if (!_idsByNode.containsKey(node)) {
+                    missing.add(node);
+                }
+            }
+        }
+
+        for (String node : missing) {
+            try {
+                _curator.getData().inBackground(_dataCallback, node).forPath(ZKPaths.makePath(_latchPath, node));
+            } catch (Exception e) {
+                LOG.debug("Unable to read participant {} of {}", node, _latchPath, e);
+            }
+        }
+
+        update();
+    }
+
+    private void onData(CuratorEvent event) {
+        if (_closed.get()) {
+            return;
+        }
+
+        String node = (String) event.getContext();
+        if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+            synchronized (this) {
+                if (_nodes.contains(node)) {
+                    _idsByNode.put(node, new String(event.getData(), StandardCharsets.UTF_8));
+                }
+            }
+            update();
+        } else {
+            // The participant left before we could read it, or the connection failed.  Either way a children watch or
+            // the connection listener will trigger another refresh.
+            refresh();
+        }
+    }
+
+    /** Publishes a new snapshot once the ids of all participants are known. */
+    private void update() {
+        Snapshot snapshot;
+        synchronized (this) {
+            List<Participant> participants = new ArrayList<>(_nodes.size());
+            for (String node : _nodes) {
+                String id = _idsByNode.get(node);
+                if (id == null) {
+                    // Still waiting for the data of a participant.
+                    return;
+                }
+                participants.add(new Participant(id, participants.isEmpty()));
+            }
+            snapshot = new Snapshot(participants.isEmpty() ? NO_LEADER : participants.get(0),
+                    ImmutableList.copyOf(participants));
+
+            Snapshot previous = _snapshot;
+            if (_closed.get() || snapshot.equals(previous)) {
+                return;
+            }
+            _snapshot = snapshot;
+        }
+
+        for (Listener listener : _listeners) {
+            try {
+                listener.participantsChanged(snapshot._leader, snapshot._participants);
+            } catch (Exception e) {
+                LOG.warn("Listener failed handling change of participants of {}", _latchPath, e);
+            }
+        }
+    }
+
+    private static final class Snapshot {
+        private final Participant _leader;
+        private final List<Participant> _participants;
+
+        private Snapshot(Participant leader, List<Participant> participants) {
+            _leader = leader;
+            _participants = participants;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Snapshot)) {
+                return false;
+            }
+            Snapshot that = (Snapshot) o;
+            return _leader.equals(that._leader) && _participants.equals(that._participants);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(_leader, _participants);
+        }
+    }
+
+    /** Listener interface that is notified when the leader or the participants of the election change. */
+    public interface Listener {
+        /**
+         * Invoked from a Curator background thread, so implementations must not block.
+         *
+         * @param leader The current leader, or a dummy participant with an empty id if there is none.
+         * @param participants All participants in election order, with the leader first.
+         */
+        void participantsChanged(Participant leader, Collection<Participant> participants);
+    }
+}
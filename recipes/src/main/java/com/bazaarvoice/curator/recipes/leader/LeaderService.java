@@ -4,19 +4,43 @@ import com.google.common.util.concurrent.AbstractExecutionThreadService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.Service;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
 import org.apache.curator.framework.recipes.leader.LeaderLatch;
+import org.apache.curator.framework.recipes.leader.LeaderLatchListener;
 import org.apache.curator.framework.recipes.leader.Participant;
 import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.EOFException;
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongFunction;
 import java.util.function.Supplier;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -55,27 +79,112 @@ import static com.google.common.base.Preconditions.checkState;
  *     }
  * }).start();
  * </pre>
+ * <p>
+ * Each {@code LeaderService} runs its election loop on a thread of its own for as long as it is running.  That thread
+ * spends nearly all of its time parked, so processes that run many elections can run the loop on virtual threads
+ * instead (Java 21+):
+ * </p>
+ * <pre>
+ * LeaderService.builder()
+ *         .curator(curator)
+ *         .leaderPath("/applications/my-app/leader")
+ *         .instanceId(serverId)
+ *         .serviceFactory(serviceFactory)
+ *         .threadFactory(LeaderService.virtualThreadFactory().orElse(null))
+ *         .build();
+ * </pre>
+ * <p>
+ * Leadership is given up as soon as the connection to ZooKeeper is {@code SUSPENDED}, so a brief network hiccup stops
+ * the delegate service.  To keep leadership until the session actually expires, build the {@code CuratorFramework}
+ * with a {@code SessionConnectionStateErrorPolicy} and enable {@link Builder#keepLeadershipWhileSuspended(boolean)}.
+ * </p>
  */
 public class LeaderService extends AbstractExecutionThreadService {
     private static final Logger LOG = LoggerFactory.getLogger(LeaderService.class);
 
+    private static final long NO_FENCING_TOKEN = -1;
+
+    /** Renew the lease this many times per session timeout, so a single slow heartbeat doesn't let it run out. */
+    private static final int HEARTBEATS_PER_SESSION_TIMEOUT = 3;
+
+    private static final long MIN_HEARTBEAT_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** The lease ends this fraction of the session timeout early, allowing for clock rate differences. */
+    private static final int LEASE_MARGIN_DIVISOR = 10;
+
+    /** Under the standby path, marks a participant that is warm and ready to take over. */
+    private static final String WARM_PREFIX = "warm-";
+
+    /** Under the standby path, asks a participant to warm up for a hand-off. */
+    private static final String REQUEST_PREFIX = "request-";
+
     private final ConnectionStateListener _listener = new ConnectionStateListener() {
         @Override
         public void stateChanged(CuratorFramework curatorFramework, ConnectionState newState) {
-            if (newState == ConnectionState.LOST || newState == ConnectionState.SUSPENDED) {
+            // Unless asked to keep leadership while suspended, don't wait for the session to actually expire.
+            boolean lost = _keepLeadershipWhileSuspended
+                    ? curatorFramework.getConnectionStateErrorPolicy().isErrorState(newState)
+                    : newState == ConnectionState.LOST || newState == ConnectionState.SUSPENDED;
+            if (lost) {
                 LOG.debug("Lost leadership due to ZK state change to {}: {}", newState, getId());
+                if (_leading.getAndSet(false)) {
+                    _metrics.leadershipLost(newState);
+                }
                 closeLeaderLatch();
             }
         }
     };
+    private final LeaderLatchListener _latchListener = new LeaderLatchListener() {
+        @Override
+        public void isLeader() {
+            signalStateChanged();
+        }
+
+        @Override
+        public void notLeader() {
+            signalStateChanged();
+        }
+    };
     private final CuratorFramework _curator;
     private final String _leaderPath;
     private final String _instanceId;
     private final String _serviceName;
-    private final Supplier<Service> _serviceFactory;
-    private final long _reacquireDelayNanos;
+    private final LongFunction<Service> _serviceFactory;
+    private final Supplier<Service> _standbyFactory;
+    private final boolean _warmStandby;
+    private final String _standbyPath;
+    private final ReacquirePolicy _reacquirePolicy;
+    private final boolean _keepLeadershipWhileSuspended;
+    private final ThreadFactory _threadFactory;
+    private final LeaderServiceMetrics _metrics;
+    private final LeaderLatchCache _participantCache;
     private volatile LeaderLatch _latch;
     private volatile Service _delegate;
+    private volatile long _fencingToken = NO_FENCING_TOKEN;
+    private volatile String _latchNodePath;  // set along with the fencing token
+    private volatile long _sessionTimeoutNanos;
+    private volatile long _leaseDeadlineNanos = System.nanoTime();
+    private CompletableFuture<Service> _standby;  // only accessed by the thread that runs the election
+    private final AtomicBoolean _warmUpRequested = new AtomicBoolean();
+    // Set when leadership is acquired, and cleared once its loss has been reported or it's released on purpose.
+    private final AtomicBoolean _leading = new AtomicBoolean();
+    private final Watcher _warmUpRequestWatcher = new Watcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            // Watches only fire once, so watch again for the next request.
+            if (event.getType() != Event.EventType.None && isRunning()) {
+                watchWarmUpRequest();
+            }
+        }
+    };
+
+    // The election loop waits with explicit locks rather than object monitors, because a virtual thread that waits on
+    // a monitor stays pinned to its carrier thread.  '_latchLock' guards replacing the '_latch' object and is held
+    // while calling into the latch.  '_stateLock' is only ever held briefly to wait for or signal a state change, and
+    // it's the only lock acquired by latch callbacks, so the two can't deadlock with the latch's own monitor.
+    private final Lock _latchLock = new ReentrantLock();
+    private final Lock _stateLock = new ReentrantLock();
+    private final Condition _stateChanged = _stateLock.newCondition();
 
     /**
      * Creates an instance of the service that will create, start and stop a managed delegate service as this
@@ -101,16 +210,60 @@ public class LeaderService extends AbstractExecutionThreadService {
      */
     public LeaderService(CuratorFramework curator, String leaderPath, String instanceId, String serviceName,
                          long reacquireDelay, TimeUnit reacquireDelayUnit, Supplier<Service> serviceFactory) {
-        _curator = Objects.requireNonNull(curator, "curator");
-        _leaderPath = Objects.requireNonNull(leaderPath, "leaderPath");
-        _instanceId = Objects.requireNonNull(instanceId, "instanceId");
-        _serviceName = Objects.requireNonNull(serviceName, "serviceName");
-        _serviceFactory = Objects.requireNonNull(serviceFactory, "serviceFactory");
-        _reacquireDelayNanos = Objects.requireNonNull(reacquireDelayUnit, "reacquireDelayUnit").toNanos(reacquireDelay);
-        checkArgument(_reacquireDelayNanos >= 0, "reacquireDelay must be non-negative");
+        this(builder()
+                .curator(curator)
+                .leaderPath(leaderPath)
+                .instanceId(instanceId)
+                .serviceName(serviceName)
+                .reacquireDelay(reacquireDelay, reacquireDelayUnit)
+                .serviceFactory(serviceFactory));
+    }
+
+    private LeaderService(Builder builder) {
+        _curator = Objects.requireNonNull(builder._curator, "curator");
+        _leaderPath = Objects.requireNonNull(builder._leaderPath, "leaderPath");
+        _instanceId = Objects.requireNonNull(builder._instanceId, "instanceId");
+        _serviceName = Objects.requireNonNull(builder._serviceName, "serviceName");
+        _serviceFactory = Objects.requireNonNull(builder._serviceFactory, "serviceFactory");
+        _standbyFactory = builder._standbyFactory;
+        _warmStandby = builder._warmStandby;
+        checkArgument(!_warmStandby || _standbyFactory != null,
+                "Warm standby requires a service factory that doesn't depend on the fencing token");
+        _standbyPath = builder._standbyPath != null ? builder._standbyPath : _leaderPath + "-standby";
+        _reacquirePolicy = Objects.requireNonNull(builder._reacquirePolicy, "reacquirePolicy");
+        _keepLeadershipWhileSuspended = builder._keepLeadershipWhileSuspended;
+        // The latch itself follows the error policy, so it would give up leadership on SUSPENDED regardless.
+        checkArgument(!_keepLeadershipWhileSuspended
+                        || !_curator.getConnectionStateErrorPolicy().isErrorState(ConnectionState.SUSPENDED),
+                "Keeping leadership while suspended requires a connection state error policy like "
+                        + "SessionConnectionStateErrorPolicy that doesn't treat SUSPENDED as an error");
+        _threadFactory = builder._threadFactory;
+        _metrics = Objects.requireNonNull(builder._metrics, "metrics");
+        _participantCache = new LeaderLatchCache(_curator, _leaderPath);
         initLeaderLatch();
     }
 
+    /** @return A builder for configuring a {@code LeaderService} beyond what the constructor allows. */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns a factory of virtual threads, for use with {@link Builder#threadFactory(ThreadFactory)}.  Virtual threads
+     * are cheap to park, so a process can run thousands of elections without holding a platform thread for each.
+     *
+     * @return A virtual thread factory when running on Java 21 or later, {@link Optional#empty()} otherwise.
+     */
+    public static Optional<ThreadFactory> virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return Optional.of((ThreadFactory) factory.invoke(builder));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
     @Override
     protected String serviceName() {
         return _serviceName;
@@ -125,18 +278,27 @@ public class LeaderService extends AbstractExecutionThreadService {
     }
 
     /**
-     * <B>NOTE</B> - this method polls the ZooKeeper server. Therefore it may return a value that does not match
+     * <B>NOTE</B> - while this service is running the participants are read from a watch-maintained cache, otherwise
+     * this method polls the ZooKeeper server.  Either way it may return a value that does not match
      * {@link #hasLeadership()} as hasLeadership returns a cached value.
      *
      * @return The set of current participants in the leader selection.
      * @throws Exception ZooKeeper or thread error.
      */
     public Collection<Participant> getParticipants() throws Exception {
+        Optional<List<Participant>> participants = isRunning() ? _participantCache.getParticipants() : Optional.empty();
+        if (participants.isPresent()) {
+            List<Participant> cached = participants.get();
+            if (isConsistentWithLatch(cached.isEmpty() ? null : cached.get(0))) {
+                return cached;
+            }
+        }
         return _latch.getParticipants();
     }
 
     /**
-     * <B>NOTE</B> - this method polls the ZooKeeper server. Therefore it may return a value that does not match
+     * <B>NOTE</B> - while this service is running the leader is read from a watch-maintained cache, otherwise this
+     * method polls the ZooKeeper server.  Either way it may return a value that does not match
      * {@link #hasLeadership()} as hasLeadership returns a cached value.
      *
      * @return The id for the current leader. If for some reason there is no current leader, a dummy participant
@@ -144,7 +306,47 @@ public class LeaderService extends AbstractExecutionThreadService {
      * @throws Exception ZooKeeper or thread error.
      */
     public Participant getLeader() throws Exception {
-        return _latch.getLeader();
+        Optional<Participant> leader = getCachedLeader();
+        return leader.isPresent() ? leader.get() : _latch.getLeader();
+    }
+
+    /**
+     * Like {@link #getLeader()}, but never polls the ZooKeeper server, so it doesn't block when ZooKeeper is slow or
+     * unreachable.
+     *
+     * @return The leader from the watch-maintained cache, or empty if this service isn't running or the cache hasn't
+     * caught up yet.
+     */
+    public Optional<Participant> getCachedLeader() {
+        Optional<Participant> leader = isRunning() ? _participantCache.getLeader() : Optional.empty();
+        return leader.filter(this::isConsistentWithLatch);
+    }
+
+    /**
+     * Add a listener that is notified whenever the leader or the participants of the election change, for as long as
+     * this service is running.
+     *
+     * @param listener The listener to add.
+     */
+    public void addParticipantsListener(LeaderLatchCache.Listener listener) {
+        _participantCache.addListener(listener);
+    }
+
+    /**
+     * Remove a listener added with {@link #addParticipantsListener(LeaderLatchCache.Listener)}.
+     *
+     * @param listener The listener to remove.
+     */
+    public void removeParticipantsListener(LeaderLatchCache.Listener listener) {
+        _participantCache.removeListener(listener);
+    }
+
+    /**
+     * The cache may not have caught up with our own latch yet.  Once we know we're the leader, don't report anybody
+     * else as leader.
+     */
+    private boolean isConsistentWithLatch(Participant leader) {
+        return !_latch.hasLeadership() || (leader != null && leader.isLeader() && leader.getId().equals(_instanceId));
     }
 
     /** @return True if leadership is currently held by this instance. */
@@ -152,6 +354,38 @@ public class LeaderService extends AbstractExecutionThreadService {
         return _latch.hasLeadership();
     }
 
+    /**
+     * Returns the fencing token of the current leadership term.  The token is the creation zxid of the latch node that
+     * won the election, so every term has a larger token than all the terms before it, across all participants.
+     * A store that remembers the largest token it has seen can reject writes from a leader that has since been
+     * replaced, without the writer checking leadership in ZooKeeper first.
+     *
+     * @return The fencing token while this instance is leader and its delegate service is running or starting,
+     * {@link OptionalLong#empty()} otherwise.
+     */
+    public OptionalLong getFencingToken() {
+        long fencingToken = _fencingToken;
+        return fencingToken != NO_FENCING_TOKEN && _latch.hasLeadership()
+                ? OptionalLong.of(fencingToken) : OptionalLong.empty();
+    }
+
+    /**
+     * Checks the leadership lease, a deadline before which no other participant can have become leader.  The lease is
+     * renewed by a heartbeat while this instance is leader: when ZooKeeper answers a heartbeat sent at time {@code t}
+     * the session can't expire before {@code t} plus the negotiated session timeout, so the lease is extended to that
+     * time, less a margin for clock rate differences.  Unlike {@link #hasLeadership()}, the lease runs out on time
+     * when the connection to ZooKeeper is lost, even if the loss hasn't been detected yet.
+     * <p>
+     * This method doesn't block or take locks, so it can be called before every operation that must only be
+     * performed by the leader.
+     * </p>
+     *
+     * @return True if this instance is leader and the lease hasn't run out.
+     */
+    public boolean isLeaseValid() {
+        return System.nanoTime() - _leaseDeadlineNanos < 0 && _latch.hasLeadership();
+    }
+
     /**
      * @return The current wrapped service instance, if any.  Returns {@link Optional#empty()} ()} when this instance
      * does not own the leadership lock.
@@ -160,13 +394,114 @@ public class LeaderService extends AbstractExecutionThreadService {
         return _latch.hasLeadership() ? Optional.ofNullable(_delegate) : Optional.<Service>empty();
     }
 
+    /**
+     * Hands leadership to the next participant in line after it has warmed up its delegate service.  The next
+     * participant warms up in response, unless it already runs in warm standby mode.  Once it's warm this instance
+     * stops its delegate service and releases leadership, so the next participant starts with a warm service.  This
+     * instance then rejoins the election after its reacquire delay, typically the caller stops it before then.
+     * <p>
+     * Hand-off requires that participants have unique instance ids, and works best when all of them run this version of
+     * {@code LeaderService}.  A participant built with {@link Builder#fencedServiceFactory} can't create its delegate
+     * service before it knows the fencing token of its term, so it reports itself ready right away and the hand-off
+     * goes ahead cold: the next participant creates and starts its delegate service once it has become leader.
+     * </p>
+     *
+     * @param timeout The maximum time to wait for the next participant to warm up.
+     * @param unit The unit of {@code timeout}.
+     * @return True if leadership was handed off, false if this instance isn't leader, there is no other participant or
+     * the next participant didn't warm up in time.  Leadership is kept in the latter cases.
+     * @throws Exception ZooKeeper or thread error.
+     */
+    public boolean handOff(long timeout, TimeUnit unit) throws Exception {
+        if (!hasLeadership()) {
+            return false;
+        }
+
+        List<Participant> participants = new ArrayList<>(getParticipants());
+        if (participants.size() < 2) {
+            return false;
+        }
+        String nextId = participants.get(1).getId();
+        String requestPath = ZKPaths.makePath(_standbyPath, REQUEST_PREFIX + nextId);
+
+        try {
+            try {
+                _curator.create().creatingParentContainersIfNeeded().withMode(CreateMode.EPHEMERAL)
+                        .forPath(requestPath);
+            } catch (KeeperException.NodeExistsException e) {
+                // Another hand-off is already in progress, wait for the same participant.
+            }
+
+            if (!awaitWarm(nextId, unit.toNanos(timeout))) {
+                LOG.info("Participant {} didn't warm up in time, keeping leadership: {}", nextId, getId());
+                return false;
+            }
+        } finally {
+            deleteQuietly(requestPath);
+        }
+
+        LOG.info("Handing off leadership to {}: {}", nextId, getId());
+        Service delegate = _delegate;
+        if (delegate != null) {
+            // Stopping the delegate releases leadership once it has terminated.
+            delegate.stopAsync();
+            try {
+                delegate.awaitTerminated();
+            } catch (IllegalStateException e) {
+                // The delegate failed, which also releases leadership.
+            }
+        } else {
+            closeLeaderLatch();
+        }
+        return true;
+    }
+
+    private boolean awaitWarm(String id, long timeoutNanos) throws Exception {
+        String warmPath = ZKPaths.makePath(_standbyPath, WARM_PREFIX + id);
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (true) {
+            final CountDownLatch changed = new CountDownLatch(1);
+            if (_curator.checkExists().usingWatcher(new Watcher() {
+                @Override
+                public void process(WatchedEvent event) {
+                    changed.countDown();
+                }
+            }).forPath(warmPath) != null) {
+                return true;
+            }
+            long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0 || !changed.await(remainingNanos, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    protected Executor executor() {
+        if (_threadFactory == null) {
+            return super.executor();
+        }
+
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                Thread thread = _threadFactory.newThread(command);
+                thread.setName(serviceName());
+                thread.start();
+            }
+        };
+    }
+
     @Override
     protected void startUp() throws Exception {
         _curator.getConnectionStateListenable().addListener(_listener);
+        _participantCache.start();
     }
 
     @Override
     protected void shutDown() throws Exception {
+        discardStandby();
+        _participantCache.close();
         _curator.getConnectionStateListenable().removeListener(_listener);
     }
 
@@ -179,26 +514,47 @@ public class LeaderService extends AbstractExecutionThreadService {
     @Override
     protected void run() throws InterruptedException {
         // Beware race conditions: closeLeaderLatch() may be called by another thread at any time.
+        int losses = 0;
         while (isRunning()) {
+            boolean acquired = false;
+            long heldNanos = 0;
             try {
                 // Start attempting to acquire leadership via the Curator leadership latch.
                 LOG.debug("Attempting to acquire leadership: {}", getId());
+                _leading.set(false);
+                long electionStartedAt = System.nanoTime();
                 LeaderLatch latch = startLeaderLatch();
 
+                // Prepare the delegate service ahead of time if configured to or asked to by the current leader.
+                _warmUpRequested.set(false);
+                if (_warmStandby) {
+                    prepareStandby();
+                } else {
+                    watchWarmUpRequest();
+                }
+
                 // Wait until (a) leadership is acquired or (b) the latch is closed by service shutdown or ZK cxn loss.
-                if (isRunning()) {
-                    try {
-                        latch.await();
-                    } catch (EOFException e) {
-                        // Latch was closed while we were waiting.
-                        checkState(!latch.hasLeadership());
-                    }
+                awaitLeadershipAcquiredOrLatchClosed(latch);
+                while (_warmUpRequested.getAndSet(false) && isRunning() && !latch.hasLeadership()) {
+                    prepareStandby();
+                    awaitLeadershipAcquiredOrLatchClosed(latch);
                 }
 
                 // If we succeeded in acquiring leadership, start/run the leadership-managed delegate service.
                 if (isRunning() && latch.hasLeadership()) {
                     LOG.debug("Leadership acquired: {}", getId());
-                    runAsLeader();
+                    long acquiredAt = System.nanoTime();
+                    acquired = true;
+                    _leading.set(true);
+                    _metrics.leadershipAcquired(acquiredAt - electionStartedAt);
+                    runAsLeader(latch);
+                    heldNanos = System.nanoTime() - acquiredAt;
+                    if (_curator.getZookeeperClient().isConnected()) {
+                        // Released on purpose.  Otherwise the connection state listener reports the loss, even if the
+                        // latch noticed the connection problem first and ended the term before the listener ran.
+                        _leading.set(false);
+                    }
+                    _metrics.leadershipReleased(heldNanos);
                     LOG.debug("Leadership released: {}", getId());
                 }
             } finally {
@@ -207,16 +563,39 @@ public class LeaderService extends AbstractExecutionThreadService {
 
             if (isRunning()) {
                 // If we lost or relinquished leadership, wait a while for things to settle before trying to
-                // re-acquire leadership (eg. wait for a network hiccup to the ZooKeeper server to resolve).
-                sleep(_reacquireDelayNanos);
+                // re-acquire leadership (eg. wait for a network hiccup to the ZooKeeper server to resolve).  Count
+                // the losses since leadership was last stable so the policy can back off when leadership flaps, but
+                // only when leadership was actually held, so that a participant that never led doesn't back off.
+                if (acquired) {
+                    losses = heldNanos >= _reacquirePolicy.getStablePeriodNanos() ? 1 : losses + 1;
+                }
+                sleep(_reacquirePolicy.getDelayNanos(Math.max(losses, 1)));
             }
         }
     }
 
-    private void runAsLeader() throws InterruptedException {
+    private void runAsLeader(LeaderLatch latch) throws InterruptedException {
         try {
-            _delegate = listenTo(_serviceFactory.get());
+            _sessionTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(_curator.getZookeeperClient().getZooKeeper()
+                    .getSessionTimeout());
+            long readAt = System.nanoTime();
+            String latchNodePath = findLatchNode(latch);
+            Stat stat = latchNodePath != null ? _curator.checkExists().forPath(latchNodePath) : null;
+            if (stat == null) {
+                LOG.debug("Leadership lost before the delegate service was started: {}", getId());
+                return;
+            }
+            // The creation zxid of the latch node grows with every term, whoever wins it.
+            long fencingToken = stat.getCzxid();
+            _latchNodePath = latchNodePath;
+            _fencingToken = fencingToken;
+            // Reading the latch node doubles as the first heartbeat of the term.
+            extendLease(readAt);
+            Service standby = takeStandby();
+            _delegate = listenTo(standby != null ? standby : _serviceFactory.apply(fencingToken));
+            long startingAt = System.nanoTime();
             _delegate.startAsync().awaitRunning();
+            _metrics.delegateStarted(System.nanoTime() - startingAt);
             try {
                 awaitLeadershipLostOrServicesStopped();
             } finally {
@@ -227,66 +606,337 @@ public class LeaderService extends AbstractExecutionThreadService {
         } catch (Throwable t) {
             // Start may have failed due to a network error, we'll sleep for reacquireDelay and try again.
             LOG.error("Exception starting or stopping leadership-managed service: {}", getId(), t);
+            _metrics.delegateFailed();
         } finally {
             _delegate = null;
+            _fencingToken = NO_FENCING_TOKEN;
+            _latchNodePath = null;
+            expireLease();
         }
     }
 
-    private LeaderLatch newLeaderLatch() {
-        return new LeaderLatch(_curator, _leaderPath, _instanceId);
+    /** Extends the lease after ZooKeeper answered a heartbeat that was sent at {@code sentAtNanos}. */
+    private void extendLease(long sentAtNanos) {
+        long sessionTimeoutNanos = _sessionTimeoutNanos;
+        long deadline = sentAtNanos + sessionTimeoutNanos - sessionTimeoutNanos / LEASE_MARGIN_DIVISOR;
+        if (deadline - _leaseDeadlineNanos > 0) {
+            _leaseDeadlineNanos = deadline;
+        }
     }
 
-    // IMPORTANT: **************************************************************************************************
-    // All updates to the '_latch' object are synchronized to avoid race conditions between the service execution
-    // thread and the various listeners (ZK connection state listener, delegate service listener).
+    private void expireLease() {
+        _leaseDeadlineNanos = System.nanoTime();
+    }
+
+    /** Checks that the latch node still exists in ZooKeeper, renewing the lease when ZooKeeper answers. */
+    private void sendHeartbeat() {
+        final long fencingToken = _fencingToken;
+        final long sentAtNanos = System.nanoTime();
+        String latchNodePath = _latchNodePath;
+        if (fencingToken == NO_FENCING_TOKEN || latchNodePath == null) {
+            return;
+        }
 
-    private synchronized void initLeaderLatch() {
-        // Create a non-started latch that we can use to implement getLeader(), getParticipants() & friends.
-        _latch = newLeaderLatch();
+        try {
+            _curator.checkExists().inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(CuratorFramework client, CuratorEvent event) {
+                    Stat stat = event.getStat();
+                    // Ignore answers that arrive after the term has ended.
+                    if (event.getResultCode() == KeeperException.Code.OK.intValue() && stat != null
+                            && stat.getCzxid() == fencingToken && _fencingToken == fencingToken) {
+                        extendLease(sentAtNanos);
+                    }
+                }
+            }).forPath(latchNodePath);
+        } catch (Exception e) {
+            LOG.debug("Unable to send leadership heartbeat: {}", getId(), e);
+        }
     }
 
-    private synchronized LeaderLatch startLeaderLatch() throws InterruptedException {
-        LeaderLatch latch = _latch; // Read the volatile once
-        // Assert not started already.  initLeaderLatch() and closeLeaderLatch() leave the latch in the latent state.
-        checkState(latch.getState() == LeaderLatch.State.LATENT);
+    /**
+     * {@code LeaderLatch} doesn't expose its node, but the leader's node is the first one in sequence order, and it
+     * holds the participant id.
+     *
+     * @return The path of our latch node, or null if we aren't the leader anymore.
+     */
+    private String findLatchNode(LeaderLatch latch) throws Exception {
+        List<String> nodes;
         try {
-            latch.start();
-        } catch (InterruptedException ie) {
-            throw ie;
+            nodes = new ArrayList<>(_curator.getChildren().forPath(_leaderPath));
+        } catch (KeeperException.NoNodeException e) {
+            return null;
+        }
+        if (nodes.isEmpty() || !latch.hasLeadership()) {
+            return null;
+        }
+        nodes.sort(LeaderLatchCache.BY_SEQUENCE);
+        String path = ZKPaths.makePath(_leaderPath, nodes.get(0));
+        try {
+            byte[] id = _curator.getData().forPath(path);
+            return _instanceId.equals(new String(id, StandardCharsets.UTF_8)) ? path : null;
+        } catch (KeeperException.NoNodeException e) {
+            return null;
+        }
+    }
+
+    private void requestWarmUp() {
+        _warmUpRequested.set(true);
+        signalStateChanged();
+    }
+
+    /** Watches for hand-off requests.  Called from the watcher as well, so it doesn't block. */
+    private void watchWarmUpRequest() {
+        try {
+            String requestPath = ZKPaths.makePath(_standbyPath, REQUEST_PREFIX + _instanceId);
+            _curator.checkExists().usingWatcher(_warmUpRequestWatcher).inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(CuratorFramework client, CuratorEvent event) {
+                    if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+                        requestWarmUp();
+                    }
+                }
+            }).forPath(requestPath);
+        } catch (Exception e) {
+            LOG.debug("Unable to watch for hand-off requests: {}", getId(), e);
+        }
+    }
+
+    /**
+     * Creates and warms up the next delegate service on a thread of its own, so that the election carries on in the
+     * meantime, then tells the leader that this instance is warm.
+     */
+    private void prepareStandby() {
+        if (_standbyFactory == null) {
+            // A service that depends on the fencing token can't be created ahead of time, let the hand-off go ahead
+            // cold instead of making the leader wait it out.
+            LOG.debug("Ready for a cold hand-off, the service depends on the fencing token: {}", getId());
+            publishWarm();
+            return;
+        }
+
+        CompletableFuture<Service> standby = _standby;
+        if (standby == null || (standby.isDone() && standby.join() == null)) {
+            // Not warmed up yet, or the last attempt failed.
+            LOG.debug("Warming up standby service: {}", getId());
+            CompletableFuture<Service> warming = new CompletableFuture<>();
+            _standby = warming;
+            startWarmUpThread(() -> warmUp(warming));
+        } else if (standby.isDone()) {
+            // The warm node is ephemeral, so publish it again in case the session was lost since.
+            publishWarm();
+        }
+    }
+
+    private void warmUp(CompletableFuture<Service> standby) {
+        Service service = null;
+        try {
+            service = _standbyFactory.get();
+            if (service instanceof Warmable) {
+                ((Warmable) service).warmUp();
+            }
         } catch (Throwable t) {
-            LOG.error("Exception attempting to acquire leadership: {}", getId(), t);
+            LOG.error("Exception warming up standby service: {}", getId(), t);
+            coolDown(service);
+            standby.complete(null);
+            return;
         }
+        publishWarm();
+        standby.complete(service);
+    }
+
+    private void startWarmUpThread(Runnable command) {
+        Thread thread = (_threadFactory != null ? _threadFactory : Executors.defaultThreadFactory()).newThread(command);
+        thread.setName(serviceName() + "-warm-up");
+        thread.start();
+    }
+
+    private void publishWarm() {
+        try {
+            _curator.create().creatingParentContainersIfNeeded().withMode(CreateMode.EPHEMERAL)
+                    .forPath(ZKPaths.makePath(_standbyPath, WARM_PREFIX + _instanceId));
+        } catch (KeeperException.NodeExistsException e) {
+            // Already published.
+        } catch (Exception e) {
+            // Published again the next time this instance is asked to warm up.
+            LOG.debug("Unable to publish warm standby: {}", getId(), e);
+        }
+    }
+
+    /** Takes the standby service, if any, to run it as the delegate.  Waits for it if it's still warming up. */
+    private Service takeStandby() throws InterruptedException {
+        CompletableFuture<Service> standby = _standby;
+        if (standby == null) {
+            if (_standbyFactory == null) {
+                // Published for a cold hand-off.
+                deleteQuietly(ZKPaths.makePath(_standbyPath, WARM_PREFIX + _instanceId));
+            }
+            return null;
+        }
+        _standby = null;
+
+        Service service;
+        try {
+            service = standby.get();
+        } catch (ExecutionException e) {
+            // Failed warm ups complete with null instead.
+            service = null;
+        }
+        deleteQuietly(ZKPaths.makePath(_standbyPath, WARM_PREFIX + _instanceId));
+        return service;
+    }
+
+    /** Cools down the standby service, once it has finished warming up, since it's never going to be started. */
+    private void discardStandby() {
+        CompletableFuture<Service> standby = _standby;
+        if (standby != null) {
+            _standby = null;
+            standby.thenAccept(service -> {
+                coolDown(service);
+                deleteQuietly(ZKPaths.makePath(_standbyPath, WARM_PREFIX + _instanceId));
+            });
+        }
+    }
+
+    private void coolDown(Service service) {
+        if (service instanceof Warmable) {
+            try {
+                ((Warmable) service).coolDown();
+            } catch (Throwable t) {
+                LOG.error("Exception cooling down standby service: {}", getId(), t);
+            }
+        }
+    }
+
+    private void deleteQuietly(String path) {
+        try {
+            _curator.delete().guaranteed().forPath(path);
+        } catch (KeeperException.NoNodeException e) {
+            // Already gone.
+        } catch (Exception e) {
+            LOG.debug("Unable to delete {}: {}", path, getId(), e);
+        }
+    }
+
+    private LeaderLatch newLeaderLatch() {
+        LeaderLatch latch = new LeaderLatch(_curator, _leaderPath, _instanceId);
+        // Wake up the main execution thread whenever leadership is gained or lost.
+        latch.addListener(_latchListener);
         return latch;
     }
 
-    private synchronized void closeLeaderLatch() {
-        LeaderLatch latch = _latch; // Read the volatile once
-        if (latch.getState() == LeaderLatch.State.STARTED) {
+    // IMPORTANT: **************************************************************************************************
+    // All updates to the '_latch' object are made holding '_latchLock' to avoid race conditions between the service
+    // execution thread and the various listeners (ZK connection state listener, delegate service listener).
+
+    private void initLeaderLatch() {
+        _latchLock.lock();
+        try {
+            // Create a non-started latch that we can use to implement getLeader(), getParticipants() & friends.
+            _latch = newLeaderLatch();
+        } finally {
+            _latchLock.unlock();
+        }
+    }
+
+    private LeaderLatch startLeaderLatch() throws InterruptedException {
+        _latchLock.lock();
+        try {
+            LeaderLatch latch = _latch; // Read the volatile once
+            // Assert not started already.  initLeaderLatch() and closeLeaderLatch() leave the latch in the latent state.
+            checkState(latch.getState() == LeaderLatch.State.LATENT);
             try {
-                latch.close();
-            } catch (IOException e) {
-                LOG.debug("Unexpected exception closing LeaderLatch.", e);
+                latch.start();
+            } catch (InterruptedException ie) {
+                throw ie;
+            } catch (Throwable t) {
+                LOG.error("Exception attempting to acquire leadership: {}", getId(), t);
+            }
+            return latch;
+        } finally {
+            _latchLock.unlock();
+        }
+    }
+
+    private void closeLeaderLatch() {
+        _latchLock.lock();
+        try {
+            LeaderLatch latch = _latch; // Read the volatile once
+            expireLease();
+            if (latch.getState() == LeaderLatch.State.STARTED) {
+                try {
+                    latch.close();
+                } catch (IOException e) {
+                    LOG.debug("Unexpected exception closing LeaderLatch.", e);
+                }
             }
+            // Return the latch to a latent state (newly created) for use by getLeader(), getParticipants() & friends.
+            _latch = newLeaderLatch();
+        } finally {
+            _latchLock.unlock();
         }
-        // Return the latch to a latent state (newly created) for use by getLeader(), getParticipants() & friends.
-        _latch = newLeaderLatch();
         // Wake up the main execution thread.
-        notifyAll();
+        signalStateChanged();
+    }
+
+    private void signalStateChanged() {
+        _stateLock.lock();
+        try {
+            _stateChanged.signalAll();
+        } finally {
+            _stateLock.unlock();
+        }
     }
 
-    /** Wait until we lose leadership or this service is stopped or the delegate service is stopped. */
-    private synchronized void awaitLeadershipLostOrServicesStopped() throws InterruptedException {
-        while (_latch.hasLeadership() && isRunning() && _delegate.isRunning()) {
-            wait();
+    /**
+     * Wait until leadership is acquired, the latch is closed (by service shutdown or ZK connection loss) or the leader
+     * asks this instance to warm up.
+     */
+    private void awaitLeadershipAcquiredOrLatchClosed(LeaderLatch latch) throws InterruptedException {
+        _stateLock.lock();
+        try {
+            while (isRunning() && _latch == latch && latch.getState() == LeaderLatch.State.STARTED
+                    && !latch.hasLeadership() && !_warmUpRequested.get()) {
+                _stateChanged.await();
+            }
+        } finally {
+            _stateLock.unlock();
+        }
+    }
+
+    /**
+     * Wait until we lose leadership or this service is stopped or the delegate service is stopped, sending heartbeats
+     * to renew the lease in the meantime.
+     */
+    private void awaitLeadershipLostOrServicesStopped() throws InterruptedException {
+        long heartbeatIntervalNanos = Math.max(_sessionTimeoutNanos / HEARTBEATS_PER_SESSION_TIMEOUT,
+                MIN_HEARTBEAT_INTERVAL_NANOS);
+        long nextHeartbeatNanos = System.nanoTime() + heartbeatIntervalNanos;
+        _stateLock.lock();
+        try {
+            while (_latch.hasLeadership() && isRunning() && _delegate.isRunning()) {
+                long waitNanos = nextHeartbeatNanos - System.nanoTime();
+                if (waitNanos <= 0) {
+                    sendHeartbeat();
+                    nextHeartbeatNanos = System.nanoTime() + heartbeatIntervalNanos;
+                } else {
+                    _stateChanged.awaitNanos(waitNanos);
+                }
+            }
+        } finally {
+            _stateLock.unlock();
         }
     }
 
     /** Wait for the specified amount of time or until this service is stopped, whichever comes first. */
-    private synchronized void sleep(long waitNanos) throws InterruptedException {
-        while (waitNanos > 0 && isRunning()) {
-            long start = System.nanoTime();
-            TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
-            waitNanos -= System.nanoTime() - start;
+    private void sleep(long waitNanos) throws InterruptedException {
+        _stateLock.lock();
+        try {
+            while (waitNanos > 0 && isRunning()) {
+                waitNanos = _stateChanged.awaitNanos(waitNanos);
+            }
+        } finally {
+            _stateLock.unlock();
         }
     }
 
@@ -320,4 +970,135 @@ public class LeaderService extends AbstractExecutionThreadService {
         }, MoreExecutors.directExecutor());
         return delegate;
     }
+
+    /**
+     * Builds {@link LeaderService} instances.  The curator, leader path, instance id and service factory are required,
+     * the service name defaults to {@code LeaderService} and the reacquire policy to a fixed delay of one minute.
+     */
+    public static class Builder {
+        private CuratorFramework _curator;
+        private String _leaderPath;
+        private String _instanceId;
+        private String _serviceName = "LeaderService";
+        private ReacquirePolicy _reacquirePolicy = ReacquirePolicy.fixed(1, TimeUnit.MINUTES);
+        private boolean _keepLeadershipWhileSuspended;
+        private LongFunction<Service> _serviceFactory;
+        private Supplier<Service> _standbyFactory;
+        private boolean _warmStandby;
+        private String _standbyPath;
+        private ThreadFactory _threadFactory;
+        private LeaderServiceMetrics _metrics = LeaderServiceMetrics.NONE;
+
+        private Builder() {
+        }
+
+        /** @param curator A started connection to ZooKeeper. */
+        public Builder curator(CuratorFramework curator) {
+            _curator = curator;
+            return this;
+        }
+
+        /** @param leaderPath The ZooKeeper path under which the election creates ephemeral nodes. */
+        public Builder leaderPath(String leaderPath) {
+            _leaderPath = leaderPath;
+            return this;
+        }
+
+        /** @param instanceId An identifier for this instance, as returned by {@link LeaderService#getId()}. */
+        public Builder instanceId(String instanceId) {
+            _instanceId = instanceId;
+            return this;
+        }
+
+        /** @param serviceName The name of the service, also used to name the thread that runs the election. */
+        public Builder serviceName(String serviceName) {
+            _serviceName = serviceName;
+            return this;
+        }
+
+        /** See {@link LeaderService#LeaderService(CuratorFramework, String, String, String, long, TimeUnit, Supplier)}. */
+        public Builder reacquireDelay(long reacquireDelay, TimeUnit reacquireDelayUnit) {
+            return reacquirePolicy(ReacquirePolicy.fixed(reacquireDelay, reacquireDelayUnit));
+        }
+
+        /**
+         * @param reacquirePolicy Decides how long to wait before re-acquiring leadership, for example
+         *                        {@link ReacquirePolicy#exponential(long, long, TimeUnit)} to fail over quickly after
+         *                        an isolated loss of leadership while backing off when leadership flaps.
+         */
+        public Builder reacquirePolicy(ReacquirePolicy reacquirePolicy) {
+            _reacquirePolicy = reacquirePolicy;
+            return this;
+        }
+
+        /**
+         * @param keepLeadershipWhileSuspended If true, leadership is kept while the connection is {@code SUSPENDED} and
+         *                                     only given up once the curator's connection state error policy reports
+         *                                     an error, typically when the session is {@code LOST}.  Requires a
+         *                                     curator built with a {@code SessionConnectionStateErrorPolicy}.
+         *                                     Defaults to false, giving up leadership on {@code SUSPENDED}.
+         */
+        public Builder keepLeadershipWhileSuspended(boolean keepLeadershipWhileSuspended) {
+            _keepLeadershipWhileSuspended = keepLeadershipWhileSuspended;
+            return this;
+        }
+
+        /** @param serviceFactory Creates a new delegate service instance each time leadership is acquired. */
+        public Builder serviceFactory(Supplier<Service> serviceFactory) {
+            Objects.requireNonNull(serviceFactory, "serviceFactory");
+            _serviceFactory = fencingToken -> serviceFactory.get();
+            _standbyFactory = serviceFactory;
+            return this;
+        }
+
+        /**
+         * @param serviceFactory Creates a new delegate service instance each time leadership is acquired, given the
+         *                       fencing token of the new leadership term.  See {@link LeaderService#getFencingToken()}.
+         */
+        public Builder fencedServiceFactory(LongFunction<Service> serviceFactory) {
+            _serviceFactory = serviceFactory;
+            _standbyFactory = null;
+            return this;
+        }
+
+        /**
+         * @param warmStandby If true, a non-leader creates its next delegate service while it waits for leadership and
+         *                    calls {@link Warmable#warmUp()} if the service implements it, so it starts quickly once
+         *                    leadership is acquired.  Requires {@link #serviceFactory(Supplier)}.  Defaults to false,
+         *                    in which case a non-leader only warms up when asked to by {@link LeaderService#handOff}.
+         */
+        public Builder warmStandby(boolean warmStandby) {
+            _warmStandby = warmStandby;
+            return this;
+        }
+
+        /**
+         * @param standbyPath The ZooKeeper path under which participants coordinate hand-offs.  Defaults to the leader
+         *                    path with a {@code -standby} suffix.
+         */
+        public Builder standbyPath(String standbyPath) {
+            _standbyPath = standbyPath;
+            return this;
+        }
+
+        /**
+         * @param threadFactory Creates the thread that runs the election, for example the result of
+         *                      {@link LeaderService#virtualThreadFactory()}.  If null (the default) a dedicated
+         *                      platform thread is used.  Either way the thread is named after the service name.
+         */
+        public Builder threadFactory(ThreadFactory threadFactory) {
+            _threadFactory = threadFactory;
+            return this;
+        }
+
+        /** @param metrics Receives election latency, tenure and failure metrics.  Defaults to ignoring them. */
+        public Builder metrics(LeaderServiceMetrics metrics) {
+            _metrics = metrics;
+            return this;
+        }
+
+        public LeaderService build() {
+            return new LeaderService(this);
+        }
+    }
 }
@@ -0,0 +1,70 @@
+package com.bazaarvoice.curator.recipes.leader;
+
+import org.apache.curator.framework.state.ConnectionState;
+
+/**
+ * Receives notifications about the elections run by a {@link LeaderService}.  Methods are invoked from the thread that
+ * runs the election or from Curator's connection state thread, so implementations must be fast and must not block.
+ */
+public interface LeaderServiceMetrics {
+    /** A metrics implementation that ignores everything. */
+    LeaderServiceMetrics NONE = new LeaderServiceMetrics() {
+        @Override
+        public void leadershipAcquired(long electionNanos) {
+            // Do nothing
+        }
+
+        @Override
+        public void delegateStarted(long startNanos) {
+            // Do nothing
+        }
+
+        @Override
+        public void delegateFailed() {
+            // Do nothing
+        }
+
+        @Override
+        public void leadershipReleased(long tenureNanos) {
+            // Do nothing
+        }
+
+        @Override
+        public void leadershipLost(ConnectionState state) {
+            // Do nothing
+        }
+    };
+
+    /**
+     * Leadership was acquired.
+     *
+     * @param electionNanos Time between entering the election and acquiring leadership.
+     */
+    void leadershipAcquired(long electionNanos);
+
+    /**
+     * The delegate service is running.
+     *
+     * @param startNanos Time it took the delegate service to start, once leadership was acquired.
+     */
+    void delegateStarted(long startNanos);
+
+    /** The delegate service failed to start or stop, or failed while running. */
+    void delegateFailed();
+
+    /**
+     * Leadership was released, for whatever reason.
+     *
+     * @param tenureNanos Time between acquiring and releasing leadership.
+     */
+    void leadershipReleased(long tenureNanos);
+
+    /**
+     * Leadership that was held was given up because of a change in the connection to ZooKeeper.  Reported once for
+     * every such loss, around the same time as the {@link #leadershipReleased(long)} call that ends the term, in either
+     * order.
+     *
+     * @param state The connection state that caused the loss, typically {@code SUSPENDED} or {@code LOST}.
+     */
+    void leadershipLost(ConnectionState state);
+}
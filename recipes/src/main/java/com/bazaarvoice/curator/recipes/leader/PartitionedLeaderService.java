@@ -0,0 +1,560 @@
+package com.bazaarvoice.curator.recipes.leader;
+
+import com.bazaarvoice.curator.recipes.PersistentEphemeralNode;
+import com.google.common.util.concurrent.AbstractIdleService;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Runs a leadership election for each of a fixed number of partitions, so that work sharded into partitions can be
+ * spread across all of the processes that participate.
+ * <p>
+ * Unlike running a {@link LeaderService} per partition, all of the elections share a single caller-provided
+ * {@code ScheduledExecutorService} and a single ZooKeeper connection state listener, so thousands of partitions don't
+ * cost thousands of threads.  Each election uses the usual recipe of ephemeral sequential nodes where the owner of the
+ * lowest node is the leader, the leader watches its own node and every other participant watches its immediate
+ * predecessor.  Failed ZooKeeper operations are retried together, with a back off shared by all of the partitions.
+ * </p>
+ * <p>
+ * With fair share balancing enabled, every participant registers itself under {@code basePath/members} and
+ * periodically compares the number of partitions it owns with its fair share
+ * ({@code ceil(partitions / participants)}).  A participant that owns more than its share voluntarily yields the
+ * excess partitions and only rejoins their elections after the reacquire delay, giving the other participants a chance
+ * to take them over.
+ * </p>
+ * <p>
+ * Partition ownership is reported to a {@link PartitionListener}, and can be polled using {@link #ownedPartitions()}.
+ * Like {@code LeaderService}, ownership is given up as soon as the ZooKeeper connection is suspended.
+ * </p>
+ */
+public class PartitionedLeaderService extends AbstractIdleService {
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionedLeaderService.class);
+
+    private static final String MEMBERS = "members";
+    private static final String PARTITIONS = "partitions";
+    private static final String NODE_PREFIX = "member-";
+
+    /** How long to wait before retrying failed ZooKeeper operations, doubled after every round of retries. */
+    private static final long MIN_RETRY_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_RETRY_DELAY_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final ConnectionStateListener _connectionListener = new ConnectionStateListener() {
+        @Override
+        public void stateChanged(CuratorFramework client, ConnectionState newState) {
+            if (newState == ConnectionState.SUSPENDED || newState == ConnectionState.LOST) {
+                LOG.debug("Releasing all partitions due to ZK state change to {}: {}", newState, _instanceId);
+                for (Partition partition : _partitions) {
+                    _executor.execute(partition::release);
+                }
+            } else if (newState == ConnectionState.RECONNECTED) {
+                resetRetryDelay();
+                for (Partition partition : _partitions) {
+                    _executor.execute(partition::check);
+                }
+            }
+        }
+    };
+
+    private final CuratorFramework _curator;
+    private final String _basePath;
+    private final String _instanceId;
+    private final byte[] _instanceIdBytes;
+    private final ScheduledExecutorService _executor;
+    private final PartitionListener _listener;
+    private final boolean _fairShare;
+    private final long _rebalanceIntervalNanos;
+    private final long _reacquireDelayNanos;
+    private final Partition[] _partitions;
+    private final BitSet _owned;  // guarded by this
+    private final Set<Partition> _retries = new LinkedHashSet<>();  // guarded by this
+    private long _retryDelayNanos = MIN_RETRY_DELAY_NANOS;  // guarded by this
+    private ScheduledFuture<?> _retryTask;  // guarded by this
+    private PersistentEphemeralNode _membership;
+    private ScheduledFuture<?> _rebalance;
+
+    private PartitionedLeaderService(Builder builder) {
+        _curator = Objects.requireNonNull(builder._curator, "curator");
+        _basePath = Objects.requireNonNull(builder._basePath, "basePath");
+        _instanceId = Objects.requireNonNull(builder._instanceId, "instanceId");
+        _executor = Objects.requireNonNull(builder._executor, "executor");
+        _listener = Objects.requireNonNull(builder._listener, "listener");
+        checkArgument(builder._numPartitions > 0, "numPartitions must be positive");
+        _fairShare = builder._fairShare;
+        _rebalanceIntervalNanos = Objects.requireNonNull(builder._rebalanceIntervalUnit, "rebalanceIntervalUnit")
+                .toNanos(builder._rebalanceInterval);
+        checkArgument(_rebalanceIntervalNanos > 0, "rebalanceInterval must be positive");
+        _reacquireDelayNanos = Objects.requireNonNull(builder._reacquireDelayUnit, "reacquireDelayUnit")
+                .toNanos(builder._reacquireDelay);
+        checkArgument(_reacquireDelayNanos >= 0, "reacquireDelay must be non-negative");
+
+        _instanceIdBytes = _instanceId.getBytes(StandardCharsets.UTF_8);
+        _owned = new BitSet(builder._numPartitions);
+        _partitions = new Partition[builder._numPartitions];
+        for (int i = 0; i < _partitions.length; i++) {
+            _partitions[i] = new Partition(i);
+        }
+    }
+
+    /** @return A builder for a {@code PartitionedLeaderService}. */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** @return This instance's participant id provided at construction time. */
+    public String getId() {
+        return _instanceId;
+    }
+
+    /** @return The number of partitions elections are held for. */
+    public int getNumPartitions() {
+        return _partitions.length;
+    }
+
+    /** @return A snapshot of the partitions currently owned by this instance. */
+    public synchronized BitSet ownedPartitions() {
+        return (BitSet) _owned.clone();
+    }
+
+    /** @return True if the specified partition is currently owned by this instance. */
+    public synchronized boolean ownsPartition(int partition) {
+        return _owned.get(partition);
+    }
+
+    /** @return The number of partitions currently owned by this instance. */
+    public synchronized int ownedPartitionCount() {
+        return _owned.cardinality();
+    }
+
+    @Override
+    protected String serviceName() {
+        return getClass().getSimpleName() + "(" + _basePath + ")";
+    }
+
+    @Override
+    protected void startUp() throws Exception {
+        _curator.getConnectionStateListenable().addListener(_connectionListener);
+        if (_fairShare) {
+            _membership = new PersistentEphemeralNode(_curator, ZKPaths.makePath(_basePath, MEMBERS, _instanceId),
+                    _instanceIdBytes, CreateMode.EPHEMERAL);
+            _rebalance = _executor.scheduleWithFixedDelay(this::rebalance,
+                    _rebalanceIntervalNanos, _rebalanceIntervalNanos, TimeUnit.NANOSECONDS);
+        }
+        for (Partition partition : _partitions) {
+            _executor.execute(partition::join);
+        }
+    }
+
+    @Override
+    protected void shutDown() throws Exception {
+        _curator.getConnectionStateListenable().removeListener(_connectionListener);
+        if (_rebalance != null) {
+            _rebalance.cancel(false);
+        }
+        synchronized (this) {
+            if (_retryTask != null) {
+                _retryTask.cancel(false);
+                _retryTask = null;
+            }
+            _retries.clear();
+        }
+        for (Partition partition : _partitions) {
+            partition.leave();
+        }
+        if (_membership != null) {
+            _membership.close(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /** Yields partitions owned in excess of this instance's fair share. */
+    private void rebalance() {
+        if (!isRunning()) {
+            return;
+        }
+
+        int members;
+        try {
+            members = _curator.getChildren().forPath(ZKPaths.makePath(_basePath, MEMBERS)).size();
+        } catch (Exception e) {
+            LOG.debug("Unable to count participants, skipping rebalance: {}", _instanceId, e);
+            return;
+        }
+
+        int share = (_partitions.length + Math.max(members, 1) - 1) / Math.max(members, 1);
+        BitSet owned = ownedPartitions();
+        int excess = owned.cardinality() - share;
+        // Yield from the top so that the partitions kept are stable across rebalances.
+        for (int i = owned.length() - 1; excess > 0 && i >= 0; i = owned.previousSetBit(i - 1)) {
+            LOG.debug("Yielding partition {} to stay within fair share of {}: {}", i, share, _instanceId);
+            _partitions[i].relinquish();
+            excess--;
+        }
+    }
+
+    /**
+     * Retries the failed operation of a partition later.  Failures usually hit every partition at once, for example
+     * while disconnected, so a single task retries all of the failed partitions together, and backs off for as long as
+     * they keep failing instead of every partition retrying on its own schedule.
+     */
+    private synchronized void retryLater(Partition partition) {
+        _retries.add(partition);
+        scheduleRetries();
+    }
+
+    private synchronized void scheduleRetries() {
+        if (_retryTask != null) {
+            return;
+        }
+        _retryTask = _executor.schedule(this::retry, _retryDelayNanos, TimeUnit.NANOSECONDS);
+        _retryDelayNanos = Math.min(_retryDelayNanos * 2, MAX_RETRY_DELAY_NANOS);
+    }
+
+    private void retry() {
+        List<Partition> partitions;
+        synchronized (this) {
+            _retryTask = null;
+            if (!_curator.getZookeeperClient().isConnected()) {
+                // Every attempt would block until the connection times out, so wait for the connection to come back.
+                if (!_retries.isEmpty()) {
+                    scheduleRetries();
+                }
+                return;
+            }
+            partitions = new ArrayList<>(_retries);
+            _retries.clear();
+        }
+
+        for (Partition partition : partitions) {
+            _executor.execute(partition::retry);
+        }
+    }
+
+    private synchronized void resetRetryDelay() {
+        _retryDelayNanos = MIN_RETRY_DELAY_NANOS;
+    }
+
+    private void setOwned(int partition, boolean owned) {
+        synchronized (this) {
+            if (_owned.get(partition) == owned) {
+                return;
+            }
+            _owned.set(partition, owned);
+        }
+
+        try {
+            if (owned) {
+                _listener.partitionAcquired(partition);
+            } else {
+                _listener.partitionReleased(partition);
+            }
+        } catch (Exception e) {
+            LOG.error("Partition listener failed for partition {}: {}", partition, _instanceId, e);
+        }
+    }
+
+    /**
+     * The election for a single partition.  Its methods run on the shared executor.  The partition's lock only guards
+     * its state and is never held across a ZooKeeper call, so a slow ZooKeeper doesn't hold up the connection listener
+     * or the other tasks for the partition.  Instead, every ZooKeeper round trip is checked against the state it
+     * started from once it returns, and its result is dropped if the election moved on in the meantime.
+     */
+    private final class Partition implements Watcher {
+        private final int _index;
+        private final String _path;
+        private String _ourPath;  // guarded by this
+        private boolean _active = true;  // guarded by this
+        private boolean _joining;  // guarded by this
+        private ScheduledFuture<?> _pendingJoin;  // guarded by this
+        private long _generation;  // guarded by this, incremented whenever a result in flight becomes stale
+
+        private Partition(int index) {
+            _index = index;
+            _path = ZKPaths.makePath(_basePath, PARTITIONS, Integer.toString(index));
+        }
+
+        /** Enters the election by creating a new node at the end of the line. */
+        private void join() {
+            String stalePath;
+            synchronized (this) {
+                _pendingJoin = null;
+                if (!_active || _joining) {
+                    return;
+                }
+                _joining = true;
+                stalePath = _ourPath;
+                _ourPath = null;
+            }
+
+            deleteNode(stalePath);
+            String ourPath;
+            try {
+                ourPath = _curator.create()
+                        .creatingParentContainersIfNeeded()
+                        .withProtection()
+                        .withMode(CreateMode.EPHEMERAL_SEQUENTIAL)
+                        .forPath(ZKPaths.makePath(_path, NODE_PREFIX), _instanceIdBytes);
+            } catch (Exception e) {
+                synchronized (this) {
+                    _joining = false;
+                }
+                retryLater(this);
+                return;
+            }
+
+            synchronized (this) {
+                _joining = false;
+                // Unless the election was left or relinquished while the node was being created.
+                if (_active && _pendingJoin == null) {
+                    _ourPath = ourPath;
+                    _generation++;
+                    ourPath = null;
+                }
+            }
+            if (ourPath != null) {
+                deleteNode(ourPath);
+            } else {
+                check();
+            }
+        }
+
+        /**
+         * Determines whether our node is first in line.  The owner watches its own node, so that it notices when the
+         * node is deleted from under it, every other participant watches its immediate predecessor.
+         */
+        private void check() {
+            String ourPath;
+            long generation;
+            synchronized (this) {
+                if (!_active || _ourPath == null) {
+                    return;
+                }
+                ourPath = _ourPath;
+                generation = ++_generation;
+            }
+
+            try {
+                List<String> children = new ArrayList<>(_curator.getChildren().forPath(_path));
+                children.sort(LeaderLatchCache.BY_SEQUENCE);
+                int position = children.indexOf(ZKPaths.getNodeFromPath(ourPath));
+                if (position < 0) {
+                    // Our node is gone, most likely because the session expired.  Get back in line.
+                    synchronized (this) {
+                        if (generation != _generation) {
+                            return;
+                        }
+                        setOwned(_index, false);
+                        _ourPath = null;
+                    }
+                    join();
+                    return;
+                }
+
+                String watched = position == 0 ? ourPath : ZKPaths.makePath(_path, children.get(position - 1));
+                Stat stat = _curator.checkExists().usingWatcher(this).forPath(watched);
+                if (stat == null) {
+                    // The watched node went away in the meantime, look again.
+                    _executor.execute(this::check);
+                    return;
+                }
+
+                synchronized (this) {
+                    // A later check, or a release, supersedes this one.
+                    if (generation == _generation) {
+                        setOwned(_index, position == 0);
+                    }
+                }
+            } catch (Exception e) {
+                retryLater(this);
+            }
+        }
+
+        /** Retries whatever failed last, either getting in line or finding our place in it. */
+        private void retry() {
+            boolean inLine;
+            synchronized (this) {
+                if (_pendingJoin != null || _joining) {
+                    return;
+                }
+                inLine = _ourPath != null;
+            }
+            if (inLine) {
+                check();
+            } else {
+                join();
+            }
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() == Event.EventType.NodeDeleted) {
+                _executor.execute(this::check);
+            }
+        }
+
+        /** Stops acting as owner, without leaving the election, because the connection can't be trusted. */
+        private synchronized void release() {
+            _generation++;
+            setOwned(_index, false);
+        }
+
+        /** Leaves the election for a while so that another participant can take the partition over. */
+        private void relinquish() {
+            String ourPath;
+            synchronized (this) {
+                if (!_active || _pendingJoin != null) {
+                    return;
+                }
+                _generation++;
+                setOwned(_index, false);
+                ourPath = _ourPath;
+                _ourPath = null;
+                _pendingJoin = _executor.schedule(this::join, _reacquireDelayNanos, TimeUnit.NANOSECONDS);
+            }
+            deleteNode(ourPath);
+        }
+
+        /** Leaves the election for good. */
+        private void leave() {
+            String ourPath;
+            synchronized (this) {
+                _active = false;
+                if (_pendingJoin != null) {
+                    _pendingJoin.cancel(false);
+                    _pendingJoin = null;
+                }
+                _generation++;
+                setOwned(_index, false);
+                ourPath = _ourPath;
+                _ourPath = null;
+            }
+            deleteNode(ourPath);
+        }
+
+        private void deleteNode(String path) {
+            if (path == null) {
+                return;
+            }
+
+            try {
+                _curator.delete().guaranteed().forPath(path);
+            } catch (KeeperException.NoNodeException e) {
+                // Already gone, nothing to do.
+            } catch (Exception e) {
+                // Guaranteed deletes keep trying in the background.
+                LOG.debug("Unable to delete election node {}: {}", path, _instanceId, e);
+            }
+        }
+    }
+
+    /**
+     * Listener that is notified as partitions are acquired and released.  Methods are invoked on the shared executor
+     * while the election of the partition is locked, so they should return quickly.
+     */
+    public interface PartitionListener {
+        void partitionAcquired(int partition);
+
+        void partitionReleased(int partition);
+    }
+
+    /**
+     * Builds {@link PartitionedLeaderService} instances.  The curator, base path, instance id, number of partitions,
+     * executor and listener are required.  Fair share balancing is disabled by default.
+     */
+    public static class Builder {
+        private CuratorFramework _curator;
+        private String _basePath;
+        private String _instanceId;
+        private int _numPartitions;
+        private ScheduledExecutorService _executor;
+        private PartitionListener _listener;
+        private boolean _fairShare;
+        private long _rebalanceInterval = 30;
+        private TimeUnit _rebalanceIntervalUnit = TimeUnit.SECONDS;
+        private long _reacquireDelay = 10;
+        private TimeUnit _reacquireDelayUnit = TimeUnit.SECONDS;
+
+        private Builder() {
+        }
+
+        /** @param curator A started connection to ZooKeeper. */
+        public Builder curator(CuratorFramework curator) {
+            _curator = curator;
+            return this;
+        }
+
+        /** @param basePath The ZooKeeper path under which the members and partition elections are kept. */
+        public Builder basePath(String basePath) {
+            _basePath = basePath;
+            return this;
+        }
+
+        /** @param instanceId An identifier for this instance, stored in its election nodes. */
+        public Builder instanceId(String instanceId) {
+            _instanceId = instanceId;
+            return this;
+        }
+
+        /** @param numPartitions The number of partitions, numbered from zero. */
+        public Builder partitions(int numPartitions) {
+            _numPartitions = numPartitions;
+            return this;
+        }
+
+        /** @param executor The executor shared by all of the elections.  It isn't shut down by the service. */
+        public Builder executor(ScheduledExecutorService executor) {
+            _executor = executor;
+            return this;
+        }
+
+        /** @param listener Notified as partitions are acquired and released. */
+        public Builder listener(PartitionListener listener) {
+            _listener = listener;
+            return this;
+        }
+
+        /** @param fairShare Whether partitions owned in excess of a fair share are yielded to other participants. */
+        public Builder fairShare(boolean fairShare) {
+            _fairShare = fairShare;
+            return this;
+        }
+
+        /** How often ownership is compared with the fair share, 30 seconds by default. */
+        public Builder rebalanceInterval(long rebalanceInterval, TimeUnit unit) {
+            _rebalanceInterval = rebalanceInterval;
+            _rebalanceIntervalUnit = unit;
+            return this;
+        }
+
+        /** How long a yielded partition stays out of its election, 10 seconds by default. */
+        public Builder reacquireDelay(long reacquireDelay, TimeUnit unit) {
+            _reacquireDelay = reacquireDelay;
+            _reacquireDelayUnit = unit;
+            return this;
+        }
+
+        public PartitionedLeaderService build() {
+            return new PartitionedLeaderService(this);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.bazaarvoice.curator.recipes.leader;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Decides how long a {@link LeaderService} waits before it re-enters the election after losing or relinquishing
+ * leadership.
+ * <p>
+ * Losses are counted from the last time leadership was held for at least {@link #getStablePeriodNanos()}, so a policy
+ * can wait only briefly after an isolated loss and back off when leadership keeps flapping.
+ * </p>
+ */
+public interface ReacquirePolicy {
+    /**
+     * @param losses The number of times leadership was lost since it was last held for a stable period, at least 1.
+     * @return The number of nanoseconds to wait before attempting to re-acquire leadership.
+     */
+    long getDelayNanos(int losses);
+
+    /** @return How long leadership must be held for the next loss to be counted as the first one again. */
+    long getStablePeriodNanos();
+
+    /**
+     * @param delay The time to wait after every loss of leadership.
+     * @param unit The unit of {@code delay}.
+     * @return A policy that always waits the same amount of time.
+     */
+    static ReacquirePolicy fixed(long delay, TimeUnit unit) {
+        final long delayNanos = unit.toNanos(delay);
+        checkArgument(delayNanos >= 0, "delay must be non-negative");
+        return new ReacquirePolicy() {
+            @Override
+            public long getDelayNanos(int losses) {
+                return delayNanos;
+            }
+
+            @Override
+            public long getStablePeriodNanos() {
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Returns a policy that waits {@code initialDelay} after the first loss and doubles the wait after each further
+     * loss, up to {@code maxDelay}.  Holding leadership for {@code maxDelay} resets the wait to {@code initialDelay}.
+     *
+     * @param initialDelay The time to wait after the first loss of leadership, which must be positive.
+     * @param maxDelay The maximum time to wait, no less than {@code initialDelay}.
+     * @param unit The unit of {@code initialDelay} and {@code maxDelay}.
+     * @return An exponential back-off policy.
+     */
+    static ReacquirePolicy exponential(long initialDelay, long maxDelay, TimeUnit unit) {
+        final long initialDelayNanos = unit.toNanos(initialDelay);
+        final long maxDelayNanos = unit.toNanos(maxDelay);
+        // Doubling a zero delay would never back off.
+        checkArgument(initialDelayNanos > 0, "initialDelay must be positive");
+        checkArgument(maxDelayNanos >= initialDelayNanos, "maxDelay must be at least initialDelay");
+        return new ReacquirePolicy() {
+            @Override
+            public long getDelayNanos(int losses) {
+                long delayNanos = initialDelayNanos;
+                for (int i = 1; i < losses && delayNanos < maxDelayNanos; i++) {
+                    delayNanos *= 2;
+                }
+                return Math.min(delayNanos, maxDelayNanos);
+            }
+
+            @Override
+            public long getStablePeriodNanos() {
+                return maxDelayNanos;
+            }
+        };
+    }
+}
@@ -0,0 +1,26 @@
+package com.bazaarvoice.curator.recipes.leader;
+
+/**
+ * Implemented by {@link LeaderService} delegate services that can prepare to run before leadership is acquired, for
+ * example by loading caches.  A warmed-up delegate starts quickly once its {@code LeaderService} wins the election.
+ */
+public interface Warmable {
+    /**
+     * Prepares the service to run.  Called at most once, before the service is started, on a thread of its own so
+     * that the election carries on in the meantime.  The service may never be started, for example because another
+     * participant stays leader, in which case {@link #coolDown()} is called once it's discarded.
+     *
+     * @throws Exception If the service could not warm up.  The service is cooled down and discarded, and a fresh
+     *                   instance is created once leadership is acquired.
+     */
+    void warmUp() throws Exception;
+
+    /**
+     * Releases whatever {@link #warmUp()} acquired, when the service is discarded without ever being started.  A
+     * service that is started releases its resources when it's stopped instead.  Does nothing by default.
+     *
+     * @throws Exception If the service could not cool down.  The exception is logged and otherwise ignored.
+     */
+    default void coolDown() throws Exception {
+    }
+}
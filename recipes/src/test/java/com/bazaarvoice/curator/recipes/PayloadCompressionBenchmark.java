@@ -0,0 +1,78 @@
+package com.bazaarvoice.curator.recipes;
+
+import com.google.common.base.Strings;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the size and CPU cost of the {@link PayloadCompressionProvider} codecs on typical node payloads.  Not run
+ * as part of the build (surefire only picks up {@code *Test} classes), run it explicitly with
+ * {@code mvn test -Dtest=PayloadCompressionBenchmark}.  The numbers are only indicative: there is no forked JVM per
+ * codec, but every result is consumed and checked so the JIT can't drop the work being measured.
+ */
+public class PayloadCompressionBenchmark {
+    private static final Logger LOG = LoggerFactory.getLogger(PayloadCompressionBenchmark.class);
+
+    private static final int WARMUP_ITERATIONS = 2_000;
+    private static final int MEASURED_ITERATIONS = 20_000;
+
+    @Test
+    public void testSmallPayload() throws Exception {
+        run("small (service registration)", payload(1));
+    }
+
+    @Test
+    public void testLargePayload() throws Exception {
+        run("large (partition assignment)", payload(200));
+    }
+
+    private static byte[] payload(int entries) {
+        Random random = new Random(0);
+        StringBuilder json = new StringBuilder("{\"name\":\"service\",\"entries\":[");
+        for (int i = 0; i < entries; i++) {
+            json.append("{\"host\":\"host-").append(random.nextInt(1000)).append(".example.com\",")
+                    .append("\"port\":").append(8000 + random.nextInt(1000)).append(',')
+                    .append("\"id\":\"").append(Long.toHexString(random.nextLong())).append("\",")
+                    .append("\"payload\":\"").append(Strings.repeat("x", random.nextInt(40))).append("\"},");
+        }
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void run(String name, byte[] payload) throws Exception {
+        for (PayloadCompressionProvider.Codec codec : PayloadCompressionProvider.Codec.values()) {
+            PayloadCompressionProvider provider = new PayloadCompressionProvider(codec);
+            byte[] compressed = provider.compress(payload);
+            long warmedUpBytes = 0;
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                warmedUpBytes += PayloadCompressionProvider.decompress(provider.compress(payload)).length;
+            }
+            assertEquals((long) WARMUP_ITERATIONS * payload.length, warmedUpBytes);
+
+            long compressedBytes = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                compressedBytes += provider.compress(payload).length;
+            }
+            long compressNanos = (System.nanoTime() - start) / MEASURED_ITERATIONS;
+            assertEquals((long) MEASURED_ITERATIONS * compressed.length, compressedBytes);
+
+            long decompressedBytes = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                decompressedBytes += PayloadCompressionProvider.decompress(compressed).length;
+            }
+            long decompressNanos = (System.nanoTime() - start) / MEASURED_ITERATIONS;
+            assertEquals((long) MEASURED_ITERATIONS * payload.length, decompressedBytes);
+
+            LOG.info(String.format("%s %s: %d -> %d bytes (%.0f%%), compress=%.1fus, decompress=%.1fus", name, codec,
+                    payload.length, compressed.length, 100.0 * compressed.length / payload.length,
+                    compressNanos / 1e3, decompressNanos / 1e3));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.bazaarvoice.curator.recipes;
+
+import com.google.common.base.Strings;
+import org.apache.curator.framework.imps.GzipCompressionProvider;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadCompressionProviderTest {
+    private static final byte[] PAYLOAD = ("{\"name\":\"service\",\"hosts\":["
+            + Strings.repeat("\"host.example.com:8080\",", 100) + "]}").getBytes(StandardCharsets.UTF_8);
+
+    @Test(expected = NullPointerException.class)
+    public void testNullCodec() {
+        new PayloadCompressionProvider(null);
+    }
+
+    @Test
+    public void testGzipRoundTrip() throws Exception {
+        PayloadCompressionProvider provider = new PayloadCompressionProvider(PayloadCompressionProvider.Codec.GZIP);
+        byte[] compressed = provider.compress(PAYLOAD);
+
+        assertTrue(compressed.length < PAYLOAD.length);
+        assertArrayEquals(PAYLOAD, PayloadCompressionProvider.decompress(compressed));
+        assertArrayEquals(PAYLOAD, provider.decompress("/path", provider.compress("/path", PAYLOAD)));
+    }
+
+    @Test
+    public void testFastRoundTrip() throws Exception {
+        PayloadCompressionProvider provider = new PayloadCompressionProvider(PayloadCompressionProvider.Codec.FAST);
+        byte[] compressed = provider.compress(PAYLOAD);
+
+        assertTrue(compressed.length < PAYLOAD.length);
+        assertArrayEquals(PAYLOAD, PayloadCompressionProvider.decompress(compressed));
+    }
+
+    @Test
+    public void testDecompressAnyCodec() throws Exception {
+        byte[] compressed = new PayloadCompressionProvider(PayloadCompressionProvider.Codec.GZIP).compress(PAYLOAD);
+
+        assertArrayEquals(PAYLOAD,
+                new PayloadCompressionProvider(PayloadCompressionProvider.Codec.FAST).decompress("/path", compressed));
+    }
+
+    @Test
+    public void testUncompressedDataPassesThrough() throws Exception {
+        assertSame(PAYLOAD, PayloadCompressionProvider.decompress(PAYLOAD));
+        byte[] empty = new byte[0];
+        assertSame(empty, PayloadCompressionProvider.decompress(empty));
+    }
+
+    @Test
+    public void testSmallDataStoredAsIs() {
+        byte[] data = "{}".getBytes(StandardCharsets.UTF_8);
+
+        assertSame(data, new PayloadCompressionProvider(PayloadCompressionProvider.Codec.GZIP).compress(data));
+    }
+
+    @Test
+    public void testDataThatLooksFramed() throws Exception {
+        byte[] data = {0x00, 'Z', 'P', 1, 2, 3};
+        byte[] stored = new PayloadCompressionProvider(PayloadCompressionProvider.Codec.GZIP).compress(data);
+
+        assertTrue(stored.length > data.length);
+        assertArrayEquals(data, PayloadCompressionProvider.decompress(stored));
+    }
+
+    @Test
+    public void testDataThatLooksLikeGzip() throws Exception {
+        byte[] data = {0x1f, (byte) 0x8b, 1, 2, 3};
+        byte[] stored = new PayloadCompressionProvider(PayloadCompressionProvider.Codec.GZIP).compress(data);
+
+        assertTrue(stored.length > data.length);
+        assertArrayEquals(data, PayloadCompressionProvider.decompress(stored));
+        // Written by something else, it still isn't gzip.
+        assertSame(data, PayloadCompressionProvider.decompress(data));
+    }
+
+    @Test
+    public void testCuratorGzipDecompressed() throws Exception {
+        byte[] compressed = new GzipCompressionProvider().compress("/path", PAYLOAD);
+
+        assertArrayEquals(PAYLOAD, PayloadCompressionProvider.decompress(compressed));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUncompressedLengthTooLong() throws Exception {
+        byte[] compressed = new PayloadCompressionProvider(PayloadCompressionProvider.Codec.GZIP).compress(PAYLOAD);
+        ByteBuffer.wrap(compressed).putInt(4, Integer.MAX_VALUE);
+        PayloadCompressionProvider.decompress(compressed);
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptData() throws Exception {
+        byte[] compressed = new PayloadCompressionProvider(PayloadCompressionProvider.Codec.GZIP).compress(PAYLOAD);
+        PayloadCompressionProvider.decompress(Arrays.copyOf(compressed, compressed.length / 2));
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownCodec() throws Exception {
+        byte[] compressed = new PayloadCompressionProvider(PayloadCompressionProvider.Codec.GZIP).compress(PAYLOAD);
+        compressed[3] = 42;
+        PayloadCompressionProvider.decompress(compressed);
+    }
+
+    @Test
+    public void testDecompressingParser() {
+        NodeDiscovery.NodeDataParser<String> parser = PayloadCompressionProvider.decompressing(
+                new NodeDiscovery.NodeDataParser<String>() {
+                    @Override
+                    public String parse(String path, byte[] nodeData) {
+                        return (nodeData != null) ? new String(nodeData, StandardCharsets.UTF_8) : null;
+                    }
+                });
+        byte[] compressed = new PayloadCompressionProvider(PayloadCompressionProvider.Codec.FAST).compress(PAYLOAD);
+
+        assertEquals(new String(PAYLOAD, StandardCharsets.UTF_8), parser.parse("/path", compressed));
+        assertEquals("plain", parser.parse("/path", "plain".getBytes(StandardCharsets.UTF_8)));
+        assertNull(parser.parse("/path", null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecompressingParserCorruptData() {
+        NodeDiscovery.NodeDataParser<byte[]> parser = PayloadCompressionProvider.decompressing(
+                new NodeDiscovery.NodeDataParser<byte[]>() {
+                    @Override
+                    public byte[] parse(String path, byte[] nodeData) {
+                        return nodeData;
+                    }
+                });
+        byte[] compressed = new PayloadCompressionProvider(PayloadCompressionProvider.Codec.GZIP).compress(PAYLOAD);
+        parser.parse("/path", Arrays.copyOf(compressed, compressed.length / 2));
+    }
+}
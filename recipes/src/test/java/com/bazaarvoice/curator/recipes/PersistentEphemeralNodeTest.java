@@ -9,13 +9,21 @@ import org.junit.After;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class PersistentEphemeralNodeTest extends ZooKeeperTest {
     private static final String DIR = "/test";
@@ -74,6 +82,16 @@ public class PersistentEphemeralNodeTest extends ZooKeeperTest {
         new PersistentEphemeralNode(newCurator(), PATH, DATA, CreateMode.PERSISTENT_SEQUENTIAL);
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testTtlModeWithoutTtl() throws Exception {
+        new PersistentEphemeralNode(newCurator(), PATH, DATA, CreateMode.PERSISTENT_WITH_TTL);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTtlModeWithNegativeTtl() throws Exception {
+        new PersistentEphemeralNode(newCurator(), PATH, DATA, CreateMode.PERSISTENT_WITH_TTL, -1, TimeUnit.SECONDS);
+    }
+
     @Test
     public void testCreatesNodeOnConstruction() throws Exception {
         PersistentEphemeralNode node = createNode(PATH);
@@ -103,6 +121,107 @@ public class PersistentEphemeralNodeTest extends ZooKeeperTest {
         assertNodeDoesNotExist(_curator, path);
     }
 
+    @Test
+    public void testCloseAsyncDeletesNode() throws Exception {
+        PersistentEphemeralNode node = createNode(PATH);
+        String path = node.getActualPath();
+
+        CompletableFuture<Void> future = node.closeAsync();
+        future.get(10, TimeUnit.SECONDS);
+        assertNodeDoesNotExist(_curator, path);
+
+        // Closing again hands back the same, already completed, future.
+        assertSame(future, node.closeAsync());
+    }
+
+    @Test
+    public void testCloseAsyncGivesUpWhenClientClosed() throws Exception {
+        CuratorFramework curator = newCurator();
+        PersistentEphemeralNode node = new PersistentEphemeralNode(curator, PATH, DATA, CreateMode.EPHEMERAL);
+        _createdNodes.add(node);
+        curator.close();
+
+        CompletableFuture<Void> future = node.closeAsync(1, TimeUnit.MINUTES);
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testCloseWaitsForAsyncClose() throws Exception {
+        PersistentEphemeralNode node = createNode(PATH);
+        String path = node.getActualPath();
+
+        CompletableFuture<Void> future = node.closeAsync();
+        node.close(10, TimeUnit.SECONDS);
+
+        assertTrue(future.isDone());
+        assertNodeDoesNotExist(_curator, path);
+    }
+
+    @Test
+    public void testCloseAllAsyncCompletesWhenNodesFail() throws Exception {
+        CuratorFramework closedCurator = newCurator();
+        PersistentEphemeralNode failing = new PersistentEphemeralNode(closedCurator, PATH, DATA, CreateMode.EPHEMERAL);
+        _createdNodes.add(failing);
+        PersistentEphemeralNode node = createNode(PATH);
+        String path = node.getActualPath();
+        closedCurator.close();
+
+        // The background thread of the failing node may be stuck in a call on the closed client, the future must
+        // still fail at the deadline.
+        try {
+            PersistentEphemeralNode.closeAllAsync(Arrays.asList(failing, node), 2, TimeUnit.SECONDS)
+                    .get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            // Expected
+        }
+        assertNodeDoesNotExist(_curator, path);
+    }
+
+    @Test
+    public void testCloseAllAsyncDeletesNodes() throws Exception {
+        CuratorFramework curator = newCurator();
+        List<PersistentEphemeralNode> nodes = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            PersistentEphemeralNode node = new PersistentEphemeralNode(curator, PATH, DATA, CreateMode.EPHEMERAL);
+            _createdNodes.add(node);
+            nodes.add(node);
+            paths.add(node.getActualPath());
+        }
+        // A node from another client ends up in a multi-op of its own.
+        PersistentEphemeralNode other = createNode(PATH);
+        nodes.add(other);
+        paths.add(other.getActualPath());
+
+        PersistentEphemeralNode.closeAllAsync(nodes).get(10, TimeUnit.SECONDS);
+
+        for (String path : paths) {
+            assertNodeDoesNotExist(_curator, path);
+        }
+    }
+
+    @Test
+    public void testCloseAllAsyncIgnoresClosedNodes() throws Exception {
+        CuratorFramework curator = newCurator();
+        PersistentEphemeralNode node1 = new PersistentEphemeralNode(curator, PATH, DATA, CreateMode.EPHEMERAL);
+        PersistentEphemeralNode node2 = new PersistentEphemeralNode(curator, PATH, DATA, CreateMode.EPHEMERAL);
+        _createdNodes.add(node1);
+        _createdNodes.add(node2);
+        String path2 = node2.getActualPath();
+
+        // Closing one of the nodes first mustn't make the multi-op fail for the other.
+        node1.close(10, TimeUnit.SECONDS);
+        PersistentEphemeralNode.closeAllAsync(Arrays.asList(node1, node2)).get(10, TimeUnit.SECONDS);
+
+        assertNodeDoesNotExist(_curator, path2);
+    }
+
     @Test
     public void testDeletesNodeWhenSessionDisconnects() throws Exception {
         PersistentEphemeralNode node = createNode(PATH);
@@ -177,6 +296,140 @@ public class PersistentEphemeralNodeTest extends ZooKeeperTest {
         assertTrue(stat != null || createdWatchTrigger.firedWithin(10, TimeUnit.SECONDS));
     }
 
+    @Test
+    public void testTtlNodeSurvivesSessionLoss() throws Exception {
+        PersistentEphemeralNode node = createTtlNode(PATH, 10, TimeUnit.SECONDS);
+        String path = node.getActualPath();
+        assertNodeExists(_curator, path);
+
+        WatchTrigger deletionTrigger = WatchTrigger.deletionTrigger();
+        _curator.checkExists().usingWatcher(deletionTrigger).forPath(path);
+
+        killSession(node.getCurator());
+
+        // Unlike an ephemeral node the TTL node isn't bound to the session that created it.
+        assertFalse(deletionTrigger.firedWithin(1, TimeUnit.SECONDS));
+        assertNodeExists(_curator, path);
+    }
+
+    @Test
+    public void testTtlNodeIsRefreshed() throws Exception {
+        PersistentEphemeralNode node = createTtlNode(PATH, 300, TimeUnit.MILLISECONDS);
+        String path = node.getActualPath();
+        long initialMtime = _curator.checkExists().forPath(path).getMtime();
+
+        WatchTrigger updateTrigger = WatchTrigger.updateTrigger();
+        _curator.checkExists().usingWatcher(updateTrigger).forPath(path);
+
+        assertTrue(updateTrigger.firedWithin(10, TimeUnit.SECONDS));
+        Stat stat = _curator.checkExists().forPath(path);
+        assertNotNull(stat);
+        assertTrue(stat.getMtime() > initialMtime);
+    }
+
+    @Test
+    public void testDeletedTtlNodeIsRecreatedOnce() throws Exception {
+        CountingMetrics metrics = new CountingMetrics();
+        PersistentEphemeralNode node = new PersistentEphemeralNode(newCurator(), PATH, DATA,
+                CreateMode.PERSISTENT_SEQUENTIAL_WITH_TTL, 300, TimeUnit.MILLISECONDS, metrics);
+        _createdNodes.add(node);
+
+        // Both the watch on the node and the next refresh notice the deletion, but only one of them may recreate it.
+        for (int i = 1; i <= 5; i++) {
+            String path = node.getActualPath();
+            WatchTrigger deletionTrigger = WatchTrigger.deletionTrigger();
+            _curator.checkExists().usingWatcher(deletionTrigger).forPath(path);
+            _curator.delete().forPath(path);
+            assertTrue(deletionTrigger.firedWithin(10, TimeUnit.SECONDS));
+
+            assertTrue(waitForRecreates(metrics, i, 10, TimeUnit.SECONDS));
+        }
+
+        // Give a duplicate creation time to show up.
+        Thread.sleep(500);
+        assertEquals(5, metrics._recreates.get());
+        assertEquals(0, metrics._adopted.get());
+        assertEquals(1, _curator.getChildren().forPath(DIR).size());
+    }
+
+    @Test
+    public void testDeletesTtlNodeWhenClosed() throws Exception {
+        PersistentEphemeralNode node = createTtlNode(PATH, 10, TimeUnit.SECONDS);
+        String path = node.getActualPath();
+        assertNodeExists(_curator, path);
+
+        node.close(10, TimeUnit.SECONDS);
+        assertNodeDoesNotExist(_curator, path);
+    }
+
+    @Test
+    public void testCloseDoesNotWaitForPendingTtlRefresh() throws Exception {
+        // The next refresh is queued 20 seconds ahead, closing mustn't wait for it.
+        PersistentEphemeralNode node = createTtlNode(PATH, 1, TimeUnit.MINUTES);
+
+        long start = System.nanoTime();
+        node.close(10, TimeUnit.SECONDS);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test
+    public void testListenerNotifiedOfLifecycle() throws Exception {
+        final Trigger created = new Trigger();
+        final Trigger lost = new Trigger();
+        final Trigger recreated = new Trigger();
+        final Trigger closed = new Trigger();
+        PersistentEphemeralNode.Listener listener = new PersistentEphemeralNode.Listener() {
+            @Override
+            public void nodeCreated(String path) {
+                created.fire();
+            }
+
+            @Override
+            public void nodeLost(String path) {
+                lost.fire();
+            }
+
+            @Override
+            public void nodeRecreated(String path) {
+                recreated.fire();
+            }
+
+            @Override
+            public void nodeClosed(String path) {
+                closed.fire();
+            }
+        };
+
+        PersistentEphemeralNode node = new PersistentEphemeralNode(newCurator(), PATH, DATA, CreateMode.EPHEMERAL,
+                PersistentEphemeralNodeMetrics.NONE, listener);
+        _createdNodes.add(node);
+        assertTrue(created.hasFired());
+
+        _curator.delete().forPath(node.getActualPath());
+        assertTrue(lost.firedWithin(10, TimeUnit.SECONDS));
+        assertTrue(recreated.firedWithin(10, TimeUnit.SECONDS));
+
+        node.close(10, TimeUnit.SECONDS);
+        assertTrue(closed.hasFired());
+    }
+
+    @Test
+    public void testMetricsCountOperations() throws Exception {
+        CountingMetrics metrics = new CountingMetrics();
+        Trigger recreated = new Trigger();
+        PersistentEphemeralNode node = new PersistentEphemeralNode(newCurator(), PATH, DATA, CreateMode.EPHEMERAL,
+                metrics, new RecreationListener(recreated));
+        _createdNodes.add(node);
+        assertEquals(1, metrics._creates.get());
+
+        _curator.delete().forPath(node.getActualPath());
+        assertTrue(recreated.firedWithin(10, TimeUnit.SECONDS));
+        assertEquals(1, metrics._recreates.get());
+
+        node.close(10, TimeUnit.SECONDS);
+        assertEquals(1, metrics._deletes.get());
+    }
+
     @Test
     public void testNodesCreateUniquePaths() throws Exception {
         PersistentEphemeralNode node1 = createNode(PATH, CreateMode.EPHEMERAL);
@@ -206,6 +459,25 @@ public class PersistentEphemeralNodeTest extends ZooKeeperTest {
         return node;
     }
 
+    private PersistentEphemeralNode createTtlNode(String path, long ttl, TimeUnit unit) throws Exception {
+        PersistentEphemeralNode node = new PersistentEphemeralNode(newCurator(), path, DATA,
+                CreateMode.PERSISTENT_WITH_TTL, ttl, unit);
+        _createdNodes.add(node);
+        return node;
+    }
+
+    private static boolean waitForRecreates(CountingMetrics metrics, int recreates, long duration, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(duration);
+        while (metrics._recreates.get() < recreates) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
     private void assertNodeExists(CuratorFramework curator, String path) throws Exception {
         assertNotNull(path);
         assertTrue(curator.checkExists().forPath(path) != null);
@@ -214,4 +486,60 @@ public class PersistentEphemeralNodeTest extends ZooKeeperTest {
     private void assertNodeDoesNotExist(CuratorFramework curator, String path) throws Exception {
         assertTrue(curator.checkExists().forPath(path) == null);
     }
+
+    private static class RecreationListener implements PersistentEphemeralNode.Listener {
+        private final Trigger _trigger;
+
+        RecreationListener(Trigger trigger) {
+            _trigger = trigger;
+        }
+
+        @Override
+        public void nodeCreated(String path) {
+        }
+
+        @Override
+        public void nodeLost(String path) {
+        }
+
+        @Override
+        public void nodeRecreated(String path) {
+            _trigger.fire();
+        }
+
+        @Override
+        public void nodeClosed(String path) {
+        }
+    }
+
+    private static class CountingMetrics implements PersistentEphemeralNodeMetrics {
+        private final AtomicInteger _creates = new AtomicInteger();
+        private final AtomicInteger _recreates = new AtomicInteger();
+        private final AtomicInteger _deletes = new AtomicInteger();
+        private final AtomicInteger _adopted = new AtomicInteger();
+
+        @Override
+        public void nodeCreated(long timeToCreateNanos) {
+            _creates.incrementAndGet();
+        }
+
+        @Override
+        public void nodeRecreated(long timeToRecreateNanos) {
+            _recreates.incrementAndGet();
+        }
+
+        @Override
+        public void nodeDeleted() {
+            _deletes.incrementAndGet();
+        }
+
+        @Override
+        public void existingNodeAdopted() {
+            _adopted.incrementAndGet();
+        }
+
+        @Override
+        public void operationRetried() {
+        }
+    }
 }
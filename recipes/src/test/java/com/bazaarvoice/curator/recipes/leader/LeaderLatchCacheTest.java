@@ -0,0 +1,136 @@
+package com.bazaarvoice.curator.recipes.leader;
+
+import com.bazaarvoice.curator.test.ZooKeeperTest;
+import com.google.common.collect.ImmutableList;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.leader.LeaderLatch;
+import org.apache.curator.framework.recipes.leader.Participant;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LeaderLatchCacheTest extends ZooKeeperTest {
+    private static final String PATH = "/path/leader";
+
+    private CuratorFramework _curator;
+
+    @Before
+    @Override
+    public void setup() throws Exception {
+        super.setup();
+        _curator = newCurator();
+    }
+
+    private LeaderLatchCache newCache() {
+        return closer().register(new LeaderLatchCache(_curator, PATH));
+    }
+
+    private LeaderLatch newLatch(String id) throws Exception {
+        LeaderLatch latch = new LeaderLatch(_curator, PATH, id);
+        // Tests may close the latch themselves, and closing it twice fails.
+        closer().register(() -> {
+            if (latch.getState() == LeaderLatch.State.STARTED) {
+                latch.close();
+            }
+        });
+        latch.start();
+        return latch;
+    }
+
+    @Test
+    public void testNotInitializedBeforeStart() {
+        LeaderLatchCache cache = newCache();
+        assertFalse(cache.isInitialized());
+        assertEquals(Optional.empty(), cache.getLeader());
+        assertEquals(Optional.empty(), cache.getParticipants());
+    }
+
+    @Test
+    public void testNoParticipants() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        LeaderLatchCache cache = newCache();
+        cache.addListener(listener);
+        cache.start();
+
+        assertEquals(ImmutableList.of(), listener.next());
+        assertEquals(Optional.of(new Participant("", false)), cache.getLeader());
+        assertEquals(Optional.of(ImmutableList.of()), cache.getParticipants());
+    }
+
+    @Test
+    public void testMatchesLatch() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        LeaderLatchCache cache = newCache();
+        cache.addListener(listener);
+        cache.start();
+        assertEquals(ImmutableList.of(), listener.next());
+
+        LeaderLatch first = newLatch("first");
+        assertTrue(first.await(10, TimeUnit.SECONDS));
+        assertEquals(ImmutableList.of(new Participant("first", true)), listener.next());
+
+        LeaderLatch second = newLatch("second");
+        List<Participant> expected = ImmutableList.of(new Participant("first", true), new Participant("second", false));
+        assertEquals(expected, listener.next());
+        assertEquals(expected, cache.getParticipants().get());
+        assertEquals(first.getParticipants(), cache.getParticipants().get());
+        assertEquals(first.getLeader(), cache.getLeader().get());
+
+        first.close();
+        assertEquals(ImmutableList.of(new Participant("second", true)), listener.next());
+        assertTrue(second.await(10, TimeUnit.SECONDS));
+        assertEquals(new Participant("second", true), cache.getLeader().get());
+    }
+
+    @Test
+    public void testCreatedAfterStart() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        LeaderLatchCache cache = newCache();
+        cache.addListener(listener);
+        cache.start();
+        assertEquals(ImmutableList.of(), listener.next());
+
+        // The latch path doesn't exist until the first participant joins.
+        newLatch("late");
+        assertEquals(ImmutableList.of(new Participant("late", true)), listener.next());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        assertTrue(newLatch("id").await(10, TimeUnit.SECONDS));
+        RecordingListener listener = new RecordingListener();
+        LeaderLatchCache cache = newCache();
+        cache.addListener(listener);
+        cache.start();
+        assertEquals(ImmutableList.of(new Participant("id", true)), listener.next());
+
+        cache.close();
+        assertFalse(cache.isInitialized());
+        assertEquals(Optional.empty(), cache.getLeader());
+    }
+
+    private static class RecordingListener implements LeaderLatchCache.Listener {
+        private final BlockingQueue<List<Participant>> _changes = new LinkedBlockingQueue<>();
+
+        @Override
+        public void participantsChanged(Participant leader, Collection<Participant> participants) {
+            _changes.add(ImmutableList.copyOf(participants));
+        }
+
+        List<Participant> next() throws InterruptedException {
+            List<Participant> participants = _changes.poll(10, TimeUnit.SECONDS);
+            assertTrue("Timed out waiting for a change", participants != null);
+            return participants;
+        }
+    }
+}
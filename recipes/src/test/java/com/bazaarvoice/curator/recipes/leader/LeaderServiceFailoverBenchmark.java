@@ -0,0 +1,129 @@
+package com.bazaarvoice.curator.recipes.leader;
+
+import com.bazaarvoice.curator.test.ZooKeeperTest;
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Service;
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Measures how long it takes for another {@link LeaderService} to be running its delegate service after the session of
+ * the current leader is killed.  Not run as part of the build (surefire only picks up {@code *Test} classes), run it
+ * explicitly with {@code mvn test -Dtest=LeaderServiceFailoverBenchmark}.
+ */
+public class LeaderServiceFailoverBenchmark extends ZooKeeperTest {
+    private static final Logger LOG = LoggerFactory.getLogger(LeaderServiceFailoverBenchmark.class);
+
+    private static final String PATH = "/path/leader";
+    private static final int PARTICIPANTS = 3;
+    private static final int WARMUP_FAILOVERS = 5;
+    private static final int MEASURED_FAILOVERS = 50;
+
+    @Test
+    public void testFixedPolicy() throws Exception {
+        run("fixed(1s)", ReacquirePolicy.fixed(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testExponentialPolicy() throws Exception {
+        run("exponential(10ms..1m)", ReacquirePolicy.exponential(10, 60_000, TimeUnit.MILLISECONDS));
+    }
+
+    private void run(String name, ReacquirePolicy policy) throws Exception {
+        // Each participant gets its own session so that killing the leader's session leaves the others alone.
+        BlockingQueue<Leadership> leaders = new LinkedBlockingQueue<>();
+        for (int i = 0; i < PARTICIPANTS; i++) {
+            final CuratorFramework curator = newCurator();
+            final LeaderService service = LeaderService.builder()
+                    .curator(curator)
+                    .leaderPath(PATH)
+                    .instanceId("participant-" + i)
+                    .reacquirePolicy(policy)
+                    .serviceFactory(() -> new RunningNotifier(curator, leaders))
+                    .build();
+            closer().register(new Closeable() {
+                @Override
+                public void close() {
+                    service.stopAsync();
+                }
+            });
+            service.startAsync();
+        }
+
+        List<Long> latenciesNanos = new ArrayList<>();
+        Leadership leader = nextLeader(leaders);
+        for (int i = 0; i < WARMUP_FAILOVERS + MEASURED_FAILOVERS; i++) {
+            long killedAt = System.nanoTime();
+            killSession(leader._curator);
+            leader = nextLeader(leaders);
+            if (i >= WARMUP_FAILOVERS) {
+                latenciesNanos.add(leader._runningAt - killedAt);
+            }
+        }
+
+        Collections.sort(latenciesNanos);
+        LOG.info(String.format("%s: failover p50=%.1fms p99=%.1fms max=%.1fms", name,
+                percentileMillis(latenciesNanos, 50), percentileMillis(latenciesNanos, 99),
+                percentileMillis(latenciesNanos, 100)));
+    }
+
+    private static Leadership nextLeader(BlockingQueue<Leadership> leaders) throws InterruptedException {
+        Leadership leader = leaders.poll(1, TimeUnit.MINUTES);
+        assertNotNull("Timed out waiting for a new leader", leader);
+        return leader;
+    }
+
+    private static double percentileMillis(List<Long> sortedNanos, int percentile) {
+        int index = Math.max(0, (int) Math.ceil(sortedNanos.size() * percentile / 100.0) - 1);
+        return sortedNanos.get(index) / 1e6;
+    }
+
+    private static class Leadership {
+        private final CuratorFramework _curator;
+        private final long _runningAt;
+
+        private Leadership(CuratorFramework curator, long runningAt) {
+            _curator = curator;
+            _runningAt = runningAt;
+        }
+    }
+
+    private static class RunningNotifier extends AbstractIdleService {
+        private final CuratorFramework _curator;
+        private final BlockingQueue<Leadership> _leaders;
+
+        private RunningNotifier(CuratorFramework curator, BlockingQueue<Leadership> leaders) {
+            _curator = curator;
+            _leaders = leaders;
+            addListener(new Service.Listener() {
+                @Override
+                public void running() {
+                    _leaders.add(new Leadership(_curator, System.nanoTime()));
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        @Override
+        protected void startUp() {
+            // Do nothing
+        }
+
+        @Override
+        protected void shutDown() {
+            // Do nothing
+        }
+    }
+}
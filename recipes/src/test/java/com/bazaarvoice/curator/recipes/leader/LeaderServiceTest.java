@@ -10,17 +10,24 @@ import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.Service;
 import com.google.common.util.concurrent.SettableFuture;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.framework.recipes.leader.Participant;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.SessionConnectionStateErrorPolicy;
+import org.apache.curator.retry.RetryNTimes;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.StringJoiner;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
@@ -28,6 +35,7 @@ import java.util.function.Supplier;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
 public class LeaderServiceTest extends ZooKeeperTest {
     private static final String PATH = "/path/leader";
@@ -97,6 +105,26 @@ public class LeaderServiceTest extends ZooKeeperTest {
         assertEquals(Collections.<Participant>emptyList(), leader.getParticipants());
     }
 
+    /** Test that the cached leader is only reported while running, without polling ZooKeeper. */
+    @Test
+    public void testCachedLeader() throws Exception {
+        ServiceTriggers triggers = new ServiceTriggers();
+        LeaderService leader = newLeaderService(1, TimeUnit.HOURS, supply(triggers.listenTo(new NopService())));
+        assertEquals(Optional.empty(), leader.getCachedLeader());
+
+        leader.startAsync();
+        assertTrue(triggers.getRunning().firedWithin(1, TimeUnit.MINUTES));
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (!leader.getCachedLeader().isPresent() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Optional.of(new Participant("test-id", true)), leader.getCachedLeader());
+
+        leader.stopAsync();
+        assertTrue(triggers.getTerminated().firedWithin(1, TimeUnit.SECONDS));
+        assertEquals(Optional.empty(), leader.getCachedLeader());
+    }
+
     /** Test starting multiple instances that compete for leadership. */
     @Test
     public void testMultipleLeaders() throws Exception {
@@ -319,6 +347,423 @@ public class LeaderServiceTest extends ZooKeeperTest {
         assertEquals(expectedThreadName, actualThreadName.get(1, TimeUnit.MINUTES));
     }
 
+    /** Verify that the election thread can be supplied by a custom thread factory. */
+    @Test
+    public void testThreadFactory() throws Exception {
+        final AtomicInteger threadsCreated = new AtomicInteger();
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                threadsCreated.incrementAndGet();
+                return new Thread(runnable);
+            }
+        };
+        ServiceTriggers triggers = new ServiceTriggers();
+        final SettableFuture<String> actualThreadName = SettableFuture.create();
+        LeaderService leader = register(LeaderService.builder()
+                .curator(_curator)
+                .leaderPath(PATH)
+                .instanceId("id")
+                .serviceName("FactoryLeaderService")
+                .serviceFactory(supply(triggers.listenTo(new AbstractService() {
+                    @Override
+                    protected void doStart() {
+                        actualThreadName.set(Thread.currentThread().getName());
+                        notifyStarted();
+                    }
+
+                    @Override
+                    protected void doStop() {
+                        notifyStopped();
+                    }
+                })))
+                .threadFactory(threadFactory)
+                .build());
+
+        leader.startAsync();
+        assertTrue(triggers.getRunning().firedWithin(1, TimeUnit.MINUTES));
+        assertTrue(leader.hasLeadership());
+        assertEquals(1, threadsCreated.get());
+        assertEquals("FactoryLeaderService", actualThreadName.get(1, TimeUnit.MINUTES));
+
+        leader.stopAsync();
+        assertTrue(triggers.getTerminated().firedWithin(1, TimeUnit.SECONDS));
+    }
+
+    /** Verify that elections run on virtual threads, when the JVM supports them. */
+    @Test
+    public void testVirtualThreads() throws Exception {
+        Optional<ThreadFactory> threadFactory = LeaderService.virtualThreadFactory();
+        assumeTrue(threadFactory.isPresent());
+
+        ServiceTriggers triggers = new ServiceTriggers();
+        LeaderService leader = register(LeaderService.builder()
+                .curator(_curator)
+                .leaderPath(PATH)
+                .instanceId("id")
+                .serviceFactory(supply(triggers.listenTo(new NopService())))
+                .threadFactory(threadFactory.get())
+                .build());
+
+        leader.startAsync();
+        assertTrue(triggers.getRunning().firedWithin(1, TimeUnit.MINUTES));
+        assertTrue(leader.hasLeadership());
+
+        leader.stopAsync();
+        assertTrue(triggers.getTerminated().firedWithin(1, TimeUnit.SECONDS));
+        assertFalse(leader.hasLeadership());
+    }
+
+    /** Keeping leadership while suspended only works if the latch doesn't give it up on SUSPENDED either. */
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeepLeadershipWhileSuspendedRequiresSessionPolicy() throws Exception {
+        LeaderService.builder()
+                .curator(_curator)
+                .leaderPath(PATH)
+                .instanceId("id")
+                .keepLeadershipWhileSuspended(true)
+                .serviceFactory(supply(new NopService()))
+                .build();
+    }
+
+    /** Verify that the reacquire policy decides how soon leadership is re-acquired. */
+    @Test
+    public void testReacquirePolicy() throws Exception {
+        ServiceTriggers triggers1 = new ServiceTriggers();
+        ServiceTriggers triggers2 = new ServiceTriggers();
+        LeaderService leader = register(LeaderService.builder()
+                .curator(_curator)
+                .leaderPath(PATH)
+                .instanceId("id")
+                .reacquirePolicy(ReacquirePolicy.exponential(10, 60_000, TimeUnit.MILLISECONDS))
+                .serviceFactory(supply(
+                        triggers1.listenTo(new AbstractScheduledService() {
+                            @Override
+                            protected void runOneIteration() throws Exception {
+                                stopAsync();
+                            }
+
+                            @Override
+                            protected Scheduler scheduler() {
+                                return Scheduler.newFixedDelaySchedule(10, 10, TimeUnit.MILLISECONDS);
+                            }
+                        }),
+                        triggers2.listenTo(new NopService())))
+                .build());
+        leader.startAsync();
+
+        // The first loss only waits the initial delay, far less than the maximum.
+        assertTrue(triggers1.getTerminated().firedWithin(1, TimeUnit.MINUTES));
+        assertTrue(triggers2.getRunning().firedWithin(10, TimeUnit.SECONDS));
+    }
+
+    /** Verify that each leadership term gets a larger fencing token than the one before. */
+    @Test
+    public void testFencingToken() throws Exception {
+        final List<Long> tokens = Collections.synchronizedList(new ArrayList<>());
+        ServiceTriggers triggers1 = new ServiceTriggers();
+        ServiceTriggers triggers2 = new ServiceTriggers();
+        final Iterator<Service> services = Iterators.forArray(
+                triggers1.listenTo(new NopService()), triggers2.listenTo(new NopService()));
+        LeaderService leader = register(LeaderService.builder()
+                .curator(_curator)
+                .leaderPath(PATH)
+                .instanceId("id")
+                .reacquireDelay(10, TimeUnit.MILLISECONDS)
+                .fencedServiceFactory(fencingToken -> {
+                    tokens.add(fencingToken);
+                    return services.next();
+                })
+                .build());
+        assertFalse(leader.getFencingToken().isPresent());
+
+        leader.startAsync();
+        assertTrue(triggers1.getRunning().firedWithin(1, TimeUnit.MINUTES));
+        assertEquals(tokens.get(0), (Long) leader.getFencingToken().getAsLong());
+
+        // Stopping the delegate ends the term, the next term must get a larger token.
+        leader.getCurrentDelegateService().get().stopAsync();
+        assertTrue(triggers2.getRunning().firedWithin(1, TimeUnit.MINUTES));
+        assertEquals(2, tokens.size());
+        assertTrue(tokens.get(1) > tokens.get(0));
+        assertEquals(tokens.get(1), (Long) leader.getFencingToken().getAsLong());
+
+        leader.stopAsync().awaitTerminated(1, TimeUnit.MINUTES);
+        assertFalse(leader.getFencingToken().isPresent());
+    }
+
+    /** Verify that a warm standby prepares its delegate before it becomes leader and then starts that instance. */
+    @Test
+    public void testWarmStandby() throws Exception {
+        ServiceTriggers triggers1 = new ServiceTriggers();
+        LeaderService leader1 = register(LeaderService.builder()
+                .curator(_curator)
+                .leaderPath(PATH)
+                .instanceId("leader-1")
+                .serviceFactory(supply(triggers1.listenTo(new NopService())))
+                .build());
+        leader1.startAsync();
+        assertTrue(triggers1.getRunning().firedWithin(1, TimeUnit.MINUTES));
+
+        ServiceTriggers triggers2 = new ServiceTriggers();
+        WarmableService standby = new WarmableService();
+        LeaderService leader2 = register(LeaderService.builder()
+                .curator(_curator)
+                .leaderPath(PATH)
+                .instanceId("leader-2")
+                .warmStandby(true)
+                .serviceFactory(supply(triggers2.listenTo(standby)))
+                .build());
+        leader2.startAsync();
+        assertTrue(standby.getWarmedUp().firedWithin(1, TimeUnit.MINUTES));
+        assertFalse(triggers2.getStarting().hasFired());
+
+        leader1.stopAsync();
+        assertTrue(triggers2.getRunning().firedWithin(1, TimeUnit.MINUTES));
+        assertEquals(standby, leader2.getCurrentDelegateService().get());
+    }
+
+    /** Verify that a warm standby that never becomes leader is cooled down when its service stops. */
+    @Test
+    public void testWarmStandbyCooledDownWhenStopped() throws Exception {
+        ServiceTriggers triggers1 = new ServiceTriggers();
+        LeaderService leader1 = register(LeaderService.builder()
+                .curator(_curator)
+                .leaderPath(PATH)
+                .instanceId("leader-1")
+                .serviceFactory(supply(triggers1.listenTo(new NopService())))
+                .build());
+        leader1.startAsync();
+        assertTrue(triggers1.getRunning().firedWithin(1, TimeUnit.MINUTES));
+
+        WarmableService standby = new WarmableService();
+        LeaderService leader2 = register(LeaderService.builder()
+                .curator(_curator)
+                .leaderPath(PATH)
+                .instanceId("leader-2")
+                .warmStandby(true)
+                .serviceFactory(supply(standby))
+                .build());
+        leader2.startAsync();
+        assertTrue(standby.getWarmedUp().firedWithin(1, TimeUnit.MINUTES));
+        assertFalse(standby.getCooledDown().hasFired());
+
+        leader2.stopAsync().awaitTerminated(1, TimeUnit.MINUTES);
+        assertTrue(standby.getCooledDown().firedWithin(10, TimeUnit.SECONDS));
+        assertTrue(leader1.hasLeadership());
+    }
+
+    /** Verify that the leader hands off to the next participant once that participant has warmed up. */
+    @Test
+    public void testHandOff() throws Exception {
+        ServiceTriggers triggers1 = new ServiceTriggers();
+        LeaderService leader1 = register(LeaderService.builder()
+                .curator(_curator)
+                .leaderPath(PATH)
+                .instanceId("leader-1")
+                .serviceFactory(supply(triggers1.listenTo(new NopService())))
+                .build());
+        leader1.startAsync();
+        assertTrue(triggers1.getRunning().firedWithin(1, TimeUnit.MINUTES));
+        assertFalse(leader1.handOff(1, TimeUnit.SECONDS));
+
+        ServiceTriggers triggers2 = new ServiceTriggers();
+        WarmableService next = new WarmableService();
+        LeaderService leader2 = register(LeaderService.builder()
+                .curator(_curator)
+                .leaderPath(PATH)
+                .instanceId("leader-2")
+                .serviceFactory(supply(triggers2.listenTo(next)))
+                .build());
+        leader2.startAsync();
+
+        // Wait for the second participant to join, it shouldn't warm up until asked to.
+        while (leader1.getParticipants().size() < 2) {
+            Thread.sleep(10);
+        }
+        assertFalse(next.getWarmedUp().hasFired());
+
+        assertTrue(leader1.handOff(1, TimeUnit.MINUTES));
+        assertTrue(next.getWarmedUp().hasFired());
+        assertTrue(triggers1.getTerminated().firedWithin(1, TimeUnit.SECONDS));
+        assertTrue(triggers2.getRunning().firedWithin(1, TimeUnit.MINUTES));
+        assertFalse(leader1.hasLeadership());
+    }
+
+    /** Verify that hand-off to a participant that depends on the fencing token goes ahead without warming up. */
+    @Test
+    public void testColdHandOffToFencedService() throws Exception {
+        ServiceTriggers triggers1 = new ServiceTriggers();
+        LeaderService leader1 = register(LeaderService.builder()
+                .curator(_curator)
+                .leaderPath(PATH)
+                .instanceId("leader-1")
+                .serviceFactory(supply(triggers1.listenTo(new NopService())))
+                .build());
+        leader1.startAsync();
+        assertTrue(triggers1.getRunning().firedWithin(1, TimeUnit.MINUTES));
+
+        ServiceTriggers triggers2 = new ServiceTriggers();
+        LeaderService leader2 = register(LeaderService.builder()
+                .curator(_curator)
+                .leaderPath(PATH)
+                .instanceId("leader-2")
+                .fencedServiceFactory(fencingToken -> triggers2.listenTo(new NopService()))
+                .build());
+        leader2.startAsync();
+        while (leader1.getParticipants().size() < 2) {
+            Thread.sleep(10);
+        }
+
+        long start = System.nanoTime();
+        assertTrue(leader1.handOff(1, TimeUnit.MINUTES));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        assertTrue(triggers1.getTerminated().firedWithin(1, TimeUnit.SECONDS));
+        assertTrue(triggers2.getRunning().firedWithin(1, TimeUnit.MINUTES));
+        assertTrue(leader2.getFencingToken().isPresent());
+    }
+
+    /** Verify that the lease is only valid while leader. */
+    @Test
+    public void testLease() throws Exception {
+        ServiceTriggers triggers = new ServiceTriggers();
+        LeaderService leader = newLeaderService(1, TimeUnit.HOURS, supply(triggers.listenTo(new NopService())));
+        assertFalse(leader.isLeaseValid());
+
+        leader.startAsync();
+        assertTrue(triggers.getRunning().firedWithin(1, TimeUnit.MINUTES));
+        assertTrue(leader.isLeaseValid());
+
+        leader.stopAsync();
+        assertTrue(triggers.getTerminated().firedWithin(1, TimeUnit.SECONDS));
+        assertFalse(leader.isLeaseValid());
+    }
+
+    /** Verify that the lease runs out within the session timeout when ZooKeeper stops answering heartbeats. */
+    @Test
+    public void testLeaseRunsOutWithoutHeartbeats() throws Exception {
+        int sessionTimeoutMillis = 4000;
+        CuratorFramework curator = newCurator(CuratorFrameworkFactory.builder()
+                .sessionTimeoutMs(sessionTimeoutMillis)
+                .connectionStateErrorPolicy(new SessionConnectionStateErrorPolicy())
+                .retryPolicy(new RetryNTimes(0, 0)));
+        ServiceTriggers triggers = new ServiceTriggers();
+        LeaderService leader = register(LeaderService.builder()
+                .curator(curator)
+                .leaderPath(PATH)
+                .instanceId("test-id")
+                .reacquireDelay(1, TimeUnit.HOURS)
+                .keepLeadershipWhileSuspended(true)
+                .serviceFactory(supply(triggers.listenTo(new NopService())))
+                .build());
+        leader.startAsync();
+        assertTrue(triggers.getRunning().firedWithin(1, TimeUnit.MINUTES));
+
+        // Let a few heartbeats renew the lease.
+        Thread.sleep(sessionTimeoutMillis);
+        assertTrue(leader.isLeaseValid());
+
+        long stoppedAt = System.nanoTime();
+        stopZooKeeper();
+        while (leader.isLeaseValid()) {
+            Thread.sleep(10);
+        }
+        assertTrue(System.nanoTime() - stoppedAt < TimeUnit.MILLISECONDS.toNanos(sessionTimeoutMillis));
+    }
+
+    /** Verify that elections and tenures are reported to the metrics. */
+    @Test
+    public void testMetrics() throws Exception {
+        final AtomicInteger acquired = new AtomicInteger();
+        final AtomicInteger started = new AtomicInteger();
+        final AtomicInteger released = new AtomicInteger();
+        final AtomicInteger lost = new AtomicInteger();
+        ServiceTriggers triggers1 = new ServiceTriggers();
+        ServiceTriggers triggers2 = new ServiceTriggers();
+        LeaderService leader = register(LeaderService.builder()
+                .curator(_curator)
+                .leaderPath(PATH)
+                .instanceId("id")
+                .reacquireDelay(10, TimeUnit.MILLISECONDS)
+                .serviceFactory(supply(triggers1.listenTo(new NopService()), triggers2.listenTo(new NopService())))
+                .metrics(new LeaderServiceMetrics() {
+                    @Override
+                    public void leadershipAcquired(long electionNanos) {
+                        acquired.incrementAndGet();
+                    }
+
+                    @Override
+                    public void delegateStarted(long startNanos) {
+                        started.incrementAndGet();
+                    }
+
+                    @Override
+                    public void delegateFailed() {
+                        // Not expected
+                    }
+
+                    @Override
+                    public void leadershipReleased(long tenureNanos) {
+                        released.incrementAndGet();
+                    }
+
+                    @Override
+                    public void leadershipLost(ConnectionState state) {
+                        lost.incrementAndGet();
+                    }
+                })
+                .build());
+
+        leader.startAsync();
+        assertTrue(triggers1.getRunning().firedWithin(1, TimeUnit.MINUTES));
+        // The delegate reports that it's running before the leader thread records that it started.
+        awaitCount(started, 1);
+        assertEquals(1, acquired.get());
+
+        killSession(_curator);
+        assertTrue(triggers2.getRunning().firedWithin(1, TimeUnit.MINUTES));
+        awaitCount(started, 2);
+        // The latch may win a short term that ends before it starts a delegate while it recovers from the session
+        // loss, but every term but the current one has been released.
+        assertTrue(acquired.get() >= 2);
+        assertEquals(acquired.get() - 1, released.get());
+        assertTrue(lost.get() >= 1);
+    }
+
+    /** Verify that participant listeners see other instances join and leave the election. */
+    @Test
+    public void testParticipantsListener() throws Exception {
+        ServiceTriggers triggers = new ServiceTriggers();
+        LeaderService leader = newLeaderService(1, TimeUnit.HOURS, supply(triggers.listenTo(new NopService())));
+        final Trigger secondJoined = new Trigger();
+        leader.addParticipantsListener(new LeaderLatchCache.Listener() {
+            @Override
+            public void participantsChanged(Participant current, Collection<Participant> participants) {
+                if (participants.size() == 2) {
+                    secondJoined.fire();
+                }
+            }
+        });
+        leader.startAsync();
+        assertTrue(triggers.getRunning().firedWithin(1, TimeUnit.MINUTES));
+
+        LeaderService follower = register(new LeaderService(
+                _curator, PATH, "follower-id", "LeaderService", 1, TimeUnit.HOURS, supply(new NopService())));
+        follower.startAsync();
+        assertTrue(secondJoined.firedWithin(1, TimeUnit.MINUTES));
+        assertEquals(ImmutableList.of(new Participant("test-id", true), new Participant("follower-id", false)),
+                leader.getParticipants());
+        assertEquals(new Participant("test-id", true), follower.getLeader());
+    }
+
+    private static void awaitCount(AtomicInteger count, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (count.get() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, count.get());
+    }
+
     private static Service trackEvents(String id, List<Event> events, Service service) {
         service.addListener(new EventListener(id, events), MoreExecutors.directExecutor());
         return service;
@@ -342,6 +787,29 @@ public class LeaderServiceTest extends ZooKeeperTest {
         protected void shutDown() throws Exception {}
     }
 
+    private static class WarmableService extends NopService implements Warmable {
+        private final Trigger _warmedUp = new Trigger();
+        private final Trigger _cooledDown = new Trigger();
+
+        @Override
+        public void warmUp() {
+            _warmedUp.fire();
+        }
+
+        @Override
+        public void coolDown() {
+            _cooledDown.fire();
+        }
+
+        Trigger getWarmedUp() {
+            return _warmedUp;
+        }
+
+        Trigger getCooledDown() {
+            return _cooledDown;
+        }
+    }
+
     private static class ServiceTriggers extends Service.Listener {
         private final Trigger _starting = new Trigger();
         private final Trigger _running = new Trigger();
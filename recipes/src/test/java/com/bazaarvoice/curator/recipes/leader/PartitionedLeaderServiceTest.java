@@ -0,0 +1,191 @@
+package com.bazaarvoice.curator.recipes.leader;
+
+import com.bazaarvoice.curator.test.ZooKeeperTest;
+import com.google.common.util.concurrent.Service;
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedLeaderServiceTest extends ZooKeeperTest {
+    private static final String PATH = "/path/partitions";
+    private static final int PARTITIONS = 8;
+
+    private ScheduledExecutorService _executor;
+
+    @Before
+    @Override
+    public void setup() throws Exception {
+        super.setup();
+        _executor = Executors.newScheduledThreadPool(4);
+    }
+
+    @After
+    @Override
+    public void teardown() throws Exception {
+        super.teardown();
+        _executor.shutdownNow();
+    }
+
+    private PartitionedLeaderService newService(String id, boolean fairShare,
+                                                PartitionedLeaderService.PartitionListener listener) throws Exception {
+        CuratorFramework curator = newCurator();
+        final PartitionedLeaderService service = PartitionedLeaderService.builder()
+                .curator(curator)
+                .basePath(PATH)
+                .instanceId(id)
+                .partitions(PARTITIONS)
+                .executor(_executor)
+                .listener(listener)
+                .fairShare(fairShare)
+                .rebalanceInterval(100, TimeUnit.MILLISECONDS)
+                .reacquireDelay(500, TimeUnit.MILLISECONDS)
+                .build();
+        closer().register(new Closeable() {
+            @Override
+            public void close() {
+                service.stopAsync().awaitTerminated();
+            }
+        });
+        return service;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoPartitions() throws Exception {
+        PartitionedLeaderService.builder()
+                .curator(newCurator())
+                .basePath(PATH)
+                .instanceId("id")
+                .partitions(0)
+                .executor(_executor)
+                .listener(new CountingListener())
+                .build();
+    }
+
+    @Test
+    public void testSingleInstanceOwnsAllPartitions() throws Exception {
+        CountingListener listener = new CountingListener();
+        PartitionedLeaderService service = newService("id", false, listener);
+        service.startAsync().awaitRunning();
+
+        assertTrue(eventually(() -> service.ownedPartitionCount() == PARTITIONS));
+        BitSet expected = new BitSet();
+        expected.set(0, PARTITIONS);
+        assertEquals(expected, service.ownedPartitions());
+        assertTrue(service.ownsPartition(PARTITIONS - 1));
+
+        service.stopAsync().awaitTerminated();
+        assertEquals(Service.State.TERMINATED, service.state());
+        assertTrue(service.ownedPartitions().isEmpty());
+        assertEquals(PARTITIONS, listener.getAcquired());
+        assertEquals(PARTITIONS, listener.getReleased());
+    }
+
+    @Test
+    public void testPartitionsTakenOverWhenOwnerStops() throws Exception {
+        PartitionedLeaderService first = newService("first", false, new CountingListener());
+        first.startAsync().awaitRunning();
+        assertTrue(eventually(() -> first.ownedPartitionCount() == PARTITIONS));
+
+        PartitionedLeaderService second = newService("second", false, new CountingListener());
+        second.startAsync().awaitRunning();
+        Thread.sleep(250);
+        assertEquals(0, second.ownedPartitionCount());
+
+        first.stopAsync().awaitTerminated();
+        assertTrue(eventually(() -> second.ownedPartitionCount() == PARTITIONS));
+    }
+
+    @Test
+    public void testFairShare() throws Exception {
+        PartitionedLeaderService first = newService("first", true, new CountingListener());
+        first.startAsync().awaitRunning();
+        assertTrue(eventually(() -> first.ownedPartitionCount() == PARTITIONS));
+
+        PartitionedLeaderService second = newService("second", true, new CountingListener());
+        second.startAsync().awaitRunning();
+
+        assertTrue(eventually(() -> first.ownedPartitionCount() == PARTITIONS / 2
+                && second.ownedPartitionCount() == PARTITIONS / 2));
+        BitSet overlap = first.ownedPartitions();
+        overlap.and(second.ownedPartitions());
+        assertTrue(overlap.isEmpty());
+    }
+
+    @Test
+    public void testOwnedNodeDeleted() throws Exception {
+        CountingListener listener = new CountingListener();
+        PartitionedLeaderService service = newService("id", false, listener);
+        service.startAsync().awaitRunning();
+        assertTrue(eventually(() -> service.ownedPartitionCount() == PARTITIONS));
+
+        // The owner notices that its node is gone and gets back in line, which it is first in again.
+        CuratorFramework curator = newCurator();
+        String partitionPath = PATH + "/partitions/0";
+        for (String child : curator.getChildren().forPath(partitionPath)) {
+            curator.delete().forPath(partitionPath + "/" + child);
+        }
+        assertTrue(eventually(() -> listener.getReleased() == 1 && listener.getAcquired() == PARTITIONS + 1));
+        assertTrue(service.ownsPartition(0));
+    }
+
+    @Test
+    public void testLostZooKeeperConnection() throws Exception {
+        CountingListener listener = new CountingListener();
+        PartitionedLeaderService service = newService("id", false, listener);
+        service.startAsync().awaitRunning();
+        assertTrue(eventually(() -> service.ownedPartitionCount() == PARTITIONS));
+
+        stopZooKeeper();
+        assertTrue(eventually(() -> service.ownedPartitionCount() == 0));
+        assertFalse(service.ownsPartition(0));
+
+        startZooKeeper();
+        assertTrue(eventually(() -> service.ownedPartitionCount() == PARTITIONS));
+    }
+
+    private static boolean eventually(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private static class CountingListener implements PartitionedLeaderService.PartitionListener {
+        private int _acquired;
+        private int _released;
+
+        @Override
+        public synchronized void partitionAcquired(int partition) {
+            _acquired++;
+        }
+
+        @Override
+        public synchronized void partitionReleased(int partition) {
+            _released++;
+        }
+
+        synchronized int getAcquired() {
+            return _acquired;
+        }
+
+        synchronized int getReleased() {
+            return _released;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.bazaarvoice.curator.recipes.leader;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReacquirePolicyTest {
+    @Test
+    public void testFixed() {
+        ReacquirePolicy policy = ReacquirePolicy.fixed(5, TimeUnit.SECONDS);
+        assertEquals(TimeUnit.SECONDS.toNanos(5), policy.getDelayNanos(1));
+        assertEquals(TimeUnit.SECONDS.toNanos(5), policy.getDelayNanos(10));
+        assertEquals(0, policy.getStablePeriodNanos());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFixedNegativeDelay() {
+        ReacquirePolicy.fixed(-1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testExponential() {
+        ReacquirePolicy policy = ReacquirePolicy.exponential(100, 1000, TimeUnit.MILLISECONDS);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), policy.getDelayNanos(1));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(200), policy.getDelayNanos(2));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(400), policy.getDelayNanos(3));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(800), policy.getDelayNanos(4));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), policy.getDelayNanos(5));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), policy.getDelayNanos(Integer.MAX_VALUE));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), policy.getStablePeriodNanos());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExponentialZeroInitialDelay() {
+        ReacquirePolicy.exponential(0, 1, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExponentialMaxBelowInitial() {
+        ReacquirePolicy.exponential(10, 1, TimeUnit.SECONDS);
+    }
+}